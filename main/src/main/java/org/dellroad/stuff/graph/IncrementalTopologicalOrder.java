@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Maintains a topological ordering of a directed acyclic graph as edges and nodes are added and removed.
+ *
+ * <p>
+ * Recomputing a topological sort from scratch after every change takes time proportional to the size of the whole graph.
+ * Instead, this class uses the algorithm of Pearce and Kelly: when an edge from X to Y is added and Y currently precedes X,
+ * only the nodes whose positions lie between Y and X and that are reachable from Y, or that can reach X, are visited and
+ * reordered. The same search detects whether the new edge would create a cycle, in which case the edge is rejected and
+ * the graph is left unchanged. Removing edges never invalidates the ordering, so it requires no reordering.
+ *
+ * <p>
+ * This class implements {@link TopologicalSorter.EdgeLister}, so the graph it contains can also be handed to
+ * {@link TopologicalSorter}. Similarly, an instance can be initialized from an existing {@link TopologicalSorter.EdgeLister},
+ * using a tie breaker to determine the initial ordering in the same way as {@link TopologicalSorter#sort}. Thereafter,
+ * nodes added by {@link #addNode addNode()} are placed at the end of the ordering.
+ *
+ * <p>
+ * Null nodes are not supported. Instances are not thread safe.
+ *
+ * @param <E> node type
+ * @see TopologicalSorter
+ * @see <a href="https://doi.org/10.1145/1187436.1210590">A Dynamic Topological Sort Algorithm for Directed Acyclic Graphs</a>
+ */
+@NotThreadSafe
+public class IncrementalTopologicalOrder<E> implements TopologicalSorter.EdgeLister<E> {
+
+    private final HashMap<E, Node<E>> nodeMap = new HashMap<>();
+    private final ArrayList<Node<E>> positions = new ArrayList<>();        // indexed by Node.position; null if removed
+    private int numRemoved;                                                 // number of nulls in "positions"
+    private int searchId;                                                   // used to mark visited nodes
+
+// Constructors
+
+    /**
+     * Constructs an empty instance.
+     */
+    public IncrementalTopologicalOrder() {
+    }
+
+    /**
+     * Constructs an instance initialized with the given graph.
+     *
+     * <p>
+     * The initial ordering is the same as would be returned by {@link TopologicalSorter#sort}. As with
+     * {@link TopologicalSorter}, nodes that are only reachable via edges are also included.
+     *
+     * @param nodes initial nodes
+     * @param edgeLister provides the initial edges
+     * @param tieBreaker used to sort nodes that are not otherwise ordered,
+     *  or null to tie break based on the original ordering
+     * @throws IllegalArgumentException if {@code nodes} or {@code edgeLister} is null
+     * @throws IllegalArgumentException if the graph contains a cycle
+     */
+    public IncrementalTopologicalOrder(Collection<E> nodes, TopologicalSorter.EdgeLister<E> edgeLister,
+      Comparator<? super E> tieBreaker) {
+        if (nodes == null)
+            throw new IllegalArgumentException("null nodes");
+        if (edgeLister == null)
+            throw new IllegalArgumentException("null edgeLister");
+        for (E elem : new TopologicalSorter<>(nodes, edgeLister, tieBreaker).sort())
+            this.getOrAddNode(elem);
+        for (Node<E> node : this.positions) {
+            for (E target : edgeLister.getOutEdges(node.elem)) {
+                final Node<E> targetNode = this.nodeMap.get(target);
+                node.out.add(targetNode);
+                targetNode.in.add(node);
+            }
+        }
+    }
+
+// Methods
+
+    /**
+     * Get the number of nodes.
+     *
+     * @return number of nodes
+     */
+    public int size() {
+        return this.nodeMap.size();
+    }
+
+    /**
+     * Determine whether the given node exists.
+     *
+     * @param elem node
+     * @return true if {@code elem} is a node in this graph
+     */
+    public boolean containsNode(E elem) {
+        return this.nodeMap.containsKey(elem);
+    }
+
+    /**
+     * Add a node, if not already present. A new node is placed at the end of the ordering.
+     *
+     * @param elem node to add
+     * @return true if {@code elem} was added, false if it was already present
+     * @throws IllegalArgumentException if {@code elem} is null
+     */
+    public boolean addNode(E elem) {
+        if (elem == null)
+            throw new IllegalArgumentException("null node");
+        if (this.nodeMap.containsKey(elem))
+            return false;
+        this.getOrAddNode(elem);
+        return true;
+    }
+
+    /**
+     * Remove a node, along with all of its incoming and outgoing edges.
+     *
+     * @param elem node to remove
+     * @return true if {@code elem} was removed, false if it was not present
+     */
+    public boolean removeNode(E elem) {
+        final Node<E> node = this.nodeMap.remove(elem);
+        if (node == null)
+            return false;
+        for (Node<E> target : node.out)
+            target.in.remove(node);
+        for (Node<E> source : node.in)
+            source.out.remove(node);
+        this.positions.set(node.position, null);
+        if (++this.numRemoved > this.positions.size() / 2)
+            this.compact();
+        return true;
+    }
+
+    /**
+     * Add an edge, adding either node first if not already present.
+     *
+     * <p>
+     * If the new edge is inconsistent with the current ordering, the ordering is updated, visiting only the affected
+     * region of the graph. If the new edge would create a cycle, an exception is thrown and nothing is changed.
+     *
+     * @param from source node
+     * @param to target node
+     * @return true if the edge was added, false if it was already present
+     * @throws IllegalArgumentException if {@code from} or {@code to} is null
+     * @throws IllegalArgumentException if the edge would create a cycle
+     */
+    public boolean addEdge(E from, E to) {
+        if (from == null || to == null)
+            throw new IllegalArgumentException("null node");
+        if (from.equals(to))
+            throw new IllegalArgumentException("cycle in graph containing " + from);
+        final Node<E> source = this.getOrAddNode(from);
+        final Node<E> target = this.getOrAddNode(to);
+        if (source.out.contains(target))
+            return false;
+        if (target.position < source.position)
+            this.reorder(source, target);
+        source.out.add(target);
+        target.in.add(source);
+        return true;
+    }
+
+    /**
+     * Remove an edge. The ordering is not affected.
+     *
+     * @param from source node
+     * @param to target node
+     * @return true if the edge was removed, false if it was not present
+     */
+    public boolean removeEdge(E from, E to) {
+        final Node<E> source = this.nodeMap.get(from);
+        final Node<E> target = this.nodeMap.get(to);
+        if (source == null || target == null || !source.out.remove(target))
+            return false;
+        target.in.remove(source);
+        return true;
+    }
+
+    /**
+     * Get the nodes X for which there is an edge from {@code elem} to X.
+     *
+     * @param elem node
+     * @return unmodifiable set of target nodes, empty if {@code elem} is not present
+     */
+    @Override
+    public Set<E> getOutEdges(E elem) {
+        return this.toElements(elem, true);
+    }
+
+    /**
+     * Get the nodes X for which there is an edge from X to {@code elem}.
+     *
+     * @param elem node
+     * @return unmodifiable set of source nodes, empty if {@code elem} is not present
+     */
+    public Set<E> getInEdges(E elem) {
+        return this.toElements(elem, false);
+    }
+
+    /**
+     * Get the current ordering.
+     *
+     * <p>
+     * The returned list will have the property that if there is an edge from X to Y, then X will appear before Y.
+     *
+     * @return mutable list of all nodes in topological order
+     */
+    public List<E> getOrder() {
+        final ArrayList<E> list = new ArrayList<>(this.nodeMap.size());
+        for (Node<E> node : this.positions) {
+            if (node != null)
+                list.add(node.elem);
+        }
+        return list;
+    }
+
+    /**
+     * Determine whether one node precedes another in the current ordering.
+     *
+     * @param elem1 first node
+     * @param elem2 second node
+     * @return true if {@code elem1} appears before {@code elem2}
+     * @throws IllegalArgumentException if either node is not present
+     */
+    public boolean precedes(E elem1, E elem2) {
+        final Node<E> node1 = this.nodeMap.get(elem1);
+        final Node<E> node2 = this.nodeMap.get(elem2);
+        if (node1 == null || node2 == null)
+            throw new IllegalArgumentException("node not found");
+        return node1.position < node2.position;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + this.getOrder();
+    }
+
+// Internal methods
+
+    private Node<E> getOrAddNode(E elem) {
+        Node<E> node = this.nodeMap.get(elem);
+        if (node == null) {
+            node = new Node<>(elem, this.positions.size());
+            this.nodeMap.put(elem, node);
+            this.positions.add(node);
+        }
+        return node;
+    }
+
+    private Set<E> toElements(E elem, boolean out) {
+        final Node<E> node = this.nodeMap.get(elem);
+        if (node == null)
+            return Collections.emptySet();
+        final Set<E> elems = (out ? node.out : node.in).stream()
+          .map(neighbor -> neighbor.elem)
+          .collect(Collectors.toCollection(LinkedHashSet::new));
+        return Collections.unmodifiableSet(elems);
+    }
+
+    // Pearce-Kelly: source currently follows target; move target and its successors after source and its predecessors
+    private void reorder(Node<E> source, Node<E> target) {
+        final int lowerBound = target.position;
+        final int upperBound = source.position;
+
+        // Find nodes reachable from target that don't already follow source; if we find source, there's a cycle
+        final int forwardId = ++this.searchId;
+        final ArrayList<Node<E>> forward = new ArrayList<>();
+        final ArrayDeque<Node<E>> stack = new ArrayDeque<>();
+        target.mark = forwardId;
+        stack.push(target);
+        while (!stack.isEmpty()) {
+            final Node<E> node = stack.pop();
+            forward.add(node);
+            for (Node<E> next : node.out) {
+                if (next == source)
+                    throw new IllegalArgumentException("cycle in graph containing " + source.elem);
+                if (next.mark != forwardId && next.position < upperBound) {
+                    next.mark = forwardId;
+                    stack.push(next);
+                }
+            }
+        }
+
+        // Find nodes that can reach source and don't already precede target
+        final int backwardId = ++this.searchId;
+        final ArrayList<Node<E>> backward = new ArrayList<>();
+        source.mark = backwardId;
+        stack.push(source);
+        while (!stack.isEmpty()) {
+            final Node<E> node = stack.pop();
+            backward.add(node);
+            for (Node<E> prev : node.in) {
+                if (prev.mark != backwardId && prev.position > lowerBound) {
+                    prev.mark = backwardId;
+                    stack.push(prev);
+                }
+            }
+        }
+
+        // Reassign the positions occupied by both sets: the backward nodes go first, each set keeping its relative order
+        final Comparator<Node<E>> byPosition = Comparator.comparingInt(node -> node.position);
+        forward.sort(byPosition);
+        backward.sort(byPosition);
+        final int[] available = new int[forward.size() + backward.size()];
+        int i = 0;
+        for (Node<E> node : backward)
+            available[i++] = node.position;
+        for (Node<E> node : forward)
+            available[i++] = node.position;
+        Arrays.sort(available);
+        i = 0;
+        for (Node<E> node : backward)
+            this.setPosition(node, available[i++]);
+        for (Node<E> node : forward)
+            this.setPosition(node, available[i++]);
+    }
+
+    private void setPosition(Node<E> node, int position) {
+        node.position = position;
+        this.positions.set(position, node);
+    }
+
+    // Squeeze out removed nodes
+    private void compact() {
+        int position = 0;
+        for (Node<E> node : this.positions) {
+            if (node != null)
+                this.positions.set(node.position = position++, node);
+        }
+        this.positions.subList(position, this.positions.size()).clear();
+        this.numRemoved = 0;
+    }
+
+// Node
+
+    private static final class Node<E> {
+
+        final E elem;
+        final LinkedHashSet<Node<E>> out = new LinkedHashSet<>();
+        final LinkedHashSet<Node<E>> in = new LinkedHashSet<>();
+        int position;
+        int mark;
+
+        Node(E elem, int position) {
+            this.elem = elem;
+            this.position = position;
+        }
+    }
+}
@@ -5,16 +5,31 @@
 
 package org.dellroad.stuff.graph;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
 
 /**
  * Topological sorting utility class.
+ *
+ * <p>
+ * Sorting is performed by an iterative depth-first search, so arbitrarily long chains of edges are supported.
+ *
+ * <p>
+ * In addition to a total ordering, this class can {@linkplain #sortLayers partition} the nodes into layers of
+ * mutually independent nodes, or {@linkplain #execute execute} an action on every node in parallel while respecting
+ * the partial ordering.
  */
 public class TopologicalSorter<E> {
 
@@ -22,9 +37,6 @@ public class TopologicalSorter<E> {
     private final EdgeLister<E> edgeLister;
     private final Comparator<? super E> tieBreaker;
 
-    private HashMap<E, Boolean> visited;
-    private ArrayList<E> ordering;
-
     /**
      * Primary constructor.
      *
@@ -70,20 +82,9 @@ public class TopologicalSorter<E> {
      * @throws IllegalArgumentException if the partial ordering relation contains a cycle
      */
     public List<E> sort() {
-
-        // Order nodes according to reverse tie breaker ordering
-        ArrayList<E> startList = Collections.list(Collections.enumeration(this.nodes));
-        Collections.sort(startList, getTieBreaker(true));
-
-        // Perform depth-first search through nodes
-        this.visited = new HashMap<>(startList.size());
-        this.ordering = new ArrayList<>(startList.size());
-        for (E node : startList)
-            visit(node, true);
-
-        // Reverse list
-        Collections.reverse(this.ordering);
-        return this.ordering;
+        final List<E> ordering = this.sort(true);
+        Collections.reverse(ordering);
+        return ordering;
     }
 
     /**
@@ -98,43 +99,152 @@ public class TopologicalSorter<E> {
      * @throws IllegalArgumentException if the partial ordering relation contains a cycle
      */
     public List<E> sortEdgesReversed() {
+        return this.sort(false);
+    }
 
-        // Order nodes according to normal tie breaker ordering
-        ArrayList<E> startList = Collections.list(Collections.enumeration(this.nodes));
-        Collections.sort(startList, getTieBreaker(false));
-
-        // Perform depth-first search through nodes
-        this.visited = new HashMap<>(startList.size());
-        this.ordering = new ArrayList<>(startList.size());
-        for (E node : startList)
-            visit(node, false);
+    /**
+     * Partition the nodes into layers of mutually independent nodes.
+     *
+     * <p>
+     * The first layer contains all nodes having no incoming edges, and each subsequent layer contains all nodes
+     * whose predecessors all appear in earlier layers. Therefore, if there is an edge from X to Y, then X will
+     * appear in an earlier layer than Y, and no two nodes in the same layer are connected by any sequence of edges;
+     * all of the nodes in a layer may be processed concurrently once the previous layers have been processed.
+     * Each layer is sorted by the tie breaker.
+     *
+     * @return list of layers, each of which is a non-empty, sorted, mutable list of nodes
+     * @throws IllegalArgumentException if the partial ordering relation contains a cycle
+     * @see #execute execute()
+     */
+    public List<List<E>> sortLayers() {
+        final Graph<E> graph = new Graph<>(this.nodes, this.edgeLister);
+        final ArrayList<List<E>> layers = new ArrayList<>();
+        for (int[] ids : this.findLayers(graph))
+            layers.add(this.toSortedList(graph, ids));
+        return layers;
+    }
 
-        // Done
-        return this.ordering;
+    /**
+     * Perform an action on every node, in parallel, such that the action for each node does not start until
+     * the actions for all of its predecessors have completed.
+     *
+     * <p>
+     * Unlike processing the {@linkplain #sortLayers layers} one at a time, each node becomes ready as soon as all
+     * of its own predecessors have completed, regardless of what other nodes are still running. Each action is
+     * submitted to {@code executor} when its node becomes ready; nodes that become ready at the same time are
+     * submitted in tie breaker order.
+     *
+     * <p>
+     * If any action throws an exception, no further actions are started and the returned future completes
+     * exceptionally with that exception (actions already running are not interrupted). Cancelling the returned
+     * future likewise prevents any further actions from starting.
+     *
+     * @param executor executes actions
+     * @param action the action to perform on each node
+     * @return future that completes when all actions have completed
+     * @throws IllegalArgumentException if {@code executor} or {@code action} is null
+     * @throws IllegalArgumentException if the partial ordering relation contains a cycle
+     */
+    public CompletableFuture<Void> execute(Executor executor, Consumer<? super E> action) {
+        if (executor == null)
+            throw new IllegalArgumentException("null executor");
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        final Graph<E> graph = new Graph<>(this.nodes, this.edgeLister);
+        final List<int[]> layers = this.findLayers(graph);                 // also checks for cycles
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        if (layers.isEmpty()) {
+            future.complete(null);
+            return future;
+        }
+        new Execution<>(graph, executor, action, future, this.tieBreaker).start(layers.get(0));
+        return future;
     }
 
-    private void visit(E node, boolean reverse) {
+    // Perform a depth-first search through the nodes, returning them in post-order. The search is done
+    // iteratively using an explicit stack so that very long chains of edges don't overflow the Java stack.
+    private List<E> sort(boolean reverse) {
+
+        // Order start nodes according to (possibly reversed) tie breaker ordering
+        final Comparator<? super E> comparator = this.getTieBreaker(reverse);
+        final ArrayList<E> startList = new ArrayList<>(this.nodes);
+        startList.sort(comparator);
+
+        // Perform depth-first search through nodes
+        final HashMap<E, Boolean> visited = new HashMap<>(startList.size());
+        final ArrayList<E> ordering = new ArrayList<>(startList.size());
+        final ArrayDeque<Frame<E>> stack = new ArrayDeque<>();
+        for (E node : startList) {
+
+            // Have we been here before?
+            if (visited.containsKey(node))
+                continue;
+            visited.put(node, false);
+            stack.push(this.newFrame(node, comparator));
 
-        // Have we been here before?
-        Boolean state = this.visited.get(node);
-        if (state != null) {
-            if (!state.booleanValue())
-                throw new IllegalArgumentException("cycle in graph containing " + node);
-            return;
+            // Visit each node's targets in (possibly reversed) tie breaker order, then add the node in post-order
+            while (!stack.isEmpty()) {
+                final Frame<E> frame = stack.peek();
+                if (frame.next < frame.targets.size()) {
+                    final E target = frame.targets.get(frame.next++);
+                    final Boolean state = visited.get(target);
+                    if (state != null) {
+                        if (!state.booleanValue())
+                            throw new IllegalArgumentException("cycle in graph containing " + target);
+                        continue;
+                    }
+                    visited.put(target, false);
+                    stack.push(this.newFrame(target, comparator));
+                    continue;
+                }
+                stack.pop();
+                ordering.add(frame.node);
+                visited.put(frame.node, true);
+            }
         }
-        this.visited.put(node, false);
+        return ordering;
+    }
 
-        // Get all destination nodes of all out-edges
-        ArrayList<E> targets = Collections.list(Collections.enumeration(this.edgeLister.getOutEdges(node)));
+    // Get all destination nodes of all out-edges, sorted
+    private Frame<E> newFrame(E node, Comparator<? super E> comparator) {
+        final ArrayList<E> targets = new ArrayList<>(this.edgeLister.getOutEdges(node));
+        targets.sort(comparator);
+        return new Frame<>(node, targets);
+    }
 
-        // Sort them in reverse desired order and recurse
-        Collections.sort(targets, getTieBreaker(reverse));
-        for (E target : targets)
-            visit(target, reverse);
+    // Find layers using Kahn's algorithm
+    private List<int[]> findLayers(Graph<E> graph) {
+        final int[] inDegrees = graph.inDegrees.clone();
+        final ArrayList<int[]> layers = new ArrayList<>();
+        int[] layer = graph.roots();
+        int count = 0;
+        while (layer.length > 0) {
+            layers.add(layer);
+            count += layer.length;
+            final ArrayList<Integer> next = new ArrayList<>();
+            for (int id : layer) {
+                for (int target : graph.successors[id]) {
+                    if (--inDegrees[target] == 0)
+                        next.add(target);
+                }
+            }
+            layer = next.stream().mapToInt(Integer::intValue).toArray();
+        }
+        if (count < inDegrees.length) {
+            for (int id = 0; id < inDegrees.length; id++) {
+                if (inDegrees[id] > 0)
+                    throw new IllegalArgumentException("cycle in graph containing " + graph.nodes.get(id));
+            }
+        }
+        return layers;
+    }
 
-        // Add this node to list in post-order and mark complete
-        this.ordering.add(node);
-        this.visited.put(node, true);
+    private List<E> toSortedList(Graph<E> graph, int[] ids) {
+        final ArrayList<E> list = new ArrayList<>(ids.length);
+        for (int id : ids)
+            list.add(graph.nodes.get(id));
+        list.sort(this.tieBreaker);
+        return list;
     }
 
     private Comparator<? super E> getDefaultTieBreaker() {
@@ -155,6 +265,167 @@ public class TopologicalSorter<E> {
         return this.tieBreaker;
     }
 
+    // Depth-first search stack frame
+    private static final class Frame<E> {
+
+        final E node;
+        final List<E> targets;
+        int next;
+
+        Frame(E node, List<E> targets) {
+            this.node = node;
+            this.targets = targets;
+        }
+    }
+
+    // Adjacency list representation of the graph, with nodes numbered consecutively
+    private static final class Graph<E> {
+
+        final ArrayList<E> nodes;
+        final HashMap<E, Integer> ids;
+        final int[][] successors;
+        final int[] inDegrees;
+
+        // Include nodes that are only reachable via edges, just like sort() does
+        Graph(Collection<E> startNodes, EdgeLister<E> edgeLister) {
+            this.nodes = new ArrayList<>(startNodes.size());
+            this.ids = new HashMap<>(startNodes.size());
+            for (E node : startNodes)
+                this.idOf(node);
+            final ArrayList<int[]> successorList = new ArrayList<>(startNodes.size());
+            for (int id = 0; id < this.nodes.size(); id++) {
+                final Set<E> targets = edgeLister.getOutEdges(this.nodes.get(id));
+                final int[] targetIds = new int[targets.size()];
+                int i = 0;
+                for (E target : targets)
+                    targetIds[i++] = this.idOf(target);
+                successorList.add(targetIds);
+            }
+            this.successors = successorList.toArray(new int[successorList.size()][]);
+            this.inDegrees = new int[this.nodes.size()];
+            for (int[] targetIds : this.successors) {
+                for (int target : targetIds)
+                    this.inDegrees[target]++;
+            }
+        }
+
+        int[] roots() {
+            int count = 0;
+            for (int inDegree : this.inDegrees) {
+                if (inDegree == 0)
+                    count++;
+            }
+            final int[] roots = new int[count];
+            count = 0;
+            for (int id = 0; id < this.inDegrees.length; id++) {
+                if (this.inDegrees[id] == 0)
+                    roots[count++] = id;
+            }
+            return roots;
+        }
+
+        private int idOf(E node) {
+            Integer id = this.ids.get(node);
+            if (id == null) {
+                id = this.nodes.size();
+                this.ids.put(node, id);
+                this.nodes.add(node);
+            }
+            return id;
+        }
+    }
+
+    // State for execute()
+    private static final class Execution<E> {
+
+        private final Graph<E> graph;
+        private final Executor executor;
+        private final Consumer<? super E> action;
+        private final CompletableFuture<Void> future;
+        private final Comparator<? super E> tieBreaker;
+        private final AtomicIntegerArray remainingPredecessors;
+        private final AtomicInteger remainingNodes;
+        private final ThreadLocal<ArrayDeque<Integer>> pending = new ThreadLocal<>();  // see submitAll()
+
+        Execution(Graph<E> graph, Executor executor, Consumer<? super E> action,
+          CompletableFuture<Void> future, Comparator<? super E> tieBreaker) {
+            this.graph = graph;
+            this.executor = executor;
+            this.action = action;
+            this.future = future;
+            this.tieBreaker = tieBreaker;
+            this.remainingPredecessors = new AtomicIntegerArray(graph.inDegrees);
+            this.remainingNodes = new AtomicInteger(graph.nodes.size());
+        }
+
+        void start(int[] roots) {
+            this.submitAll(roots, roots.length);
+        }
+
+        // Submit the given ready nodes in tie breaker order. If the executor runs actions in the submitting thread
+        // (e.g., a direct or caller-runs executor), run() invokes this method again from within a previous submission.
+        // To avoid recursing once per node, the nested invocation just queues the nodes, and the outermost invocation
+        // in the thread submits them in a loop.
+        private void submitAll(int[] ids, int count) {
+            if (count > 1) {
+                final Integer[] sorted = new Integer[count];
+                for (int i = 0; i < count; i++)
+                    sorted[i] = ids[i];
+                Arrays.sort(sorted, (id1, id2) -> this.tieBreaker.compare(this.graph.nodes.get(id1), this.graph.nodes.get(id2)));
+                for (int i = 0; i < count; i++)
+                    ids[i] = sorted[i];
+            }
+            ArrayDeque<Integer> queue = this.pending.get();
+            final boolean nested = queue != null;
+            if (!nested)
+                queue = new ArrayDeque<>(count);
+            for (int i = 0; i < count; i++)
+                queue.add(ids[i]);
+            if (nested)
+                return;
+            this.pending.set(queue);
+            try {
+                Integer id;
+                while ((id = queue.poll()) != null)
+                    this.submit(id);
+            } finally {
+                this.pending.remove();
+            }
+        }
+
+        private void submit(int id) {
+            if (this.future.isDone())
+                return;
+            try {
+                this.executor.execute(() -> this.run(id));
+            } catch (Throwable t) {
+                this.future.completeExceptionally(t);
+            }
+        }
+
+        private void run(int id) {
+            if (this.future.isDone())
+                return;
+            try {
+                this.action.accept(this.graph.nodes.get(id));
+            } catch (Throwable t) {
+                this.future.completeExceptionally(t);
+                return;
+            }
+            final int[] targets = this.graph.successors[id];
+            final int[] ready = new int[targets.length];
+            int numReady = 0;
+            for (int target : targets) {
+                if (this.remainingPredecessors.decrementAndGet(target) == 0)
+                    ready[numReady++] = target;
+            }
+            if (this.remainingNodes.decrementAndGet() == 0)
+                this.future.complete(null);
+            else
+                this.submitAll(ready, numReady);
+        }
+    }
+
     /**
      * Implemented by classes that can enumerate the outgoing edges from a node in a graph.
      */
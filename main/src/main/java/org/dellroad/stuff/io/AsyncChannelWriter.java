@@ -0,0 +1,516 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dellroad.stuff.java.CheckedExceptionWrapper;
+import org.dellroad.stuff.java.Predicate;
+import org.dellroad.stuff.java.TimedWait;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes to a {@link GatheringByteChannel} using a background thread, so that write, flush, and close operations
+ * never block.
+ *
+ * <p>
+ * This class is the channel counterpart to {@link AsyncOutputStream}. Instead of copying data into a single internal
+ * array, instances keep a queue of {@link ByteBuffer}s, and the background thread drains as many of them as possible
+ * at once using a single vectored {@link GatheringByteChannel#write(ByteBuffer[], int, int) write()}. Data can be
+ * queued in two ways:
+ * <ul>
+ *  <li>{@link #transfer transfer()} queues the caller's buffer itself, without copying; the caller gives up ownership
+ *      of the buffer and must not access it afterward.</li>
+ *  <li>{@link #write(byte[], int, int) write()} copies the data into direct buffers taken from an internal pool;
+ *      small writes are packed together into the same buffer. Direct buffers avoid the extra copy the JDK otherwise
+ *      makes into native memory, and they are returned to the pool once written.</li>
+ * </ul>
+ *
+ * <p>
+ * If the channel throws an {@link IOException} during any operation, this instance will re-throw the exception for
+ * all subsequent operations. The channel must be in blocking mode.
+ *
+ * <p>
+ * The amount of queued data can be limited at construction time; if the limit would be exceeded, a
+ * {@link BufferOverflowException} is thrown. Use {@link #waitForSpace waitForSpace()} to effect a blocking write.
+ *
+ * <p>
+ * Instances of this class are thread safe, and moreover writes are atomic: if multiple threads are writing
+ * at the same time the bytes written in any single method invocation are written contiguously to the channel.
+ *
+ * @see AsyncOutputStream
+ */
+public class AsyncChannelWriter implements Closeable, Flushable {
+
+    /**
+     * Size of the pooled direct buffers used by {@link #write(byte[], int, int) write()}.
+     */
+    public static final int POOL_BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final int MAX_GATHER = 1024;                     // max buffers per vectored write (cf. IOV_MAX)
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final GatheringByteChannel channel;
+    private final String threadName;
+    private final long maxQueued;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();     // data not yet taken by writer thread
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>(); // empty direct buffers available for reuse
+    private Entry fillable;             // last queue entry, if it's a pooled buffer still being filled (not flipped)
+    private long queued;                // number of bytes queued but not yet written
+    private long flushMark = -1;        // number of queued bytes after which a flush is requested, or -1 if none
+    private Thread thread;              // async writer thread
+    private IOException exception;      // exception caught by async thread
+    private boolean closed;             // this instance has been close()'d
+    private boolean writerWaiting;      // async writer thread is waiting for work
+    private int numWaiters;             // number of threads in waitForSpace() and waitForIdle()
+
+    /**
+     * Convenience constructor for when no limit on queued data is desired and a default thread name is to be used.
+     *
+     * @param channel underlying channel
+     * @throws IllegalArgumentException if {@code channel} is null or non-blocking
+     */
+    public AsyncChannelWriter(GatheringByteChannel channel) {
+        this(channel, 0, AsyncChannelWriter.class.getSimpleName() + "-" + AsyncChannelWriter.COUNTER.incrementAndGet());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param channel   underlying channel
+     * @param maxQueued maximum number of bytes that may be queued, or zero for no limit
+     * @param name      name for this instance; used to create the name of the background thread
+     * @throws IllegalArgumentException if {@code channel} or {@code name} is null
+     * @throws IllegalArgumentException if {@code channel} is non-blocking
+     * @throws IllegalArgumentException if {@code maxQueued} is negative
+     */
+    public AsyncChannelWriter(GatheringByteChannel channel, long maxQueued, String name) {
+        if (channel == null)
+            throw new IllegalArgumentException("null channel");
+        if (channel instanceof SelectableChannel && !((SelectableChannel)channel).isBlocking())
+            throw new IllegalArgumentException("channel is non-blocking");
+        if (name == null)
+            throw new IllegalArgumentException("null name");
+        if (maxQueued < 0)
+            throw new IllegalArgumentException("invalid maxQueued " + maxQueued);
+        this.channel = channel;
+        this.threadName = name;
+        this.maxQueued = maxQueued > 0 ? maxQueued : Long.MAX_VALUE;
+    }
+
+    /**
+     * Write data by copying it into pooled buffers.
+     *
+     * <p>
+     * This method will never block. To effect a normal blocking write, invoke {@link #waitForSpace} first.
+     *
+     * @param data bytes to write
+     * @param off  starting offset in buffer
+     * @param len  number of bytes to write
+     * @throws IOException               if an exception has been thrown by the channel
+     * @throws IOException               if this instance has been closed
+     * @throws BufferOverflowException   if the maximum amount of queued data would be exceeded
+     * @throws IndexOutOfBoundsException if {@code off} or {@code len} is invalid
+     */
+    public synchronized void write(byte[] data, int off, int len) throws IOException {
+        this.write(ByteBuffer.wrap(data, off, len));
+    }
+
+    /**
+     * Write data by copying it into pooled buffers.
+     *
+     * <p>
+     * The remaining bytes in {@code data} are consumed; {@code data} remains owned by the caller.
+     * This method will never block. To effect a normal blocking write, invoke {@link #waitForSpace} first.
+     *
+     * @param data bytes to write
+     * @throws IOException              if an exception has been thrown by the channel
+     * @throws IOException              if this instance has been closed
+     * @throws BufferOverflowException  if the maximum amount of queued data would be exceeded
+     * @throws IllegalArgumentException if {@code data} is null
+     */
+    public synchronized void write(ByteBuffer data) throws IOException {
+        if (data == null)
+            throw new IllegalArgumentException("null data");
+        final int len = data.remaining();
+        this.checkWrite(len);
+        if (len == 0)
+            return;
+        while (data.hasRemaining()) {
+            if (this.fillable == null || !this.fillable.buf.hasRemaining()) {
+                this.sealFillable();
+                final ByteBuffer newBuf = !this.pool.isEmpty() ? this.pool.pop() : ByteBuffer.allocateDirect(POOL_BUFFER_SIZE);
+                this.fillable = new Entry(newBuf, true);
+                this.queue.add(this.fillable);
+            }
+            final ByteBuffer buf = this.fillable.buf;
+            final int chunk = Math.min(data.remaining(), buf.remaining());
+            final int limit = data.limit();
+            data.limit(data.position() + chunk);
+            buf.put(data);
+            data.limit(limit);
+        }
+        this.queued += len;
+        this.wakeupWriter();
+    }
+
+    /**
+     * Write data by transferring ownership of the given buffer to this instance.
+     *
+     * <p>
+     * The remaining bytes in {@code data} will be written without copying. The caller must not access {@code data}
+     * in any way after invoking this method. This method will never block. To effect a normal blocking write,
+     * invoke {@link #waitForSpace} first.
+     *
+     * @param data bytes to write
+     * @throws IOException              if an exception has been thrown by the channel
+     * @throws IOException              if this instance has been closed
+     * @throws BufferOverflowException  if the maximum amount of queued data would be exceeded
+     * @throws IllegalArgumentException if {@code data} is null
+     */
+    public synchronized void transfer(ByteBuffer data) throws IOException {
+        if (data == null)
+            throw new IllegalArgumentException("null data");
+        final int len = data.remaining();
+        this.checkWrite(len);
+        if (len == 0)
+            return;
+        this.sealFillable();
+        this.queue.add(new Entry(data, false));
+        this.queued += len;
+        this.wakeupWriter();
+    }
+
+    /**
+     * Flush output. Once all of the data written to this instance at the time this method is invoked has been
+     * written to the channel, and if the channel is a {@link FileChannel}, the channel will be
+     * {@linkplain FileChannel#force forced} (without metadata).
+     *
+     * <p>
+     * As with {@link AsyncOutputStream#flush}, a second flush request replaces any earlier one that has not yet
+     * occurred. This method will never block. To block until the flush completes, invoke {@link #waitForIdle}.
+     *
+     * @throws IOException if this instance has been closed
+     * @throws IOException if an exception has been detected on the channel
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        this.checkExceptions();
+        this.flushMark = this.queued;
+        this.wakeupWriter();
+    }
+
+    /**
+     * Close this instance. This will (eventually) close the channel.
+     *
+     * <p>
+     * If this instance has already been closed, nothing happens.
+     *
+     * <p>
+     * This method will never block. To block until the underlying close operation completes, invoke {@link #waitForIdle}.
+     *
+     * @throws IOException if an exception has been detected on the channel
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed)
+            return;
+        this.closed = true;
+        this.startThreadIfNecessary();
+        this.notifyAll();                               // wake up writer thread
+    }
+
+    /**
+     * Get the exception thrown by the channel, if any.
+     *
+     * @return thrown exception, or {@code null} if none has been thrown by the channel
+     */
+    public synchronized IOException getException() {
+        return this.exception;
+    }
+
+    /**
+     * Get the number of bytes queued but not yet written to the channel.
+     *
+     * @return number of queued bytes
+     */
+    public synchronized long getQueuedBytes() {
+        return this.queued;
+    }
+
+    /**
+     * Determine if there is outstanding work still to be performed (writes, flushes, and/or close operations)
+     * by the background thread.
+     *
+     * @return true if work remains to be done
+     * @throws IOException              if this instance is or has been closed
+     * @throws IOException              if an exception has been detected on the channel
+     * @see #waitForIdle
+     */
+    public synchronized boolean isWorkOutstanding() throws IOException {
+        this.checkExceptions();
+        return this.threadHasWork();
+    }
+
+    /**
+     * Wait for space to queue more data.
+     *
+     * <p>
+     * If no limit was configured at construction time, this will return immediately.
+     *
+     * @param numBytes amount of space required
+     * @param timeout  maximum time to wait in milliseconds, or zero for infinite
+     * @return true if space was found, false if time expired
+     * @throws IOException              if this instance is or has been closed
+     * @throws IOException              if an exception has been detected on the channel
+     * @throws IllegalArgumentException if {@code numBytes} is greater than the configured limit
+     * @throws IllegalArgumentException if {@code timeout} is negative
+     * @throws InterruptedException     if the current thread is interrupted
+     */
+    public synchronized boolean waitForSpace(final long numBytes, long timeout) throws IOException, InterruptedException {
+        if (numBytes > this.maxQueued)
+            throw new IllegalArgumentException("numBytes (" + numBytes + ") > limit (" + this.maxQueued + ")");
+        return this.waitForPredicate(timeout, () -> this.maxQueued - this.queued >= numBytes);
+    }
+
+    /**
+     * Wait for all outstanding work to complete.
+     *
+     * @param timeout maximum time to wait in milliseconds, or zero for infinite
+     * @return true for success, false if time expired
+     * @throws IOException              if this instance is or has been closed
+     * @throws IOException              if an exception has been detected on the channel
+     * @throws IllegalArgumentException if {@code timeout} is negative
+     * @throws InterruptedException     if the current thread is interrupted
+     * @see #isWorkOutstanding
+     */
+    public synchronized boolean waitForIdle(long timeout) throws IOException, InterruptedException {
+        return this.waitForPredicate(timeout, () -> !this.threadHasWork());
+    }
+
+    /**
+     * Prepare the pooled buffer currently being filled, if any, for writing; no more data will be added to it.
+     */
+    private void sealFillable() {
+        assert Thread.holdsLock(this);
+        if (this.fillable != null) {
+            this.fillable.buf.flip();
+            this.fillable = null;
+        }
+    }
+
+    /**
+     * Check for exceptions and available space before a write.
+     */
+    private void checkWrite(int len) throws IOException {
+        this.checkExceptions();
+        if (len > this.maxQueued - this.queued) {
+            throw new BufferOverflowException(this.queued + " + " + len + " = " + (this.queued + len)
+              + " byte(s) would exceed the " + this.maxQueued + " byte limit");
+        }
+    }
+
+    /**
+     * Check for exceptions.
+     *
+     * @throws IOException if this instance has been closed
+     * @throws IOException if an exception has been detected on the channel
+     */
+    private void checkExceptions() throws IOException {
+        if (this.closed)
+            throw new IOException("instance has been closed");
+        if (this.exception != null)
+            throw new IOException("exception from underlying channel", this.exception);
+    }
+
+    /**
+     * Determine if there is outstanding work still to be performed (writes, flushes, and/or close operations)
+     * by the background thread.
+     */
+    private boolean threadHasWork() {
+        return this.queued > 0 || this.flushMark != -1 || this.closed;
+    }
+
+    /**
+     * Start the background thread if necessary, or wake it up if it's waiting for work.
+     */
+    private void wakeupWriter() {
+        this.startThreadIfNecessary();
+        if (this.writerWaiting)
+            this.notifyAll();
+    }
+
+    /**
+     * Wake up threads in waitForSpace() or waitForIdle(), if any.
+     */
+    private void wakeupWaiters() {
+        assert Thread.holdsLock(this);
+        if (this.numWaiters > 0)
+            this.notifyAll();
+    }
+
+    /**
+     * Start the background thread if necessary.
+     */
+    private void startThreadIfNecessary() {
+        assert Thread.holdsLock(this);
+        if (this.thread == null && this.threadHasWork()) {
+            this.thread = new Thread(this::threadMain, this.threadName);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+    }
+
+    /**
+     * Writer thread main entry point.
+     */
+    private void threadMain() {
+        try {
+            this.runLoop();
+        } catch (Throwable t) {
+            synchronized (this) {
+                this.exception = t instanceof IOException ? (IOException)t : new IOException("caught unexpected exception", t);
+                this.notifyAll();                       // wake up sleepers in waitForSpace() and waitForIdle()
+            }
+        } finally {
+            synchronized (this) {
+                this.thread = null;
+                this.notifyAll();                       // wake up sleepers in waitForIdle()
+            }
+        }
+    }
+
+    /**
+     * Async writer thread main loop.
+     */
+    private void runLoop() throws IOException, InterruptedException {
+        final ByteBuffer[] bufs = new ByteBuffer[MAX_GATHER];
+        final boolean[] pooled = new boolean[MAX_GATHER];
+        while (true) {
+
+            // Wait for something to do, then take as many queued buffers as we can
+            int numBufs = 0;
+            long wlen = 0;
+            final boolean flush;
+            final boolean close;
+            synchronized (this) {
+                while (!this.threadHasWork()) {
+                    this.writerWaiting = true;
+                    try {
+                        this.wait();                    // will be woken up by write(), flush(), or close()
+                    } finally {
+                        this.writerWaiting = false;
+                    }
+                }
+                while (numBufs < MAX_GATHER && !this.queue.isEmpty()) {
+                    final Entry entry = this.queue.poll();
+                    if (entry == this.fillable)
+                        this.sealFillable();
+                    bufs[numBufs] = entry.buf;
+                    pooled[numBufs++] = entry.pooled;
+                    wlen += entry.buf.remaining();
+                }
+                flush = this.flushMark == 0;
+                close = this.closed;
+            }
+
+            // First priority: any data to write?
+            if (numBufs > 0) {
+
+                // Write data using vectored writes
+                int offset = 0;
+                for (long remain = wlen; remain > 0; ) {
+                    remain -= this.channel.write(bufs, offset, numBufs - offset);
+                    while (offset < numBufs && !bufs[offset].hasRemaining())
+                        offset++;
+                }
+
+                // Update state and recycle pooled buffers
+                synchronized (this) {
+                    this.queued -= wlen;
+                    if (this.flushMark != -1)
+                        this.flushMark = Math.max(0, this.flushMark - wlen);
+                    for (int i = 0; i < numBufs; i++) {
+                        if (pooled[i] && this.pool.size() < MAX_POOLED_BUFFERS)
+                            this.pool.push(bufs[i].clear());
+                        bufs[i] = null;
+                    }
+                    this.wakeupWaiters();               // wake up sleepers in waitForSpace() and waitForIdle()
+                }
+                continue;
+            }
+
+            // Second priority: is a flush required?
+            if (flush) {
+
+                // Flush output
+                if (this.channel instanceof FileChannel)
+                    ((FileChannel)this.channel).force(false);
+
+                // Update flush mark
+                synchronized (this) {
+                    if (this.flushMark == 0) {
+                        this.flushMark = -1;
+                        this.wakeupWaiters();           // wake up sleepers in waitForIdle()
+                    }
+                }
+                continue;
+            }
+
+            // Third priority:  is a close required?
+            if (close) {
+                this.channel.close();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Wait for some condition to become true. Of course somebody has to wake us up when it becomes true.
+     */
+    private synchronized boolean waitForPredicate(long timeout, final Predicate predicate)
+      throws IOException, InterruptedException {
+        this.numWaiters++;
+        try {
+            return TimedWait.wait(this, timeout, () -> {
+                try {
+                    this.checkExceptions();
+                } catch (IOException e) {
+                    throw new CheckedExceptionWrapper(e);
+                }
+                return predicate.test();
+            });
+        } catch (CheckedExceptionWrapper e) {
+            throw (IOException)e.getException();
+        } finally {
+            this.numWaiters--;
+        }
+    }
+
+// Entry
+
+    private static final class Entry {
+
+        final ByteBuffer buf;
+        final boolean pooled;
+
+        Entry(ByteBuffer buf, boolean pooled) {
+            this.buf = buf;
+            this.pooled = pooled;
+        }
+    }
+}
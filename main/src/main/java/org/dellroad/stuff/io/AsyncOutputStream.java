@@ -32,6 +32,12 @@ import org.slf4j.LoggerFactory;
  * However, this creates a memory leak if the underlying {@link OutputStream} blocks indefinitely.
  *
  * <p>
+ * The internal buffer is used as a ring buffer: the background thread writes data directly from the buffer (in at
+ * most two pieces, when the data wraps around the end), and buffered data is never shifted. Threads are only woken up
+ * when someone is actually waiting: writers wake the background thread only if it is idle, and the background thread
+ * wakes threads blocked in {@link #waitForSpace waitForSpace()} or {@link #waitForIdle waitForIdle()} only if there are any.
+ *
+ * <p>
  * Instances of this class are thread safe, and moreover writes are atomic: if multiple threads are writing
  * at the same time the bytes written in any single method invocation are written contiguously to the
  * underlying output.
@@ -45,13 +51,16 @@ public class AsyncOutputStream extends FilterOutputStream {
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
     private final String threadName;
-    private byte[] buf;                 // output buffer
+    private byte[] buf;                 // output buffer, used as a ring buffer
+    private int head;                   // offset in output buffer of the first byte ready to be written
     private int count;                  // number of bytes in output buffer ready to be written
     private int flushMark = -1;         // buffer byte at which a flush is requested, or -1 if none
     private Thread thread;              // async writer thread
     private IOException exception;      // exception caught by async thread
     private boolean closed;             // this instance has been close()'d
     private boolean expand;             // whether to auto-expand buffer as needed
+    private boolean writerWaiting;      // async writer thread is waiting for work
+    private int numWaiters;             // number of threads in waitForSpace() and waitForIdle()
 
     /**
      * Convenience constructor for when an auto-expanding buffer is desired and a default thread name is to be used.
@@ -108,8 +117,12 @@ public class AsyncOutputStream extends FilterOutputStream {
      * @throws BufferOverflowException if the buffer does not have room for the new byte
      */
     @Override
-    public void write(int b) throws IOException {
-        this.write(new byte[] { (byte)b }, 0, 1);
+    public synchronized void write(int b) throws IOException {
+        this.checkExceptions();
+        this.makeRoom(1);
+        this.buf[this.tail()] = (byte)b;
+        this.count++;
+        this.wakeupWriter();
     }
 
     /**
@@ -135,25 +148,17 @@ public class AsyncOutputStream extends FilterOutputStream {
             throw new IllegalArgumentException("len = " + len);
         if (len == 0)
             return;
-        if (this.count + len > this.buf.length) {
-            if (!this.expand) {
-                throw new BufferOverflowException(this.count + " + " + len + " = " + (this.count + len)
-                  + " byte(s) would exceed the " + this.buf.length + " byte buffer");
-            }
-            this.resizeBuffer(Math.max(this.count + len, this.buf.length * 2));
-
-            final byte[] newBuf = new byte[Math.max(this.count + len, this.buf.length * 2)];
-            System.arraycopy(this.buf, 0, newBuf, 0, this.count);
-            this.buf = newBuf;
-        }
+        this.makeRoom(len);
 
-        // Add data to buffer
-        System.arraycopy(data, off, this.buf, this.count, len);
+        // Add data to buffer, wrapping around the end if necessary
+        final int tail = this.tail();
+        final int first = Math.min(len, this.buf.length - tail);
+        System.arraycopy(data, off, this.buf, tail, first);
+        System.arraycopy(data, off + first, this.buf, 0, len - first);
         this.count += len;
 
         // Wakeup writer thread
-        this.startThreadIfNecessary();
-        this.notifyAll();
+        this.wakeupWriter();
     }
 
     /**
@@ -176,8 +181,7 @@ public class AsyncOutputStream extends FilterOutputStream {
     public synchronized void flush() throws IOException {
         this.checkExceptions();
         this.flushMark = this.count;
-        this.startThreadIfNecessary();
-        this.notifyAll();                               // wake up writer thread
+        this.wakeupWriter();
     }
 
     /**
@@ -319,6 +323,48 @@ public class AsyncOutputStream extends FilterOutputStream {
         return this.count > 0 || this.flushMark != -1 || this.closed;
     }
 
+    /**
+     * Ensure there is room in the buffer for the given number of additional bytes.
+     *
+     * @throws BufferOverflowException if the buffer does not have room and is not auto-expanding
+     */
+    private void makeRoom(int len) throws BufferOverflowException {
+        assert Thread.holdsLock(this);
+        if (this.count + len <= this.buf.length)
+            return;
+        if (!this.expand || (long)this.count + len > MAX_BUFFER_SIZE) {
+            throw new BufferOverflowException(this.count + " + " + len + " = " + ((long)this.count + len)
+              + " byte(s) would exceed the " + this.buf.length + " byte buffer");
+        }
+        this.resizeBuffer((int)Math.min(Math.max((long)this.count + len, this.buf.length * 2L), MAX_BUFFER_SIZE));
+    }
+
+    /**
+     * Get the offset in the buffer at which the next byte will be added.
+     */
+    private int tail() {
+        final int tail = this.head + this.count;
+        return tail < this.buf.length ? tail : tail - this.buf.length;
+    }
+
+    /**
+     * Start the background thread if necessary, or wake it up if it's waiting for work.
+     */
+    private void wakeupWriter() {
+        this.startThreadIfNecessary();
+        if (this.writerWaiting)
+            this.notifyAll();
+    }
+
+    /**
+     * Wake up threads in waitForSpace() or waitForIdle(), if any.
+     */
+    private void wakeupWaiters() {
+        assert Thread.holdsLock(this);
+        if (this.numWaiters > 0)
+            this.notifyAll();
+    }
+
     /**
      * Start the background thread if necessary.
      */
@@ -337,7 +383,7 @@ public class AsyncOutputStream extends FilterOutputStream {
     }
 
     /**
-     * Resize internal buffer.
+     * Resize internal buffer, unwrapping the data so that it starts at offset zero.
      */
     private /*synchronized*/ void resizeBuffer(int size) {
         assert Thread.holdsLock(this);
@@ -345,8 +391,11 @@ public class AsyncOutputStream extends FilterOutputStream {
         size = Math.min(size, MAX_BUFFER_SIZE);
         size = Math.max(size, MIN_BUFFER_SIZE);
         final byte[] newBuf = new byte[size];
-        System.arraycopy(this.buf, 0, newBuf, 0, this.count);
+        final int first = Math.min(this.count, this.buf.length - this.head);
+        System.arraycopy(this.buf, this.head, newBuf, 0, first);
+        System.arraycopy(this.buf, 0, newBuf, first, this.count - first);
         this.buf = newBuf;
+        this.head = 0;
     }
 
     /**
@@ -374,19 +423,23 @@ public class AsyncOutputStream extends FilterOutputStream {
     private void runLoop() throws IOException, InterruptedException {
         while (true) {
 
-            // Wait for something to do
-            synchronized (this) {
-                while (!this.threadHasWork())
-                    this.wait();                        // will be woken up by write(), flush(), or close()
-            }
-
-            // Determine what needs to be done
-            byte[] currbuf;
-            int wlen;
-            boolean flush;
-            boolean close;
+            // Wait for something to do, then determine what needs to be done
+            final byte[] currbuf;
+            final int start;
+            final int wlen;
+            final boolean flush;
+            final boolean close;
             synchronized (this) {
+                while (!this.threadHasWork()) {
+                    this.writerWaiting = true;
+                    try {
+                        this.wait();                    // will be woken up by write(), flush(), or close()
+                    } finally {
+                        this.writerWaiting = false;
+                    }
+                }
                 currbuf = this.buf;
+                start = this.head;
                 wlen = this.count;
                 flush = this.flushMark == 0;
                 close = this.closed;
@@ -395,18 +448,21 @@ public class AsyncOutputStream extends FilterOutputStream {
             // First priority: any data to write?
             if (wlen > 0) {
 
-                // Write data
-                this.out.write(currbuf, 0, wlen);
+                // Write data, in two pieces if it wraps around the end of the buffer
+                final int first = Math.min(wlen, currbuf.length - start);
+                this.out.write(currbuf, start, first);
+                if (first < wlen)
+                    this.out.write(currbuf, 0, wlen - first);
 
-                // Shift data in buffer
+                // Discard written data from the buffer; note the buffer may have been resized (and unwrapped) meanwhile
                 synchronized (this) {
-                    System.arraycopy(this.buf, wlen, this.buf, 0, this.count - wlen);
                     this.count -= wlen;
+                    this.head = this.count > 0 ? (int)(((long)this.head + wlen) % this.buf.length) : 0;
                     if (this.flushMark != -1)
                         this.flushMark = Math.max(0, this.flushMark - wlen);
-                    if (this.count <= this.buf.length >> 7)
+                    if (this.expand && this.count <= this.buf.length >> 7)
                         this.resizeBuffer(this.count);
-                    this.notifyAll();                   // wake up sleepers in waitForSpace() and waitForIdle()
+                    this.wakeupWaiters();               // wake up sleepers in waitForSpace() and waitForIdle()
                 }
                 continue;
             }
@@ -421,7 +477,7 @@ public class AsyncOutputStream extends FilterOutputStream {
                 synchronized (this) {
                     if (this.flushMark == 0) {
                         this.flushMark = -1;
-                        this.notifyAll();               // wake up sleepers in waitForIdle()
+                        this.wakeupWaiters();           // wake up sleepers in waitForIdle()
                     }
                 }
                 continue;
@@ -440,6 +496,7 @@ public class AsyncOutputStream extends FilterOutputStream {
      */
     private synchronized boolean waitForPredicate(long timeout, final Predicate predicate)
       throws IOException, InterruptedException {
+        this.numWaiters++;
         try {
             return TimedWait.wait(this, timeout, () -> {
                 try {
@@ -451,6 +508,8 @@ public class AsyncOutputStream extends FilterOutputStream {
             });
         } catch (CheckedExceptionWrapper e) {
             throw (IOException)e.getException();
+        } finally {
+            this.numWaiters--;
         }
     }
 }
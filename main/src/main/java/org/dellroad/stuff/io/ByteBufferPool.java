@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A pool of equally sized {@link ByteBuffer}s, either heap or direct.
+ *
+ * <p>
+ * Buffers are leased via {@link #acquire} and given back via {@link #release}. Released buffers are retained
+ * for reuse, up to a configured maximum; beyond that they are simply dropped and left to the garbage collector.
+ * Leased buffers that are never released are likewise garbage collected normally.
+ *
+ * <p>
+ * Pooling is most useful for direct buffers, which are expensive to allocate and whose memory is only reclaimed lazily.
+ *
+ * <p>
+ * Instances are thread safe and may be shared.
+ *
+ * @see PooledByteBufferOutputStream
+ */
+@ThreadSafe
+public class ByteBufferPool {
+
+    private final int bufferSize;
+    private final boolean direct;
+    private final int maxPooled;
+
+    @GuardedBy("this")
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize size of each buffer
+     * @param direct true for direct buffers, false for heap buffers
+     * @param maxPooled maximum number of released buffers to retain for reuse
+     * @throws IllegalArgumentException if {@code bufferSize} is zero or negative
+     * @throws IllegalArgumentException if {@code maxPooled} is negative
+     */
+    public ByteBufferPool(int bufferSize, boolean direct, int maxPooled) {
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize <= 0");
+        if (maxPooled < 0)
+            throw new IllegalArgumentException("maxPooled < 0");
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Get the size of the buffers in this pool.
+     *
+     * @return buffer capacity
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Determine whether this pool contains direct buffers.
+     *
+     * @return true for direct buffers, false for heap buffers
+     */
+    public boolean isDirect() {
+        return this.direct;
+    }
+
+    /**
+     * Get the maximum number of released buffers retained for reuse.
+     *
+     * @return maximum pool size
+     */
+    public int getMaxPooled() {
+        return this.maxPooled;
+    }
+
+    /**
+     * Get the number of released buffers currently available for reuse.
+     *
+     * @return current pool size
+     */
+    public synchronized int getPooled() {
+        return this.pool.size();
+    }
+
+    /**
+     * Lease a buffer from this pool, allocating a new one if none is available.
+     *
+     * @return an empty buffer with position zero and limit equal to its capacity
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buf;
+        synchronized (this) {
+            buf = this.pool.poll();
+        }
+        if (buf != null)
+            return buf;
+        return this.direct ? ByteBuffer.allocateDirect(this.bufferSize) : ByteBuffer.allocate(this.bufferSize);
+    }
+
+    /**
+     * Return a buffer to this pool.
+     *
+     * <p>
+     * The caller must not access {@code buf}, or any buffer sharing its content, after this method is invoked.
+     *
+     * @param buf buffer previously obtained from {@link #acquire}
+     * @throws IllegalArgumentException if {@code buf} is null
+     * @throws IllegalArgumentException if {@code buf} has the wrong capacity or type, or is read-only
+     */
+    public void release(ByteBuffer buf) {
+        if (buf == null)
+            throw new IllegalArgumentException("null buf");
+        if (buf.capacity() != this.bufferSize || buf.isDirect() != this.direct || buf.isReadOnly())
+            throw new IllegalArgumentException("buffer does not belong to this pool");
+        buf.clear().order(ByteOrder.BIG_ENDIAN);
+        synchronized (this) {
+            if (this.pool.size() < this.maxPooled)
+                this.pool.push(buf);
+        }
+    }
+
+    /**
+     * Discard all buffers currently available for reuse.
+     */
+    public synchronized void clear() {
+        this.pool.clear();
+    }
+}
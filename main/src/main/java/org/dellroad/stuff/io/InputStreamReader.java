@@ -9,14 +9,30 @@ import java.io.Closeable;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
 
 /**
  * Reads zero or more {@link InputStream}s serialized inside an underlying {@link InputStream} by an {@link OutputStreamWriter}.
  *
  * <p>
+ * The {@link NestedStreamFraming} must match the one used by the {@link OutputStreamWriter}.
+ *
+ * <p>
+ * With {@link NestedStreamFraming#MULTIPLEXED} framing, the {@link InputStream}s returned by {@link #read} correspond
+ * to channels opened by {@link OutputStreamWriter#openChannel OutputStreamWriter.openChannel()}; they implement
+ * {@link HasChannelId}, and several of them may be read at the same time. Whichever thread needs more data reads the
+ * next chunk from the underlying input and appends it to the buffer of the channel it belongs to. To bound memory usage,
+ * once a channel has {@linkplain #getChannelBufferLimit too much data} buffered, reading further chunks for that channel
+ * blocks until its data is consumed or its {@link InputStream} is closed. Therefore, each channel should be read by its own
+ * thread, and each new channel should be retrieved promptly via {@link #read}.
+ *
+ * <p>
  * Instances of this class are thread safe, as are the {@link InputStream}s returned by {@link #read}.
  *
  * @see OutputStreamWriter
+ * @see NestedStreamFraming
  */
 public class InputStreamReader implements Closeable {
 
@@ -28,25 +44,106 @@ public class InputStreamReader implements Closeable {
     private static final int RESULT_EOF = -1;               // read EOF on input
     private static final int RESULT_SEPARATOR = -2;         // read stream separator
 
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_CHUNK_LENGTH = 1 << 24;
+
+    /**
+     * Default per-channel buffer limit ({@value #DEFAULT_CHANNEL_BUFFER_LIMIT}).
+     *
+     * @see #getChannelBufferLimit
+     */
+    public static final int DEFAULT_CHANNEL_BUFFER_LIMIT = 64 * 1024;
+
+    private final NestedStreamFraming framing;
     private final RandomEscape randomEscape = new RandomEscape();
     private final InputStream input;
+    private final byte[] buf;                   // raw bytes read from input but not yet consumed; ESCAPED framing only
+    private final int channelBufferLimit;
+    private final HashMap<Integer, ChannelInputStream> channels = new HashMap<>();   // channels not yet ended
+    private final ArrayDeque<ChannelInputStream> newChannels = new ArrayDeque<>();   // channels not yet returned by read()
 
     private NestedInputStream current;          // curently active nested input
     private IOException exception;              // exception thrown on input
     private int escape;                         // current escape character
+    private int bufOff;                         // offset of the first unconsumed byte in buf
+    private int bufLen;                         // number of unconsumed bytes in buf
     private boolean closed;                     // whether this instance is closed
     private boolean eof;                        // whether this instance has read EOF
+    private boolean pulling;                    // whether some thread is reading a chunk for a channel
+    private int numOpenChannels;                // number of channels returned by read() and not yet closed
 
     /**
      * Constructor.
      *
+     * <p>
+     * Equivalent to: {@link #InputStreamReader(InputStream, NestedStreamFraming)
+     *  InputStreamReader}{@code (input, }{@link NestedStreamFraming#ESCAPED}{@code )}.
+     *
      * @param input the underlying {@link InputStream} that will carry nested {@link InputStream}s within it
      */
     public InputStreamReader(InputStream input) {
+        this(input, NestedStreamFraming.ESCAPED);
+    }
+
+    /**
+     * Constructor.
+     *
+     * <p>
+     * Equivalent to: {@link #InputStreamReader(InputStream, NestedStreamFraming, int)
+     *  InputStreamReader}{@code (input, framing, }{@link #DEFAULT_CHANNEL_BUFFER_LIMIT}{@code )}.
+     *
+     * @param input the underlying {@link InputStream} that will carry nested {@link InputStream}s within it
+     * @param framing how nested streams are delimited
+     * @throws IllegalArgumentException if {@code framing} is null
+     */
+    public InputStreamReader(InputStream input, NestedStreamFraming framing) {
+        this(input, framing, DEFAULT_CHANNEL_BUFFER_LIMIT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param input the underlying {@link InputStream} that will carry nested {@link InputStream}s within it
+     * @param framing how nested streams are delimited
+     * @param channelBufferLimit per-channel buffer limit; only used with {@link NestedStreamFraming#MULTIPLEXED} framing
+     * @throws IllegalArgumentException if {@code framing} is null
+     * @throws IllegalArgumentException if {@code channelBufferLimit} is zero or negative
+     */
+    public InputStreamReader(InputStream input, NestedStreamFraming framing, int channelBufferLimit) {
+        if (framing == null)
+            throw new IllegalArgumentException("null framing");
+        if (channelBufferLimit <= 0)
+            throw new IllegalArgumentException("channelBufferLimit <= 0");
         this.input = input;
+        this.framing = framing;
+        this.channelBufferLimit = channelBufferLimit;
+        this.buf = framing == NestedStreamFraming.ESCAPED ? new byte[BUFFER_SIZE] : null;
         this.escape = this.randomEscape.next();
     }
 
+    /**
+     * Get the framing used by this instance.
+     *
+     * @return nested stream framing
+     */
+    public NestedStreamFraming getFraming() {
+        return this.framing;
+    }
+
+    /**
+     * Get the per-channel buffer limit.
+     *
+     * <p>
+     * With {@link NestedStreamFraming#MULTIPLEXED} framing, this is the number of bytes that may be buffered for a channel
+     * before reading more data for that channel blocks. A single chunk is always accepted into an empty buffer,
+     * so a channel's buffer may hold up to one chunk beyond this limit.
+     *
+     * @return per-channel buffer limit in bytes
+     */
+    public int getChannelBufferLimit() {
+        return this.channelBufferLimit;
+    }
+
     /**
      * Read the next {@link InputStream}.
      *
@@ -62,11 +159,23 @@ public class InputStreamReader implements Closeable {
      * <p>
      * Note: while any thread is blocked reading from the returned {@link InputStream}, this method will block as well.
      *
+     * <p>
+     * With {@link NestedStreamFraming#MULTIPLEXED} framing, the above does not apply. Instead, this method returns the
+     * {@link InputStream} for the next channel to appear in the underlying input, and each returned {@link InputStream}
+     * remains valid until it has been closed or the underlying input has been closed. Any data remaining when a returned
+     * {@link InputStream} is closed is discarded as it arrives.
+     *
      * @return the next {@link InputStream}, or {@code null} if EOF has been reached on the underlying input
      * @throws IOException if this instance is closed
      * @throws IOException if the underlying {@link InputStream} has thrown an exception
      */
-    public synchronized InputStream read() throws IOException {
+    public InputStream read() throws IOException {
+        if (this.framing == NestedStreamFraming.MULTIPLEXED)
+            return this.readChannel();
+        return this.readNested();
+    }
+
+    private synchronized InputStream readNested() throws IOException {
 
         // Check state
         if (this.closed)
@@ -79,22 +188,188 @@ public class InputStreamReader implements Closeable {
         // Close current stream (if any) and skip past abandoned bytes (if any)
         if (this.current != null) {
             this.current.close();
-            if (!this.current.isEOF()) {
-                while (true) {
-                    if (this.readNext() < 0)
-                        break;
+            if (!this.current.isEOF())
+                this.current.skipRemaining();
+        }
+
+        // See what's next up and create new nested stream
+        if (this.buf == null) {
+            final int chunkLength = this.readChunkLength();
+            if (chunkLength == RESULT_EOF)
+                return null;
+            this.current = new ChunkedInputStream(chunkLength);
+        } else {
+            final int firstValue = this.readNext();
+            if (firstValue == RESULT_EOF)
+                return null;
+            this.current = new EscapedInputStream(firstValue);
+        }
+        return this.current;
+    }
+
+    // Read the length of the next chunk, or RESULT_EOF if EOF is read instead
+    private int readChunkLength() throws IOException {
+
+        // Already read EOF?
+        if (this.eof)
+            return RESULT_EOF;
+
+        // Decode variable length integer
+        final int value = this.readVarint();
+        if (value == RESULT_EOF)
+            this.eof = true;
+        return value;
+    }
+
+    // Read an unsigned variable length integer, or RESULT_EOF if EOF is read instead of the first byte
+    private int readVarint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int ch = this.input.read();
+            if (ch == -1) {
+                if (shift == 0)
+                    return RESULT_EOF;
+                throw new IOException("underlying stream was truncated");
+            }
+            if (shift == 28 && (ch & 0xf8) != 0)                 // value would not fit in a non-negative int
+                break;
+            value |= (ch & 0x7f) << shift;
+            if ((ch & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("rec'd invalid variable length integer");
+    }
+
+    // Get the next new channel, reading chunks from the input until one appears
+    private InputStream readChannel() throws IOException {
+        while (true) {
+            synchronized (this) {
+                if (this.closed)
+                    throw new IOException("this instance is closed");
+                if (this.exception != null)
+                    throw new IOException("exception on the underlying stream", this.exception);
+                final ChannelInputStream channel = this.newChannels.poll();
+                if (channel != null) {
+                    this.numOpenChannels++;
+                    return channel;
                 }
+                if (this.eof)
+                    return null;
+                if (!this.startPull())
+                    continue;
             }
+            this.pull();
         }
+    }
 
-        // See what's next up
-        int firstValue = this.readNext();
-        if (firstValue == RESULT_EOF)
-            return null;
+    /**
+     * Prepare to read the next chunk from the underlying input.
+     *
+     * <p>
+     * If another thread is already reading a chunk, wait for it to finish and return false.
+     * Otherwise, claim the right to read the next chunk and return true; the caller must then invoke {@link #pull}.
+     *
+     * @return true if the caller should invoke {@link #pull}
+     * @throws InterruptedIOException if the current thread is interrupted while waiting
+     */
+    private boolean startPull() throws IOException {
+        assert Thread.holdsLock(this);
+        if (this.pulling) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                throw (InterruptedIOException)new InterruptedIOException().initCause(e);
+            }
+            return false;
+        }
+        this.pulling = true;
+        return true;
+    }
 
-        // Create new nested stream
-        this.current = new NestedInputStream(firstValue);
-        return this.current;
+    /**
+     * Read the next chunk from the underlying input and add it to its channel's buffer.
+     *
+     * <p>
+     * The underlying input is read without holding this instance's lock, so other channels' buffered data remains
+     * available in the meantime. If the channel's buffer is full, this waits until there is room.
+     *
+     * @throws IOException if the underlying input throws an exception or contains invalid data
+     */
+    private void pull() throws IOException {
+        assert !Thread.holdsLock(this);
+        try {
+
+            // Read the next chunk
+            final int channelId = this.readVarint();
+            byte[] data = null;
+            if (channelId != RESULT_EOF) {
+                final int length = this.readVarint();
+                if (length == RESULT_EOF)
+                    throw new IOException("underlying stream was truncated");
+                if (length > MAX_CHUNK_LENGTH)
+                    throw new IOException("rec'd invalid chunk length " + length);
+                data = new byte[length];
+                for (int off = 0; off < length; ) {
+                    final int r = this.input.read(data, off, length - off);
+                    if (r == -1)
+                        throw new IOException("underlying stream was truncated");
+                    off += r;
+                }
+            }
+
+            // Add it to the appropriate channel
+            synchronized (this) {
+                if (data == null)
+                    this.eof = true;
+                else
+                    this.dispatch(channelId, data);
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (this.exception == null)
+                    this.exception = e;
+            }
+            throw e;
+        } finally {
+            synchronized (this) {
+                this.pulling = false;
+                this.notifyAll();
+            }
+        }
+    }
+
+    private void dispatch(int channelId, byte[] data) throws IOException {
+        assert Thread.holdsLock(this);
+
+        // Find channel, creating it if new
+        ChannelInputStream channel = this.channels.get(channelId);
+        if (channel == null) {
+            channel = new ChannelInputStream(channelId);
+            this.channels.put(channelId, channel);
+            this.newChannels.add(channel);
+        }
+
+        // Check for end of channel
+        if (data.length == 0) {
+            channel.ended = true;
+            this.channels.remove(channelId);
+            return;
+        }
+
+        // Wait for room in the channel's buffer
+        while (!channel.closed && channel.buffered > 0 && channel.buffered + data.length > this.channelBufferLimit) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                throw (InterruptedIOException)new InterruptedIOException().initCause(e);
+            }
+        }
+
+        // Add data, unless nobody wants it
+        if (!channel.closed) {
+            channel.chunks.add(data);
+            channel.buffered += data.length;
+        }
     }
 
     // Read next byte (unescaped) or special return value
@@ -105,7 +380,7 @@ public class InputStreamReader implements Closeable {
             return RESULT_EOF;
 
         // Read next byte
-        int ch = this.input.read();
+        int ch = this.readRaw();
         if (ch == -1) {
             this.eof = true;
             return RESULT_EOF;
@@ -115,7 +390,7 @@ public class InputStreamReader implements Closeable {
         if (ch == this.escape) {
 
             // Read escaped byte
-            if ((ch = this.input.read()) == -1) {
+            if ((ch = this.readRaw()) == -1) {
                 this.eof = true;
                 return RESULT_EOF;
             }
@@ -141,6 +416,35 @@ public class InputStreamReader implements Closeable {
         return ch;
     }
 
+    // Read next raw byte from the buffer, refilling it from the input if empty
+    private int readRaw() throws IOException {
+        if (this.bufLen == 0) {
+            final int r = this.input.read(this.buf, 0, this.buf.length);
+            if (r == 0)                                         // don't spin on a stream that returns nothing
+                return this.input.read();                       // instead, block for a single byte
+            if (r == -1)
+                return -1;
+            this.bufOff = 0;
+            this.bufLen = r;
+        }
+        this.bufLen--;
+        return this.buf[this.bufOff++] & 0xff;
+    }
+
+    // Count the buffered bytes, up to max, that precede the next escape byte; these can be consumed as-is
+    private int plainRun(int max) {
+        final int limit = this.bufOff + Math.min(this.bufLen, max);
+        int i = this.bufOff;
+        while (i < limit && (this.buf[i] & 0xff) != this.escape)
+            i++;
+        return i - this.bufOff;
+    }
+
+    private void consume(int num) {
+        this.bufOff += num;
+        this.bufLen -= num;
+    }
+
     /**
      * Close this instance. Does nothing if already closed.
      *
@@ -157,17 +461,87 @@ public class InputStreamReader implements Closeable {
         this.closed = true;
         if (this.current != null)
             this.current.checkInputClose();
+        if (this.framing == NestedStreamFraming.MULTIPLEXED && this.numOpenChannels == 0)
+            this.input.close();
+    }
+
+// NestedInputStream
+
+    private abstract class NestedInputStream extends FilterInputStream {
+
+        boolean closed;
+        boolean eof;
+
+        NestedInputStream() {
+            super(InputStreamReader.this.input);
+        }
+
+        /**
+         * Close this instance. Does nothing if already closed.
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized (InputStreamReader.this) {
+                if (this.closed)
+                    return;
+                this.closed = true;
+                this.checkInputClose();
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readlimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        public void checkInputClose() throws IOException {
+            synchronized (InputStreamReader.this) {
+                if (this.closed && InputStreamReader.this.closed)
+                    this.in.close();
+            }
+        }
+
+        public boolean isEOF() {
+            return this.eof;
+        }
+
+        /**
+         * Skip over all remaining data in this nested stream, which has been abandoned.
+         */
+        abstract void skipRemaining() throws IOException;
+
+        /**
+         * Verify this stream may be read.
+         *
+         * @return false if this stream has reached EOF, otherwise true
+         */
+        boolean checkState() throws IOException {
+            assert Thread.holdsLock(InputStreamReader.this);
+            if (this.closed)
+                throw new IOException("stream is closed");
+            if (InputStreamReader.this.exception != null)
+                throw new IOException("exception on the underlying stream", InputStreamReader.this.exception);
+            return !this.eof;
+        }
     }
 
-    private class NestedInputStream extends FilterInputStream {
+// EscapedInputStream
+
+    private class EscapedInputStream extends NestedInputStream {
 
         private int firstValue;
         private boolean firstRead = true;
-        private boolean closed;
-        private boolean eof;
 
-        NestedInputStream(int firstValue) {
-            super(InputStreamReader.this.input);
+        EscapedInputStream(int firstValue) {
             this.firstValue = firstValue;
         }
 
@@ -176,11 +550,7 @@ public class InputStreamReader implements Closeable {
             synchronized (InputStreamReader.this) {
 
                 // Check state
-                if (this.closed)
-                    throw new IOException("stream is closed");
-                if (InputStreamReader.this.exception != null)
-                    throw new IOException("exception on the underlying stream", InputStreamReader.this.exception);
-                if (this.eof)
+                if (!this.checkState())
                     return -1;
 
                 // Read from the underlying stream
@@ -213,67 +583,406 @@ public class InputStreamReader implements Closeable {
         }
 
         /**
-         * Close this instance. Does nothing if already closed.
+         * Read bytes in bulk.
+         *
+         * <p>
+         * Runs of buffered bytes that don't contain the escape byte are copied in a single operation. Once at least
+         * one byte has been read, this method returns rather than block on the underlying input.
          */
         @Override
-        public void close() throws IOException {
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len < 0 || off < 0 || off + len > buf.length)
+                throw new IndexOutOfBoundsException();
+            synchronized (InputStreamReader.this) {
+
+                // Check state
+                if (!this.checkState())
+                    return -1;
+                if (len == 0)
+                    return 0;
+
+                // Read from the underlying stream
+                try {
+                    int count = 0;
+                    while (count < len) {
+
+                        // Copy a run of unescaped bytes directly out of the buffer
+                        if (!this.firstRead) {
+                            final int num = InputStreamReader.this.plainRun(len - count);
+                            if (num > 0) {
+                                System.arraycopy(InputStreamReader.this.buf, InputStreamReader.this.bufOff, buf, off, num);
+                                InputStreamReader.this.consume(num);
+                                off += num;
+                                count += num;
+                                continue;
+                            }
+
+                            // Don't block if we already have something to return
+                            if (count > 0 && InputStreamReader.this.bufLen < 2)
+                                break;
+                        }
+
+                        // Read next unescaped byte or control code
+                        final int ch;
+                        if (this.firstRead) {
+                            ch = this.firstValue;
+                            this.firstRead = false;
+                        } else
+                            ch = InputStreamReader.this.readNext();
+                        switch (ch) {
+                        case RESULT_EOF:
+                            throw new IOException("underlying stream was truncated");
+                        case RESULT_SEPARATOR:
+                            this.eof = true;
+                            return count > 0 ? count : -1;
+                        default:
+                            break;
+                        }
+                        buf[off++] = (byte)ch;
+                        count++;
+                    }
+
+                    // Done
+                    return count;
+                } catch (IOException e) {
+                    InputStreamReader.this.exception = e;
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public long skip(long num) throws IOException {
+            if (num <= 0)
+                return 0;
+            final byte[] temp = new byte[(int)Math.min(num, BUFFER_SIZE)];
+            long count = 0;
+            while (count < num) {
+                final int r = this.read(temp, 0, (int)Math.min(num - count, temp.length));
+                if (r == -1)
+                    break;
+                count += r;
+            }
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
             synchronized (InputStreamReader.this) {
                 if (this.closed)
-                    return;
-                this.closed = true;
-                this.checkInputClose();
+                    throw new IOException("stream is closed");
+                if (this.eof)
+                    return 0;
+                if (!this.firstRead)
+                    return InputStreamReader.this.plainRun(Integer.MAX_VALUE);
+                return this.firstValue >= 0 ? 1 + InputStreamReader.this.plainRun(Integer.MAX_VALUE) : 0;
+            }
+        }
+
+        @Override
+        void skipRemaining() throws IOException {
+            assert Thread.holdsLock(InputStreamReader.this);
+            if (this.firstRead && this.firstValue == RESULT_SEPARATOR)
+                return;
+            while (true) {
+                InputStreamReader.this.consume(InputStreamReader.this.plainRun(Integer.MAX_VALUE));
+                if (InputStreamReader.this.readNext() < 0)
+                    break;
             }
         }
+    }
+
+// ChunkedInputStream
+
+    private class ChunkedInputStream extends NestedInputStream {
+
+        private int remaining;                              // bytes remaining in the current chunk
+
+        ChunkedInputStream(int chunkLength) {
+            this.remaining = chunkLength;
+            this.eof = chunkLength == 0;
+        }
 
+        @Override
+        public int read() throws IOException {
+            synchronized (InputStreamReader.this) {
+                if (!this.checkState())
+                    return -1;
+                try {
+                    if (!this.nextChunk())
+                        return -1;
+                    final int ch = this.in.read();
+                    if (ch == -1)
+                        throw new IOException("underlying stream was truncated");
+                    this.remaining--;
+                    return ch;
+                } catch (IOException e) {
+                    InputStreamReader.this.exception = e;
+                    throw e;
+                }
+            }
+        }
+
+        /**
+         * Read bytes in bulk.
+         *
+         * <p>
+         * Data is read directly from the underlying input, up to the end of the current chunk.
+         */
         @Override
         public int read(byte[] buf, int off, int len) throws IOException {
             if (len < 0 || off < 0 || off + len > buf.length)
                 throw new IndexOutOfBoundsException();
-            int count = 0;
-            while (count < len) {
-                int ch = this.read();
-                if (ch == -1) {
-                    if (count == 0)
+            synchronized (InputStreamReader.this) {
+                if (!this.checkState())
+                    return -1;
+                if (len == 0)
+                    return 0;
+                try {
+                    if (!this.nextChunk())
                         return -1;
-                    break;
+                    final int r = this.in.read(buf, off, Math.min(len, this.remaining));
+                    if (r == -1)
+                        throw new IOException("underlying stream was truncated");
+                    this.remaining -= r;
+                    return r;
+                } catch (IOException e) {
+                    InputStreamReader.this.exception = e;
+                    throw e;
                 }
-                buf[off++] = (byte)ch;
-                count++;
             }
-            return count;
         }
 
+        /**
+         * Skip bytes.
+         *
+         * <p>
+         * Data is skipped using the underlying input's {@link InputStream#skip skip()} method, so only the chunk
+         * lengths need to be read.
+         */
         @Override
         public long skip(long num) throws IOException {
+            synchronized (InputStreamReader.this) {
+                if (!this.checkState() || num <= 0)
+                    return 0;
+                try {
+                    return this.skipData(num);
+                } catch (IOException e) {
+                    InputStreamReader.this.exception = e;
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (InputStreamReader.this) {
+                if (!this.checkState())
+                    return 0;
+                return Math.min(this.remaining, this.in.available());
+            }
+        }
+
+        @Override
+        void skipRemaining() throws IOException {
+            assert Thread.holdsLock(InputStreamReader.this);
+            this.skipData(Long.MAX_VALUE);
+        }
+
+        private long skipData(long num) throws IOException {
             long count = 0;
-            while (count < num && this.read() != -1)
-                count++;
+            while (count < num && this.nextChunk()) {
+                long skipped = this.in.skip(Math.min(num - count, this.remaining));
+                if (skipped <= 0) {
+                    if (this.in.read() == -1)
+                        throw new IOException("underlying stream was truncated");
+                    skipped = 1;
+                }
+                this.remaining -= (int)skipped;
+                count += skipped;
+            }
             return count;
         }
 
+        // Advance to the next chunk if the current one is used up; returns false if we reach the end of the stream
+        private boolean nextChunk() throws IOException {
+            while (this.remaining == 0) {
+                if (this.eof)
+                    return false;
+                final int chunkLength = InputStreamReader.this.readChunkLength();
+                if (chunkLength == RESULT_EOF)
+                    throw new IOException("underlying stream was truncated");
+                if (chunkLength == 0) {
+                    this.eof = true;
+                    return false;
+                }
+                this.remaining = chunkLength;
+            }
+            return true;
+        }
+    }
+
+// ChannelInputStream
+
+    private class ChannelInputStream extends InputStream implements HasChannelId {
+
+        private final int channelId;
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+
+        private int chunkOff;                               // offset into the first chunk
+        private int buffered;                               // total bytes buffered
+        private boolean ended;                              // whether we've read the end of this channel
+        private boolean closed;
+
+        ChannelInputStream(int channelId) {
+            this.channelId = channelId;
+        }
+
         @Override
-        public boolean markSupported() {
-            return false;
+        public int getChannelId() {
+            return this.channelId;
         }
 
         @Override
-        public void mark(int readlimit) {
+        public int read() throws IOException {
+            while (true) {
+                synchronized (InputStreamReader.this) {
+                    if (this.isReady()) {
+                        if (this.buffered == 0)
+                            return -1;
+                        final int b = this.chunks.peek()[this.chunkOff] & 0xff;
+                        this.consume(1);
+                        return b;
+                    }
+                    if (!InputStreamReader.this.startPull())
+                        continue;
+                }
+                InputStreamReader.this.pull();
+            }
         }
 
         @Override
-        public void reset() throws IOException {
-            throw new IOException("mark/reset not supported");
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (len < 0 || off < 0 || off + len > buf.length)
+                throw new IndexOutOfBoundsException();
+            while (true) {
+                synchronized (InputStreamReader.this) {
+                    if (this.isReady()) {
+                        if (len == 0)
+                            return 0;
+                        if (this.buffered == 0)
+                            return -1;
+
+                        // Copy data out of buffered chunks
+                        int count = 0;
+                        while (count < len && this.buffered > 0) {
+                            final byte[] chunk = this.chunks.peek();
+                            final int num = Math.min(len - count, chunk.length - this.chunkOff);
+                            System.arraycopy(chunk, this.chunkOff, buf, off + count, num);
+                            this.consume(num);
+                            count += num;
+                        }
+                        return count;
+                    }
+                    if (!InputStreamReader.this.startPull())
+                        continue;
+                }
+                InputStreamReader.this.pull();
+            }
         }
 
-        public void checkInputClose() throws IOException {
+        @Override
+        public long skip(long num) throws IOException {
+            if (num <= 0)
+                return 0;
+            while (true) {
+                synchronized (InputStreamReader.this) {
+                    if (this.isReady()) {
+                        long count = 0;
+                        while (count < num && this.buffered > 0) {
+                            final int skip = (int)Math.min(num - count, this.chunks.peek().length - this.chunkOff);
+                            this.consume(skip);
+                            count += skip;
+                        }
+                        return count;
+                    }
+                    if (!InputStreamReader.this.startPull())
+                        continue;
+                }
+                InputStreamReader.this.pull();
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
             synchronized (InputStreamReader.this) {
-                if (this.closed && InputStreamReader.this.closed)
-                    this.in.close();
+                this.checkState();
+                return this.buffered;
             }
         }
 
-        public boolean isEOF() {
-            return this.eof;
+        /**
+         * Close this instance. Does nothing if already closed.
+         *
+         * <p>
+         * Any data for this channel that arrives later is discarded.
+         */
+        @Override
+        public void close() throws IOException {
+            synchronized (InputStreamReader.this) {
+                if (this.closed)
+                    return;
+                this.closed = true;
+                this.chunks.clear();
+                this.buffered = 0;
+                InputStreamReader.this.notifyAll();                 // wakeup any thread waiting for room for us
+                if (--InputStreamReader.this.numOpenChannels == 0 && InputStreamReader.this.closed)
+                    InputStreamReader.this.input.close();
+            }
+        }
+
+        // Determine whether data is buffered or this channel has ended; if not, the next chunk must be read
+        private boolean isReady() throws IOException {
+            assert Thread.holdsLock(InputStreamReader.this);
+            this.checkState();
+            if (this.buffered > 0 || this.ended)
+                return true;
+            if (InputStreamReader.this.eof)
+                throw new IOException("underlying stream was truncated");
+            return false;
+        }
+
+        private void consume(int num) {
+            this.chunkOff += num;
+            this.buffered -= num;
+            if (this.chunkOff == this.chunks.peek().length) {
+                this.chunks.poll();
+                this.chunkOff = 0;
+                InputStreamReader.this.notifyAll();                 // wakeup any thread waiting for room for us
+            }
         }
+
+        private void checkState() throws IOException {
+            if (this.closed)
+                throw new IOException("stream is closed");
+            if (InputStreamReader.this.exception != null)
+                throw new IOException("exception on the underlying stream", InputStreamReader.this.exception);
+        }
+    }
+
+// HasChannelId
+
+    /**
+     * Interface implemented by the {@link InputStream}s returned by {@link InputStreamReader#read} when using
+     * {@link NestedStreamFraming#MULTIPLEXED} framing.
+     */
+    public interface HasChannelId {
+
+        /**
+         * Get the channel ID that was given to {@link OutputStreamWriter#openChannel OutputStreamWriter.openChannel()}.
+         *
+         * @return channel ID
+         */
+        int getChannelId();
     }
 }
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link PipedStreams} optimized for exactly one reading thread and one writing thread.
+ *
+ * <p>
+ * {@link PipedStreams} synchronizes every operation on a single monitor, so the reader and writer contend for it
+ * even when neither needs to wait. This class instead uses a single-producer/single-consumer ring buffer: the read
+ * and write cursors are volatile fields, each updated only by its owning side, so reads and writes never block each
+ * other. A thread only parks when the buffer is empty (reader) or full (writer), and is unparked by the peer
+ * as soon as that condition changes.
+ *
+ * <p>
+ * In addition, {@link PipedStreams.Input#transferTo Input.transferTo()} writes data directly from the internal buffer
+ * without an intermediate copy.
+ *
+ * <p>
+ * The {@linkplain #getSourceChannel source} and {@linkplain #getSinkChannel sink} channels count as the
+ * reading and writing sides respectively, so for example a thread reading from the input stream and another thread
+ * reading from the source channel would be two concurrent readers.
+ *
+ * <p>
+ * Instances are <b>not</b> safe for use by multiple concurrent readers or multiple concurrent writers; it is the caller's
+ * responsibility to ensure that at any time at most one thread is reading from (or closing) the input side and at most
+ * one thread is writing to (or closing) the output side. A reader or writer thread may hand off to another thread,
+ * provided there is a proper <i>happens-before</i> relationship between them.
+ */
+public class LockFreePipedStreams extends PipedStreams {
+
+    private volatile long readPosition;                     // total bytes read; updated only by the reader
+    private volatile long writePosition;                    // total bytes written; updated only by the writer
+    private volatile boolean inputClosed;
+    private volatile boolean outputClosed;
+    private volatile Thread waitingReader;
+    private volatile Thread waitingWriter;
+
+// Constructors
+
+    /**
+     * Constructor.
+     */
+    public LockFreePipedStreams() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bufsiz internal buffer size
+     * @throws IllegalArgumentException if {@code bufsiz} is zero or negative
+     */
+    public LockFreePipedStreams(int bufsiz) {
+        super(bufsiz);
+    }
+
+// Input methods
+
+    @Override
+    int read() throws IOException {
+
+        // Wait for data
+        if (this.waitForInput() == -1)
+            return -1;
+
+        // Grab the first byte
+        final long position = this.readPosition;
+        final int b = this.buf[this.index(position)] & 0xff;
+        this.advanceReadPosition(position + 1);
+        return b;
+    }
+
+    @Override
+    int read(byte[] b, int off, int len) throws IOException {
+
+        // Check stuff
+        if (off < 0 || len < 0 || off + len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        if (this.inputClosed)
+            throw new IOException("input closed");
+        if (len == 0)
+            return 0;
+
+        // Wait for data
+        final int available = this.waitForInput();
+        if (available == -1)
+            return -1;
+
+        // Possibly copy two chunks: from the read position to end of buf, then from buf[0] to end of available data
+        final long position = this.readPosition;
+        final int total = Math.min(len, available);
+        final int index = this.index(position);
+        final int num = Math.min(total, this.buf.length - index);
+        System.arraycopy(this.buf, index, b, off, num);
+        System.arraycopy(this.buf, 0, b, off + num, total - num);
+        this.advanceReadPosition(position + total);
+        return total;
+    }
+
+    @Override
+    int read(ByteBuffer dst) throws IOException {
+
+        // Check stuff
+        if (this.inputClosed)
+            throw new ClosedChannelException();
+        if (!dst.hasRemaining())
+            return 0;
+
+        // Wait for data
+        final int available = this.waitForInput();
+        if (available == -1)
+            return -1;
+
+        // Possibly copy two chunks: from the read position to end of buf, then from buf[0] to end of available data
+        final long position = this.readPosition;
+        final int total = Math.min(dst.remaining(), available);
+        final int index = this.index(position);
+        final int num = Math.min(total, this.buf.length - index);
+        dst.put(this.buf, index, num);
+        dst.put(this.buf, 0, total - num);
+        this.advanceReadPosition(position + total);
+        return total;
+    }
+
+    @Override
+    long skip(long n) throws IOException {
+        if (this.inputClosed)
+            throw new IOException("input closed");
+        if (n <= 0)
+            return 0;
+        final long position = this.readPosition;
+        final int skip = (int)Math.min(this.writePosition - position, n);
+        if (skip > 0)
+            this.advanceReadPosition(position + skip);
+        return skip;
+    }
+
+    @Override
+    int available() throws IOException {
+        if (this.inputClosed)
+            throw new IOException("input closed");
+        return (int)(this.writePosition - this.readPosition);
+    }
+
+    @Override
+    boolean isInputClosed() {
+        return this.inputClosed;
+    }
+
+    @Override
+    void closeInput() {
+        this.inputClosed = true;
+        this.wakeup();
+    }
+
+    @Override
+    long transferTo(OutputStream out) throws IOException {
+        Objects.requireNonNull(out, "out");
+        long total = 0;
+        while (true) {
+
+            // Wait for data
+            final int available = this.waitForInput();
+            if (available == -1)
+                return total;
+
+            // Write a contiguous range of bytes straight out of the buffer; the writer can't touch them until we advance
+            final long position = this.readPosition;
+            final int index = this.index(position);
+            final int num = Math.min(available, this.buf.length - index);
+            out.write(this.buf, index, num);
+            this.advanceReadPosition(position + num);
+            total += num;
+        }
+    }
+
+// Output methods
+
+    @Override
+    void write(int b) throws IOException {
+
+        // Wait for room
+        this.waitForOutput();
+
+        // Add byte
+        final long position = this.writePosition;
+        this.buf[this.index(position)] = (byte)b;
+        this.advanceWritePosition(position + 1);
+    }
+
+    @Override
+    void write(byte[] b, int off, int len) throws IOException {
+
+        // Check stuff
+        if (off < 0 || len < 0 || off + len < 0 || off + len > b.length)
+            throw new IndexOutOfBoundsException();
+        if (this.outputClosed)
+            throw new IOException("output closed");
+
+        // Copy as much as will fit each time, possibly in two chunks if the free space wraps around
+        while (len > 0) {
+
+            // Wait for room
+            final int room = this.waitForOutput();
+
+            // Copy bytes
+            final long position = this.writePosition;
+            final int total = Math.min(len, room);
+            final int index = this.index(position);
+            final int num = Math.min(total, this.buf.length - index);
+            System.arraycopy(b, off, this.buf, index, num);
+            System.arraycopy(b, off + num, this.buf, 0, total - num);
+            off += total;
+            len -= total;
+            this.advanceWritePosition(position + total);
+        }
+    }
+
+    @Override
+    int write(ByteBuffer src) throws IOException {
+
+        // Check stuff
+        if (this.outputClosed)
+            throw new ClosedChannelException();
+
+        // Copy as much as will fit each time, possibly in two chunks if the free space wraps around
+        final int length = src.remaining();
+        while (src.hasRemaining()) {
+
+            // Wait for room
+            final int room = this.waitForOutput();
+
+            // Copy bytes
+            final long position = this.writePosition;
+            final int total = Math.min(src.remaining(), room);
+            final int index = this.index(position);
+            final int num = Math.min(total, this.buf.length - index);
+            src.get(this.buf, index, num);
+            src.get(this.buf, 0, total - num);
+            this.advanceWritePosition(position + total);
+        }
+        return length;
+    }
+
+    @Override
+    boolean isOutputClosed() {
+        return this.outputClosed;
+    }
+
+    @Override
+    void closeOutput() {
+        this.outputClosed = true;
+        this.wakeup();
+    }
+
+// Internal methods
+
+    /**
+     * Wait for data to become available to read.
+     *
+     * <p>
+     * Must be invoked by the reader thread.
+     *
+     * @return number of bytes available (always at least one), or -1 on EOF
+     * @throws IOException if the input side is closed
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    private int waitForInput() throws IOException {
+        boolean registered = false;
+        try {
+            while (true) {
+                if (this.inputClosed)
+                    throw new IOException("input closed");
+
+                // Read "outputClosed" before "writePosition", so any final write before close() is always seen
+                final boolean eof = this.outputClosed;
+                final int available = (int)(this.writePosition - this.readPosition);
+                if (available > 0)
+                    return available;
+                if (eof)
+                    return -1;
+
+                // Register as waiting, then check again before parking so a concurrent wakeup can't be missed
+                if (!registered) {
+                    this.waitingReader = Thread.currentThread();
+                    registered = true;
+                    continue;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted())
+                    throw new InterruptedIOException();
+            }
+        } finally {
+            if (registered)
+                this.waitingReader = null;
+        }
+    }
+
+    /**
+     * Wait for room to become available to write.
+     *
+     * <p>
+     * Must be invoked by the writer thread.
+     *
+     * @return number of bytes of room available (always at least one)
+     * @throws IOException if either side is closed
+     * @throws InterruptedIOException if the current thread is interrupted
+     */
+    private int waitForOutput() throws IOException {
+        boolean registered = false;
+        try {
+            while (true) {
+                if (this.outputClosed)
+                    throw new IOException("output closed");
+                if (this.inputClosed)
+                    throw new IOException("input closed");
+                final int room = this.buf.length - (int)(this.writePosition - this.readPosition);
+                if (room > 0)
+                    return room;
+
+                // Register as waiting, then check again before parking so a concurrent wakeup can't be missed
+                if (!registered) {
+                    this.waitingWriter = Thread.currentThread();
+                    registered = true;
+                    continue;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted())
+                    throw new InterruptedIOException();
+            }
+        } finally {
+            if (registered)
+                this.waitingWriter = null;
+        }
+    }
+
+    // Publish consumed bytes to the writer, waking it if it's waiting for room
+    private void advanceReadPosition(long position) {
+        this.readPosition = position;
+        final Thread writer = this.waitingWriter;
+        if (writer != null)
+            LockSupport.unpark(writer);
+    }
+
+    // Publish produced bytes to the reader, waking it if it's waiting for data
+    private void advanceWritePosition(long position) {
+        this.writePosition = position;
+        final Thread reader = this.waitingReader;
+        if (reader != null)
+            LockSupport.unpark(reader);
+    }
+
+    private void wakeup() {
+        final Thread reader = this.waitingReader;
+        if (reader != null)
+            LockSupport.unpark(reader);
+        final Thread writer = this.waitingWriter;
+        if (writer != null)
+            LockSupport.unpark(writer);
+    }
+
+    private int index(long position) {
+        return (int)(position % this.buf.length);
+    }
+}
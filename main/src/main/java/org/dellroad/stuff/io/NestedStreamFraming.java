@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+/**
+ * Ways in which {@link OutputStreamWriter} can delimit the nested streams it writes.
+ *
+ * <p>
+ * The {@link InputStreamReader} at the other end must be configured with the same framing.
+ *
+ * @see OutputStreamWriter
+ * @see InputStreamReader
+ */
+public enum NestedStreamFraming {
+
+    /**
+     * Nested streams are separated by two-byte control sequences introduced by a pseudo-random escape byte;
+     * occurrences of the escape byte in the data are themselves escaped.
+     *
+     * <p>
+     * No buffering is required on the writing side, but every byte must be inspected on both sides,
+     * and the data expands slightly.
+     */
+    ESCAPED,
+
+    /**
+     * Each nested stream is written as a sequence of chunks, each consisting of the chunk length (encoded as an
+     * unsigned variable length integer, seven bits per byte, least significant group first) followed by that many bytes
+     * of data. A chunk length of zero marks the end of the nested stream.
+     *
+     * <p>
+     * The data is never inspected or expanded, so both sides can copy it in bulk, and skipping over data only requires
+     * reading the chunk lengths. On the writing side, small writes are buffered until they fill a chunk or until
+     * {@link OutputStreamWriter#flush} is invoked.
+     */
+    CHUNKED,
+
+    /**
+     * Like {@link #CHUNKED}, but each chunk is preceded by a channel ID (encoded the same way as the chunk length),
+     * and multiple nested streams, each with a distinct channel ID, may be interleaved.
+     *
+     * <p>
+     * Nested streams are written using {@link OutputStreamWriter#openChannel OutputStreamWriter.openChannel()}.
+     * The {@link InputStreamReader} demultiplexes them into independent {@link java.io.InputStream}s, buffering
+     * a limited amount of data for each channel that has not yet been read.
+     */
+    MULTIPLEXED;
+}
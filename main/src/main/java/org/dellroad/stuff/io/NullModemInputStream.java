@@ -9,6 +9,8 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -71,15 +73,34 @@ public class NullModemInputStream extends FilterInputStream {
      * @param executor executes writing process in the background
      * @throws IllegalArgumentException if any parameter is null
      */
-    @SuppressWarnings("this-escape")
     public NullModemInputStream(WriteCallback writer, Executor executor) {
-        super(new PipedStreams().getInputStream());
+        this(writer, executor, new PipedStreams());
+    }
+
+    /**
+     * Constructor taking an explicit {@link PipedStreams}.
+     *
+     * <p>
+     * This instance reads from {@code pipe}'s input side and {@code writer} writes to its output side. Because only
+     * the writer thread ever writes to the pipe, a {@link LockFreePipedStreams} may be used here if this instance
+     * is only read by one thread at a time.
+     *
+     * @param writer callback that writes the data to be read
+     * @param executor executes writing process in the background
+     * @param pipe the pipe connecting {@code writer} to this instance; must not have been used yet
+     * @throws IllegalArgumentException if any parameter is null
+     */
+    @SuppressWarnings("this-escape")
+    public NullModemInputStream(WriteCallback writer, Executor executor, PipedStreams pipe) {
+        super(pipe != null ? pipe.getInputStream() : null);
 
         // Sanity check
         if (writer == null)
             throw new IllegalArgumentException("null writer");
         if (executor == null)
             throw new IllegalArgumentException("null executor");
+        if (pipe == null)
+            throw new IllegalArgumentException("null pipe");
 
         // Launch writer task
         final OutputStream output = this.getPipedStreams().getOutputStream();
@@ -133,12 +154,53 @@ public class NullModemInputStream extends FilterInputStream {
         return NullUtil.wrapInt(this.error, super::available);
     }
 
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        NullUtil.checkError(this.error);
+        return NullUtil.wrapLong(this.error, () -> this.in.transferTo(out));
+    }
+
     @Override
     public void reset() throws IOException {
         NullUtil.checkError(this.error);
         NullUtil.wrap(this.error, super::reset);
     }
 
+// Channel
+
+    /**
+     * Get a {@link ReadableByteChannel} view of this instance.
+     *
+     * <p>
+     * The returned channel reads directly from the underlying {@link PipedStreams} into the caller's {@link ByteBuffer},
+     * and reports exceptions thrown by the {@link WriteCallback} in the same way as this instance. Closing the channel
+     * closes this instance. The {@link WriteCallback} can likewise write {@link ByteBuffer}s without an extra copy by
+     * using {@link PipedStreams#newChannel(OutputStream)}.
+     *
+     * @return channel reading the same data as this instance
+     */
+    public ReadableByteChannel getChannel() {
+        final ReadableByteChannel source = this.getPipedStreams().getSourceChannel();
+        return new ReadableByteChannel() {
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                NullUtil.checkError(NullModemInputStream.this.error);
+                return NullUtil.wrapInt(NullModemInputStream.this.error, () -> source.read(dst));
+            }
+
+            @Override
+            public boolean isOpen() {
+                return source.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                NullModemInputStream.this.close();
+            }
+        };
+    }
+
 // Subclass Methods
 
     /**
@@ -9,6 +9,8 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -86,15 +88,34 @@ public class NullModemOutputStream extends FilterOutputStream {
      * @param executor executes reading process in the background
      * @throws IllegalArgumentException if any parameter is null
      */
-    @SuppressWarnings("this-escape")
     public NullModemOutputStream(ReadCallback reader, Executor executor) {
-        super(new PipedStreams().getOutputStream());
+        this(reader, executor, new PipedStreams());
+    }
+
+    /**
+     * Constructor taking an explicit {@link PipedStreams}.
+     *
+     * <p>
+     * This instance writes to {@code pipe}'s output side and {@code reader} reads from its input side. Because only
+     * the reader thread ever reads from the pipe, a {@link LockFreePipedStreams} may be used here if this instance
+     * is only written by one thread at a time.
+     *
+     * @param reader callback that reads the data written
+     * @param executor executes reading process in the background
+     * @param pipe the pipe connecting this instance to {@code reader}; must not have been used yet
+     * @throws IllegalArgumentException if any parameter is null
+     */
+    @SuppressWarnings("this-escape")
+    public NullModemOutputStream(ReadCallback reader, Executor executor, PipedStreams pipe) {
+        super(pipe != null ? pipe.getOutputStream() : null);
 
         // Sanity check
         if (reader == null)
             throw new IllegalArgumentException("null reader");
         if (executor == null)
             throw new IllegalArgumentException("null executor");
+        if (pipe == null)
+            throw new IllegalArgumentException("null pipe");
 
         // Launch reader task
         final InputStream input = this.getPipedStreams().getInputStream();
@@ -197,6 +218,42 @@ public class NullModemOutputStream extends FilterOutputStream {
             this.wait();
     }
 
+// Channel
+
+    /**
+     * Get a {@link WritableByteChannel} view of this instance.
+     *
+     * <p>
+     * The returned channel writes directly from the caller's {@link ByteBuffer} into the underlying {@link PipedStreams},
+     * and reports exceptions thrown by the {@link ReadCallback} in the same way as this instance. Closing the channel
+     * closes this instance, including any {@linkplain #setSynchronousClose synchronous close} behavior. The
+     * {@link ReadCallback} can likewise read into {@link ByteBuffer}s without an extra copy by using
+     * {@link PipedStreams#newChannel(InputStream)}.
+     *
+     * @return channel writing to the same destination as this instance
+     */
+    public WritableByteChannel getChannel() {
+        final WritableByteChannel sink = this.getPipedStreams().getSinkChannel();
+        return new WritableByteChannel() {
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                NullUtil.checkError(NullModemOutputStream.this.error);
+                return NullUtil.wrapInt(NullModemOutputStream.this.error, () -> sink.write(src));
+            }
+
+            @Override
+            public boolean isOpen() {
+                return sink.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                NullModemOutputStream.this.close();
+            }
+        };
+    }
+
 // Subclass Methods
 
     /**
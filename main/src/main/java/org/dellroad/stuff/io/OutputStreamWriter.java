@@ -8,6 +8,8 @@ package org.dellroad.stuff.io;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Serializes zero or more {@link OutputStream}s inside a single underlying {@link OutputStream}. The results can be
@@ -24,35 +26,83 @@ import java.io.OutputStream;
  * {@link InputStreamReader} at the other end.
  *
  * <p>
+ * By default, nested streams are delimited using {@link NestedStreamFraming#ESCAPED} framing; use
+ * {@link #OutputStreamWriter(OutputStream, NestedStreamFraming)} to select a different framing.
+ *
+ * <p>
+ * With {@link NestedStreamFraming#MULTIPLEXED} framing, several nested streams may be written at the same time.
+ * Instead of using {@link #start}, {@link #stop}, and the {@code write()} methods of this class, invoke
+ * {@link #openChannel openChannel()} to get a separate {@link OutputStream} for each nested stream. Data written
+ * to each is buffered and written to the underlying output in interleaved, bounded chunks, so a slow producer on one
+ * channel does not delay the others.
+ *
+ * <p>
  * Instances of this class are thread safe.
  *
  * @see InputStreamReader
+ * @see NestedStreamFraming
  */
 public class OutputStreamWriter extends FilterOutputStream {
 
+    private static final int CHUNK_SIZE = 8192;
+
+    private final NestedStreamFraming framing;
     private final RandomEscape randomEscape = new RandomEscape();
+    private final byte[] chunk;                 // buffered data not yet written; CHUNKED framing only
+    private final HashMap<Integer, ChannelOutputStream> channels = new HashMap<>();     // open channels; MULTIPLEXED only
 
     private int escape;
+    private int chunkLen;
     private boolean started;
     private boolean closed;
 
     /**
      * Constructor.
      *
+     * <p>
+     * Equivalent to: {@link #OutputStreamWriter(OutputStream, NestedStreamFraming)
+     *  OutputStreamWriter}{@code (output, }{@link NestedStreamFraming#ESCAPED}{@code )}.
+     *
      * @param output the underlying {@link OutputStream} that will carry nested {@link OutputStream}s within it
      */
     public OutputStreamWriter(OutputStream output) {
+        this(output, NestedStreamFraming.ESCAPED);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param output the underlying {@link OutputStream} that will carry nested {@link OutputStream}s within it
+     * @param framing how to delimit nested streams
+     * @throws IllegalArgumentException if {@code framing} is null
+     */
+    public OutputStreamWriter(OutputStream output, NestedStreamFraming framing) {
         super(output);
+        if (framing == null)
+            throw new IllegalArgumentException("null framing");
+        this.framing = framing;
+        this.chunk = framing == NestedStreamFraming.CHUNKED ? new byte[CHUNK_SIZE] : null;
         this.escape = this.randomEscape.next();
     }
 
+    /**
+     * Get the framing used by this instance.
+     *
+     * @return nested stream framing
+     */
+    public NestedStreamFraming getFraming() {
+        return this.framing;
+    }
+
     /**
      * Start a new {@link OutputStream}.
      *
      * @throws IOException if this instance is closed
      * @throws IOException if an {@link OutputStream} is already started
+     * @throws IllegalStateException if this instance uses {@link NestedStreamFraming#MULTIPLEXED} framing
      */
     public synchronized void start() throws IOException {
+        this.checkNotMultiplexed();
         if (this.closed)
             throw new IOException("this instance is closed");
         if (this.started)
@@ -67,14 +117,16 @@ public class OutputStreamWriter extends FilterOutputStream {
      * @throws IOException if this instance is closed
      * @throws IOException if no {@link OutputStream} is currently started
      * @throws IOException if the underlying {@link OutputStream} throws an exception
+     * @throws IllegalStateException if this instance uses {@link NestedStreamFraming#MULTIPLEXED} framing
      */
     public synchronized void stop() throws IOException {
+        this.checkNotMultiplexed();
         if (this.closed)
             throw new IOException("this instance is closed");
         if (!this.started)
             throw new IOException("not started");
         this.started = false;
-        this.writeControl(InputStreamReader.CONTROL_SEPARATOR);
+        this.writeEnd();
         this.flush();
     }
 
@@ -84,7 +136,8 @@ public class OutputStreamWriter extends FilterOutputStream {
      * {@linkplain #stop stopped}.
      *
      * <p>
-     * This ends the current {@link OutputStream} and closes the underlying output.
+     * This ends the current {@link OutputStream}, or with {@link NestedStreamFraming#MULTIPLEXED} framing,
+     * closes all open channels, and closes the underlying output.
      *
      * @throws IOException if an there is an error closing the underlying {@link OutputStream}
      */
@@ -92,20 +145,62 @@ public class OutputStreamWriter extends FilterOutputStream {
     public synchronized void close() throws IOException {
         if (this.closed)
             return;
+        for (ChannelOutputStream channel : new ArrayList<>(this.channels.values()))
+            channel.close();
         if (this.started) {
             this.started = false;
-            this.writeControl(InputStreamReader.CONTROL_SEPARATOR);
+            this.writeEnd();
         }
         this.closed = true;
         this.out.close();
     }
 
+    /**
+     * Open a new channel.
+     *
+     * <p>
+     * The returned {@link OutputStream} writes a nested stream which is read by the {@link InputStreamReader} at the other end
+     * as a distinct {@link java.io.InputStream} having the same channel ID. Data is buffered until a full chunk has been
+     * written or the returned stream is flushed. Closing the returned stream ends the nested stream and flushes the
+     * underlying output; thereafter the same channel ID may be opened again.
+     *
+     * <p>
+     * The returned stream may be used concurrently with other channels opened on this instance.
+     *
+     * @param channelId channel ID
+     * @return output stream for the new channel
+     * @throws IllegalArgumentException if {@code channelId} is negative
+     * @throws IllegalStateException if this instance does not use {@link NestedStreamFraming#MULTIPLEXED} framing
+     * @throws IOException if this instance is closed
+     * @throws IOException if channel {@code channelId} is already open
+     */
+    public synchronized OutputStream openChannel(int channelId) throws IOException {
+        if (channelId < 0)
+            throw new IllegalArgumentException("channelId < 0");
+        if (this.framing != NestedStreamFraming.MULTIPLEXED)
+            throw new IllegalStateException("framing is not " + NestedStreamFraming.MULTIPLEXED);
+        if (this.closed)
+            throw new IOException("this instance is closed");
+        if (this.channels.containsKey(channelId))
+            throw new IOException("channel " + channelId + " is already open");
+        final ChannelOutputStream channel = new ChannelOutputStream(channelId);
+        this.channels.put(channelId, channel);
+        return channel;
+    }
+
     @Override
     public synchronized void write(int ch) throws IOException {
+        this.checkNotMultiplexed();
         if (this.closed)
             throw new IOException("this instance is closed");
         if (!this.started)
             this.started = true;
+        if (this.chunk != null) {
+            if (this.chunkLen == this.chunk.length)
+                this.writeChunk();
+            this.chunk[this.chunkLen++] = (byte)ch;
+            return;
+        }
         if ((ch & 0xff) == this.escape) {
             this.writeControl(InputStreamReader.CONTROL_ESCAPE);
             return;
@@ -113,9 +208,215 @@ public class OutputStreamWriter extends FilterOutputStream {
         this.out.write(ch);
     }
 
+    /**
+     * Write bytes to the current {@link OutputStream}.
+     *
+     * <p>
+     * With {@link NestedStreamFraming#ESCAPED} framing, the bytes are scanned for the current escape byte; runs of bytes
+     * not containing it are written to the underlying output in a single operation. With {@link NestedStreamFraming#CHUNKED}
+     * framing, small writes are buffered, while larger writes are written directly as a single chunk.
+     *
+     * @param buf data
+     * @param off starting offset in {@code buf}
+     * @param len number of bytes
+     * @throws IOException if this instance is closed
+     * @throws IOException if the underlying {@link OutputStream} throws an exception
+     * @throws IndexOutOfBoundsException if {@code off} or {@code len} is invalid
+     */
+    @Override
+    public synchronized void write(byte[] buf, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len < 0 || off + len > buf.length)
+            throw new IndexOutOfBoundsException();
+        this.checkNotMultiplexed();
+        if (len == 0)
+            return;
+        if (this.closed)
+            throw new IOException("this instance is closed");
+        if (!this.started)
+            this.started = true;
+        if (this.chunk != null) {
+            if (len <= this.chunk.length - this.chunkLen) {
+                System.arraycopy(buf, off, this.chunk, this.chunkLen, len);
+                this.chunkLen += len;
+                return;
+            }
+            this.writeChunk();
+            if (len < this.chunk.length) {
+                System.arraycopy(buf, off, this.chunk, 0, len);
+                this.chunkLen = len;
+                return;
+            }
+            this.writeChunk(buf, off, len);
+            return;
+        }
+        final int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if ((buf[i] & 0xff) != this.escape)
+                continue;
+            if (i > start)
+                this.out.write(buf, start, i - start);
+            this.writeControl(InputStreamReader.CONTROL_ESCAPE);            // note: this changes the escape byte
+            start = i + 1;
+        }
+        if (end > start)
+            this.out.write(buf, start, end - start);
+    }
+
+    /**
+     * Flush this instance.
+     *
+     * <p>
+     * With {@link NestedStreamFraming#CHUNKED} or {@link NestedStreamFraming#MULTIPLEXED} framing, any buffered data
+     * is first written out as chunks.
+     *
+     * @throws IOException if the underlying {@link OutputStream} throws an exception
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (this.chunk != null)
+            this.writeChunk();
+        for (ChannelOutputStream channel : this.channels.values())
+            channel.writeChunk();
+        this.out.flush();
+    }
+
+    private void checkNotMultiplexed() {
+        if (this.framing == NestedStreamFraming.MULTIPLEXED)
+            throw new IllegalStateException("use openChannel() with " + NestedStreamFraming.MULTIPLEXED + " framing");
+    }
+
+    // Write the end of the current nested stream
+    private void writeEnd() throws IOException {
+        if (this.chunk != null) {
+            this.writeChunk();
+            this.out.write(0);
+        } else
+            this.writeControl(InputStreamReader.CONTROL_SEPARATOR);
+    }
+
+    // Write buffered data (if any) as a chunk
+    private void writeChunk() throws IOException {
+        if (this.chunkLen == 0)
+            return;
+        this.writeChunk(this.chunk, 0, this.chunkLen);
+        this.chunkLen = 0;
+    }
+
+    private void writeChunk(byte[] buf, int off, int len) throws IOException {
+        assert len > 0;
+        this.writeVarint(len);
+        this.out.write(buf, off, len);
+    }
+
+    private void writeVarint(int value) throws IOException {
+        assert value >= 0;
+        while ((value & ~0x7f) != 0) {
+            this.out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        this.out.write(value);
+    }
+
     private synchronized void writeControl(int control) throws IOException {
         this.out.write(this.escape);
         this.out.write(this.escape ^ control);
         this.escape = this.randomEscape.next();
     }
+
+// ChannelOutputStream
+
+    private class ChannelOutputStream extends OutputStream {
+
+        private final int channelId;
+        private final byte[] buf = new byte[CHUNK_SIZE];
+
+        private int len;
+        private boolean closed;
+
+        ChannelOutputStream(int channelId) {
+            this.channelId = channelId;
+        }
+
+        @Override
+        public void write(int ch) throws IOException {
+            synchronized (OutputStreamWriter.this) {
+                this.checkOpen();
+                if (this.len == this.buf.length)
+                    this.writeChunk();
+                this.buf[this.len++] = (byte)ch;
+            }
+        }
+
+        @Override
+        public void write(byte[] data, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || off + len < 0 || off + len > data.length)
+                throw new IndexOutOfBoundsException();
+            synchronized (OutputStreamWriter.this) {
+                this.checkOpen();
+                while (len > 0) {
+
+                    // Write full chunks directly if nothing is buffered
+                    if (this.len == 0 && len >= this.buf.length) {
+                        this.writeChunk(data, off, this.buf.length);
+                        off += this.buf.length;
+                        len -= this.buf.length;
+                        continue;
+                    }
+
+                    // Copy into the buffer, writing a chunk if it fills up
+                    final int num = Math.min(len, this.buf.length - this.len);
+                    System.arraycopy(data, off, this.buf, this.len, num);
+                    this.len += num;
+                    off += num;
+                    len -= num;
+                    if (this.len == this.buf.length)
+                        this.writeChunk();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (OutputStreamWriter.this) {
+                this.checkOpen();
+                this.writeChunk();
+                OutputStreamWriter.this.out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (OutputStreamWriter.this) {
+                if (this.closed)
+                    return;
+                this.closed = true;
+                OutputStreamWriter.this.channels.remove(this.channelId);
+                this.writeChunk();
+                OutputStreamWriter.this.writeVarint(this.channelId);
+                OutputStreamWriter.this.writeVarint(0);
+                OutputStreamWriter.this.out.flush();
+            }
+        }
+
+        // Write buffered data (if any) as a chunk
+        void writeChunk() throws IOException {
+            if (this.len == 0)
+                return;
+            this.writeChunk(this.buf, 0, this.len);
+            this.len = 0;
+        }
+
+        private void writeChunk(byte[] data, int off, int len) throws IOException {
+            OutputStreamWriter.this.writeVarint(this.channelId);
+            OutputStreamWriter.this.writeChunk(data, off, len);
+        }
+
+        private void checkOpen() throws IOException {
+            if (this.closed)
+                throw new IOException("channel is closed");
+            if (OutputStreamWriter.this.closed)
+                throw new IOException("this instance is closed");
+        }
+    }
 }
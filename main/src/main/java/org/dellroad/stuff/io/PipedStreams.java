@@ -9,15 +9,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Objects;
 
 /**
  * A better piped input/output stream pair.
  *
  * <p>
- * The two ends of the pipe are returned by {@link #getInputStream()} and {@link #getOutputStream()}.
+ * The two ends of the pipe are returned by {@link #getInputStream()} and {@link #getOutputStream()}, or as NIO channels
+ * by {@link #getSourceChannel()} and {@link #getSinkChannel()}.
  * Both streams are fully thread safe. The aliveness of any particular thread that happens to be the
  * last writer to the output stream is irrelevant.
  *
+ * <p>
+ * When there is only ever one reading thread and one writing thread, {@link LockFreePipedStreams} avoids the
+ * locking overhead of this class.
+ *
+ * @see LockFreePipedStreams
  * @see <a href="https://bugs.openjdk.java.net/browse/JDK-4028322">JDK-4028322</a>
  */
 public class PipedStreams {
@@ -29,7 +41,9 @@ public class PipedStreams {
 
     private final Input input = this.new Input();
     private final Output output = this.new Output();
-    private final byte[] buf;
+    private final Source source = this.new Source();
+    private final Sink sink = this.new Sink();
+    final byte[] buf;
 
     private int off;
     private int len;
@@ -89,9 +103,79 @@ public class PipedStreams {
         return this.output;
     }
 
+    /**
+     * Get the input side of the pipe as a {@link ReadableByteChannel}.
+     *
+     * <p>
+     * The returned channel reads from the same internal buffer as {@link #getInputStream}, copying data directly
+     * into the caller's {@link ByteBuffer}. It behaves like that stream, except that reads return zero when the
+     * buffer has no remaining space and reading after the input side is closed throws {@link ClosedChannelException}.
+     * Closing the channel closes the input side, and vice versa.
+     *
+     * @return input side of the piped stream as a channel
+     */
+    public Source getSourceChannel() {
+        return this.source;
+    }
+
+    /**
+     * Get the output side of the pipe as a {@link WritableByteChannel}.
+     *
+     * <p>
+     * The returned channel writes to the same internal buffer as {@link #getOutputStream}, copying data directly
+     * from the caller's {@link ByteBuffer}. It behaves like that stream: writes block until all of the buffer's
+     * remaining bytes have been written. Writing after the output side is closed throws {@link ClosedChannelException}.
+     * Closing the channel closes the output side, and vice versa.
+     *
+     * @return output side of the piped stream as a channel
+     */
+    public Sink getSinkChannel() {
+        return this.sink;
+    }
+
+    /**
+     * Get a {@link ReadableByteChannel} that reads from the given {@link InputStream}.
+     *
+     * <p>
+     * If {@code input} is the input side of a {@link PipedStreams}, its {@linkplain #getSourceChannel source channel}
+     * is returned, avoiding an intermediate copy. Otherwise, this delegates to {@link Channels#newChannel(InputStream)}.
+     * For example, a {@link ReadCallback} can use this method to read the data given to it as {@link ByteBuffer}s.
+     *
+     * @param input input stream
+     * @return channel reading from {@code input}
+     * @throws IllegalArgumentException if {@code input} is null
+     */
+    public static ReadableByteChannel newChannel(InputStream input) {
+        if (input == null)
+            throw new IllegalArgumentException("null input");
+        if (input instanceof Input)
+            return ((Input)input).getPipedStreams().getSourceChannel();
+        return Channels.newChannel(input);
+    }
+
+    /**
+     * Get a {@link WritableByteChannel} that writes to the given {@link OutputStream}.
+     *
+     * <p>
+     * If {@code output} is the output side of a {@link PipedStreams}, its {@linkplain #getSinkChannel sink channel}
+     * is returned, avoiding an intermediate copy. Otherwise, this delegates to {@link Channels#newChannel(OutputStream)}.
+     * For example, a {@link WriteCallback} can use this method to write its data as {@link ByteBuffer}s.
+     *
+     * @param output output stream
+     * @return channel writing to {@code output}
+     * @throws IllegalArgumentException if {@code output} is null
+     */
+    public static WritableByteChannel newChannel(OutputStream output) {
+        if (output == null)
+            throw new IllegalArgumentException("null output");
+        if (output instanceof Output)
+            return ((Output)output).getPipedStreams().getSinkChannel();
+        return Channels.newChannel(output);
+    }
+
 // Input methods
 
-    private synchronized int read() throws IOException {
+    synchronized int read() throws IOException {
         assert this.check();
 
         // Wait for data
@@ -112,7 +196,7 @@ public class PipedStreams {
         return b;
     }
 
-    private synchronized int read(byte[] b, int off, int len) throws IOException {
+    synchronized int read(byte[] b, int off, int len) throws IOException {
 
         // Check stuff
         assert this.check();
@@ -152,7 +236,43 @@ public class PipedStreams {
         return total;
     }
 
-    private synchronized long skip(long n) throws IOException {
+    synchronized int read(ByteBuffer dst) throws IOException {
+
+        // Check stuff
+        assert this.check();
+        if (this.inputClosed)
+            throw new ClosedChannelException();
+        if (!dst.hasRemaining())
+            return 0;
+
+        // Wait for data
+        if (!this.waitForInput())
+            return -1;
+        assert this.len > 0;
+
+        // Possibly copy two chunks: from buf[off] to end of buf, then from buf[0] to end of available data
+        int total = 0;
+        for (int i = 0; i < 2; i++) {
+
+            // Copy a contiguous range of bytes
+            final int num = Math.min(dst.remaining(), Math.min(this.len, this.buf.length - this.off));
+            if (num == 0)
+                break;
+            dst.put(this.buf, this.off, num);
+            this.off = (this.off + num) % this.buf.length;
+            this.len -= num;
+            total += num;
+        }
+
+        // Wakeup waiting writers if we were previously full
+        if (this.len + total == this.buf.length)
+            this.notifyAll();
+
+        // Done
+        return total;
+    }
+
+    synchronized long skip(long n) throws IOException {
 
         // Check stuff
         assert this.check();
@@ -174,14 +294,18 @@ public class PipedStreams {
         return skip;
     }
 
-    private synchronized int available() throws IOException {
+    synchronized int available() throws IOException {
         assert this.check();
         if (this.inputClosed)
             throw new IOException("input closed");
         return this.len;
     }
 
-    private synchronized void closeInput() {
+    synchronized boolean isInputClosed() {
+        return this.inputClosed;
+    }
+
+    synchronized void closeInput() {
         assert this.check();
         if (!this.inputClosed) {
             this.inputClosed = true;
@@ -189,9 +313,18 @@ public class PipedStreams {
         }
     }
 
+    long transferTo(OutputStream out) throws IOException {
+        Objects.requireNonNull(out, "out");
+        final byte[] xfer = new byte[this.buf.length];
+        long total = 0;
+        for (int r; (r = this.read(xfer, 0, xfer.length)) != -1; total += r)
+            out.write(xfer, 0, r);
+        return total;
+    }
+
 // Output methods
 
-    private synchronized void write(int b) throws IOException {
+    synchronized void write(int b) throws IOException {
         assert this.check();
 
         // Wait for room
@@ -207,7 +340,7 @@ public class PipedStreams {
             this.notifyAll();
     }
 
-    private synchronized void write(byte[] b, int off, int len) throws IOException {
+    synchronized void write(byte[] b, int off, int len) throws IOException {
 
         // Check stuff
         assert this.check();
@@ -237,7 +370,39 @@ public class PipedStreams {
         }
     }
 
-    private synchronized void closeOutput() {
+    synchronized int write(ByteBuffer src) throws IOException {
+
+        // Check stuff
+        assert this.check();
+        if (this.outputClosed)
+            throw new ClosedChannelException();
+
+        // Possibly copy two chunks: from buf[off + len] to end of buf, then from buf[0] to buf[off]
+        final int total = src.remaining();
+        while (src.hasRemaining()) {
+
+            // Wait for room
+            this.waitForOutput();
+            assert this.len < this.buf.length;
+
+            // Copy a contiguous range of bytes
+            final int soff = (this.off + this.len) % this.buf.length;                   // starting offset for new data
+            final int num = Math.min(src.remaining(), (soff < this.off ? this.off : this.buf.length) - soff);
+            src.get(this.buf, soff, num);
+            this.len += num;
+
+            // Wakeup waiting readers if we were previously empty
+            if (this.len == num)
+                this.notifyAll();
+        }
+        return total;
+    }
+
+    synchronized boolean isOutputClosed() {
+        return this.outputClosed;
+    }
+
+    synchronized void closeOutput() {
         assert this.check();
         if (!this.outputClosed) {
             this.outputClosed = true;
@@ -333,6 +498,11 @@ public class PipedStreams {
             return PipedStreams.this.available();
         }
 
+        @Override
+        public long transferTo(OutputStream out) throws IOException {
+            return PipedStreams.this.transferTo(out);
+        }
+
         @Override
         public void close() {
             PipedStreams.this.closeInput();
@@ -376,11 +546,84 @@ public class PipedStreams {
         }
     }
 
+// Source class
+
+    /**
+     * The {@link ReadableByteChannel} associated with a {@link PipedStreams} instance.
+     *
+     * @see PipedStreams#getSourceChannel
+     */
+    public final class Source implements ReadableByteChannel, HasPipedStreams {
+
+        private Source() {
+        }
+
+    // HasPipedStreams
+
+        @Override
+        public PipedStreams getPipedStreams() {
+            return PipedStreams.this;
+        }
+
+    // ReadableByteChannel
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return PipedStreams.this.read(dst);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !PipedStreams.this.isInputClosed();
+        }
+
+        @Override
+        public void close() {
+            PipedStreams.this.closeInput();
+        }
+    }
+
+// Sink class
+
+    /**
+     * The {@link WritableByteChannel} associated with a {@link PipedStreams} instance.
+     *
+     * @see PipedStreams#getSinkChannel
+     */
+    public final class Sink implements WritableByteChannel, HasPipedStreams {
+
+        private Sink() {
+        }
+
+    // HasPipedStreams
+
+        @Override
+        public PipedStreams getPipedStreams() {
+            return PipedStreams.this;
+        }
+
+    // WritableByteChannel
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return PipedStreams.this.write(src);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !PipedStreams.this.isOutputClosed();
+        }
+
+        @Override
+        public void close() {
+            PipedStreams.this.closeOutput();
+        }
+    }
+
 // HasPipedStreams
 
     /**
-     * Interface implemented by the {@link InputStream} and {@link OutputStream}
-     * associated with a {@link PipedStreams} instance.
+     * Interface implemented by the streams and channels associated with a {@link PipedStreams} instance.
      */
     public interface HasPipedStreams {
 
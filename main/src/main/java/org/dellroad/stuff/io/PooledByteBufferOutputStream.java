@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * An {@link OutputStream} that collects data in a growing chain of {@link ByteBuffer}s leased from a {@link ByteBufferPool}.
+ *
+ * <p>
+ * Unlike {@link ByteBufferOutputStream}, which writes into a single fixed buffer, this class never overflows: when the
+ * current buffer fills up, another one is leased from the pool. Unlike {@link java.io.ByteArrayOutputStream}, the result
+ * is never copied into a single contiguous array; instead, {@link #getBuffers} returns the data as a {@link ByteBuffer}
+ * array suitable for a {@link GatheringByteChannel}, and {@link #writeTo writeTo()} writes it to one directly.
+ *
+ * <p>
+ * When the data is no longer needed, {@link #release} returns the buffers to the pool. Note that {@link #close}
+ * does not release the buffers, so that the data remains accessible after the stream is closed.
+ *
+ * <p>
+ * Instances are not thread safe.
+ */
+@NotThreadSafe
+public class PooledByteBufferOutputStream extends OutputStream {
+
+    private final ByteBufferPool pool;
+    private final ArrayList<ByteBuffer> buffers = new ArrayList<>();        // all but the last are full
+
+    private ByteBuffer current;                                             // last element of "buffers", or null
+    private long size;
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param pool source of buffers
+     * @throws IllegalArgumentException if {@code pool} is null
+     */
+    public PooledByteBufferOutputStream(ByteBufferPool pool) {
+        if (pool == null)
+            throw new IllegalArgumentException("null pool");
+        this.pool = pool;
+    }
+
+    /**
+     * Get the pool from which this instance leases buffers.
+     *
+     * @return buffer pool
+     */
+    public ByteBufferPool getPool() {
+        return this.pool;
+    }
+
+    /**
+     * Get the number of bytes written so far.
+     *
+     * @return total bytes written
+     */
+    public long size() {
+        return this.size;
+    }
+
+    /**
+     * Get the data written so far.
+     *
+     * <p>
+     * The returned buffers are read-only views of this instance's internal buffers; each has position zero and limit equal
+     * to the amount of data it contains. They remain valid until {@link #release} or {@link #reset} is invoked.
+     * Data written to this instance after this method returns is not included in the returned buffers.
+     *
+     * @return buffers containing the data written so far, in order
+     */
+    public ByteBuffer[] getBuffers() {
+        final ByteBuffer[] result = new ByteBuffer[this.buffers.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = this.buffers.get(i).asReadOnlyBuffer().flip();
+        return result;
+    }
+
+    /**
+     * Write all of the data written so far to the given channel.
+     *
+     * <p>
+     * This instance is not modified, so the same data may be written again.
+     *
+     * @param channel destination channel; must be in blocking mode
+     * @return number of bytes written, i.e., {@link #size}
+     * @throws IOException if {@code channel} throws an exception
+     * @throws IllegalArgumentException if {@code channel} is null
+     */
+    public long writeTo(GatheringByteChannel channel) throws IOException {
+        if (channel == null)
+            throw new IllegalArgumentException("null channel");
+        final ByteBuffer[] bufs = this.getBuffers();
+        long remaining = this.size;
+        int offset = 0;
+        while (remaining > 0) {
+            while (!bufs[offset].hasRemaining())
+                offset++;
+            remaining -= channel.write(bufs, offset, bufs.length - offset);
+        }
+        return this.size;
+    }
+
+    /**
+     * Discard the data written so far and return the buffers to the pool.
+     *
+     * <p>
+     * This instance remains open and may be written to again.
+     */
+    public void reset() {
+        for (ByteBuffer buf : this.buffers)
+            this.pool.release(buf);
+        this.buffers.clear();
+        this.current = null;
+        this.size = 0;
+    }
+
+    /**
+     * Close this instance and return the buffers to the pool.
+     *
+     * <p>
+     * Any buffers previously returned by {@link #getBuffers} must no longer be accessed.
+     */
+    public void release() {
+        this.closed = true;
+        this.reset();
+    }
+
+// OutputStream
+
+    @Override
+    public void write(int value) throws IOException {
+        if (this.closed)
+            throw new IOException("stream is closed");
+        if (this.current == null || !this.current.hasRemaining())
+            this.grow();
+        this.current.put((byte)value);
+        this.size++;
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len < 0 || off + len > data.length)
+            throw new IndexOutOfBoundsException();
+        if (this.closed)
+            throw new IOException("stream is closed");
+        this.size += len;
+        while (len > 0) {
+            if (this.current == null || !this.current.hasRemaining())
+                this.grow();
+            final int num = Math.min(len, this.current.remaining());
+            this.current.put(data, off, num);
+            off += num;
+            len -= num;
+        }
+    }
+
+    /**
+     * Write the remaining bytes in the given buffer.
+     *
+     * <p>
+     * Upon return, {@code src} will have no remaining bytes.
+     *
+     * @param src data to write
+     * @throws IOException if this instance is closed
+     * @throws IllegalArgumentException if {@code src} is null
+     */
+    public void write(ByteBuffer src) throws IOException {
+        if (src == null)
+            throw new IllegalArgumentException("null src");
+        if (this.closed)
+            throw new IOException("stream is closed");
+        this.size += src.remaining();
+        while (src.hasRemaining()) {
+            if (this.current == null || !this.current.hasRemaining())
+                this.grow();
+            final int num = Math.min(src.remaining(), this.current.remaining());
+            this.current.put(this.current.position(), src, src.position(), num);
+            this.current.position(this.current.position() + num);
+            src.position(src.position() + num);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (this.closed)
+            throw new IOException("stream is closed");
+    }
+
+    /**
+     * Close this instance.
+     *
+     * <p>
+     * The data written remains available; use {@link #release} to return the buffers to the pool.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+    }
+
+// Internal methods
+
+    private void grow() {
+        this.current = this.pool.acquire();
+        this.buffers.add(this.current);
+    }
+}
@@ -113,6 +113,17 @@ public class Averager implements Cloneable {
         this.m2 = 0;
     }
 
+    /**
+     * Replace this instance's data points with those of the given instance.
+     *
+     * @param that other instance
+     */
+    void copyFrom(Averager that) {
+        this.count = that.count;
+        this.mean = that.mean;
+        this.m2 = that.m2;
+    }
+
     /**
      * Get the number of data points added so far.
      *
@@ -0,0 +1,654 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * {@link LinkedList} implementation that stores its elements in a doubly linked list of fixed size arrays ("chunks"),
+ * also known as an unrolled linked list.
+ *
+ * <p>
+ * Compared to {@link java.util.LinkedList}, which allocates a node for every element, this class has much lower
+ * per-element memory overhead and much better cache locality. Adding and removing elements at either end takes
+ * constant time and allocates a new chunk only once every {@value #CHUNK_SIZE} elements; in addition, one emptied
+ * chunk is retained for reuse, so a list used as a queue whose size stays roughly constant does not allocate at all.
+ *
+ * <p>
+ * Positional operations such as {@link #get get()}, {@link #set set()}, {@link #add(int, Object) add()} and
+ * {@link #remove(int) remove()} skip over whole chunks at a time, starting from whichever of the head, the tail,
+ * or the most recently accessed chunk is closest, so sequential access by index takes constant amortized time.
+ * Inserting or removing in the middle of the list only moves elements within a single chunk; chunks that become
+ * sparse are merged with their neighbors.
+ *
+ * <p>
+ * Null elements are permitted. Iterators are fail-fast. Instances are not thread safe.
+ *
+ * @param <E> element type
+ */
+@NotThreadSafe
+public class ChunkedLinkedList<E> extends AbstractList<E> implements LinkedList<E>, Cloneable, Serializable {
+
+    /**
+     * The number of elements that fit in a single chunk.
+     */
+    public static final int CHUNK_SIZE = 64;
+
+    private static final long serialVersionUID = -3169462104788240136L;
+
+    private transient Chunk first;
+    private transient Chunk last;
+    private transient Chunk spare;                          // an emptied chunk retained for reuse
+    private transient int size;
+
+    private transient Chunk finger;                         // most recently located chunk, or null if invalid
+    private transient int fingerBase;                       // list index of the first element in "finger"
+
+// Constructors
+
+    /**
+     * Constructs an empty list.
+     */
+    public ChunkedLinkedList() {
+    }
+
+    /**
+     * Constructs a list containing the elements of the given collection, in iteration order.
+     *
+     * @param elems initial contents
+     * @throws IllegalArgumentException if {@code elems} is null
+     */
+    public ChunkedLinkedList(Collection<? extends E> elems) {
+        if (elems == null)
+            throw new IllegalArgumentException("null elems");
+        for (E elem : elems)
+            this.addLast(elem);
+    }
+
+// LinkedList
+
+    @Override
+    public void addFirst(E elem) {
+        Chunk chunk = this.first;
+        if (chunk == null || chunk.start == 0) {
+            chunk = this.newChunk(CHUNK_SIZE);
+            this.linkAfter(null, chunk);
+        }
+        chunk.elems[--chunk.start] = elem;
+        this.size++;
+        this.modified();
+    }
+
+    @Override
+    public void addLast(E elem) {
+        Chunk chunk = this.last;
+        if (chunk == null || chunk.end == CHUNK_SIZE) {
+            chunk = this.newChunk(0);
+            this.linkAfter(this.last, chunk);
+        }
+        chunk.elems[chunk.end++] = elem;
+        this.size++;
+        this.modified();
+    }
+
+    @Override
+    public E getFirst() {
+        if (this.size == 0)
+            throw new NoSuchElementException();
+        return this.first.get(0);
+    }
+
+    @Override
+    public E getLast() {
+        if (this.size == 0)
+            throw new NoSuchElementException();
+        return this.last.get(this.last.size() - 1);
+    }
+
+    @Override
+    public E removeFirst() {
+        if (this.size == 0)
+            throw new NoSuchElementException();
+        final Chunk chunk = this.first;
+        final E elem = chunk.get(0);
+        chunk.elems[chunk.start++] = null;
+        this.size--;
+        this.modified();
+        if (chunk.start == chunk.end)
+            this.unlink(chunk);
+        return elem;
+    }
+
+    @Override
+    public E removeLast() {
+        if (this.size == 0)
+            throw new NoSuchElementException();
+        final Chunk chunk = this.last;
+        final E elem = chunk.get(chunk.size() - 1);
+        chunk.elems[--chunk.end] = null;
+        this.size--;
+        this.modified();
+        if (chunk.start == chunk.end)
+            this.unlink(chunk);
+        return elem;
+    }
+
+// Queue
+
+    @Override
+    public boolean offer(E elem) {
+        this.addLast(elem);
+        return true;
+    }
+
+    @Override
+    public E remove() {
+        return this.removeFirst();
+    }
+
+    @Override
+    public E poll() {
+        return this.size > 0 ? this.removeFirst() : null;
+    }
+
+    @Override
+    public E element() {
+        return this.getFirst();
+    }
+
+    @Override
+    public E peek() {
+        return this.size > 0 ? this.first.get(0) : null;
+    }
+
+// List
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean add(E elem) {
+        this.addLast(elem);
+        return true;
+    }
+
+    @Override
+    public E get(int index) {
+        Objects.checkIndex(index, this.size);
+        final Chunk chunk = this.locate(index);
+        return chunk.get(index - this.fingerBase);
+    }
+
+    @Override
+    public E set(int index, E elem) {
+        Objects.checkIndex(index, this.size);
+        final Chunk chunk = this.locate(index);
+        final int pos = chunk.start + index - this.fingerBase;
+        @SuppressWarnings("unchecked")
+        final E previous = (E)chunk.elems[pos];
+        chunk.elems[pos] = elem;
+        return previous;
+    }
+
+    @Override
+    public void add(int index, E elem) {
+        Objects.checkIndex(index, this.size + 1);
+        if (index == this.size)
+            this.addLast(elem);
+        else if (index == 0)
+            this.addFirst(elem);
+        else {
+            final Chunk chunk = this.locate(index);
+            this.insertAt(chunk, index - this.fingerBase, elem);
+        }
+    }
+
+    @Override
+    public E remove(int index) {
+        Objects.checkIndex(index, this.size);
+        if (index == 0)
+            return this.removeFirst();
+        if (index == this.size - 1)
+            return this.removeLast();
+        final Chunk chunk = this.locate(index);
+        return this.removeAt(chunk, index - this.fingerBase);
+    }
+
+    @Override
+    public int indexOf(Object obj) {
+        int base = 0;
+        for (Chunk chunk = this.first; chunk != null; chunk = chunk.next) {
+            for (int pos = chunk.start; pos < chunk.end; pos++) {
+                if (Objects.equals(obj, chunk.elems[pos]))
+                    return base + pos - chunk.start;
+            }
+            base += chunk.size();
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object obj) {
+        int base = this.size;
+        for (Chunk chunk = this.last; chunk != null; chunk = chunk.prev) {
+            base -= chunk.size();
+            for (int pos = chunk.end - 1; pos >= chunk.start; pos--) {
+                if (Objects.equals(obj, chunk.elems[pos]))
+                    return base + pos - chunk.start;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object obj) {
+        return this.indexOf(obj) != -1;
+    }
+
+    @Override
+    public void clear() {
+        for (Chunk chunk = this.first; chunk != null; chunk = chunk.next)
+            Arrays.fill(chunk.elems, chunk.start, chunk.end, null);
+        this.first = null;
+        this.last = null;
+        this.size = 0;
+        this.modified();
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iter(0);
+    }
+
+    @Override
+    public ListIterator<E> listIterator() {
+        return new Iter(0);
+    }
+
+    @Override
+    public ListIterator<E> listIterator(int index) {
+        Objects.checkIndex(index, this.size + 1);
+        return new Iter(index);
+    }
+
+// Cloneable
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ChunkedLinkedList<E> clone() {
+        final ChunkedLinkedList<E> clone;
+        try {
+            clone = (ChunkedLinkedList<E>)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        clone.first = null;
+        clone.last = null;
+        clone.spare = null;
+        clone.finger = null;
+        clone.size = 0;
+        clone.modCount = 0;
+        for (Chunk chunk = this.first; chunk != null; chunk = chunk.next) {
+            final Chunk copy = clone.newChunk(0);
+            System.arraycopy(chunk.elems, chunk.start, copy.elems, 0, chunk.size());
+            copy.end = chunk.size();
+            clone.linkAfter(clone.last, copy);
+            clone.size += copy.end;
+        }
+        return clone;
+    }
+
+// Serialization
+
+    private void writeObject(ObjectOutputStream output) throws IOException {
+        output.defaultWriteObject();
+        output.writeInt(this.size);
+        for (Chunk chunk = this.first; chunk != null; chunk = chunk.next) {
+            for (int pos = chunk.start; pos < chunk.end; pos++)
+                output.writeObject(chunk.elems[pos]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+        final int count = input.readInt();
+        for (int i = 0; i < count; i++)
+            this.addLast((E)input.readObject());
+    }
+
+// Internal methods
+
+    // Find the chunk containing the element at the given index, which must be valid, and update the finger
+    private Chunk locate(int index) {
+
+        // Start from whichever known chunk boundary is closest
+        Chunk chunk = this.first;
+        int base = 0;
+        int distance = index;
+        final int lastBase = this.size - this.last.size();
+        if (Math.abs(index - lastBase) < distance) {
+            chunk = this.last;
+            base = lastBase;
+            distance = Math.abs(index - lastBase);
+        }
+        if (this.finger != null && Math.abs(index - this.fingerBase) < distance) {
+            chunk = this.finger;
+            base = this.fingerBase;
+        }
+
+        // Skip over whole chunks until we get there
+        while (index < base) {
+            chunk = chunk.prev;
+            base -= chunk.size();
+        }
+        while (index >= base + chunk.size()) {
+            base += chunk.size();
+            chunk = chunk.next;
+        }
+        this.finger = chunk;
+        this.fingerBase = base;
+        return chunk;
+    }
+
+    // Insert an element at the given offset (0 to size inclusive) in the given chunk, returning the chunk where it ended up.
+    // If that's not the original chunk, the element's offset in it is the original offset minus the original chunk's new size.
+    private Chunk insertAt(Chunk chunk, int offset, E elem) {
+        this.size++;
+        this.modified();
+
+        // If the chunk is full, try the next chunk or else split this chunk in half
+        if (chunk.size() == CHUNK_SIZE) {
+            final Chunk next = chunk.next;
+            if (offset == CHUNK_SIZE && next != null && next.start > 0) {
+                next.elems[--next.start] = elem;
+                return next;
+            }
+            final Chunk split = this.newChunk(0);
+            final int half = CHUNK_SIZE / 2;
+            System.arraycopy(chunk.elems, chunk.start + half, split.elems, 0, CHUNK_SIZE - half);
+            Arrays.fill(chunk.elems, chunk.start + half, chunk.end, null);
+            split.end = CHUNK_SIZE - half;
+            chunk.end = chunk.start + half;
+            this.linkAfter(chunk, split);
+            if (offset > half) {
+                split.insert(offset - half, elem);
+                return split;
+            }
+        }
+        chunk.insert(offset, elem);
+        return chunk;
+    }
+
+    // Remove the element at the given offset in the given chunk. Afterward, if the chunk still exists,
+    // the removed element's successor (if any) is at the same offset; otherwise, it's at the start of the next chunk.
+    private E removeAt(Chunk chunk, int offset) {
+        final E elem = chunk.remove(offset);
+        this.size--;
+        this.modified();
+        if (chunk.start == chunk.end) {
+            this.unlink(chunk);
+            return elem;
+        }
+
+        // Merge sparse neighbors to avoid fragmentation
+        final Chunk next = chunk.next;
+        if (next != null && chunk.size() + next.size() <= CHUNK_SIZE / 2) {
+            final int count = chunk.size();
+            System.arraycopy(chunk.elems, chunk.start, chunk.elems, 0, count);
+            Arrays.fill(chunk.elems, Math.max(count, chunk.start), chunk.end, null);
+            System.arraycopy(next.elems, next.start, chunk.elems, count, next.size());
+            chunk.start = 0;
+            chunk.end = count + next.size();
+            Arrays.fill(next.elems, next.start, next.end, null);
+            next.start = 0;
+            next.end = 0;
+            this.unlink(next);
+        }
+        return elem;
+    }
+
+    private Chunk newChunk(int position) {
+        Chunk chunk = this.spare;
+        if (chunk != null)
+            this.spare = null;
+        else
+            chunk = new Chunk();
+        chunk.start = position;
+        chunk.end = position;
+        return chunk;
+    }
+
+    // Link the chunk into the list after the given chunk, or at the head if null
+    private void linkAfter(Chunk prev, Chunk chunk) {
+        final Chunk next = prev != null ? prev.next : this.first;
+        chunk.prev = prev;
+        chunk.next = next;
+        if (prev != null)
+            prev.next = chunk;
+        else
+            this.first = chunk;
+        if (next != null)
+            next.prev = chunk;
+        else
+            this.last = chunk;
+    }
+
+    // Unlink an empty chunk and keep it for reuse
+    private void unlink(Chunk chunk) {
+        final Chunk prev = chunk.prev;
+        final Chunk next = chunk.next;
+        if (prev != null)
+            prev.next = next;
+        else
+            this.first = next;
+        if (next != null)
+            next.prev = prev;
+        else
+            this.last = prev;
+        chunk.prev = null;
+        chunk.next = null;
+        this.spare = chunk;
+    }
+
+    private void modified() {
+        this.modCount++;
+        this.finger = null;
+    }
+
+// Chunk
+
+    private static final class Chunk {
+
+        final Object[] elems = new Object[CHUNK_SIZE];
+        int start;                                          // offset of first element
+        int end;                                            // offset after last element
+        Chunk prev;
+        Chunk next;
+
+        int size() {
+            return this.end - this.start;
+        }
+
+        @SuppressWarnings("unchecked")
+        <E> E get(int offset) {
+            return (E)this.elems[this.start + offset];
+        }
+
+        // Insert at offset, shifting whichever side is shorter (if there's room); chunk must not be full
+        void insert(int offset, Object elem) {
+            final int pos = this.start + offset;
+            if (this.end < CHUNK_SIZE && (this.start == 0 || offset >= this.size() / 2)) {
+                System.arraycopy(this.elems, pos, this.elems, pos + 1, this.end - pos);
+                this.elems[pos] = elem;
+                this.end++;
+            } else {
+                System.arraycopy(this.elems, this.start, this.elems, this.start - 1, offset);
+                this.elems[--this.start + offset] = elem;
+            }
+        }
+
+        // Remove at offset, shifting whichever side is shorter
+        @SuppressWarnings("unchecked")
+        <E> E remove(int offset) {
+            final int pos = this.start + offset;
+            final E elem = (E)this.elems[pos];
+            if (offset < this.size() / 2) {
+                System.arraycopy(this.elems, this.start, this.elems, this.start + 1, offset);
+                this.elems[this.start++] = null;
+            } else {
+                System.arraycopy(this.elems, pos + 1, this.elems, pos, this.end - pos - 1);
+                this.elems[--this.end] = null;
+            }
+            return elem;
+        }
+    }
+
+// Iter
+
+    private class Iter implements ListIterator<E> {
+
+        private Chunk chunk;                                // chunk containing the next element (or null if list is empty)
+        private int offset;                                 // offset of the next element in chunk (may equal chunk size)
+        private int index;                                  // list index of the next element
+        private Chunk lastChunk;                            // chunk containing last returned element, or null if none
+        private int lastOffset;
+        private int lastIndex;
+        private int expectedModCount = ChunkedLinkedList.this.modCount;
+
+        Iter(int index) {
+            this.index = index;
+            if (index == ChunkedLinkedList.this.size)
+                this.positionAtEnd();
+            else {
+                this.chunk = ChunkedLinkedList.this.locate(index);
+                this.offset = index - ChunkedLinkedList.this.fingerBase;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.index < ChunkedLinkedList.this.size;
+        }
+
+        @Override
+        public E next() {
+            this.checkModCount();
+            if (this.index >= ChunkedLinkedList.this.size)
+                throw new NoSuchElementException();
+            while (this.offset >= this.chunk.size()) {
+                this.chunk = this.chunk.next;
+                this.offset = 0;
+            }
+            this.lastChunk = this.chunk;
+            this.lastOffset = this.offset;
+            this.lastIndex = this.index++;
+            return this.chunk.get(this.offset++);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return this.index > 0;
+        }
+
+        @Override
+        public E previous() {
+            this.checkModCount();
+            if (this.index <= 0)
+                throw new NoSuchElementException();
+            while (this.offset == 0) {
+                this.chunk = this.chunk.prev;
+                this.offset = this.chunk.size();
+            }
+            this.lastChunk = this.chunk;
+            this.lastOffset = --this.offset;
+            this.lastIndex = --this.index;
+            return this.chunk.get(this.offset);
+        }
+
+        @Override
+        public int nextIndex() {
+            return this.index;
+        }
+
+        @Override
+        public int previousIndex() {
+            return this.index - 1;
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastChunk == null)
+                throw new IllegalStateException();
+            this.checkModCount();
+            final boolean emptied = this.lastChunk.size() == 1;
+            final Chunk next = this.lastChunk.next;
+            ChunkedLinkedList.this.removeAt(this.lastChunk, this.lastOffset);
+            this.index = this.lastIndex;
+            if (this.index == ChunkedLinkedList.this.size)
+                this.positionAtEnd();
+            else if (emptied) {
+                this.chunk = next;
+                this.offset = 0;
+            } else {
+                this.chunk = this.lastChunk;
+                this.offset = this.lastOffset;
+            }
+            this.lastChunk = null;
+            this.expectedModCount = ChunkedLinkedList.this.modCount;
+        }
+
+        @Override
+        public void set(E elem) {
+            if (this.lastChunk == null)
+                throw new IllegalStateException();
+            this.checkModCount();
+            this.lastChunk.elems[this.lastChunk.start + this.lastOffset] = elem;
+        }
+
+        @Override
+        public void add(E elem) {
+            this.checkModCount();
+            if (this.index == ChunkedLinkedList.this.size) {
+                ChunkedLinkedList.this.addLast(elem);
+                this.positionAtEnd();
+            } else {
+                final Chunk target = ChunkedLinkedList.this.insertAt(this.chunk, this.offset, elem);
+                if (target != this.chunk)
+                    this.offset -= this.chunk.size();
+                this.chunk = target;
+                this.offset++;
+            }
+            this.index++;
+            this.lastChunk = null;
+            this.expectedModCount = ChunkedLinkedList.this.modCount;
+        }
+
+        private void positionAtEnd() {
+            this.chunk = ChunkedLinkedList.this.last;
+            this.offset = this.chunk != null ? this.chunk.size() : 0;
+        }
+
+        private void checkModCount() {
+            if (ChunkedLinkedList.this.modCount != this.expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A thread safe {@link Averager} intended for high-rate concurrent updates.
+ *
+ * <p>
+ * In the style of {@link java.util.concurrent.atomic.LongAdder}, data points are accumulated into a fixed number
+ * of separately locked cells, chosen by hashing the updating thread, so concurrent calls to {@link #addValue addValue()}
+ * from different threads rarely contend with each other. A thread that finds its cell locked by another thread moves
+ * on to a different cell, and cells are padded so that adjacent cells do not share a cache line. The number of cells
+ * is proportional to the number of processors, regardless of how many threads have ever updated the instance.
+ * The cells are combined using {@link Averager#add Averager.add()} only when the statistics are read, which is
+ * comparatively expensive; typically a single thread periodically calls {@link #snapshotAndReset}.
+ *
+ * <p>
+ * A snapshot taken while updates are in progress reflects some, but not necessarily all, of those updates.
+ *
+ * @see Averager
+ */
+@ThreadSafe
+public class ConcurrentAverager {
+
+    private static final int MAX_STRIPES = 64;
+    private static final int NUM_STRIPES = Math.min(MAX_STRIPES,                // processors, rounded up to a power of 2
+      Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+    // Each thread's current cell index; rehashed when the thread finds its cell contended
+    private static final ThreadLocal<int[]> PROBE = ThreadLocal.withInitial(
+      () -> new int[] { (int)LongHashTable.mix(Thread.currentThread().getId()) | 1 });
+
+    private final Cell[] cells = new Cell[NUM_STRIPES];
+
+// Constructors
+
+    /**
+     * Constructor.
+     */
+    public ConcurrentAverager() {
+        for (int i = 0; i < this.cells.length; i++)
+            this.cells[i] = new Cell();
+    }
+
+// Methods
+
+    /**
+     * Add a value.
+     *
+     * @param value value to add to the running average
+     * @throws IllegalArgumentException if {@code value} is {@code NaN} or infinity
+     */
+    public void addValue(double value) {
+        final Cell cell = this.lockThreadCell();
+        try {
+            cell.addValue(value);
+        } finally {
+            cell.unlock();
+        }
+    }
+
+    /**
+     * Add all of the data points in the given instance to this instance.
+     *
+     * @param that data points to add
+     * @throws NullPointerException if {@code that} is null
+     */
+    public void add(Averager that) {
+        Preconditions.checkNotNull(that, "null that");
+        final Cell cell = this.lockThreadCell();
+        try {
+            cell.copyFrom(cell.add(that));
+        } finally {
+            cell.unlock();
+        }
+    }
+
+    /**
+     * Get a snapshot of the data points added to this instance so far.
+     *
+     * @return combined average
+     */
+    public Averager snapshot() {
+        final Averager result = new Averager();
+        for (Cell cell : this.cells) {
+            cell.lock();
+            try {
+                result.copyFrom(result.add(cell));
+            } finally {
+                cell.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a snapshot of the data points added to this instance so far, and reset this instance.
+     *
+     * <p>
+     * Every data point is included in exactly one snapshot, even if updates are in progress.
+     *
+     * @return combined average
+     */
+    public Averager snapshotAndReset() {
+        final Averager result = new Averager();
+        for (Cell cell : this.cells) {
+            cell.lock();
+            try {
+                result.copyFrom(result.add(cell));
+                cell.reset();
+            } finally {
+                cell.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reset this instance.
+     */
+    public void reset() {
+        for (Cell cell : this.cells) {
+            cell.lock();
+            try {
+                cell.reset();
+            } finally {
+                cell.unlock();
+            }
+        }
+    }
+
+    /**
+     * Get the number of data points added so far.
+     *
+     * @return the number of data points added to this instance
+     */
+    public int size() {
+        int size = 0;
+        for (Cell cell : this.cells) {
+            cell.lock();
+            try {
+                size += cell.size();
+            } finally {
+                cell.unlock();
+            }
+        }
+        return size;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.snapshot().toString();
+    }
+
+// Internal methods
+
+    // Lock the current thread's cell; on contention, move the thread to another cell like Striped64 does
+    private Cell lockThreadCell() {
+        final int[] probe = PROBE.get();
+        final int mask = this.cells.length - 1;
+        for (int attempt = 0; attempt < this.cells.length; attempt++) {
+            final Cell cell = this.cells[probe[0] & mask];
+            if (cell.tryLock())
+                return cell;
+            probe[0] = ConcurrentAverager.xorshift(probe[0]);
+        }
+        final Cell cell = this.cells[probe[0] & mask];
+        cell.lock();
+        return cell;
+    }
+
+    private static int xorshift(int probe) {
+        probe ^= probe << 13;
+        probe ^= probe >>> 17;
+        probe ^= probe << 5;
+        return probe;
+    }
+
+// Cell
+
+    // Superclass fields are laid out first, so the lock shares a cache line with the Averager state it guards
+    private static class LockableAverager extends Averager {
+
+        private static final AtomicIntegerFieldUpdater<LockableAverager> LOCKED
+          = AtomicIntegerFieldUpdater.newUpdater(LockableAverager.class, "locked");
+
+        private volatile int locked;
+
+        boolean tryLock() {
+            return this.locked == 0 && LOCKED.compareAndSet(this, 0, 1);
+        }
+
+        // Critical sections are only a few arithmetic operations, so spinning beats parking
+        void lock() {
+            while (!this.tryLock())
+                Thread.onSpinWait();
+        }
+
+        void unlock() {
+            this.locked = 0;
+        }
+    }
+
+    // Padding keeps the next cell, allocated right after this one, off of this cell's cache line
+    @SuppressWarnings("unused")
+    private static final class Cell extends LockableAverager {
+        private long pad0;
+        private long pad1;
+        private long pad2;
+        private long pad3;
+        private long pad4;
+        private long pad5;
+        private long pad6;
+        private long pad7;
+    }
+}
@@ -0,0 +1,743 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * A thread safe map with {@code long} keys.
+ *
+ * <p>
+ * Like {@link LongMap}, this implementation stores keys in {@code long[]} arrays using open addressing, so keys
+ * are never boxed. The map is divided into a fixed number of segments, each of which is an independent hash table
+ * with its own lock; the segment for a key is chosen from the high bits of the key's hash.
+ *
+ * <p>
+ * Read operations ({@link #get(long) get()}, {@link #containsKey(long) containsKey()}, etc.) do not lock and
+ * proceed concurrently with each other and with writes. Write operations lock only the affected segment.
+ * The {@link #computeIfAbsent(long, LongFunction) computeIfAbsent()} and {@link #merge(long, Object, BiFunction) merge()}
+ * methods are atomic; their functions are invoked while holding the segment lock, so they should be short
+ * and must not access this map.
+ *
+ * <p>
+ * Within a segment's table, a key's slot never changes once assigned. Removing a key clears its value but leaves
+ * the key in place until the table is next rebuilt; this is what allows readers to probe without locking.
+ * Re-adding a removed key reuses its slot.
+ *
+ * <p>
+ * Null values are not supported. Iterators are weakly consistent, as in {@link java.util.concurrent.ConcurrentHashMap}.
+ *
+ * @param <V> value type
+ * @see LongMap
+ */
+@ThreadSafe
+public class ConcurrentLongMap<V> extends AbstractMap<Long, V> implements ConcurrentMap<Long, V> {
+
+    /**
+     * Default number of segments.
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private static final float EXPAND_THRESHOLD = 0.70f;    // rebuild segment table when > 70% of slots are used
+    private static final float REBUILD_LOAD = 0.40f;        // target fraction of used slots after a rebuild
+
+    private static final int MIN_LOG2_LENGTH = 4;           // minimum array length = 16 slots
+    private static final int MAX_LOG2_LENGTH = 30;          // maximum array length = 1 billion slots
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+// Constructors
+
+    /**
+     * Constructs an empty instance with the default concurrency level.
+     */
+    public ConcurrentLongMap() {
+        this(0, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructs an instance with the given initial capacity and the default concurrency level.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public ConcurrentLongMap(int capacity) {
+        this(capacity, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructs an instance with the given initial capacity and concurrency level.
+     *
+     * <p>
+     * The concurrency level is rounded up to the next power of two and determines the number of segments,
+     * and therefore the number of writers that can proceed simultaneously.
+     *
+     * @param capacity initial capacity
+     * @param concurrencyLevel expected number of concurrent writers
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     * @throws IllegalArgumentException if {@code concurrencyLevel} is not positive
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongMap(int capacity, int concurrencyLevel) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity < 0");
+        if (concurrencyLevel <= 0)
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        concurrencyLevel = Math.min(concurrencyLevel, MAX_SEGMENTS);
+        final int log2segments = 32 - Integer.numberOfLeadingZeros(concurrencyLevel - 1);
+        this.segmentShift = 64 - log2segments;
+        this.segments = (Segment<V>[])new Segment<?>[1 << log2segments];
+        final int segmentCapacity = (capacity & 0x3fffffff) >> log2segments;
+        for (int i = 0; i < this.segments.length; i++)
+            this.segments[i] = new Segment<>(segmentCapacity);
+    }
+
+// Methods
+
+    /**
+     * Get the number of entries in this instance.
+     *
+     * <p>
+     * The returned value is only an estimate if this instance is being concurrently modified.
+     *
+     * @return number of entries, or {@link Integer#MAX_VALUE} if there are more than that
+     */
+    @Override
+    public int size() {
+        long total = 0;
+        for (Segment<V> segment : this.segments)
+            total += segment.size;
+        return (int)Math.min(total, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Segment<V> segment : this.segments) {
+            if (segment.size != 0)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object obj) {
+        return obj instanceof Long && this.containsKey(((Long)obj).longValue());
+    }
+
+    /**
+     * Determine if this instance contains the given key.
+     *
+     * @param key key to find
+     * @return true if {@code key} is present
+     */
+    public boolean containsKey(long key) {
+        return this.get(key) != null;
+    }
+
+    @Override
+    public V get(Object obj) {
+        return obj instanceof Long ? this.get(((Long)obj).longValue()) : null;
+    }
+
+    /**
+     * Get the value associated with the given key.
+     *
+     * <p>
+     * This method does not lock.
+     *
+     * @param key key to find
+     * @return associated value, or null if not found
+     */
+    public V get(long key) {
+        final long hash = LongHashTable.mix(key);
+        return this.segmentFor(hash).get(key, hash);
+    }
+
+    /**
+     * Get the value associated with the given key, or the given default value if not found.
+     *
+     * @param key key to find
+     * @param defaultValue value to return if {@code key} is not found
+     * @return associated value, or {@code defaultValue} if {@code key} is not found
+     */
+    public V getOrDefault(long key, V defaultValue) {
+        final V value = this.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public V put(Long key, V value) {
+        return this.put(ConcurrentLongMap.checkKey(key), value);
+    }
+
+    /**
+     * Associate a value with the given key.
+     *
+     * @param key key
+     * @param value new value
+     * @return previous value associated with {@code key}, or null if there was none
+     * @throws IllegalArgumentException if {@code value} is null
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    public V put(long key, V value) {
+        ConcurrentLongMap.checkValue(value);
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        synchronized (segment) {
+            return segment.put(key, hash, value, false);
+        }
+    }
+
+    @Override
+    public V putIfAbsent(Long key, V value) {
+        return this.putIfAbsent(ConcurrentLongMap.checkKey(key), value);
+    }
+
+    /**
+     * Associate a value with the given key, but only if the key is not already present.
+     *
+     * @param key key
+     * @param value new value
+     * @return existing value associated with {@code key}, or null if there was none and {@code value} was added
+     * @throws IllegalArgumentException if {@code value} is null
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    public V putIfAbsent(long key, V value) {
+        ConcurrentLongMap.checkValue(value);
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        synchronized (segment) {
+            return segment.put(key, hash, value, true);
+        }
+    }
+
+    @Override
+    public V remove(Object obj) {
+        return obj instanceof Long ? this.remove(((Long)obj).longValue()) : null;
+    }
+
+    /**
+     * Remove the given key, if present.
+     *
+     * @param key key to remove
+     * @return value previously associated with {@code key}, or null if there was none
+     */
+    public V remove(long key) {
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        synchronized (segment) {
+            return segment.replace(key, hash, null, null);
+        }
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return key instanceof Long && value != null && this.remove(((Long)key).longValue(), value);
+    }
+
+    /**
+     * Remove the given key, but only if it is currently associated with the given value.
+     *
+     * @param key key to remove
+     * @param value expected value
+     * @return true if {@code key} was removed
+     */
+    public boolean remove(long key, Object value) {
+        if (value == null)
+            return false;
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        synchronized (segment) {
+            return segment.replace(key, hash, value, null) != null;
+        }
+    }
+
+    @Override
+    public V replace(Long key, V value) {
+        return this.replace(ConcurrentLongMap.checkKey(key), value);
+    }
+
+    /**
+     * Associate a value with the given key, but only if the key is already present.
+     *
+     * @param key key
+     * @param value new value
+     * @return previous value associated with {@code key}, or null if there was none
+     * @throws IllegalArgumentException if {@code value} is null
+     */
+    public V replace(long key, V value) {
+        ConcurrentLongMap.checkValue(value);
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        synchronized (segment) {
+            return segment.replace(key, hash, null, value);
+        }
+    }
+
+    @Override
+    public boolean replace(Long key, V oldValue, V newValue) {
+        return this.replace(ConcurrentLongMap.checkKey(key), oldValue, newValue);
+    }
+
+    /**
+     * Associate a value with the given key, but only if the key is currently associated with the given value.
+     *
+     * @param key key
+     * @param oldValue expected value
+     * @param newValue new value
+     * @return true if the value was replaced
+     * @throws IllegalArgumentException if {@code oldValue} or {@code newValue} is null
+     */
+    public boolean replace(long key, V oldValue, V newValue) {
+        ConcurrentLongMap.checkValue(oldValue);
+        ConcurrentLongMap.checkValue(newValue);
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        synchronized (segment) {
+            return segment.replace(key, hash, oldValue, newValue) != null;
+        }
+    }
+
+    @Override
+    public V computeIfAbsent(Long key, Function<? super Long, ? extends V> function) {
+        if (function == null)
+            throw new IllegalArgumentException("null function");
+        return this.computeIfAbsent(ConcurrentLongMap.checkKey(key), (LongFunction<? extends V>)function::apply);
+    }
+
+    /**
+     * Atomically get the value associated with the given key, or compute and add it if the key is not present.
+     *
+     * <p>
+     * If the key is already present, this method does not lock. Otherwise, {@code function} is invoked while
+     * holding the segment lock; if it returns null, nothing is added.
+     *
+     * @param key key
+     * @param function computes the value for {@code key}
+     * @return the existing or computed value associated with {@code key}, or null if none
+     * @throws IllegalArgumentException if {@code function} is null
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> function) {
+        if (function == null)
+            throw new IllegalArgumentException("null function");
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        V value = segment.get(key, hash);
+        if (value != null)
+            return value;
+        synchronized (segment) {
+            if ((value = segment.get(key, hash)) != null)
+                return value;
+            if ((value = function.apply(key)) != null)
+                segment.put(key, hash, value, false);
+            return value;
+        }
+    }
+
+    @Override
+    public V merge(Long key, V value, BiFunction<? super V, ? super V, ? extends V> function) {
+        return this.merge(ConcurrentLongMap.checkKey(key), value, function);
+    }
+
+    /**
+     * Atomically merge the given value with the value associated with the given key.
+     *
+     * <p>
+     * If the key is not present, it is associated with {@code value}. Otherwise, {@code function} is invoked
+     * with the existing value and {@code value} while holding the segment lock; the key is then associated
+     * with the result, or removed if the result is null.
+     *
+     * @param key key
+     * @param value value to merge
+     * @param function merge function
+     * @return the new value associated with {@code key}, or null if none
+     * @throws IllegalArgumentException if {@code value} or {@code function} is null
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    public V merge(long key, V value, BiFunction<? super V, ? super V, ? extends V> function) {
+        ConcurrentLongMap.checkValue(value);
+        if (function == null)
+            throw new IllegalArgumentException("null function");
+        final long hash = LongHashTable.mix(key);
+        final Segment<V> segment = this.segmentFor(hash);
+        synchronized (segment) {
+            final V oldValue = segment.get(key, hash);
+            final V newValue = oldValue != null ? function.apply(oldValue, value) : value;
+            if (newValue != null)
+                segment.put(key, hash, newValue, false);
+            else
+                segment.replace(key, hash, null, null);
+            return newValue;
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<V> segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<Long, V>> entrySet() {
+        return new EntrySet();
+    }
+
+// Object
+
+    // Avoid checkstyle warning
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    // Avoid checkstyle warning
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj);
+    }
+
+// Internal methods
+
+    private Segment<V> segmentFor(long hash) {
+        return this.segments[(int)(hash >>> this.segmentShift) & (this.segments.length - 1)];
+    }
+
+    private static long checkKey(Long key) {
+        if (key == null)
+            throw new IllegalArgumentException("null key");
+        return key;
+    }
+
+    private static void checkValue(Object value) {
+        if (value == null)
+            throw new IllegalArgumentException("null value");
+    }
+
+// Table
+
+    // Key slots, once assigned, never change; a null value means the key is absent
+    private static final class Table {
+
+        final long[] keys;                                  // has length always a power of 2
+        final Object[] values;
+        final int log2len;
+        final int upperUsedLimit;                           // number of used slots that triggers a rebuild
+
+        Table(int log2len) {
+            this.log2len = log2len;
+            final int arrayLength = 1 << log2len;
+            this.keys = new long[arrayLength];
+            this.values = new Object[arrayLength];
+            this.upperUsedLimit = log2len < MAX_LOG2_LENGTH ? (int)(EXPAND_THRESHOLD * arrayLength) : arrayLength - 1;
+        }
+
+        static Table forCapacity(int capacity) {
+            capacity = Math.max(1, (int)(capacity / REBUILD_LOAD));
+            int log2len = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+            log2len = Math.max(MIN_LOG2_LENGTH, log2len);
+            log2len = Math.min(MAX_LOG2_LENGTH, log2len);
+            return new Table(log2len);
+        }
+
+        // Find the slot containing the given non-zero key, or else the empty slot where it would go
+        int findSlot(long key, long hash) {
+            final int mask = this.keys.length - 1;
+            int slot = (int)hash & mask;
+            while (true) {
+                final long existing = (long)KEYS.getAcquire(this.keys, slot);
+                if (existing == 0 || existing == key)
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+        }
+    }
+
+// Segment
+
+    private static final class Segment<V> {
+
+        private volatile Table table;                       // replaced (never modified) when rebuilt
+        @GuardedBy("this")
+        private int used;                                   // number of non-zero keys in table, including removed keys
+        volatile int size;                                  // number of entries; written only while locked
+        private volatile Object zeroValue;                  // value associated with the zero key, if any
+
+        Segment(int capacity) {
+            this.table = Table.forCapacity(capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(long key, long hash) {
+            if (key == 0)
+                return (V)this.zeroValue;
+            final Table t = this.table;
+            final int slot = t.findSlot(key, hash);
+            return (long)KEYS.getAcquire(t.keys, slot) == key ? (V)VALUES.getAcquire(t.values, slot) : null;
+        }
+
+        // Caller must be synchronized on this instance
+        @SuppressWarnings("unchecked")
+        V put(long key, long hash, V value, boolean onlyIfAbsent) {
+            assert Thread.holdsLock(this);
+            assert value != null;
+
+            // Handle zero key
+            if (key == 0) {
+                final V prev = (V)this.zeroValue;
+                if (prev == null || !onlyIfAbsent)
+                    this.zeroValue = value;
+                if (prev == null)
+                    this.size++;
+                return prev;
+            }
+
+            // Find slot
+            Table t = this.table;
+            int slot = t.findSlot(key, hash);
+
+            // Key already exists (possibly removed)? Just update value
+            if (t.keys[slot] == key) {
+                final V prev = (V)t.values[slot];
+                if (prev == null || !onlyIfAbsent)
+                    VALUES.setRelease(t.values, slot, value);
+                if (prev == null)
+                    this.size++;
+                return prev;
+            }
+
+            // Rebuild table if needed
+            if (this.used >= t.upperUsedLimit) {
+                if (this.size >= t.upperUsedLimit && t.log2len >= MAX_LOG2_LENGTH)
+                    throw new IllegalStateException("maximum capacity reached");
+                t = this.rebuild(this.size + 1);
+                slot = t.findSlot(key, hash);
+            }
+
+            // Store value, then publish key
+            assert t.keys[slot] == 0;
+            VALUES.setRelease(t.values, slot, value);
+            KEYS.setRelease(t.keys, slot, key);
+            this.used++;
+            this.size++;
+            return null;
+        }
+
+        // Caller must be synchronized on this instance. If expected is non-null, only replace if current value
+        // equals expected. If newValue is null, remove. Returns previous value (or null if nothing changed).
+        @SuppressWarnings("unchecked")
+        V replace(long key, long hash, Object expected, V newValue) {
+            assert Thread.holdsLock(this);
+
+            // Handle zero key
+            if (key == 0) {
+                final V prev = (V)this.zeroValue;
+                if (prev == null || (expected != null && !expected.equals(prev)))
+                    return null;
+                this.zeroValue = newValue;
+                if (newValue == null)
+                    this.size--;
+                return prev;
+            }
+
+            // Find key
+            final Table t = this.table;
+            final int slot = t.findSlot(key, hash);
+            if (t.keys[slot] != key)
+                return null;
+            final V prev = (V)t.values[slot];
+            if (prev == null || (expected != null && !expected.equals(prev)))
+                return null;
+
+            // Update value; the key stays in place until the next rebuild
+            VALUES.setRelease(t.values, slot, newValue);
+            if (newValue == null)
+                this.size--;
+            return prev;
+        }
+
+        // Caller must be synchronized on this instance
+        void clear() {
+            assert Thread.holdsLock(this);
+            this.table = Table.forCapacity(0);
+            this.used = 0;
+            this.size = 0;
+            this.zeroValue = null;
+        }
+
+        // Copy live entries into a new right-sized table and publish it
+        private Table rebuild(int capacity) {
+            final Table oldTable = this.table;
+            final Table newTable = Table.forCapacity(capacity);
+            int count = 0;
+            for (int oldSlot = 0; oldSlot < oldTable.keys.length; oldSlot++) {
+                final long key = oldTable.keys[oldSlot];
+                final Object value = oldTable.values[oldSlot];
+                if (key == 0 || value == null)
+                    continue;
+                final int newSlot = newTable.findSlot(key, LongHashTable.mix(key));
+                newTable.keys[newSlot] = key;
+                newTable.values[newSlot] = value;
+                count++;
+            }
+            this.used = count;
+            this.table = newTable;                          // volatile write publishes the new table
+            return newTable;
+        }
+
+        // Snapshot support for iteration
+        Table table() {
+            return this.table;
+        }
+
+        Object zeroValue() {
+            return this.zeroValue;
+        }
+    }
+
+// EntrySet
+
+    private class EntrySet extends AbstractSet<Map.Entry<Long, V>> {
+
+        @Override
+        public Iterator<Map.Entry<Long, V>> iterator() {
+            return new EntrySetIterator();
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentLongMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object obj) {
+            if (!(obj instanceof Map.Entry))
+                return false;
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>)obj;
+            final V value = ConcurrentLongMap.this.get(entry.getKey());
+            return value != null && value.equals(entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object obj) {
+            if (!(obj instanceof Map.Entry))
+                return false;
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>)obj;
+            return ConcurrentLongMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentLongMap.this.clear();
+        }
+    }
+
+// EntrySetIterator
+
+    // Weakly consistent: iterates over a snapshot of each segment's table as of when the iterator reaches it
+    private class EntrySetIterator implements Iterator<Map.Entry<Long, V>> {
+
+        private int segmentIndex = -1;
+        private Table table;
+        private int nextSlot;
+        private Entry next;
+        private Entry last;
+
+        @Override
+        public boolean hasNext() {
+            return this.findNext() != null;
+        }
+
+        @Override
+        public Map.Entry<Long, V> next() {
+            final Entry entry = this.findNext();
+            if (entry == null)
+                throw new NoSuchElementException();
+            this.next = null;
+            this.last = entry;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (this.last == null)
+                throw new IllegalStateException();
+            ConcurrentLongMap.this.remove(this.last.getKey().longValue());
+            this.last = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Entry findNext() {
+            while (this.next == null) {
+
+                // Scan the current table
+                if (this.table != null) {
+                    final long[] keys = this.table.keys;
+                    while (this.nextSlot < keys.length) {
+                        final int slot = this.nextSlot++;
+                        final long key = (long)KEYS.getAcquire(keys, slot);
+                        if (key == 0)
+                            continue;
+                        final V value = (V)VALUES.getAcquire(this.table.values, slot);
+                        if (value != null) {
+                            this.next = new Entry(key, value);
+                            return this.next;
+                        }
+                    }
+                    this.table = null;
+                }
+
+                // Advance to the next segment
+                if (++this.segmentIndex >= ConcurrentLongMap.this.segments.length)
+                    return null;
+                final Segment<V> segment = ConcurrentLongMap.this.segments[this.segmentIndex];
+                this.table = segment.table();
+                this.nextSlot = 0;
+                final V zeroValue = (V)segment.zeroValue();
+                if (zeroValue != null)
+                    this.next = new Entry(0, zeroValue);
+            }
+            return this.next;
+        }
+    }
+
+// Entry
+
+    @SuppressWarnings("serial")
+    private class Entry extends AbstractMap.SimpleEntry<Long, V> {
+
+        Entry(long key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            ConcurrentLongMap.this.put(this.getKey().longValue(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Locale;
+import java.util.OptionalDouble;
+
+/**
+ * Calculates exponentially weighted moving averages and variance.
+ *
+ * <p>
+ * Each new data point is given weight {@code alpha} and the weight of all previous data points is multiplied by
+ * {@code 1 - alpha}, so the statistics track recent behavior and recover quickly after a shift. The variance is
+ * updated incrementally in the same style as Welford's algorithm used by {@link Averager}. Adding a data point
+ * takes constant time and does not allocate.
+ *
+ * <p>
+ * The first data point initializes the average directly, so there is no bias toward zero at startup.
+ *
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see Averager
+ * @see WindowedAverager
+ * @see <a href="https://en.wikipedia.org/wiki/Moving_average#Exponentially_weighted_moving_variance_and_standard_deviation">Wikipedia</a>
+ */
+public class ExponentialAverager implements Cloneable {
+
+    private final double alpha;
+
+    private long count;
+    private double mean;
+    private double variance;
+
+// Constructors
+
+    /**
+     * Constructor.
+     *
+     * @param alpha weight given to each new data point
+     * @throws IllegalArgumentException if {@code alpha} is not greater than zero and at most one
+     */
+    public ExponentialAverager(double alpha) {
+        Preconditions.checkArgument(alpha > 0 && alpha <= 1, "invalid alpha");
+        this.alpha = alpha;
+    }
+
+    /**
+     * Create an instance in which a data point's weight falls by half after the given number of subsequent data points.
+     *
+     * @param halfLife half-life in data points
+     * @return new instance
+     * @throws IllegalArgumentException if {@code halfLife} is not positive
+     */
+    public static ExponentialAverager withHalfLife(double halfLife) {
+        Preconditions.checkArgument(halfLife > 0, "invalid halfLife");
+        return new ExponentialAverager(-Math.expm1(-Math.log(2) / halfLife));
+    }
+
+// Methods
+
+    /**
+     * Get the weight given to each new data point.
+     *
+     * @return smoothing factor
+     */
+    public double getAlpha() {
+        return this.alpha;
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value value to add to the moving average
+     * @throws IllegalArgumentException if {@code value} is {@code NaN} or infinity
+     */
+    public void addValue(double value) {
+        Preconditions.checkArgument(Double.isFinite(value), "non-finite value");
+        if (this.count++ == 0) {
+            this.mean = value;
+            return;
+        }
+        final double delta = value - this.mean;
+        final double increment = this.alpha * delta;
+        this.mean += increment;
+        this.variance = (1 - this.alpha) * (this.variance + delta * increment);
+    }
+
+    /**
+     * Reset this instance.
+     */
+    public void reset() {
+        this.count = 0;
+        this.mean = 0;
+        this.variance = 0;
+    }
+
+    /**
+     * Get the number of data points added so far.
+     *
+     * @return the number of data points added to this instance
+     */
+    public long size() {
+        return this.count;
+    }
+
+    /**
+     * Determine whether any data points have been added to this instance yet.
+     *
+     * @return true if no data points have been added yet
+     */
+    public boolean isEmpty() {
+        return this.count == 0;
+    }
+
+    /**
+     * Get the exponentially weighted average.
+     *
+     * @return average value, or empty if no data points have been added yet
+     */
+    public OptionalDouble getAverage() {
+        if (this.count == 0)
+            return OptionalDouble.empty();
+        return OptionalDouble.of(this.mean);
+    }
+
+    /**
+     * Get the exponentially weighted variance.
+     *
+     * @return variance, or empty if no data points have been added yet
+     */
+    public OptionalDouble getVariance() {
+        if (this.count == 0)
+            return OptionalDouble.empty();
+        return OptionalDouble.of(this.variance);
+    }
+
+    /**
+     * Get the exponentially weighted standard deviation.
+     *
+     * @return standard deviation, or empty if no data points have been added yet
+     */
+    public OptionalDouble getStandardDeviation() {
+        if (this.count == 0)
+            return OptionalDouble.empty();
+        return OptionalDouble.of(Math.sqrt(this.variance));
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        if (this.count == 0)
+            return "no data";
+        return String.format(Locale.US, "num=%d, avg=%f, stddev=%f", this.count, this.mean, Math.sqrt(this.variance));
+    }
+
+// Cloneable
+
+    @Override
+    public ExponentialAverager clone() {
+        try {
+            return (ExponentialAverager)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException();
+        }
+    }
+}
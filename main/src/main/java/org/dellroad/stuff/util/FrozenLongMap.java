@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * An immutable map with {@code long} keys.
+ *
+ * <p>
+ * Instances store their keys in a single sorted {@code long[]} array, with the corresponding values in a parallel
+ * array, and have no empty slots; they therefore require less memory than an equivalent {@link LongMap}.
+ * Lookups use binary search, and iteration is in ascending key order.
+ *
+ * <p>
+ * Instances are immutable and may be safely shared among threads without synchronization, provided the values
+ * themselves are. All mutating methods throw {@link UnsupportedOperationException}.
+ *
+ * @param <V> value type
+ * @see LongMap#freeze
+ */
+@Immutable
+public final class FrozenLongMap<V> extends AbstractMap<Long, V> implements Serializable {
+
+    private static final long serialVersionUID = 4682203750943121687L;
+
+    private final FrozenLongSet keys;
+    @SuppressWarnings("serial")
+    private final Object[] values;                          // parallel to keys
+
+// Constructors
+
+    /**
+     * Constructs an instance containing the same entries as the given map.
+     *
+     * @param map map to copy
+     * @throws NullPointerException if {@code map} is null
+     * @throws IllegalArgumentException if {@code map} contains a null key
+     */
+    public FrozenLongMap(Map<? extends Number, ? extends V> map) {
+        this(new LongMap<V>(map));
+    }
+
+    // Internal constructor
+    FrozenLongMap(LongMap<? extends V> map) {
+        this.keys = new FrozenLongSet(map.toKeysLongArray());
+        this.values = new Object[this.keys.size()];
+        for (int i = 0; i < this.values.length; i++)
+            this.values[i] = map.get(this.keys.valueAt(i));
+    }
+
+// Methods
+
+    public boolean containsKey(long key) {
+        return this.keys.indexOf(key) >= 0;
+    }
+
+    public V get(long key) {
+        return this.getOrDefault(key, null);
+    }
+
+    /**
+     * Get the value associated with the given key, or the given default value if not found.
+     *
+     * @param key key to find
+     * @param defaultValue value to return if {@code key} is not found
+     * @return associated value, or {@code defaultValue} if {@code key} is not found
+     */
+    public V getOrDefault(long key, V defaultValue) {
+        final int index = this.keys.indexOf(key);
+        return index >= 0 ? this.valueAt(index) : defaultValue;
+    }
+
+    /**
+     * Visit each entry in this instance, in ascending key order, without boxing the keys.
+     *
+     * @param action invoked with each key and value
+     * @throws IllegalArgumentException if {@code action} is null
+     */
+    public void forEachEntry(LongObjConsumer<? super V> action) {
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        for (int i = 0; i < this.values.length; i++)
+            action.accept(this.keys.valueAt(i), this.valueAt(i));
+    }
+
+// Map
+
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.values.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object obj) {
+        return obj instanceof Long && this.containsKey(((Long)obj).longValue());
+    }
+
+    @Override
+    public V get(Object obj) {
+        return obj instanceof Long ? this.get(((Long)obj).longValue()) : null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (Object existing : this.values) {
+            if (Objects.equals(existing, value))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public FrozenLongSet keySet() {
+        return this.keys;
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+
+            @Override
+            public Iterator<V> iterator() {
+                return new IndexIterator<V>() {
+                    @Override
+                    V get(int index) {
+                        return FrozenLongMap.this.valueAt(index);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return FrozenLongMap.this.values.length;
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<Long, V>> entrySet() {
+        return new AbstractSet<Map.Entry<Long, V>>() {
+
+            @Override
+            public Iterator<Map.Entry<Long, V>> iterator() {
+                return new IndexIterator<Map.Entry<Long, V>>() {
+                    @Override
+                    Map.Entry<Long, V> get(int index) {
+                        return new AbstractMap.SimpleImmutableEntry<>(
+                          FrozenLongMap.this.keys.valueAt(index), FrozenLongMap.this.valueAt(index));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return FrozenLongMap.this.values.length;
+            }
+
+            @Override
+            public boolean contains(Object obj) {
+                if (!(obj instanceof Map.Entry))
+                    return false;
+                final Map.Entry<?, ?> entry = (Map.Entry<?, ?>)obj;
+                if (!(entry.getKey() instanceof Long))
+                    return false;
+                final int index = FrozenLongMap.this.keys.indexOf((Long)entry.getKey());
+                return index >= 0 && Objects.equals(entry.getValue(), FrozenLongMap.this.values[index]);
+            }
+        };
+    }
+
+// Object
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int i = 0; i < this.values.length; i++)
+            hash += Long.hashCode(this.keys.valueAt(i)) ^ Objects.hashCode(this.values[i]);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj instanceof FrozenLongMap) {
+            final FrozenLongMap<?> that = (FrozenLongMap<?>)obj;
+            return this.keys.equals(that.keys) && Arrays.equals(this.values, that.values);
+        }
+        return super.equals(obj);
+    }
+
+// Internal methods
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index) {
+        return (V)this.values[index];
+    }
+
+// IndexIterator
+
+    private abstract class IndexIterator<T> implements Iterator<T> {
+
+        private int index;
+
+        @Override
+        public boolean hasNext() {
+            return this.index < FrozenLongMap.this.values.length;
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            return this.get(this.index++);
+        }
+
+        abstract T get(int index);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongConsumer;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * An immutable set of {@code long} values.
+ *
+ * <p>
+ * Instances store their values in a single sorted {@code long[]} array with no empty slots, so they require less
+ * memory than an equivalent {@link LongSet}. Lookups use binary search, and iteration is in ascending order.
+ *
+ * <p>
+ * Instances are immutable and may be safely shared among threads without synchronization. All mutating
+ * methods throw {@link UnsupportedOperationException}.
+ *
+ * @see LongSet#freeze
+ */
+@Immutable
+public final class FrozenLongSet extends AbstractSet<Long> implements Serializable {
+
+    private static final long serialVersionUID = -1405216702951836744L;
+
+    private final long[] values;                            // sorted, no duplicates
+
+// Constructors
+
+    /**
+     * Constructs an instance containing the given values.
+     *
+     * @param values values, in any order and possibly containing duplicates; this array is not modified
+     * @throws IllegalArgumentException if {@code values} is null
+     */
+    public FrozenLongSet(long[] values) {
+        if (values == null)
+            throw new IllegalArgumentException("null values");
+        final long[] array = values.clone();
+        Arrays.sort(array);
+        int length = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (i == 0 || array[i] != array[i - 1])
+                array[length++] = array[i];
+        }
+        this.values = length < array.length ? Arrays.copyOf(array, length) : array;
+    }
+
+// Methods
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(this.values, value) >= 0;
+    }
+
+    /**
+     * Returns a sequential {@link LongStream} with this instance as its source.
+     *
+     * @return stream of contents
+     */
+    public LongStream longStream() {
+        return StreamSupport.longStream(this.spliterator(), false);
+    }
+
+    /**
+     * Visit each value in this instance, in ascending order, without boxing.
+     *
+     * @param action invoked with each value
+     * @throws IllegalArgumentException if {@code action} is null
+     */
+    public void forEachLong(LongConsumer action) {
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        for (long value : this.values)
+            action.accept(value);
+    }
+
+    /**
+     * Get the values in this instance, in ascending order.
+     *
+     * @return array of values
+     */
+    public long[] toLongArray() {
+        return this.values.clone();
+    }
+
+    // Package access for FrozenLongMap
+    int indexOf(long value) {
+        return Arrays.binarySearch(this.values, value);
+    }
+
+    long valueAt(int index) {
+        return this.values[index];
+    }
+
+// Set
+
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new PrimitiveIterator.OfLong() {
+
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return this.index < FrozenLongSet.this.values.length;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!this.hasNext())
+                    throw new NoSuchElementException();
+                return FrozenLongSet.this.values[this.index++];
+            }
+        };
+    }
+
+    @Override
+    public Spliterator.OfLong spliterator() {
+        return Spliterators.spliterator(this.values,
+          Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    }
+
+    @Override
+    public int size() {
+        return this.values.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.values.length == 0;
+    }
+
+    @Override
+    public boolean contains(Object obj) {
+        return obj instanceof Long && this.contains(((Long)obj).longValue());
+    }
+
+    @Override
+    public Long[] toArray() {
+        final Long[] array = new Long[this.values.length];
+        for (int i = 0; i < this.values.length; i++)
+            array[i] = this.values[i];
+        return array;
+    }
+
+// Object
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (long value : this.values)
+            hash += Long.hashCode(value);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj instanceof FrozenLongSet)
+            return Arrays.equals(this.values, ((FrozenLongSet)obj).values);
+        return super.equals(obj);
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.ToIntFunction;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A bounded cache with {@code long} keys that evicts entries using the CLOCK algorithm.
+ *
+ * <p>
+ * The cache is bounded by a maximum number of entries and, optionally, a maximum total weight, where each value's
+ * weight is determined by a caller-supplied weigher. Entries may also optionally expire a fixed time after they
+ * are written.
+ *
+ * <p>
+ * When space is needed, the CLOCK algorithm (also known as "second chance") approximates least-recently-used eviction:
+ * each entry has a reference bit that is set when it is accessed, and a "clock hand" sweeps over the entries, clearing
+ * reference bits and evicting the first entry found whose bit is already clear (or that has expired). Unlike an
+ * access-ordered {@link java.util.LinkedHashMap}, a cache hit does not reorder anything; it just sets a bit.
+ *
+ * <p>
+ * No per-entry objects are allocated: keys are mapped to entry indexes by a {@link LongIntMap}, and the entries
+ * themselves are stored in parallel arrays, which grow as needed up to the maximum size. Keys are never boxed.
+ *
+ * <p>
+ * Instances keep counts of cache hits, misses, and evictions. Expired entries are counted as evictions.
+ *
+ * <p>
+ * Null values are not supported. Instances are not thread safe.
+ *
+ * @param <V> value type
+ * @see LongMap
+ */
+@NotThreadSafe
+public class LongCache<V> {
+
+    private static final int MIN_ARRAY_LENGTH = 16;
+
+    private final int maximumSize;
+    private final long maximumWeight;
+    private final ToIntFunction<? super V> weigher;
+    private final long expireNanos;
+    private final LongSupplier clock;
+
+    private final LongIntMap index = new LongIntMap();     // maps key -> entry index
+    private long[] keys = new long[0];
+    private Object[] values = new Object[0];               // null means the entry is free
+    private boolean[] referenced = new boolean[0];
+    private int[] weights;                                  // null if no weigher
+    private long[] expirations;                             // null if entries don't expire
+    private int[] free = new int[0];                        // stack of free entries below highWater
+    private int numFree;
+    private int highWater;                                  // entries at or above this index have never been used
+    private int count;
+    private long totalWeight;
+    private int hand;                                       // the clock hand
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+// Constructors
+
+    /**
+     * Constructor for a cache bounded only by number of entries.
+     *
+     * @param maximumSize maximum number of entries
+     * @throws IllegalArgumentException if {@code maximumSize} is not positive
+     */
+    public LongCache(int maximumSize) {
+        this(maximumSize, Long.MAX_VALUE, null, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maximumSize maximum number of entries
+     * @param maximumWeight maximum total weight of all entries; ignored if {@code weigher} is null
+     * @param weigher determines the weight of each value, or null to not bound total weight
+     * @param expireAfterWrite how long entries remain valid after being written, or null for no expiry
+     * @throws IllegalArgumentException if {@code maximumSize} is not positive
+     * @throws IllegalArgumentException if {@code weigher} is not null and {@code maximumWeight} is negative
+     * @throws IllegalArgumentException if {@code expireAfterWrite} is not null and not positive
+     */
+    public LongCache(int maximumSize, long maximumWeight, ToIntFunction<? super V> weigher, Duration expireAfterWrite) {
+        this(maximumSize, maximumWeight, weigher, expireAfterWrite, System::nanoTime);
+    }
+
+    // Internal constructor allowing a different clock for testing
+    LongCache(int maximumSize, long maximumWeight,
+      ToIntFunction<? super V> weigher, Duration expireAfterWrite, LongSupplier clock) {
+        if (maximumSize <= 0)
+            throw new IllegalArgumentException("maximumSize <= 0");
+        if (weigher != null && maximumWeight < 0)
+            throw new IllegalArgumentException("maximumWeight < 0");
+        if (expireAfterWrite != null && (expireAfterWrite.isNegative() || expireAfterWrite.isZero()))
+            throw new IllegalArgumentException("expireAfterWrite <= 0");
+        this.maximumSize = maximumSize;
+        this.maximumWeight = weigher != null ? maximumWeight : Long.MAX_VALUE;
+        this.weigher = weigher;
+        this.expireNanos = expireAfterWrite != null ? expireAfterWrite.toNanos() : 0;
+        this.clock = clock;
+        if (weigher != null)
+            this.weights = new int[0];
+        if (expireAfterWrite != null)
+            this.expirations = new long[0];
+    }
+
+// Methods
+
+    /**
+     * Get the value associated with the given key, if any.
+     *
+     * <p>
+     * This counts as a cache hit or miss.
+     *
+     * @param key key to find
+     * @return associated value, or null if {@code key} is not in this cache or has expired
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        final int entry = this.find(key);
+        if (entry == -1) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        this.referenced[entry] = true;
+        return (V)this.values[entry];
+    }
+
+    /**
+     * Get the value associated with the given key, loading and caching it if necessary.
+     *
+     * <p>
+     * This counts as a cache hit or miss.
+     *
+     * @param key key to find
+     * @param loader loads the value for {@code key} on a cache miss; may return null to cache nothing
+     * @return associated value, or null if {@code key} was not in this cache and {@code loader} returned null
+     * @throws IllegalArgumentException if {@code loader} is null
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> loader) {
+        if (loader == null)
+            throw new IllegalArgumentException("null loader");
+        V value = this.get(key);
+        if (value == null && (value = loader.apply(key)) != null)
+            this.put(key, value);
+        return value;
+    }
+
+    /**
+     * Add or replace an entry in this cache.
+     *
+     * <p>
+     * Other entries are evicted as needed to make room for the new entry. If the new entry's weight alone exceeds
+     * the maximum weight, it is not retained.
+     *
+     * @param key key
+     * @param value value
+     * @return the value previously associated with {@code key}, or null if there was none
+     * @throws IllegalArgumentException if {@code value} is null
+     * @throws IllegalArgumentException if the weigher returns a negative weight
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("null value");
+        final int weight = this.weigher != null ? this.weigher.applyAsInt(value) : 0;
+        if (weight < 0)
+            throw new IllegalArgumentException("negative weight");
+
+        // Remove any existing entry, remembering whether it was recently used
+        V previous = null;
+        boolean wasReferenced = false;
+        final int existing = this.find(key);
+        if (existing != -1) {
+            previous = (V)this.values[existing];
+            wasReferenced = this.referenced[existing];
+            this.removeEntry(existing);
+        }
+
+        // Make room
+        if (weight > this.maximumWeight)
+            return previous;
+        while (this.count >= this.maximumSize || this.totalWeight + weight > this.maximumWeight)
+            this.evictOne();
+
+        // Add new entry, reusing the most recently freed entry (i.e., the one the clock hand just passed) if any
+        final int entry;
+        if (this.numFree > 0)
+            entry = this.free[--this.numFree];
+        else {
+            if (this.highWater == this.keys.length)
+                this.grow();
+            entry = this.highWater++;
+        }
+        this.count++;
+        this.keys[entry] = key;
+        this.values[entry] = value;
+        this.referenced[entry] = wasReferenced;
+        if (this.weights != null)
+            this.weights[entry] = weight;
+        if (this.expirations != null)
+            this.expirations[entry] = this.clock.getAsLong() + this.expireNanos;
+        this.totalWeight += weight;
+        this.index.put(key, entry);
+        return previous;
+    }
+
+    /**
+     * Remove an entry from this cache.
+     *
+     * @param key key to remove
+     * @return the value previously associated with {@code key}, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        final int entry = this.find(key);
+        if (entry == -1)
+            return null;
+        final V previous = (V)this.values[entry];
+        this.removeEntry(entry);
+        return previous;
+    }
+
+    /**
+     * Determine whether this cache contains an unexpired entry for the given key.
+     *
+     * <p>
+     * This does not count as a cache hit or miss and does not affect eviction.
+     *
+     * @param key key to find
+     * @return true if {@code key} is present
+     */
+    public boolean containsKey(long key) {
+        return this.find(key) != -1;
+    }
+
+    /**
+     * Iterate over the entries in this cache.
+     *
+     * <p>
+     * Expired entries that have not yet been evicted are skipped. This does not affect eviction.
+     * The given action must not modify this cache.
+     *
+     * @param action action to perform on each entry
+     * @throws IllegalArgumentException if {@code action} is null
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachEntry(LongObjConsumer<? super V> action) {
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        final long now = this.expirations != null ? this.clock.getAsLong() : 0;
+        for (int entry = 0; entry < this.highWater; entry++) {
+            if (this.values[entry] != null && !this.isExpired(entry, now))
+                action.accept(this.keys[entry], (V)this.values[entry]);
+        }
+    }
+
+    /**
+     * Remove all entries from this cache.
+     *
+     * <p>
+     * This does not count as evictions and does not reset the hit, miss, and eviction counters.
+     */
+    public void clear() {
+        this.index.clear();
+        Arrays.fill(this.values, 0, this.highWater, null);
+        this.highWater = 0;
+        this.numFree = 0;
+        this.count = 0;
+        this.totalWeight = 0;
+        this.hand = 0;
+    }
+
+    /**
+     * Get the number of entries in this cache.
+     *
+     * <p>
+     * This may include expired entries that have not yet been evicted.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Get the total weight of the entries in this cache.
+     *
+     * @return total weight, or zero if this cache has no weigher
+     */
+    public long getTotalWeight() {
+        return this.totalWeight;
+    }
+
+    /**
+     * Get the maximum number of entries.
+     *
+     * @return maximum size
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return number of successful {@link #get get()} lookups
+     */
+    public long getHitCount() {
+        return this.hits;
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return number of unsuccessful {@link #get get()} lookups
+     */
+    public long getMissCount() {
+        return this.misses;
+    }
+
+    /**
+     * Get the number of evictions.
+     *
+     * @return number of entries evicted to make room for others or because they expired
+     */
+    public long getEvictionCount() {
+        return this.evictions;
+    }
+
+    /**
+     * Reset the hit, miss, and eviction counters to zero.
+     */
+    public void resetCounters() {
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+          + "[size=" + this.count
+          + ",hits=" + this.hits
+          + ",misses=" + this.misses
+          + ",evictions=" + this.evictions
+          + "]";
+    }
+
+// Internal methods
+
+    // Find the entry for the given key, evicting it if expired; returns -1 if not found
+    private int find(long key) {
+        final int entry = this.index.getOrDefault(key, -1);
+        if (entry == -1)
+            return -1;
+        if (this.expirations != null && this.isExpired(entry, this.clock.getAsLong())) {
+            this.removeEntry(entry);
+            this.evictions++;
+            return -1;
+        }
+        return entry;
+    }
+
+    private boolean isExpired(int entry, long now) {
+        return this.expirations != null && now - this.expirations[entry] >= 0;
+    }
+
+    // Advance the clock hand until we find an entry to evict, evict it, and move the hand past it
+    private void evictOne() {
+        assert this.count > 0;
+        final long now = this.expirations != null ? this.clock.getAsLong() : 0;
+        while (true) {
+            if (this.hand >= this.highWater)
+                this.hand = 0;
+            if (this.values[this.hand] != null) {
+                if (!this.referenced[this.hand] || this.isExpired(this.hand, now))
+                    break;
+                this.referenced[this.hand] = false;
+            }
+            this.hand++;
+        }
+        this.removeEntry(this.hand++);
+        this.evictions++;
+    }
+
+    private void removeEntry(int entry) {
+        this.index.remove(this.keys[entry]);
+        if (this.weights != null)
+            this.totalWeight -= this.weights[entry];
+        this.values[entry] = null;
+        this.referenced[entry] = false;
+        this.free[this.numFree++] = entry;
+        this.count--;
+    }
+
+    private void grow() {
+        final int length = (int)Math.min(this.maximumSize, Math.max(MIN_ARRAY_LENGTH, 2L * this.keys.length));
+        this.keys = Arrays.copyOf(this.keys, length);
+        this.values = Arrays.copyOf(this.values, length);
+        this.referenced = Arrays.copyOf(this.referenced, length);
+        this.free = Arrays.copyOf(this.free, length);
+        if (this.weights != null)
+            this.weights = Arrays.copyOf(this.weights, length);
+        if (this.expirations != null)
+            this.expirations = Arrays.copyOf(this.expirations, length);
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Support superclass for open addressing hash tables with {@code long} keys.
+ *
+ * <p>
+ * This class implements the key management for {@link LongMap} and the primitive-valued maps, including the
+ * backward-shift deletion of entries. Subclasses own the values array and keep it aligned with the keys array
+ * via the {@link #moveValue moveValue()}, {@link #newValues newValues()}, and {@link #copyValue copyValue()} hooks.
+ *
+ * <p>
+ * Because zero marks an empty slot, the zero key is not stored in the arrays; instead, {@link #hasZeroKey} indicates
+ * its presence and subclasses store its value in a separate field. The value stored in an empty slot is undefined;
+ * subclasses must always check the key first.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Open_addressing">Open addressing</a>
+ */
+abstract class LongHashTable implements Cloneable, Serializable {
+
+    private static final long serialVersionUID = 7461094925773180391L;
+
+    private static final float EXPAND_THRESHOLD = 0.70f;    // expand array when > 70% full
+    private static final float SHRINK_THRESHOLD = 0.25f;    // shrink array when < 25% full
+
+    private static final int MIN_LOG2_LENGTH = 4;           // minimum array length = 16 slots
+    private static final int MAX_LOG2_LENGTH = 30;          // maximum array length = 1 billion slots
+
+    long[] keys;                                            // has length always a power of 2
+    int size;                                               // the number of entries in the arrays (excludes zero key)
+    boolean hasZeroKey;                                     // whether the zero key is present
+    private int log2len;                                    // log2 of keys.length
+    private int upperSizeLimit;                             // size threshold when to grow array
+    private int lowerSizeLimit;                             // size threshold when to shrink array
+
+// Constructors
+
+    /**
+     * Constructor.
+     *
+     * <p>
+     * Subclasses must create their values array with the same length as {@link #keys}.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    LongHashTable(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity < 0");
+        capacity &= 0x3fffffff;                                                 // avoid integer overflow from large values
+        capacity = (int)(capacity / EXPAND_THRESHOLD);                          // increase to account for overhead
+        capacity = Math.max(1, capacity);                                       // avoid zero, on which the next line fails
+        this.log2len = 32 - Integer.numberOfLeadingZeros(capacity - 1);         // round up to next power of 2
+        this.log2len = Math.max(MIN_LOG2_LENGTH, this.log2len);                 // clip to bounds
+        this.log2len = Math.min(MAX_LOG2_LENGTH, this.log2len);
+        this.createKeys();
+    }
+
+// Methods
+
+    /**
+     * Get the number of entries in this instance.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return this.hasZeroKey ? this.size + 1 : this.size;
+    }
+
+    /**
+     * Determine if this instance is empty.
+     *
+     * @return true if this instance contains no entries
+     */
+    public boolean isEmpty() {
+        return this.size == 0 && !this.hasZeroKey;
+    }
+
+    /**
+     * Determine if this instance contains the given key.
+     *
+     * @param key key to find
+     * @return true if {@code key} is present
+     */
+    public boolean containsKey(long key) {
+        return key == 0 ? this.hasZeroKey : this.keys[this.findSlot(key)] == key;
+    }
+
+    /**
+     * Remove the given key, if present.
+     *
+     * @param key key to remove
+     * @return true if {@code key} was found and removed
+     */
+    public boolean removeKey(long key) {
+        if (key == 0) {
+            final boolean removed = this.hasZeroKey;
+            this.hasZeroKey = false;
+            return removed;
+        }
+        final int slot = this.findSlot(key);
+        if (this.keys[slot] == 0)
+            return false;
+        this.exsert(slot, true);
+        return true;
+    }
+
+    /**
+     * Remove all entries from this instance.
+     */
+    public void clear() {
+        this.log2len = MIN_LOG2_LENGTH;
+        this.createKeys();
+        this.newValues();
+        this.size = 0;
+        this.hasZeroKey = false;
+    }
+
+    /**
+     * Get the keys in this instance, in no particular order.
+     *
+     * @return array of keys
+     */
+    public long[] toKeysArray() {
+        final long[] array = new long[this.size()];
+        int index = this.hasZeroKey ? 1 : 0;
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            final long key = this.keys[slot];
+            if (key != 0)
+                array[index++] = key;
+        }
+        return array;
+    }
+
+    /**
+     * Produce a debug dump of this instance's keys, preceded by a histogram of probe lengths.
+     */
+    String debugDump() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(this.getClass().getSimpleName())
+          .append(": size=" + this.size() + " len=" + this.keys.length + " zeroKey=" + this.hasZeroKey);
+        buf.append('\n').append(LongHashTable.probeHistogram(this.keys));
+        for (int i = 0; i < this.keys.length; i++)
+            buf.append('\n').append(String.format(" [%2d] %016x (hash %d)", i, this.keys[i], this.hash(this.keys[i])));
+        return buf.toString();
+    }
+
+// Cloneable
+
+    @Override
+    protected LongHashTable clone() {
+        final LongHashTable clone;
+        try {
+            clone = (LongHashTable)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        clone.keys = clone.keys.clone();
+        return clone;
+    }
+
+// Subclass hooks
+
+    /**
+     * Copy the value in slot {@code from} into slot {@code to}.
+     *
+     * @param from source slot
+     * @param to destination slot
+     */
+    abstract void moveValue(int from, int to);
+
+    /**
+     * Discard the value in the given slot, which has just become empty.
+     *
+     * <p>
+     * The implementation in {@link LongHashTable} does nothing; subclasses holding references should null them out.
+     *
+     * @param slot empty slot
+     */
+    void clearValue(int slot) {
+    }
+
+    /**
+     * Replace the values array with a new, empty one having the same length as {@link #keys}.
+     *
+     * @return the previous values array
+     */
+    abstract Object newValues();
+
+    /**
+     * Copy a value from the previous values array into the current one while rehashing.
+     *
+     * @param oldValues previous values array returned by {@link #newValues}
+     * @param from slot in {@code oldValues}
+     * @param to slot in the current values array
+     */
+    abstract void copyValue(Object oldValues, int from, int to);
+
+// Hashing
+
+    /**
+     * Map a key to its initial slot.
+     *
+     * <p>
+     * This applies the 64-bit finalizer from MurmurHash3, in which every input bit affects every output bit,
+     * so keys that differ only in their high bits, or that share a common stride, still spread evenly.
+     *
+     * @param value key
+     * @param mask array length minus one
+     * @return initial slot for {@code value}
+     * @see <a href="https://github.com/aappleby/smhasher/wiki/MurmurHash3">MurmurHash3</a>
+     */
+    static int hash(long value, int mask) {
+        return (int)LongHashTable.mix(value) & mask;
+    }
+
+    /**
+     * Scramble all 64 bits of a key using the 64-bit finalizer from MurmurHash3.
+     *
+     * @param value key
+     * @return mixed key
+     */
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    /**
+     * Build a histogram of the probe lengths of the keys in the given array.
+     *
+     * <p>
+     * The probe length of a key is the number of slots examined to find it, so a key in its initial slot has
+     * probe length one. Long probe lengths indicate clustering.
+     *
+     * @param keys open addressing keys array
+     * @return histogram description
+     */
+    static String probeHistogram(long[] keys) {
+        final int mask = keys.length - 1;
+        int[] counts = new int[8];
+        int total = 0;
+        long sum = 0;
+        int max = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            final long key = keys[slot];
+            if (key == 0)
+                continue;
+            final int probes = ((slot - LongHashTable.hash(key, mask)) & mask) + 1;
+            if (probes >= counts.length)
+                counts = Arrays.copyOf(counts, Math.max(probes + 1, counts.length * 2));
+            counts[probes]++;
+            total++;
+            sum += probes;
+            max = Math.max(max, probes);
+        }
+        final StringBuilder buf = new StringBuilder();
+        buf.append(String.format("PROBES: max=%d avg=%.3f", max, total > 0 ? (double)sum / total : 0.0));
+        for (int probes = 1; probes <= max; probes++) {
+            if (counts[probes] > 0)
+                buf.append(' ').append(probes).append('=').append(counts[probes]);
+        }
+        return buf.toString();
+    }
+
+// Internal methods
+
+    /**
+     * Finish inserting a new key into the empty slot returned by {@link #findSlot findSlot()}.
+     *
+     * <p>
+     * The caller must have already stored the corresponding value in the slot.
+     *
+     * @param slot empty slot
+     * @param key new key
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    final void insert(int slot, long key) {
+
+        // Check for overflow
+        assert key != 0;
+        assert this.keys[slot] == 0;
+        final boolean expansionNeeded = this.size >= this.upperSizeLimit;
+        if (expansionNeeded && this.log2len >= MAX_LOG2_LENGTH)
+            throw new IllegalStateException("maximum capacity reached");
+
+        // Insert new key
+        this.keys[slot] = key;
+        this.size++;
+
+        // Expand if necessary
+        if (expansionNeeded) {
+            this.log2len++;
+            this.resize();
+        }
+    }
+
+    /**
+     * Remove the entry in the given slot, shifting subsequent entries in the same hash chain back as needed.
+     *
+     * @param slot occupied slot
+     * @param allowResize true to allow shrinking the arrays
+     */
+    final void exsert(final int slot, boolean allowResize) {
+
+        // Sanity check
+        assert this.keys[slot] != 0;
+
+        // Remove key/value pair and fixup subsequent entries
+        int i = slot;                                                   // i points to the new empty slot
+        int j = slot;                                                   // j points to the next slot to fixup
+loop:   while (true) {
+            this.keys[i] = 0;
+            long jkey;
+            while (true) {
+                j = (j + 1) & (this.keys.length - 1);
+                jkey = this.keys[j];
+                if (jkey == 0)                                          // end of hash chain, no more fixups required
+                    break loop;
+                final int k = this.hash(jkey);                          // find where jkey's hash chain started
+                if (i <= j ? (i < k && k <= j) : (i < k || k <= j))     // jkey is between i and j, so it's not cut off
+                    continue;
+                break;                                                  // jkey is cut off from its hash chain, need to fix
+            }
+            this.keys[i] = jkey;                                        // move jkey back into its hash chain
+            this.moveValue(j, i);
+            i = j;                                                      // restart fixups at jkey's old location
+        }
+        this.clearValue(i);
+
+        // Shrink if necessary and allowed
+        if (--this.size < this.lowerSizeLimit && allowResize && this.log2len > MIN_LOG2_LENGTH) {
+            this.log2len--;
+            this.resize();
+        }
+    }
+
+    /**
+     * Shrink the arrays if the number of entries has fallen below the shrink threshold.
+     *
+     * <p>
+     * This is used after a series of removals performed with resizing disallowed.
+     *
+     * @return true if the arrays were resized
+     */
+    final boolean shrinkIfNeeded() {
+        final int log2len0 = this.log2len;
+        while (this.log2len > MIN_LOG2_LENGTH && this.size < (int)(SHRINK_THRESHOLD * (1 << this.log2len)))
+            this.log2len--;
+        if (this.log2len == log2len0)
+            return false;
+        this.resize();
+        return true;
+    }
+
+    /**
+     * Find a slot that immediately follows an empty slot.
+     *
+     * <p>
+     * Because {@link #exsert exsert()} stops its fixups at the first empty slot, a circular scan starting here that
+     * removes entries as it goes never sees a key it has already visited moved into a slot it has not yet visited;
+     * keys are only ever moved back into the current slot from later ones.
+     *
+     * @return starting slot for a circular scan
+     */
+    final int scanStart() {
+        final long[] keyArray = this.keys;
+        for (int slot = 0; slot < keyArray.length; slot++) {
+            if (keyArray[slot] == 0)
+                return (slot + 1) & (keyArray.length - 1);
+        }
+        return 0;
+    }
+
+    /**
+     * Find the slot containing the given key, or else the empty slot where it would go.
+     *
+     * @param value non-zero key
+     * @return slot index
+     */
+    final int findSlot(long value) {
+        assert value != 0;
+        int slot = this.hash(value);
+        while (true) {
+            final long existing = this.keys[slot];
+            if (existing == 0 || existing == value)
+                return slot;
+            slot = (slot + 1) & (this.keys.length - 1);
+        }
+    }
+
+    private int hash(long value) {
+        return LongHashTable.hash(value, this.keys.length - 1);
+    }
+
+    private void resize() {
+
+        // Grab a copy of old arrays and create new ones
+        final long[] oldKeys = this.keys;
+        this.createKeys();
+        final Object oldValues = this.newValues();
+
+        // Rehash key/value pairs from old arrays into new arrays
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            final long key = oldKeys[oldSlot];
+            if (key == 0)
+                continue;
+            final int newSlot = this.findSlot(key);
+            assert this.keys[newSlot] == 0;
+            this.keys[newSlot] = key;
+            this.copyValue(oldValues, oldSlot, newSlot);
+        }
+    }
+
+    private void createKeys() {
+        assert this.log2len >= MIN_LOG2_LENGTH;
+        assert this.log2len <= MAX_LOG2_LENGTH;
+        final int arrayLength = 1 << this.log2len;
+        this.lowerSizeLimit = this.log2len > MIN_LOG2_LENGTH ? (int)(SHRINK_THRESHOLD * arrayLength) : 0;
+        this.upperSizeLimit = this.log2len < MAX_LOG2_LENGTH ? (int)(EXPAND_THRESHOLD * arrayLength) : arrayLength;
+        this.keys = new long[arrayLength];
+    }
+}
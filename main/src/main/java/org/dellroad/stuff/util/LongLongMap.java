@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A map with {@code long} keys and {@code long} values.
+ *
+ * <p>
+ * This class uses the same open addressing scheme as {@link LongMap}, but stores its values in a {@code long[]} array,
+ * so neither keys nor values are ever boxed. Absent keys map to zero; use {@link #getOrDefault getOrDefault()} or
+ * {@link #containsKey containsKey()} to distinguish a missing key from a key mapped to zero.
+ *
+ * <p>
+ * Instances will throw {@link IllegalStateException} if their capacity is exceeded.
+ *
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see LongMap
+ */
+@NotThreadSafe
+public class LongLongMap extends LongHashTable {
+
+    private static final long serialVersionUID = -2302867356153957244L;
+
+    private long[] values;
+    private long zeroValue;                                 // value associated with the zero key, if any
+
+// Constructors
+
+    /**
+     * Constructs an empty instance.
+     */
+    public LongLongMap() {
+        this(0);
+    }
+
+    /**
+     * Constructs an instance with the given initial capacity.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public LongLongMap(int capacity) {
+        super(capacity);
+        this.values = new long[this.keys.length];
+    }
+
+// Methods
+
+    /**
+     * Get the value associated with the given key.
+     *
+     * @param key key to find
+     * @return associated value, or zero if {@code key} is not found
+     */
+    public long get(long key) {
+        return this.getOrDefault(key, 0);
+    }
+
+    /**
+     * Get the value associated with the given key, or the given default value if not found.
+     *
+     * @param key key to find
+     * @param defaultValue value to return if {@code key} is not found
+     * @return associated value, or {@code defaultValue} if {@code key} is not found
+     */
+    public long getOrDefault(long key, long defaultValue) {
+        if (key == 0)
+            return this.hasZeroKey ? this.zeroValue : defaultValue;
+        final int slot = this.findSlot(key);
+        return this.keys[slot] == key ? this.values[slot] : defaultValue;
+    }
+
+    /**
+     * Associate a value with the given key.
+     *
+     * @param key key
+     * @param value new value
+     * @return previous value associated with {@code key}, or zero if there was none
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    public long put(long key, long value) {
+        if (key == 0) {
+            final long prev = this.hasZeroKey ? this.zeroValue : 0;
+            this.hasZeroKey = true;
+            this.zeroValue = value;
+            return prev;
+        }
+        final int slot = this.findSlot(key);
+        if (this.keys[slot] == key) {
+            final long prev = this.values[slot];
+            this.values[slot] = value;
+            return prev;
+        }
+        this.values[slot] = value;
+        this.insert(slot, key);
+        return 0;
+    }
+
+    /**
+     * Add the given amount to the value associated with the given key.
+     *
+     * <p>
+     * If {@code key} is not found, it is added to this instance with the value {@code increment}.
+     *
+     * @param key key
+     * @param increment amount to add
+     * @return previous value associated with {@code key}, or zero if there was none
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    public long addTo(long key, long increment) {
+        if (key == 0) {
+            final long prev = this.hasZeroKey ? this.zeroValue : 0;
+            this.hasZeroKey = true;
+            this.zeroValue = prev + increment;
+            return prev;
+        }
+        final int slot = this.findSlot(key);
+        if (this.keys[slot] == key) {
+            final long prev = this.values[slot];
+            this.values[slot] = prev + increment;
+            return prev;
+        }
+        this.values[slot] = increment;
+        this.insert(slot, key);
+        return 0;
+    }
+
+    /**
+     * Remove the given key, if present.
+     *
+     * @param key key to remove
+     * @return value previously associated with {@code key}, or zero if there was none
+     */
+    public long remove(long key) {
+        if (key == 0) {
+            final long prev = this.hasZeroKey ? this.zeroValue : 0;
+            this.hasZeroKey = false;
+            return prev;
+        }
+        final int slot = this.findSlot(key);
+        if (this.keys[slot] == 0)
+            return 0;
+        final long prev = this.values[slot];
+        this.exsert(slot, true);
+        return prev;
+    }
+
+    /**
+     * Determine if this instance contains the given value.
+     *
+     * @param value value to find
+     * @return true if some key is associated with {@code value}
+     */
+    public boolean containsValue(long value) {
+        if (this.hasZeroKey && this.zeroValue == value)
+            return true;
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.keys[slot] != 0 && this.values[slot] == value)
+                return true;
+        }
+        return false;
+    }
+
+// Object
+
+    @Override
+    public int hashCode() {
+        int hash = this.hasZeroKey ? Long.hashCode(this.zeroValue) : 0;
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            final long key = this.keys[slot];
+            if (key != 0)
+                hash += Long.hashCode(key) ^ Long.hashCode(this.values[slot]);
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || obj.getClass() != this.getClass())
+            return false;
+        final LongLongMap that = (LongLongMap)obj;
+        if (this.size != that.size || this.hasZeroKey != that.hasZeroKey)
+            return false;
+        if (this.hasZeroKey && this.zeroValue != that.zeroValue)
+            return false;
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            final long key = this.keys[slot];
+            if (key == 0)
+                continue;
+            final int thatSlot = that.findSlot(key);
+            if (that.keys[thatSlot] != key || that.values[thatSlot] != this.values[slot])
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append('{');
+        if (this.hasZeroKey)
+            buf.append(0).append('=').append(this.zeroValue);
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            final long key = this.keys[slot];
+            if (key == 0)
+                continue;
+            if (buf.length() > 1)
+                buf.append(", ");
+            buf.append(key).append('=').append(this.values[slot]);
+        }
+        return buf.append('}').toString();
+    }
+
+// Cloneable
+
+    @Override
+    public LongLongMap clone() {
+        final LongLongMap clone = (LongLongMap)super.clone();
+        clone.values = clone.values.clone();
+        return clone;
+    }
+
+// LongHashTable
+
+    @Override
+    final void moveValue(int from, int to) {
+        this.values[to] = this.values[from];
+    }
+
+    @Override
+    final Object newValues() {
+        final long[] oldValues = this.values;
+        this.values = new long[this.keys.length];
+        return oldValues;
+    }
+
+    @Override
+    final void copyValue(Object oldValues, int from, int to) {
+        this.values[to] = ((long[])oldValues)[from];
+    }
+}
@@ -5,32 +5,52 @@
 
 package org.dellroad.stuff.util;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 import java.util.function.UnaryOperator;
 
 import net.jcip.annotations.NotThreadSafe;
 
 /**
- * A map with non-zero {@code long} keys.
+ * A map with {@code long} keys.
  *
  * <p>
  * This implementation uses {@code long[]} arrays and open addressing to minimize memory overhead.
  * Equivalent {@link Map} methods taking {@code long} instead of {@code Long} are also provided.
  *
  * <p>
+ * Keys are scrambled with a 64-bit finalizer before probing, so regularly strided keys (e.g., multiples of 1024)
+ * do not cluster. Zero, which marks empty slots in the array, is stored separately and is a legal key.
+ *
+ * <p>
+ * The {@link Spliterator}s returned by this class's collection views split by ranges of array slots,
+ * so parallel streams can be processed efficiently.
+ *
+ * <p>
  * Instances will throw {@link IllegalStateException} if their capacity is exceeded.
  *
  * <p>
- * Instances do not accept zero keys and are not thread safe.
+ * Instances are not thread safe.
  *
  * @see <a href="https://en.wikipedia.org/wiki/Open_addressing">Open addressing</a>
  */
@@ -39,24 +59,12 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
 
     // Algorithm described here: http://en.wikipedia.org/wiki/Open_addressing
 
-    private static final long serialVersionUID = -4931628136892145403L;
+    private static final long serialVersionUID = 6105437931520683394L;
 
-    private static final float EXPAND_THRESHOLD = 0.70f;    // expand array when > 70% full
-    private static final float SHRINK_THRESHOLD = 0.25f;    // shrink array when < 25% full
+    private transient Table<V> table;                       // non-zero keys and their values; tracks zero key presence
+    private transient V zeroValue;                          // value associated with the zero key, if any
 
-    private static final int MIN_LOG2_LENGTH = 4;           // minimum array length = 16 slots
-    private static final int MAX_LOG2_LENGTH = 30;          // maximum array length = 1 billion slots
-
-    private long[] keys;                                    // has length always a power of 2
-    @SuppressWarnings("serial")
-    private V[] values;                                     // will be null if we are being used to implement LongSet
-    private int size;                                       // the number of entries in the map
-    private int log2len;                                    // log2 of keys.length and values.length (if not null)
-    private int upperSizeLimit;                             // size threshold when to grow array
-    private int lowerSizeLimit;                             // size threshold when to shrink array
-    private int numHashShifts;                              // used by hash() function
-
-    private /*final*/ AtomicInteger modcount = new AtomicInteger();
+    private transient int modcount;
 
 // Constructors
 
@@ -97,27 +105,19 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
 
     // Internal constructor
     LongMap(int capacity, boolean withValues) {
-        if (capacity < 0)
-            throw new IllegalArgumentException("capacity < 0");
-        capacity &= 0x3fffffff;                                                 // avoid integer overflow from large values
-        capacity = (int)(capacity / EXPAND_THRESHOLD);                          // increase to account for overhead
-        capacity = Math.max(1, capacity);                                       // avoid zero, on which the next line fails
-        this.log2len = 32 - Integer.numberOfLeadingZeros(capacity - 1);         // round up to next power of 2
-        this.log2len = Math.max(MIN_LOG2_LENGTH, this.log2len);                 // clip to bounds
-        this.log2len = Math.min(MAX_LOG2_LENGTH, this.log2len);
-        this.createArrays(withValues);
+        this.table = new Table<>(capacity, withValues);
     }
 
 // Methods
 
     @Override
     public int size() {
-        return this.size;
+        return this.table.size();
     }
 
     @Override
     public boolean isEmpty() {
-        return this.size == 0;
+        return this.table.isEmpty();
     }
 
     @Override
@@ -129,11 +129,11 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
 
     public boolean containsKey(long key) {
         if (key == 0)
-            return false;
-        final int slot = this.findSlot(key);
-        if (this.keys[slot] == key)
+            return this.table.hasZeroKey;
+        final int slot = this.table.findSlot(key);
+        if (this.table.keys[slot] == key)
             return true;
-        assert this.keys[slot] == 0;
+        assert this.table.keys[slot] == 0;
         return false;
     }
 
@@ -146,11 +146,11 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
 
     public V get(long key) {
         if (key == 0)
-            return null;
-        final int slot = this.findSlot(key);
-        if (this.keys[slot] == key)
-            return this.values != null ? this.values[slot] : null;
-        assert this.keys[slot] == 0;
+            return this.zeroValue;
+        final int slot = this.table.findSlot(key);
+        if (this.table.keys[slot] == key)
+            return this.table.values != null ? this.table.values[slot] : null;
+        assert this.table.keys[slot] == 0;
         return null;
     }
 
@@ -162,8 +162,16 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
     }
 
     public V put(long key, V value) {
-        if (key == 0)
-            throw new IllegalArgumentException("key is zero");
+        if (key == 0) {
+            assert this.table.values != null || value == null;
+            final V prev = this.zeroValue;
+            if (!this.table.hasZeroKey) {
+                this.table.hasZeroKey = true;
+                this.modcount++;
+            }
+            this.zeroValue = value;
+            return prev;
+        }
         return this.insert(key, value);
     }
 
@@ -176,16 +184,19 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
 
     public V remove(long key) {
         if (key == 0)
+            return this.removeZero();
+        final int slot = this.table.findSlot(key);
+        if (this.table.keys[slot] == 0)
             return null;
-        return this.exsert(key, true);
+        assert this.table.keys[slot] == key;
+        return this.removeAt(slot, true);
     }
 
     @Override
     public void clear() {
-        this.log2len = MIN_LOG2_LENGTH;
-        this.createArrays(this.values != null);
-        this.size = 0;
-        this.modcount.incrementAndGet();
+        this.table.clear();
+        this.zeroValue = null;
+        this.modcount++;
     }
 
     @Override
@@ -198,25 +209,33 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
         return new EntrySet();
     }
 
+    @Override
+    public Collection<V> values() {
+        return new Values();
+    }
+
     /**
      * Remove a single, arbitrary entry from this instance and return it.
      *
      * @return the removed entry, or null if this instance is empty
      */
     public Map.Entry<Long, V> removeOne() {
-        return this.removeOne(this.modcount.get() * 11171);
+        return this.removeOne(this.modcount * 11171);
     }
 
     private Map.Entry<Long, V> removeOne(final int offset) {
-        if (this.size == 0)
-            return null;
-        final int mask = this.keys.length - 1;
-        for (int i = 0; i < this.keys.length; i++) {
+        if (this.table.size == 0) {
+            if (!this.table.hasZeroKey)
+                return null;
+            return new AbstractMap.SimpleImmutableEntry<>(0L, this.removeZero());
+        }
+        final int mask = this.table.keys.length - 1;
+        for (int i = 0; i < this.table.keys.length; i++) {
             final int slot = (offset + i) & mask;
-            final long key = this.keys[slot];
+            final long key = this.table.keys[slot];
             if (key != 0) {
-                final V value = this.values != null ? this.values[slot] : null;
-                this.exsert(slot, true);
+                final V value = this.table.values != null ? this.table.values[slot] : null;
+                this.removeAt(slot, true);
                 return new AbstractMap.SimpleImmutableEntry<>(key, value);
             }
         }
@@ -224,13 +243,125 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
     }
 
     /**
-     * Produce a debug dump of this instance's keys.
+     * Visit each entry in this instance without boxing keys or allocating {@link Map.Entry} objects.
+     *
+     * <p>
+     * Entries are visited in no particular order. The {@code action} must not modify this instance.
+     *
+     * @param action invoked with each key and value
+     * @throws IllegalArgumentException if {@code action} is null
+     * @throws ConcurrentModificationException if {@code action} modifies this instance
+     */
+    public void forEachEntry(LongObjConsumer<? super V> action) {
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        final int modcount0 = this.modcount;
+        final long[] keyArray = this.table.keys;
+        final V[] valueArray = this.table.values;
+        if (this.table.hasZeroKey)
+            action.accept(0, this.zeroValue);
+        for (int slot = 0; slot < keyArray.length; slot++) {
+            final long key = keyArray[slot];
+            if (key != 0)
+                action.accept(key, valueArray != null ? valueArray[slot] : null);
+        }
+        if (this.modcount != modcount0)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * Visit each key in this instance without boxing.
+     *
+     * <p>
+     * Keys are visited in no particular order. The {@code action} must not modify this instance.
+     *
+     * @param action invoked with each key
+     * @throws IllegalArgumentException if {@code action} is null
+     * @throws ConcurrentModificationException if {@code action} modifies this instance
+     */
+    public void forEachKey(LongConsumer action) {
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        final int modcount0 = this.modcount;
+        final long[] keyArray = this.table.keys;
+        if (this.table.hasZeroKey)
+            action.accept(0);
+        for (int slot = 0; slot < keyArray.length; slot++) {
+            final long key = keyArray[slot];
+            if (key != 0)
+                action.accept(key);
+        }
+        if (this.modcount != modcount0)
+            throw new ConcurrentModificationException();
+    }
+
+    /**
+     * Remove all entries whose keys match the given predicate.
+     *
+     * <p>
+     * The {@code filter} must not modify this instance.
+     *
+     * @param filter returns true for keys to remove
+     * @return true if any entries were removed
+     * @throws IllegalArgumentException if {@code filter} is null
+     */
+    public boolean removeIf(LongPredicate filter) {
+        if (filter == null)
+            throw new IllegalArgumentException("null filter");
+        final int size0 = this.size();
+        if (this.table.hasZeroKey && filter.test(0))
+            this.removeZero();
+        final int mask = this.table.keys.length - 1;
+        final int start = this.table.scanStart();
+        for (int i = 0; i <= mask; i++) {
+            final int slot = (start + i) & mask;
+            long key;
+            while ((key = this.table.keys[slot]) != 0 && filter.test(key))
+                this.removeAt(slot, false);                 // exsert() may patch an unvisited key into this slot
+        }
+        if (this.size() == size0)
+            return false;
+        if (this.table.shrinkIfNeeded())
+            this.modcount++;
+        return true;
+    }
+
+    /**
+     * Create a new {@link Cursor} for iterating over the entries in this instance.
+     *
+     * @return new cursor, positioned before the first entry
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Create an immutable snapshot of this instance.
+     *
+     * <p>
+     * The returned map stores its entries in sorted arrays with no empty slots, so it requires less memory than
+     * this instance, and it may be shared among threads without synchronization or defensive copying.
+     * Subsequent changes to this instance are not reflected in the returned map.
+     *
+     * @return immutable copy of this instance
+     */
+    public FrozenLongMap<V> freeze() {
+        return new FrozenLongMap<>(this);
+    }
+
+    /**
+     * Produce a debug dump of this instance's keys, preceded by a histogram of probe lengths.
      */
     String debugDump() {
+        final long[] keyArray = this.table.keys;
         final StringBuilder buf = new StringBuilder();
-        buf.append("LONGMAP: size=" + this.size + " len=" + this.keys.length + " modcount=" + this.modcount.get());
-        for (int i = 0; i < this.keys.length; i++)
-            buf.append('\n').append(String.format(" [%2d] %016x (hash %d)", i, this.keys[i], this.hash(this.keys[i])));
+        buf.append("LONGMAP: size=" + this.size() + " len=" + keyArray.length + " modcount=" + this.modcount
+          + " zeroKey=" + this.table.hasZeroKey);
+        buf.append('\n').append(LongHashTable.probeHistogram(keyArray));
+        for (int i = 0; i < keyArray.length; i++) {
+            buf.append('\n').append(String.format(" [%2d] %016x (hash %d)",
+              i, keyArray[i], LongHashTable.hash(keyArray[i], keyArray.length - 1)));
+        }
         return buf.toString();
     }
 
@@ -258,10 +389,7 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
         } catch (CloneNotSupportedException e) {
             throw new RuntimeException(e);
         }
-        clone.keys = clone.keys.clone();
-        clone.modcount = new AtomicInteger(clone.modcount.get());
-        if (clone.values != null)
-            clone.values = clone.values.clone();
+        clone.table = clone.table.clone();
         return clone;
     }
 
@@ -277,35 +405,130 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
         if (valueCloner == null)
             throw new IllegalArgumentException("null valueCloner");
         final LongMap<V> clone = this.clone();
-        if (clone.values != null) {
-            for (int i = 0; i < clone.values.length; i++) {
-                final V value = clone.values[i];
+        if (clone.zeroValue != null)
+            clone.zeroValue = valueCloner.apply(clone.zeroValue);
+        final V[] valueArray = clone.table.values;
+        if (valueArray != null) {
+            for (int i = 0; i < valueArray.length; i++) {
+                final V value = valueArray[i];
                 if (value != null)
-                    clone.values[i] = valueCloner.apply(value);
+                    valueArray[i] = valueCloner.apply(value);
             }
         }
         return clone;
     }
 
+// Serialization
+
+    // Only live entries are written: the keys in sorted order as variable-length deltas, then the values in the same order
+    private void writeObject(ObjectOutputStream output) throws IOException {
+        output.defaultWriteObject();
+        output.writeBoolean(this.table.values != null);
+        final long[] sortedKeys = this.toKeysLongArray();
+        Arrays.sort(sortedKeys);
+        LongMap.writeKeys(output, sortedKeys);
+        if (this.table.values != null) {
+            for (long key : sortedKeys)
+                output.writeObject(this.get(key));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+        final boolean withValues = input.readBoolean();
+        final long[] sortedKeys = LongMap.readKeys(input);
+        this.table = new Table<>(sortedKeys.length, withValues);
+        for (long key : sortedKeys)
+            this.put(key, withValues ? (V)input.readObject() : null);
+    }
+
+    /**
+     * Write a sorted array of distinct keys in compact form.
+     *
+     * <p>
+     * The first key is written in zig-zag form and each subsequent key as its (positive) difference from the
+     * previous key, all as variable-length unsigned integers; dense keys therefore require about one byte each.
+     *
+     * @param output destination
+     * @param sortedKeys keys, sorted in ascending order with no duplicates
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeKeys(ObjectOutput output, long[] sortedKeys) throws IOException {
+        output.writeInt(sortedKeys.length);
+        for (int i = 0; i < sortedKeys.length; i++) {
+            final long key = sortedKeys[i];
+            LongMap.writeVarLong(output, i == 0 ? (key << 1) ^ (key >> 63) : key - sortedKeys[i - 1]);
+        }
+    }
+
+    /**
+     * Read a sorted array of distinct keys written by {@link #writeKeys writeKeys()}.
+     *
+     * @param input source
+     * @return keys, sorted in ascending order with no duplicates
+     * @throws IOException if an I/O error occurs
+     * @throws InvalidObjectException if the input is invalid
+     */
+    static long[] readKeys(ObjectInput input) throws IOException {
+        final int length = input.readInt();
+        if (length < 0)
+            throw new InvalidObjectException("invalid key count " + length);
+        final long[] sortedKeys = new long[length];
+        for (int i = 0; i < length; i++) {
+            final long value = LongMap.readVarLong(input);
+            if (i == 0) {
+                sortedKeys[i] = (value >>> 1) ^ -(value & 1);
+                continue;
+            }
+            final long key = sortedKeys[i - 1] + value;
+            if (value == 0 || key <= sortedKeys[i - 1])
+                throw new InvalidObjectException("invalid key sequence");
+            sortedKeys[i] = key;
+        }
+        return sortedKeys;
+    }
+
+    private static void writeVarLong(ObjectOutput output, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            output.writeByte((int)value | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int)value);
+    }
+
+    private static long readVarLong(ObjectInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = input.readUnsignedByte();
+            value |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new InvalidObjectException("invalid variable-length value");
+    }
+
 // Package methods
 
     long[] getKeys() {
-        return this.keys;
+        return this.table.keys;
     }
 
     V getValue(int slot) {
-        return this.values[slot];
+        return this.table.values[slot];
     }
 
     void setValue(int slot, V value) {
-        this.values[slot] = value;
+        this.table.values[slot] = value;
     }
 
     Long[] toKeysArray() {
-        final Long[] array = new Long[this.size];
+        final Long[] array = new Long[this.size()];
         int index = 0;
-        for (int slot = 0; slot < this.keys.length; slot++) {
-            final long value = this.keys[slot];
+        if (this.table.hasZeroKey)
+            array[index++] = 0L;
+        for (int slot = 0; slot < this.table.keys.length; slot++) {
+            final long value = this.table.keys[slot];
             if (value != 0)
                 array[index++] = value;
         }
@@ -313,10 +536,12 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
     }
 
     long[] toKeysLongArray() {
-        final long[] array = new long[this.size];
+        final long[] array = new long[this.size()];
         int index = 0;
-        for (int slot = 0; slot < this.keys.length; slot++) {
-            final long value = this.keys[slot];
+        if (this.table.hasZeroKey)
+            index++;
+        for (int slot = 0; slot < this.table.keys.length; slot++) {
+            final long value = this.table.keys[slot];
             if (value != 0)
                 array[index++] = value;
         }
@@ -329,156 +554,94 @@ public class LongMap<V> extends AbstractMap<Long, V> implements Cloneable, Seria
 
         // Find slot for key
         assert key != 0;
-        assert this.values != null || value == null;
-        final int slot = this.findSlot(key);
+        final Table<V> table = this.table;
+        assert table.values != null || value == null;
+        final int slot = table.findSlot(key);
 
         // Key already exists? Just replace value
-        if (this.keys[slot] == key) {
-            if (this.values == null)
+        if (table.keys[slot] == key) {
+            if (table.values == null)
                 return null;
-            final V prev = this.values[slot];
-            this.values[slot] = value;
+            final V prev = table.values[slot];
+            table.values[slot] = value;
             return prev;
         }
 
-        // Check for overflow
-        final boolean expansionNeeded = this.size >= this.upperSizeLimit;
-        if (expansionNeeded && this.log2len >= MAX_LOG2_LENGTH)
-            throw new IllegalStateException("maximum capacity reached");
-
-        // Insert new key/value pair
-        assert this.keys[slot] == 0;
-        this.keys[slot] = key;
-        if (this.values != null) {
-            assert this.values[slot] == null;
-            this.values[slot] = value;
-        }
-        this.size++;
-
-        // Expand if necessary
-        if (expansionNeeded) {
-            this.log2len++;
-            this.resize();
-        }
-
-        // Done
-        this.modcount.incrementAndGet();
+        // Insert new key/value pair; the value must be in place before insert() possibly resizes
+        if (table.values != null)
+            table.values[slot] = value;
+        table.insert(slot, key);
+        this.modcount++;
         return null;
     }
 
-    private V exsert(long key, boolean allowResize) {
+    private V removeAt(int slot, boolean allowResize) {
+        final V ovalue = this.table.values != null ? this.table.values[slot] : null;
+        this.table.exsert(slot, allowResize);
+        this.modcount++;
+        return ovalue;
+    }
 
-        // Find slot for key
-        final int slot = this.findSlot(key);
-        if (this.keys[slot] == 0) {
-            assert this.values == null || this.values[slot] == null;
+    private V removeZero() {
+        if (!this.table.hasZeroKey)
             return null;
-        }
-        assert this.keys[slot] == key;
-
-        // Remove key
-        return this.exsert(slot, allowResize);
+        final V ovalue = this.zeroValue;
+        this.table.hasZeroKey = false;
+        this.zeroValue = null;
+        this.modcount++;
+        return ovalue;
     }
 
-    private V exsert(final int slot, boolean allowResize) {
+// Table
 
-        // Sanity check
-        assert this.keys[slot] != 0;
-        final V ovalue = this.values != null ? this.values[slot] : null;
+    @SuppressWarnings("serial")
+    private static final class Table<V> extends LongHashTable {
 
-        // Remove key/value pair and fixup subsequent entries
-        int i = slot;                                                   // i points to the new empty slot
-        int j = slot;                                                   // j points to the next slot to fixup
-loop:   while (true) {
-            this.keys[i] = 0;
-            if (this.values != null)
-                this.values[i] = null;
-            long jkey;
-            V jvalue;
-            while (true) {
-                j = (j + 1) & (this.keys.length - 1);
-                jkey = this.keys[j];
-                if (jkey == 0)                                          // end of hash chain, no more fixups required
-                    break loop;
-                jvalue = this.values != null ? this.values[j] : null;   // get corresponding value
-                final int k = this.hash(jkey);                          // find where jkey's hash chain started
-                if (i <= j ? (i < k && k <= j) : (i < k || k <= j))     // jkey is between i and j, so it's not cut off
-                    continue;
-                break;                                                  // jkey is cut off from its hash chain, need to fix
-            }
-            this.keys[i] = jkey;                                        // move jkey back into its hash chain
-            if (this.values != null)
-                this.values[i] = jvalue;
-            i = j;                                                      // restart fixups at jkey's old location
-        }
+        V[] values;                                         // will be null if we are being used to implement LongSet
 
-        // Shrink if necessary and allowed
-        if (--this.size < this.lowerSizeLimit && allowResize && this.log2len > MIN_LOG2_LENGTH) {
-            this.log2len--;
-            this.resize();
+        @SuppressWarnings("unchecked")
+        Table(int capacity, boolean withValues) {
+            super(capacity);
+            if (withValues)
+                this.values = (V[])new Object[this.keys.length];
         }
-        this.modcount.incrementAndGet();
-        return ovalue;
-    }
 
-    private int findSlot(long value) {
-        assert value != 0;
-        int slot = this.hash(value);
-        while (true) {
-            final long existing = this.keys[slot];
-            if (existing == 0 || existing == value)
-                return slot;
-            slot = (slot + 1) & (this.keys.length - 1);
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Table<V> clone() {
+            final Table<V> clone = (Table<V>)super.clone();
+            if (clone.values != null)
+                clone.values = clone.values.clone();
+            return clone;
         }
-    }
 
-    private int hash(long value) {
-        final int shift = this.log2len;
-        int hash = (int)value;
-        for (int i = 0; i < this.numHashShifts; i++) {
-            value >>>= shift;
-            hash ^= (int)value;
+        @Override
+        void moveValue(int from, int to) {
+            if (this.values != null)
+                this.values[to] = this.values[from];
         }
-        return hash & (this.keys.length - 1);
-    }
-
-    private void resize() {
 
-        // Grab a copy of old arrays and create new ones
-        final long[] oldKeys = this.keys;
-        final V[] oldValues = this.values;
-        assert oldValues == null || oldValues.length == oldKeys.length;
-        this.createArrays(oldValues != null);
+        @Override
+        void clearValue(int slot) {
+            if (this.values != null)
+                this.values[slot] = null;
+        }
 
-        // Rehash key/value pairs from old array into new array
-        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
-            final long key = oldKeys[oldSlot];
-            if (key == 0) {
-                assert oldValues == null || oldValues[oldSlot] == null;
-                continue;
-            }
-            final int newSlot = this.findSlot(key);
-            assert this.keys[newSlot] == 0;
-            this.keys[newSlot] = key;
-            if (this.values != null) {
-                assert this.values[newSlot] == null;
-                this.values[newSlot] = oldValues[oldSlot];
-            }
+        @Override
+        @SuppressWarnings("unchecked")
+        Object newValues() {
+            final V[] oldValues = this.values;
+            if (oldValues != null)
+                this.values = (V[])new Object[this.keys.length];
+            return oldValues;
         }
-    }
 
-    @SuppressWarnings("unchecked")
-    private void createArrays(boolean withValues) {
-        assert this.log2len >= MIN_LOG2_LENGTH;
-        assert this.log2len <= MAX_LOG2_LENGTH;
-        final int arrayLength = 1 << this.log2len;
-        this.lowerSizeLimit = this.log2len > MIN_LOG2_LENGTH ? (int)(SHRINK_THRESHOLD * arrayLength) : 0;
-        this.upperSizeLimit = this.log2len < MAX_LOG2_LENGTH ? (int)(EXPAND_THRESHOLD * arrayLength) : arrayLength;
-        this.numHashShifts = (64 + (this.log2len - 1)) / this.log2len;
-        this.numHashShifts = Math.min(12, this.numHashShifts);
-        this.keys = new long[arrayLength];
-        if (withValues)
-            this.values = (V[])new Object[arrayLength];
+        @Override
+        @SuppressWarnings("unchecked")
+        void copyValue(Object oldValues, int from, int to) {
+            if (this.values != null)
+                this.values[to] = ((V[])oldValues)[from];
+        }
     }
 
 // EntrySet
@@ -492,7 +655,7 @@ loop:   while (true) {
 
         @Override
         public int size() {
-            return LongMap.this.size;
+            return LongMap.this.size();
         }
 
         @Override
@@ -528,12 +691,19 @@ loop:   while (true) {
             LongMap.this.clear();
         }
 
+        @Override
+        public Spliterator<Map.Entry<Long, V>> spliterator() {
+            return new EntrySpliterator();
+        }
+
         // This works because Long.hashCode() == Long.asLong().hashCode()
         @Override
         public int hashCode() {
-            final long[] keyArray = LongMap.this.keys;
-            final V[] valueArray = LongMap.this.values;
+            final long[] keyArray = LongMap.this.table.keys;
+            final V[] valueArray = LongMap.this.table.values;
             int hash = 0;
+            if (LongMap.this.table.hasZeroKey && LongMap.this.zeroValue != null)
+                hash += LongMap.this.zeroValue.hashCode();
             for (int i = 0; i < keyArray.length; i++) {
                 final long key = keyArray[i];
                 if (key != 0) {
@@ -556,11 +726,59 @@ loop:   while (true) {
         }
     }
 
+// Values
+
+    class Values extends AbstractCollection<V> {
+
+        @Override
+        public Iterator<V> iterator() {
+            return new Iterator<V>() {
+
+                private final EntrySetIterator entryIterator = new EntrySetIterator();
+
+                @Override
+                public boolean hasNext() {
+                    return this.entryIterator.hasNext();
+                }
+
+                @Override
+                public V next() {
+                    return this.entryIterator.next().getValue();
+                }
+
+                @Override
+                public void remove() {
+                    this.entryIterator.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return LongMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object obj) {
+            return LongMap.this.containsValue(obj);
+        }
+
+        @Override
+        public void clear() {
+            LongMap.this.clear();
+        }
+
+        @Override
+        public Spliterator<V> spliterator() {
+            return new ValueSpliterator();
+        }
+    }
+
 // EntrySetIterator
 
     class EntrySetIterator implements Iterator<Map.Entry<Long, V>> {
 
-        private int modcount = LongMap.this.modcount.get();
+        private int modcount = LongMap.this.modcount;
         private int removeSlot = -1;
         private int nextSlot;
 
@@ -574,56 +792,432 @@ loop:   while (true) {
             final int slot = this.findNext(true);
             if (slot == -1)
                 throw new NoSuchElementException();
-            final long key = LongMap.this.keys[slot];
-            assert key != 0;
             this.removeSlot = slot;
-            return new Entry(slot);
+            if (slot == LongMap.this.table.keys.length)            // the zero key
+                return new Entry(0, LongMap.this.zeroValue);
+            final long key = LongMap.this.table.keys[slot];
+            assert key != 0;
+            return new Entry(key, LongMap.this.table.values != null ? LongMap.this.table.values[slot] : null);
         }
 
         @Override
         public void remove() {
             if (this.removeSlot == -1)
                 throw new IllegalStateException();
-            if (this.modcount != LongMap.this.modcount.get())
+            if (this.modcount != LongMap.this.modcount)
                 throw new ConcurrentModificationException();
-            LongMap.this.exsert(this.removeSlot, false);    // remove entry but don't resize arrays
-            if (this.removeSlot == this.nextSlot - 1
-              && LongMap.this.keys[this.removeSlot] != 0)   // exsert() patched another key into the removal slot
-                this.nextSlot--;                            // so backup one slot so we don't skip over it
+            if (this.removeSlot == LongMap.this.table.keys.length)  // the zero key
+                LongMap.this.removeZero();
+            else {
+                LongMap.this.removeAt(this.removeSlot, false);          // remove entry but don't resize arrays
+                if (this.removeSlot == this.nextSlot - 1
+                  && LongMap.this.table.keys[this.removeSlot] != 0)       // exsert() patched another key into the removal slot
+                    this.nextSlot--;                            // so backup one slot so we don't skip over it
+            }
             this.removeSlot = -1;
             this.modcount++;                            // keep synchronized with LongMap.this.modcount
         }
 
         private int findNext(boolean advance) {
-            if (this.modcount != LongMap.this.modcount.get())
+            if (this.modcount != LongMap.this.modcount)
                 throw new ConcurrentModificationException();
-            for (int slot = this.nextSlot; slot < LongMap.this.keys.length; slot++) {
-                if (LongMap.this.keys[slot] == 0)
+            final int length = LongMap.this.table.keys.length;
+            for (int slot = this.nextSlot; slot < length; slot++) {
+                if (LongMap.this.table.keys[slot] == 0)
                     continue;
                 this.nextSlot = advance ? slot + 1 : slot;
                 return slot;
             }
+            if (this.nextSlot <= length && LongMap.this.table.hasZeroKey) {  // the zero key comes last, in "slot" keys.length
+                this.nextSlot = advance ? length + 1 : length;
+                return length;
+            }
             return -1;
         }
     }
 
+// Cursor
+
+    /**
+     * A reusable, allocation-free cursor over the entries in a {@link LongMap}.
+     *
+     * <p>
+     * A cursor starts out positioned before the first entry. Each call to {@link #advance} moves it to the next entry,
+     * after which {@link #key}, {@link #value}, {@link #setValue setValue()}, and {@link #remove} apply to that entry.
+     * Use {@link #reset} to reuse the same cursor for another pass.
+     *
+     * <p>
+     * Entries are visited in no particular order. Modifying the map other than via {@link #setValue setValue()} or
+     * {@link #remove} during iteration causes {@link ConcurrentModificationException}.
+     */
+    public final class Cursor {
+
+        private int modcount = LongMap.this.modcount;
+        private int start = LongMap.this.table.scanStart(); // first slot to visit; see scanStart()
+        private int index = -1;                             // number of slots visited so far, minus one
+        private int slot;                                   // current slot; keys.length means the zero key
+        private boolean valid;
+
+        private Cursor() {
+        }
+
+        /**
+         * Advance to the next entry.
+         *
+         * @return true if positioned on the next entry, false if there are no more entries
+         * @throws ConcurrentModificationException if the map has been modified
+         */
+        public boolean advance() {
+            this.checkModcount();
+            final long[] keyArray = LongMap.this.table.keys;
+            final int mask = keyArray.length - 1;
+            while (++this.index < keyArray.length) {
+                this.slot = (this.start + this.index) & mask;
+                if (keyArray[this.slot] != 0)
+                    return this.valid = true;
+            }
+            if (this.index == keyArray.length && LongMap.this.table.hasZeroKey) {
+                this.slot = keyArray.length;
+                return this.valid = true;
+            }
+            this.index = keyArray.length + 1;
+            return this.valid = false;
+        }
+
+        /**
+         * Get the key of the current entry.
+         *
+         * @return current key
+         * @throws IllegalStateException if there is no current entry
+         * @throws ConcurrentModificationException if the map has been modified
+         */
+        public long key() {
+            this.checkValid();
+            return this.slot == LongMap.this.table.keys.length ? 0 : LongMap.this.table.keys[this.slot];
+        }
+
+        /**
+         * Get the value of the current entry.
+         *
+         * @return current value
+         * @throws IllegalStateException if there is no current entry
+         * @throws ConcurrentModificationException if the map has been modified
+         */
+        public V value() {
+            this.checkValid();
+            if (this.slot == LongMap.this.table.keys.length)
+                return LongMap.this.zeroValue;
+            return LongMap.this.table.values != null ? LongMap.this.table.values[this.slot] : null;
+        }
+
+        /**
+         * Set the value of the current entry.
+         *
+         * @param value new value
+         * @return previous value
+         * @throws IllegalStateException if there is no current entry
+         * @throws ConcurrentModificationException if the map has been modified
+         */
+        public V setValue(V value) {
+            this.checkValid();
+            if (this.slot == LongMap.this.table.keys.length) {
+                final V prev = LongMap.this.zeroValue;
+                LongMap.this.zeroValue = value;
+                return prev;
+            }
+            assert LongMap.this.table.values != null;
+            final V prev = LongMap.this.table.values[this.slot];
+            LongMap.this.table.values[this.slot] = value;
+            return prev;
+        }
+
+        /**
+         * Remove the current entry.
+         *
+         * <p>
+         * Afterward, there is no current entry until the next call to {@link #advance}.
+         *
+         * @throws IllegalStateException if there is no current entry
+         * @throws ConcurrentModificationException if the map has been modified
+         */
+        public void remove() {
+            this.checkValid();
+            if (this.slot == LongMap.this.table.keys.length)
+                LongMap.this.removeZero();
+            else {
+                LongMap.this.removeAt(this.slot, false);            // remove entry but don't resize arrays
+                if (LongMap.this.table.keys[this.slot] != 0)        // exsert() patched an unvisited key into the removal slot
+                    this.index--;                           // so backup one slot so we don't skip over it
+            }
+            this.valid = false;
+            this.modcount++;                                // keep synchronized with LongMap.this.modcount
+        }
+
+        /**
+         * Reposition this cursor before the first entry.
+         */
+        public void reset() {
+            this.modcount = LongMap.this.modcount;
+            this.start = LongMap.this.table.scanStart();
+            this.index = -1;
+            this.valid = false;
+        }
+
+        private void checkValid() {
+            this.checkModcount();
+            if (!this.valid)
+                throw new IllegalStateException("no current entry");
+        }
+
+        private void checkModcount() {
+            if (this.modcount != LongMap.this.modcount)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+// Spliterators
+
+    /**
+     * Support superclass for spliterators that traverse a range of array slots.
+     *
+     * <p>
+     * The range covers slots {@code 0} through {@code keys.length - 1}, plus the "slot" {@code keys.length}
+     * if the zero key is present.
+     *
+     * <p>
+     * The arrays are captured when the root spliterator is created, so that a resize of the map during traversal
+     * cannot cause slots to be read from arrays that no longer match the range; instead, the modification count is
+     * checked before each slot is read.
+     */
+    abstract class SlotSpliterator {
+
+        final long[] keys;
+        final V[] values;
+        final int expectedModcount;
+        int origin;                                         // next slot to visit
+        int fence;                                          // one past the last slot to visit
+        long est;                                           // size estimate
+        boolean sized;                                      // whether est is exact
+
+        SlotSpliterator() {
+            this.keys = LongMap.this.table.keys;
+            this.values = LongMap.this.table.values;
+            this.expectedModcount = LongMap.this.modcount;
+            this.fence = LongMap.this.table.hasZeroKey ? this.keys.length + 1 : this.keys.length;
+            this.est = LongMap.this.size();
+            this.sized = true;
+        }
+
+        SlotSpliterator(SlotSpliterator parent, int origin, int fence) {
+            this.keys = parent.keys;
+            this.values = parent.values;
+            this.expectedModcount = parent.expectedModcount;
+            this.origin = origin;
+            this.fence = fence;
+            this.est = parent.est;
+        }
+
+        /**
+         * Split off the lower half of the remaining range.
+         *
+         * @return the split point (the fence of the lower half, and new origin of this instance),
+         *  or -1 if the range is too small to split
+         */
+        int split() {
+            final int lo = this.origin;
+            final int mid = (lo + this.fence) >>> 1;
+            if (lo >= mid)
+                return -1;
+            this.origin = mid;
+            this.est >>>= 1;
+            this.sized = false;
+            return mid;
+        }
+
+        /**
+         * Find the next occupied slot in the remaining range and advance past it.
+         *
+         * @return the next occupied slot, or -1 if the range is exhausted
+         * @throws ConcurrentModificationException if the map has been modified
+         */
+        int nextSlot() {
+            this.checkModcount();
+            final long[] keyArray = this.keys;
+            while (this.origin < this.fence) {
+                final int slot = this.origin++;
+                if (slot == keyArray.length || keyArray[slot] != 0)
+                    return slot;
+            }
+            return -1;
+        }
+
+        long keyAt(int slot) {
+            return slot == this.keys.length ? 0 : this.keys[slot];
+        }
+
+        V valueAt(int slot) {
+            if (slot == this.keys.length)
+                return LongMap.this.zeroValue;
+            return this.values != null ? this.values[slot] : null;
+        }
+
+        void checkModcount() {
+            if (LongMap.this.modcount != this.expectedModcount)
+                throw new ConcurrentModificationException();
+        }
+
+        public long estimateSize() {
+            return this.est;
+        }
+
+        int baseCharacteristics() {
+            return this.sized ? Spliterator.SIZED : 0;
+        }
+    }
+
+    class KeySpliterator extends SlotSpliterator implements Spliterator.OfLong {
+
+        KeySpliterator() {
+        }
+
+        KeySpliterator(KeySpliterator parent, int origin, int fence) {
+            super(parent, origin, fence);
+        }
+
+        @Override
+        public KeySpliterator trySplit() {
+            final int lo = this.origin;
+            final int mid = this.split();
+            return mid != -1 ? new KeySpliterator(this, lo, mid) : null;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            if (action == null)
+                throw new NullPointerException();
+            final int slot = this.nextSlot();
+            if (slot == -1)
+                return false;
+            action.accept(this.keyAt(slot));
+            this.checkModcount();
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            if (action == null)
+                throw new NullPointerException();
+            this.checkModcount();
+            final long[] keyArray = this.keys;
+            final int end = Math.min(this.fence, keyArray.length);
+            for (int slot = this.origin; slot < end; slot++) {
+                final long key = keyArray[slot];
+                if (key != 0)
+                    action.accept(key);
+            }
+            if (this.fence > keyArray.length)
+                action.accept(0);
+            this.origin = this.fence;
+            this.checkModcount();
+        }
+
+        @Override
+        public int characteristics() {
+            return this.baseCharacteristics() | Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+    }
+
+    class EntrySpliterator extends SlotSpliterator implements Spliterator<Map.Entry<Long, V>> {
+
+        EntrySpliterator() {
+        }
+
+        EntrySpliterator(EntrySpliterator parent, int origin, int fence) {
+            super(parent, origin, fence);
+        }
+
+        @Override
+        public EntrySpliterator trySplit() {
+            final int lo = this.origin;
+            final int mid = this.split();
+            return mid != -1 ? new EntrySpliterator(this, lo, mid) : null;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<Long, V>> action) {
+            if (action == null)
+                throw new NullPointerException();
+            final int slot = this.nextSlot();
+            if (slot == -1)
+                return false;
+            action.accept(new Entry(this.keyAt(slot), this.valueAt(slot)));
+            this.checkModcount();
+            return true;
+        }
+
+        @Override
+        public int characteristics() {
+            return this.baseCharacteristics() | Spliterator.DISTINCT | Spliterator.NONNULL;
+        }
+    }
+
+    class ValueSpliterator extends SlotSpliterator implements Spliterator<V> {
+
+        ValueSpliterator() {
+        }
+
+        ValueSpliterator(ValueSpliterator parent, int origin, int fence) {
+            super(parent, origin, fence);
+        }
+
+        @Override
+        public ValueSpliterator trySplit() {
+            final int lo = this.origin;
+            final int mid = this.split();
+            return mid != -1 ? new ValueSpliterator(this, lo, mid) : null;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super V> action) {
+            if (action == null)
+                throw new NullPointerException();
+            final int slot = this.nextSlot();
+            if (slot == -1)
+                return false;
+            action.accept(this.valueAt(slot));
+            this.checkModcount();
+            return true;
+        }
+
+        @Override
+        public int characteristics() {
+            return this.baseCharacteristics();
+        }
+    }
+
 // Entry
 
     @SuppressWarnings("serial")
     class Entry extends AbstractMap.SimpleEntry<Long, V> {
 
-        Entry(int slot) {
-            super(LongMap.this.keys[slot], LongMap.this.values != null ? LongMap.this.values[slot] : null);
+        Entry(long key, V value) {
+            super(key, value);
         }
 
         @Override
         public V setValue(V value) {
-            assert LongMap.this.values != null;
+            assert LongMap.this.table.values != null;
             final long key = this.getKey();
-            final int slot = LongMap.this.findSlot(key);
-            if (LongMap.this.keys[slot] != key)
+            if (key == 0) {
+                if (!LongMap.this.table.hasZeroKey)
+                    throw new IllegalStateException("key no longer exists: " + key);
+                LongMap.this.zeroValue = value;
+                return super.setValue(value);
+            }
+            final int slot = LongMap.this.table.findSlot(key);
+            if (LongMap.this.table.keys[slot] != key)
                 throw new IllegalStateException("key no longer exists: " + key);
-            LongMap.this.values[slot] = value;
+            LongMap.this.table.values[slot] = value;
             return super.setValue(value);
         }
     }
@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+/**
+ * Consumes a {@code long} value and an object.
+ *
+ * <p>
+ * This is the primitive specialization of {@link java.util.function.BiConsumer} for a {@code long} first argument,
+ * used to visit map entries having {@code long} keys without boxing.
+ *
+ * @param <T> object type
+ * @see LongMap#forEachEntry LongMap.forEachEntry()
+ */
+@FunctionalInterface
+public interface LongObjConsumer<T> {
+
+    /**
+     * Perform this operation on the given arguments.
+     *
+     * @param value {@code long} argument
+     * @param obj object argument
+     */
+    void accept(long value, T obj);
+}
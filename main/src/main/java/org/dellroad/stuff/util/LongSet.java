@@ -5,14 +5,22 @@
 
 package org.dellroad.stuff.util;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
 import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 /**
- * A set of non-zero {@code long} values.
+ * A set of {@code long} values.
  *
  * <p>
  * This implementation uses {@code long[]} arrays and open addressing to minimize memory overhead.
@@ -22,15 +30,15 @@ import java.util.stream.LongStream;
  * Instances will throw {@link IllegalStateException} if their capacity is exceeded.
  *
  * <p>
- * Instances do not accept zero values and are not thread safe.
+ * Instances are not thread safe.
  *
  * @see <a href="https://en.wikipedia.org/wiki/Open_addressing">Open addressing</a>
  */
 public class LongSet extends AbstractSet<Long> implements Cloneable, Serializable {
 
-    private static final long serialVersionUID = -8245070561628904936L;
+    private static final long serialVersionUID = 2807405618713302515L;
 
-    private /*final*/ LongMap<?> map;
+    private transient /*final*/ LongMap<?> map;
 
 // Constructors
 
@@ -57,7 +65,6 @@ public class LongSet extends AbstractSet<Long> implements Cloneable, Serializabl
      * @param values initial contents for this instance
      * @throws IllegalArgumentException if {@code values} is null
      * @throws IllegalArgumentException if any value in {@code values} is null
-     * @throws IllegalArgumentException if any value in {@code values} is zero
      */
     @SuppressWarnings("this-escape")
     public LongSet(Iterable<? extends Number> values) {
@@ -76,7 +83,6 @@ public class LongSet extends AbstractSet<Long> implements Cloneable, Serializabl
      *
      * @param values initial contents for this instance
      * @throws IllegalArgumentException if {@code values} is null
-     * @throws NullPointerException if any value in {@code values} is zero
      */
     @SuppressWarnings("this-escape")
     public LongSet(long[] values) {
@@ -95,6 +101,10 @@ public class LongSet extends AbstractSet<Long> implements Cloneable, Serializabl
     /**
      * Remove a single, arbitrary {@code long} value from this instance and return it.
      *
+     * <p>
+     * Because zero is a legal value, callers that need to distinguish an empty instance should check
+     * {@link #isEmpty} first.
+     *
      * @return the removed value, or zero if this instance is empty
      */
     public long removeOne() {
@@ -105,11 +115,56 @@ public class LongSet extends AbstractSet<Long> implements Cloneable, Serializabl
     /**
      * Returns a sequential {@link LongStream} with this instance as its source.
      *
+     * <p>
+     * The returned stream may be made {@linkplain LongStream#parallel parallel}; it splits efficiently.
+     *
      * @return stream of contents
      */
     public LongStream longStream() {
-        return LongStream.of(this.map.getKeys())
-          .filter(value -> value != 0);
+        return StreamSupport.longStream(this.spliterator(), false);
+    }
+
+    /**
+     * Visit each value in this instance without boxing.
+     *
+     * <p>
+     * Values are visited in no particular order. The {@code action} must not modify this instance.
+     *
+     * @param action invoked with each value
+     * @throws IllegalArgumentException if {@code action} is null
+     * @throws java.util.ConcurrentModificationException if {@code action} modifies this instance
+     */
+    public void forEachLong(LongConsumer action) {
+        this.map.forEachKey(action);
+    }
+
+    /**
+     * Remove all values matching the given predicate without boxing.
+     *
+     * <p>
+     * This is the primitive equivalent of {@link #removeIf removeIf()}, under a different name to avoid
+     * ambiguity with lambda arguments. The {@code filter} must not modify this instance.
+     *
+     * @param filter returns true for values to remove
+     * @return true if any values were removed
+     * @throws IllegalArgumentException if {@code filter} is null
+     */
+    public boolean removeIfLong(LongPredicate filter) {
+        return this.map.removeIf(filter);
+    }
+
+    /**
+     * Create an immutable snapshot of this instance.
+     *
+     * <p>
+     * The returned set stores its values in a sorted array with no empty slots, so it requires less memory than
+     * this instance, and it may be shared among threads without synchronization or defensive copying.
+     * Subsequent changes to this instance are not reflected in the returned set.
+     *
+     * @return immutable copy of this instance
+     */
+    public FrozenLongSet freeze() {
+        return new FrozenLongSet(this.map.toKeysLongArray());
     }
 
 // Methods
@@ -137,6 +192,19 @@ public class LongSet extends AbstractSet<Long> implements Cloneable, Serializabl
         };
     }
 
+    /**
+     * Creates a {@link Spliterator.OfLong} over the values in this instance.
+     *
+     * <p>
+     * The returned spliterator splits by ranges of array slots and is therefore suitable for parallel streams.
+     *
+     * @return spliterator over contents
+     */
+    @Override
+    public Spliterator.OfLong spliterator() {
+        return this.map.new KeySpliterator();
+    }
+
     @Override
     public int size() {
         return this.map.size();
@@ -236,4 +304,22 @@ public class LongSet extends AbstractSet<Long> implements Cloneable, Serializabl
         clone.map = clone.map.clone();
         return clone;
     }
+
+// Serialization
+
+    // Only the values are written, in sorted order as variable-length deltas
+    private void writeObject(ObjectOutputStream output) throws IOException {
+        output.defaultWriteObject();
+        final long[] sortedValues = this.toLongArray();
+        Arrays.sort(sortedValues);
+        LongMap.writeKeys(output, sortedValues);
+    }
+
+    private void readObject(ObjectInputStream input) throws IOException, ClassNotFoundException {
+        input.defaultReadObject();
+        final long[] sortedValues = LongMap.readKeys(input);
+        this.map = new LongMap<Void>(sortedValues.length, false);
+        for (long value : sortedValues)
+            this.map.put(value, null);
+    }
 }
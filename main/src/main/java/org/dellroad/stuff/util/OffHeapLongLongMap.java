@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A map with {@code long} keys and {@code long} values stored in off-heap memory.
+ *
+ * <p>
+ * This class uses the same open addressing scheme as {@link LongLongMap}, but stores its keys and values in direct
+ * {@link java.nio.ByteBuffer}s, so even very large maps put no pressure on the garbage collector. Absent keys map to zero;
+ * use {@link #getOrDefault getOrDefault()} or {@link #containsKey containsKey()} to distinguish a missing key from a key
+ * mapped to zero.
+ *
+ * <p>
+ * An instance can be {@linkplain #save saved} to a file and later {@linkplain #open reopened} by mapping
+ * that file into memory. Because the file layout is identical to the in-memory layout, reopening requires
+ * no rehashing and takes time independent of the size of the map.
+ *
+ * <p>
+ * The off-heap memory is released when an instance is {@linkplain #close closed}; closed instances are unusable.
+ *
+ * <p>
+ * Instances will throw {@link IllegalStateException} if their capacity is exceeded.
+ *
+ * <p>
+ * Instances are not thread safe. However, read-only instances returned by {@link #open open()} are never modified
+ * and so may be shared among threads once safely published.
+ *
+ * @see LongLongMap
+ */
+@NotThreadSafe
+public class OffHeapLongLongMap extends OffHeapLongTable {
+
+// Constructors
+
+    /**
+     * Constructs an empty instance.
+     */
+    public OffHeapLongLongMap() {
+        this(0);
+    }
+
+    /**
+     * Constructs an instance with the given initial capacity.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public OffHeapLongLongMap(int capacity) {
+        super(2, capacity);
+    }
+
+    private OffHeapLongLongMap(File file, boolean readOnly) throws IOException {
+        super(2, file, readOnly);
+    }
+
+    /**
+     * Open an instance previously written by {@link #save save()} by mapping the file into memory.
+     *
+     * <p>
+     * If {@code readOnly} is true, the file is mapped read-only and the returned instance cannot be modified.
+     * Otherwise, the file is mapped copy-on-write: the returned instance may be modified, but the modifications
+     * are never written back to the file.
+     *
+     * @param file file to open
+     * @param readOnly true to return a read-only instance
+     * @return instance backed by {@code file}
+     * @throws IOException if {@code file} is not a valid saved {@link OffHeapLongLongMap}, or an I/O error occurs
+     * @throws IllegalArgumentException if {@code file} is null
+     */
+    public static OffHeapLongLongMap open(File file, boolean readOnly) throws IOException {
+        return new OffHeapLongLongMap(file, readOnly);
+    }
+
+// Methods
+
+    /**
+     * Determine if this instance contains the given key.
+     *
+     * @param key key to find
+     * @return true if {@code key} is present
+     * @throws IllegalStateException if this instance is closed
+     */
+    public boolean containsKey(long key) {
+        this.checkOpen();
+        return key == 0 ? this.hasZeroKey : this.keyAt(this.findSlot(key)) == key;
+    }
+
+    /**
+     * Get the value associated with the given key.
+     *
+     * @param key key to find
+     * @return associated value, or zero if {@code key} is not found
+     * @throws IllegalStateException if this instance is closed
+     */
+    public long get(long key) {
+        return this.getOrDefault(key, 0);
+    }
+
+    /**
+     * Get the value associated with the given key, or the given default value if not found.
+     *
+     * @param key key to find
+     * @param defaultValue value to return if {@code key} is not found
+     * @return associated value, or {@code defaultValue} if {@code key} is not found
+     * @throws IllegalStateException if this instance is closed
+     */
+    public long getOrDefault(long key, long defaultValue) {
+        this.checkOpen();
+        if (key == 0)
+            return this.hasZeroKey ? this.zeroValue : defaultValue;
+        final int slot = this.findSlot(key);
+        return this.keyAt(slot) == key ? this.valueAt(slot) : defaultValue;
+    }
+
+    /**
+     * Associate a value with the given key.
+     *
+     * @param key key
+     * @param value new value
+     * @return previous value associated with {@code key}, or zero if there was none
+     * @throws UnsupportedOperationException if this instance is read-only
+     * @throws IllegalStateException if the maximum capacity is exceeded or this instance is closed
+     */
+    public long put(long key, long value) {
+        this.checkWritable();
+        if (key == 0) {
+            final long prev = this.hasZeroKey ? this.zeroValue : 0;
+            this.hasZeroKey = true;
+            this.zeroValue = value;
+            return prev;
+        }
+        final int slot = this.findSlot(key);
+        if (this.keyAt(slot) == key) {
+            final long prev = this.valueAt(slot);
+            this.setValueAt(slot, value);
+            return prev;
+        }
+        this.insert(slot, key, value);
+        return 0;
+    }
+
+    /**
+     * Add the given amount to the value associated with the given key.
+     *
+     * <p>
+     * If {@code key} is not found, it is added to this instance with the value {@code increment}.
+     *
+     * @param key key
+     * @param increment amount to add
+     * @return previous value associated with {@code key}, or zero if there was none
+     * @throws UnsupportedOperationException if this instance is read-only
+     * @throws IllegalStateException if the maximum capacity is exceeded or this instance is closed
+     */
+    public long addTo(long key, long increment) {
+        this.checkWritable();
+        if (key == 0) {
+            final long prev = this.hasZeroKey ? this.zeroValue : 0;
+            this.hasZeroKey = true;
+            this.zeroValue = prev + increment;
+            return prev;
+        }
+        final int slot = this.findSlot(key);
+        if (this.keyAt(slot) == key) {
+            final long prev = this.valueAt(slot);
+            this.setValueAt(slot, prev + increment);
+            return prev;
+        }
+        this.insert(slot, key, increment);
+        return 0;
+    }
+
+    /**
+     * Remove the given key, if present.
+     *
+     * @param key key to remove
+     * @return value previously associated with {@code key}, or zero if there was none
+     * @throws UnsupportedOperationException if this instance is read-only
+     * @throws IllegalStateException if this instance is closed
+     */
+    public long remove(long key) {
+        this.checkWritable();
+        if (key == 0) {
+            final long prev = this.hasZeroKey ? this.zeroValue : 0;
+            this.hasZeroKey = false;
+            return prev;
+        }
+        final int slot = this.findSlot(key);
+        if (this.keyAt(slot) == 0)
+            return 0;
+        final long prev = this.valueAt(slot);
+        this.exsert(slot);
+        return prev;
+    }
+
+    /**
+     * Visit each key in this instance.
+     *
+     * <p>
+     * Keys are visited in no particular order. The {@code action} must not modify this instance.
+     *
+     * @param action invoked with each key
+     * @throws IllegalArgumentException if {@code action} is null
+     */
+    @Override
+    public void forEachKey(LongConsumer action) {
+        super.forEachKey(action);
+    }
+
+    /**
+     * Get the keys in this instance, in no particular order.
+     *
+     * @return array of keys
+     */
+    @Override
+    public long[] toKeysArray() {
+        return super.toKeysArray();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A set of {@code long} values stored in off-heap memory.
+ *
+ * <p>
+ * This class uses the same open addressing scheme as {@link LongSet}, but stores its values in direct
+ * {@link java.nio.ByteBuffer}s, so even very large sets put no pressure on the garbage collector.
+ *
+ * <p>
+ * An instance can be {@linkplain #save saved} to a file and later {@linkplain #open reopened} by mapping
+ * that file into memory. Because the file layout is identical to the in-memory layout, reopening requires
+ * no rehashing and takes time independent of the size of the set.
+ *
+ * <p>
+ * The off-heap memory is released when an instance is {@linkplain #close closed}; closed instances are unusable.
+ *
+ * <p>
+ * Instances will throw {@link IllegalStateException} if their capacity is exceeded.
+ *
+ * <p>
+ * Instances are not thread safe. However, read-only instances returned by {@link #open open()} are never modified
+ * and so may be shared among threads once safely published.
+ *
+ * @see LongSet
+ */
+@NotThreadSafe
+public class OffHeapLongSet extends OffHeapLongTable {
+
+// Constructors
+
+    /**
+     * Constructs an empty instance.
+     */
+    public OffHeapLongSet() {
+        this(0);
+    }
+
+    /**
+     * Constructs an instance with the given initial capacity.
+     *
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public OffHeapLongSet(int capacity) {
+        super(1, capacity);
+    }
+
+    private OffHeapLongSet(File file, boolean readOnly) throws IOException {
+        super(1, file, readOnly);
+    }
+
+    /**
+     * Open an instance previously written by {@link #save save()} by mapping the file into memory.
+     *
+     * <p>
+     * If {@code readOnly} is true, the file is mapped read-only and the returned instance cannot be modified.
+     * Otherwise, the file is mapped copy-on-write: the returned instance may be modified, but the modifications
+     * are never written back to the file.
+     *
+     * @param file file to open
+     * @param readOnly true to return a read-only instance
+     * @return instance backed by {@code file}
+     * @throws IOException if {@code file} is not a valid saved {@link OffHeapLongSet}, or an I/O error occurs
+     * @throws IllegalArgumentException if {@code file} is null
+     */
+    public static OffHeapLongSet open(File file, boolean readOnly) throws IOException {
+        return new OffHeapLongSet(file, readOnly);
+    }
+
+// Methods
+
+    /**
+     * Determine if this instance contains the given value.
+     *
+     * @param value value to find
+     * @return true if {@code value} is present
+     * @throws IllegalStateException if this instance is closed
+     */
+    public boolean contains(long value) {
+        this.checkOpen();
+        return value == 0 ? this.hasZeroKey : this.keyAt(this.findSlot(value)) == value;
+    }
+
+    /**
+     * Add the given value.
+     *
+     * @param value value to add
+     * @return true if {@code value} was added, false if it was already present
+     * @throws UnsupportedOperationException if this instance is read-only
+     * @throws IllegalStateException if the maximum capacity is exceeded or this instance is closed
+     */
+    public boolean add(long value) {
+        this.checkWritable();
+        if (value == 0) {
+            final boolean added = !this.hasZeroKey;
+            this.hasZeroKey = true;
+            return added;
+        }
+        final int slot = this.findSlot(value);
+        if (this.keyAt(slot) == value)
+            return false;
+        this.insert(slot, value, 0);
+        return true;
+    }
+
+    /**
+     * Remove the given value.
+     *
+     * @param value value to remove
+     * @return true if {@code value} was removed, false if it was not present
+     * @throws UnsupportedOperationException if this instance is read-only
+     * @throws IllegalStateException if this instance is closed
+     */
+    public boolean remove(long value) {
+        this.checkWritable();
+        if (value == 0) {
+            final boolean removed = this.hasZeroKey;
+            this.hasZeroKey = false;
+            return removed;
+        }
+        final int slot = this.findSlot(value);
+        if (this.keyAt(slot) == 0)
+            return false;
+        this.exsert(slot);
+        return true;
+    }
+
+    /**
+     * Visit each value in this instance.
+     *
+     * <p>
+     * Values are visited in no particular order. The {@code action} must not modify this instance.
+     *
+     * @param action invoked with each value
+     * @throws IllegalArgumentException if {@code action} is null
+     */
+    public void forEachLong(LongConsumer action) {
+        this.forEachKey(action);
+    }
+
+    /**
+     * Get the values in this instance, in no particular order.
+     *
+     * @return array of values
+     */
+    public long[] toLongArray() {
+        return this.toKeysArray();
+    }
+}
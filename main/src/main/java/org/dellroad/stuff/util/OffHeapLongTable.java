@@ -0,0 +1,509 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+
+import org.dellroad.stuff.io.AtomicUpdateFileOutputStream;
+
+/**
+ * Support superclass for open addressing hash tables with {@code long} keys stored in off-heap memory.
+ *
+ * <p>
+ * This class uses the same open addressing scheme as {@link LongMap}, but stores its slots in direct or
+ * memory-mapped {@link ByteBuffer}s instead of Java arrays, where they are invisible to the garbage collector.
+ * Each slot consists of a {@code long} key optionally followed by a {@code long} value. Because a single
+ * {@link ByteBuffer} is limited to 2GB, the slots are divided among one or more equally sized chunks.
+ *
+ * <p>
+ * The in-memory layout is identical to the file layout used by {@link #save save()}, so a saved table can be
+ * reopened by simply mapping the file; no rehashing is required, although the keys are scanned once to validate it.
+ *
+ * <p>
+ * Because off-heap memory is not reclaimed until the garbage collector gets around to the buffers that own it,
+ * instances should be {@linkplain #close closed} when no longer needed.
+ *
+ * <p>
+ * The file format consists of a {@value #HEADER_SIZE} byte header followed by the slots, all little-endian:
+ * <ul>
+ *  <li>Magic number (8 bytes)</li>
+ *  <li>Format version (4 bytes)</li>
+ *  <li>Number of {@code long} words per slot; 1 for sets, 2 for maps (4 bytes)</li>
+ *  <li>Base 2 logarithm of the number of slots (4 bytes)</li>
+ *  <li>Number of non-zero keys (4 bytes)</li>
+ *  <li>Zero key present flag (4 bytes)</li>
+ *  <li>Reserved (4 bytes)</li>
+ *  <li>Value associated with the zero key, if any (8 bytes)</li>
+ *  <li>Reserved (24 bytes)</li>
+ * </ul>
+ */
+abstract class OffHeapLongTable implements Closeable {
+
+    static final int HEADER_SIZE = 64;
+
+    private static final long MAGIC = 0x4f66664865617031L;  // "OffHeap1"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final float EXPAND_THRESHOLD = 0.70f;    // expand array when > 70% full
+    private static final float SHRINK_THRESHOLD = 0.25f;    // shrink array when < 25% full
+
+    private static final int MIN_LOG2_LENGTH = 4;           // minimum table length = 16 slots
+    private static final int MAX_LOG2_LENGTH = 30;          // maximum table length = 1 billion slots
+    private static final int MAX_LOG2_CHUNK_BYTES = 30;     // maximum chunk size = 1GB
+
+    private final int slotWords;                            // number of longs per slot: 1 for sets, 2 for maps
+    private final int log2SlotBytes;                        // log2 of slot size in bytes
+
+    private ByteBuffer[] chunks;                            // null after close()
+    private int chunkShift;                                 // log2 of the number of slots per chunk
+    private int chunkMask;                                  // number of slots per chunk minus one
+    private int log2len;                                    // log2 of the number of slots
+    private int upperSizeLimit;                             // size threshold when to grow table
+    private int lowerSizeLimit;                             // size threshold when to shrink table
+    private boolean readOnly;
+
+    int size;                                               // the number of entries in the table (excludes zero key)
+    boolean hasZeroKey;                                     // whether the zero key is present
+    long zeroValue;                                         // value associated with the zero key, if any
+
+// Constructors
+
+    /**
+     * Constructor for a new, empty table.
+     *
+     * @param slotWords number of {@code long}s per slot
+     * @param capacity initial capacity
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    OffHeapLongTable(int slotWords, int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity < 0");
+        assert slotWords == 1 || slotWords == 2;
+        this.slotWords = slotWords;
+        this.log2SlotBytes = slotWords == 1 ? 3 : 4;
+        capacity &= 0x3fffffff;                                                 // avoid integer overflow from large values
+        capacity = (int)(capacity / EXPAND_THRESHOLD);                          // increase to account for overhead
+        capacity = Math.max(1, capacity);                                       // avoid zero, on which the next line fails
+        this.log2len = 32 - Integer.numberOfLeadingZeros(capacity - 1);         // round up to next power of 2
+        this.log2len = Math.max(MIN_LOG2_LENGTH, this.log2len);                 // clip to bounds
+        this.log2len = Math.min(MAX_LOG2_LENGTH, this.log2len);
+        this.createChunks();
+    }
+
+    /**
+     * Constructor for a table mapped from a file previously written by {@link #save save()}.
+     *
+     * <p>
+     * If {@code readOnly} is true, the file is mapped read-only and this instance cannot be modified.
+     * Otherwise, the file is mapped copy-on-write: this instance may be modified, but the modifications are
+     * never written back to the file (use {@link #save save()} for that).
+     *
+     * @param slotWords number of {@code long}s per slot
+     * @param file file to map
+     * @param readOnly true for a read-only instance
+     * @throws IOException if the file is invalid or an I/O error occurs
+     */
+    OffHeapLongTable(int slotWords, File file, boolean readOnly) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException("null file");
+        this.slotWords = slotWords;
+        this.log2SlotBytes = slotWords == 1 ? 3 : 4;
+        this.readOnly = readOnly;
+        final StandardOpenOption[] options = readOnly ?
+          new StandardOpenOption[] { StandardOpenOption.READ } :
+          new StandardOpenOption[] { StandardOpenOption.READ, StandardOpenOption.WRITE };
+        try (FileChannel channel = FileChannel.open(file.toPath(), options)) {
+
+            // Read and validate header
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) == -1)
+                    throw new IOException("invalid file: truncated header");
+            }
+            header.flip();
+            if (header.getLong(0) != MAGIC)
+                throw new IOException("invalid file: wrong magic number");
+            if (header.getInt(8) != FORMAT_VERSION)
+                throw new IOException("invalid file: unsupported format version " + header.getInt(8));
+            if (header.getInt(12) != slotWords)
+                throw new IOException("invalid file: expected " + slotWords + " words per slot, found " + header.getInt(12));
+            this.log2len = header.getInt(16);
+            if (this.log2len < MIN_LOG2_LENGTH || this.log2len > MAX_LOG2_LENGTH)
+                throw new IOException("invalid file: invalid table length 2^" + this.log2len);
+            this.size = header.getInt(20);
+            this.hasZeroKey = header.getInt(24) != 0;
+            this.zeroValue = header.getLong(32);
+            this.computeLimits();
+            if (this.size < 0 || this.size >= (1 << this.log2len))
+                throw new IOException("invalid file: invalid size " + this.size);
+            final long expectedLength = HEADER_SIZE + ((long)1 << this.log2len << this.log2SlotBytes);
+            if (channel.size() != expectedLength)
+                throw new IOException("invalid file: expected length " + expectedLength + " but found " + channel.size());
+
+            // Map chunks
+            final FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.PRIVATE;
+            final long chunkBytes = (long)1 << this.chunkShift << this.log2SlotBytes;
+            this.chunks = new ByteBuffer[1 << (this.log2len - this.chunkShift)];
+            for (int i = 0; i < this.chunks.length; i++)
+                this.chunks[i] = channel.map(mode, HEADER_SIZE + i * chunkBytes, chunkBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // Verify the slot occupancy matches the header; this also guarantees an empty slot, so probing terminates
+        final int length = 1 << this.log2len;
+        int count = 0;
+        for (int slot = 0; slot < length; slot++) {
+            if (this.keyAt(slot) != 0)
+                count++;
+        }
+        if (count != this.size)
+            throw new IOException("invalid file: header size " + this.size + " but found " + count + " keys");
+    }
+
+// Methods
+
+    /**
+     * Get the number of entries in this instance.
+     *
+     * @return number of entries
+     */
+    public int size() {
+        this.checkOpen();
+        return this.hasZeroKey ? this.size + 1 : this.size;
+    }
+
+    /**
+     * Determine if this instance is empty.
+     *
+     * @return true if this instance contains no entries
+     */
+    public boolean isEmpty() {
+        this.checkOpen();
+        return this.size == 0 && !this.hasZeroKey;
+    }
+
+    /**
+     * Determine if this instance is read-only.
+     *
+     * @return true if this instance cannot be modified
+     */
+    public boolean isReadOnly() {
+        return this.readOnly;
+    }
+
+    /**
+     * Determine if this instance has been {@linkplain #close closed}.
+     *
+     * @return true if this instance is closed
+     */
+    public boolean isClosed() {
+        return this.chunks == null;
+    }
+
+    /**
+     * Close this instance, releasing its off-heap memory.
+     *
+     * <p>
+     * This discards this instance's references to its direct or memory-mapped buffers, so their memory can be
+     * reclaimed as soon as the garbage collector finds them, even if this instance itself remains reachable.
+     * Afterward this instance is unusable: all methods other than {@link #isReadOnly}, {@link #isClosed}, and
+     * {@link #close} throw {@link IllegalStateException}.
+     *
+     * <p>
+     * Invoking this method more than once has no effect.
+     */
+    @Override
+    public void close() {
+        this.chunks = null;
+        this.size = 0;
+        this.hasZeroKey = false;
+        this.zeroValue = 0;
+    }
+
+    /**
+     * Remove all entries from this instance.
+     *
+     * @throws UnsupportedOperationException if this instance is read-only
+     * @throws IllegalStateException if this instance is closed
+     */
+    public void clear() {
+        this.checkWritable();
+        this.log2len = MIN_LOG2_LENGTH;
+        this.createChunks();
+        this.size = 0;
+        this.hasZeroKey = false;
+        this.zeroValue = 0;
+    }
+
+    /**
+     * Write the contents of this instance to the given file.
+     *
+     * <p>
+     * The file is updated atomically, and can later be mapped back into memory without rehashing.
+     *
+     * @param file destination file
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if {@code file} is null
+     * @throws IllegalStateException if this instance is closed
+     */
+    public void save(File file) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException("null file");
+        this.checkOpen();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(0, MAGIC);
+        header.putInt(8, FORMAT_VERSION);
+        header.putInt(12, this.slotWords);
+        header.putInt(16, this.log2len);
+        header.putInt(20, this.size);
+        header.putInt(24, this.hasZeroKey ? 1 : 0);
+        header.putLong(32, this.zeroValue);
+        final ByteBuffer[] buffers = new ByteBuffer[1 + this.chunks.length];
+        buffers[0] = header;
+        for (int i = 0; i < this.chunks.length; i++)
+            buffers[1 + i] = this.chunks[i].duplicate().clear();
+        final AtomicUpdateFileOutputStream output = new AtomicUpdateFileOutputStream(file);
+        boolean success = false;
+        try {
+            final FileChannel channel = output.getChannel();
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            success = true;
+        } finally {
+            if (success)
+                output.close();
+            else
+                output.cancel();
+        }
+    }
+
+    /**
+     * Produce a debug dump of this instance's keys, preceded by a histogram of probe lengths.
+     */
+    String debugDump() {
+        this.checkOpen();
+        final long[] keys = new long[1 << this.log2len];
+        for (int slot = 0; slot < keys.length; slot++)
+            keys[slot] = this.keyAt(slot);
+        final StringBuilder buf = new StringBuilder();
+        buf.append(this.getClass().getSimpleName())
+          .append(": size=" + this.size() + " len=" + keys.length + " chunks=" + this.chunks.length
+            + " zeroKey=" + this.hasZeroKey);
+        buf.append('\n').append(LongHashTable.probeHistogram(keys));
+        for (int i = 0; i < keys.length; i++)
+            buf.append('\n').append(String.format(" [%2d] %016x (hash %d)", i, keys[i], this.hash(keys[i])));
+        return buf.toString();
+    }
+
+// Internal methods
+
+    /**
+     * Visit each key in this instance.
+     *
+     * @param action invoked with each key
+     */
+    void forEachKey(LongConsumer action) {
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        this.checkOpen();
+        if (this.hasZeroKey)
+            action.accept(0);
+        final int length = 1 << this.log2len;
+        for (int slot = 0; slot < length; slot++) {
+            final long key = this.keyAt(slot);
+            if (key != 0)
+                action.accept(key);
+        }
+    }
+
+    /**
+     * Get the keys in this instance, in no particular order.
+     *
+     * @return array of keys
+     */
+    long[] toKeysArray() {
+        this.checkOpen();
+        final long[] array = new long[this.size()];
+        int index = this.hasZeroKey ? 1 : 0;
+        final int length = 1 << this.log2len;
+        for (int slot = 0; slot < length; slot++) {
+            final long key = this.keyAt(slot);
+            if (key != 0)
+                array[index++] = key;
+        }
+        return array;
+    }
+
+    final void checkOpen() {
+        if (this.chunks == null)
+            throw new IllegalStateException("instance is closed");
+    }
+
+    final void checkWritable() {
+        this.checkOpen();
+        if (this.readOnly)
+            throw new UnsupportedOperationException("instance is read-only");
+    }
+
+    final long keyAt(int slot) {
+        return this.chunks[slot >>> this.chunkShift].getLong((slot & this.chunkMask) << this.log2SlotBytes);
+    }
+
+    final long valueAt(int slot) {
+        assert this.slotWords == 2;
+        return this.chunks[slot >>> this.chunkShift].getLong(((slot & this.chunkMask) << this.log2SlotBytes) + 8);
+    }
+
+    final void setValueAt(int slot, long value) {
+        assert this.slotWords == 2;
+        this.chunks[slot >>> this.chunkShift].putLong(((slot & this.chunkMask) << this.log2SlotBytes) + 8, value);
+    }
+
+    private void setKeyAt(int slot, long key) {
+        this.chunks[slot >>> this.chunkShift].putLong((slot & this.chunkMask) << this.log2SlotBytes, key);
+    }
+
+    /**
+     * Find the slot containing the given key, or else the empty slot where it would go.
+     *
+     * @param key non-zero key
+     * @return slot index
+     */
+    final int findSlot(long key) {
+        assert key != 0;
+        final int mask = (1 << this.log2len) - 1;
+        int slot = this.hash(key);
+        while (true) {
+            final long existing = this.keyAt(slot);
+            if (existing == 0 || existing == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Insert a new key and value into the empty slot returned by {@link #findSlot findSlot()}.
+     *
+     * @param slot empty slot
+     * @param key new key
+     * @param value new value (ignored for sets)
+     * @throws IllegalStateException if the maximum capacity is exceeded
+     */
+    final void insert(int slot, long key, long value) {
+
+        // Check for overflow
+        assert key != 0;
+        assert this.keyAt(slot) == 0;
+        final boolean expansionNeeded = this.size >= this.upperSizeLimit;
+        if (expansionNeeded && this.log2len >= MAX_LOG2_LENGTH)
+            throw new IllegalStateException("maximum capacity reached");
+
+        // Insert new key/value pair
+        this.setKeyAt(slot, key);
+        if (this.slotWords == 2)
+            this.setValueAt(slot, value);
+        this.size++;
+
+        // Expand if necessary
+        if (expansionNeeded) {
+            this.log2len++;
+            this.resize();
+        }
+    }
+
+    /**
+     * Remove the entry in the given slot, shifting subsequent entries in the same hash chain back as needed.
+     *
+     * @param slot occupied slot
+     */
+    final void exsert(final int slot) {
+
+        // Sanity check
+        assert this.keyAt(slot) != 0;
+        final int mask = (1 << this.log2len) - 1;
+
+        // Remove key/value pair and fixup subsequent entries
+        int i = slot;                                                   // i points to the new empty slot
+        int j = slot;                                                   // j points to the next slot to fixup
+loop:   while (true) {
+            this.setKeyAt(i, 0);
+            long jkey;
+            while (true) {
+                j = (j + 1) & mask;
+                jkey = this.keyAt(j);
+                if (jkey == 0)                                          // end of hash chain, no more fixups required
+                    break loop;
+                final int k = this.hash(jkey);                          // find where jkey's hash chain started
+                if (i <= j ? (i < k && k <= j) : (i < k || k <= j))     // jkey is between i and j, so it's not cut off
+                    continue;
+                break;                                                  // jkey is cut off from its hash chain, need to fix
+            }
+            this.setKeyAt(i, jkey);                                     // move jkey back into its hash chain
+            if (this.slotWords == 2)
+                this.setValueAt(i, this.valueAt(j));
+            i = j;                                                      // restart fixups at jkey's old location
+        }
+
+        // Shrink if necessary
+        if (--this.size < this.lowerSizeLimit && this.log2len > MIN_LOG2_LENGTH) {
+            this.log2len--;
+            this.resize();
+        }
+    }
+
+    private int hash(long key) {
+        return LongHashTable.hash(key, (1 << this.log2len) - 1);
+    }
+
+    private void resize() {
+
+        // Grab a copy of old chunks and create new ones
+        final ByteBuffer[] oldChunks = this.chunks;
+        final int oldChunkMask = this.chunkMask;
+        this.createChunks();
+
+        // Rehash key/value pairs from old chunks into new chunks
+        for (int oldChunk = 0; oldChunk < oldChunks.length; oldChunk++) {
+            final ByteBuffer buf = oldChunks[oldChunk];
+            for (int offset = 0; offset <= oldChunkMask; offset++) {
+                final int position = offset << this.log2SlotBytes;
+                final long key = buf.getLong(position);
+                if (key == 0)
+                    continue;
+                final int newSlot = this.findSlot(key);
+                assert this.keyAt(newSlot) == 0;
+                this.setKeyAt(newSlot, key);
+                if (this.slotWords == 2)
+                    this.setValueAt(newSlot, buf.getLong(position + 8));
+            }
+        }
+    }
+
+    private void createChunks() {
+        this.computeLimits();
+        final int chunkBytes = 1 << (this.chunkShift + this.log2SlotBytes);
+        this.chunks = new ByteBuffer[1 << (this.log2len - this.chunkShift)];
+        for (int i = 0; i < this.chunks.length; i++)
+            this.chunks[i] = ByteBuffer.allocateDirect(chunkBytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void computeLimits() {
+        assert this.log2len >= MIN_LOG2_LENGTH;
+        assert this.log2len <= MAX_LOG2_LENGTH;
+        final int arrayLength = 1 << this.log2len;
+        this.lowerSizeLimit = this.log2len > MIN_LOG2_LENGTH ? (int)(SHRINK_THRESHOLD * arrayLength) : 0;
+        this.upperSizeLimit = this.log2len < MAX_LOG2_LENGTH ? (int)(EXPAND_THRESHOLD * arrayLength) : arrayLength - 1;
+        this.chunkShift = Math.min(this.log2len, MAX_LOG2_CHUNK_BYTES - this.log2SlotBytes);
+        this.chunkMask = (1 << this.chunkShift) - 1;
+    }
+}
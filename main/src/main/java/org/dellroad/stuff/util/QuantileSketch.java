@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.OptionalDouble;
+
+/**
+ * Estimates quantiles (e.g., median, 99th percentile) of a stream of non-negative values using bounded memory.
+ *
+ * <p>
+ * Values are counted in logarithmically sized buckets, in the style of HdrHistogram: each power of two is divided
+ * into 2<sup>{@code precisionBits}</sup> equal buckets, so every quantile estimate is within a relative error
+ * of 2<sup>-{@code precisionBits}</sup> of a value actually added. A value's bucket is found directly from the bits
+ * of its IEEE 754 representation, so {@link #addValue addValue()} is just a few instructions and, once the range of
+ * values seen has stabilized, never allocates.
+ *
+ * <p>
+ * Values smaller than a configurable {@linkplain #getLowestDiscernibleValue lowest discernible value}, including zero,
+ * are not distinguished from each other; they are all counted in a single underflow bucket, and quantiles that fall
+ * within it are estimated as the minimum value. Memory usage is therefore proportional to the logarithm of the ratio
+ * between the largest value added and the larger of the smallest value added and the lowest discernible value:
+ * for example, with the default precision, values spanning one microsecond to one hour require roughly
+ * 32 &times; 128 buckets.
+ *
+ * <p>
+ * Like {@link Averager}, instances can be combined using {@link #add add()}, so for example per-thread sketches
+ * can be periodically merged.
+ *
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see Averager
+ * @see <a href="http://hdrhistogram.org/">HdrHistogram</a>
+ */
+public class QuantileSketch implements Cloneable {
+
+    /**
+     * Default precision.
+     */
+    public static final int DEFAULT_PRECISION_BITS = 7;
+
+    /**
+     * Default lowest discernible value (2<sup>-40</sup>, approximately 10<sup>-12</sup>).
+     */
+    public static final double DEFAULT_LOWEST_DISCERNIBLE_VALUE = 0x1.0p-40;
+
+    private static final int MAX_PRECISION_BITS = 20;
+    private static final int MIN_ARRAY_LENGTH = 64;
+
+    private final int precisionBits;
+    private final int shift;                                // converts raw double bits into a bucket index
+    private final double lowestDiscernibleValue;
+    private final int minIndex;                             // bucket index of lowestDiscernibleValue
+
+    private long[] counts = new long[0];                    // counts[i] is the count for bucket (offset + i)
+    private int offset;
+    private long underflow;                                 // count of values less than lowestDiscernibleValue
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+// Constructors
+
+    /**
+     * Default constructor.
+     *
+     * <p>
+     * Uses a precision of {@value #DEFAULT_PRECISION_BITS} bits (i.e., less than 1% relative error).
+     */
+    public QuantileSketch() {
+        this(DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * <p>
+     * Uses a lowest discernible value of {@value #DEFAULT_LOWEST_DISCERNIBLE_VALUE}.
+     *
+     * @param precisionBits base 2 logarithm of the number of buckets per power of two
+     * @throws IllegalArgumentException if {@code precisionBits} is less than one or greater than 20
+     */
+    public QuantileSketch(int precisionBits) {
+        this(precisionBits, DEFAULT_LOWEST_DISCERNIBLE_VALUE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param precisionBits base 2 logarithm of the number of buckets per power of two
+     * @param lowestDiscernibleValue smallest value distinguished from zero
+     * @throws IllegalArgumentException if {@code precisionBits} is less than one or greater than 20
+     * @throws IllegalArgumentException if {@code lowestDiscernibleValue} is less than {@link Double#MIN_NORMAL},
+     *  {@code NaN}, or infinity
+     */
+    public QuantileSketch(int precisionBits, double lowestDiscernibleValue) {
+        Preconditions.checkArgument(precisionBits >= 1 && precisionBits <= MAX_PRECISION_BITS, "invalid precisionBits");
+        Preconditions.checkArgument(lowestDiscernibleValue >= Double.MIN_NORMAL
+          && lowestDiscernibleValue < Double.POSITIVE_INFINITY, "invalid lowestDiscernibleValue");
+        this.precisionBits = precisionBits;
+        this.shift = 52 - precisionBits;
+        this.lowestDiscernibleValue = lowestDiscernibleValue;
+        this.minIndex = this.indexOf(lowestDiscernibleValue);
+    }
+
+// Methods
+
+    /**
+     * Get the precision of this instance.
+     *
+     * @return base 2 logarithm of the number of buckets per power of two
+     */
+    public int getPrecisionBits() {
+        return this.precisionBits;
+    }
+
+    /**
+     * Get the lowest discernible value of this instance.
+     *
+     * <p>
+     * Smaller values are counted together in a single underflow bucket.
+     *
+     * @return smallest value distinguished from zero
+     */
+    public double getLowestDiscernibleValue() {
+        return this.lowestDiscernibleValue;
+    }
+
+    /**
+     * Add a value.
+     *
+     * @param value value to add
+     * @throws IllegalArgumentException if {@code value} is negative, {@code NaN}, or infinity
+     */
+    public void addValue(double value) {
+        this.addValue(value, 1);
+    }
+
+    /**
+     * Add a value multiple times.
+     *
+     * @param value value to add
+     * @param repeat number of times to add {@code value}
+     * @throws IllegalArgumentException if {@code value} is negative, {@code NaN}, or infinity
+     * @throws IllegalArgumentException if {@code repeat} is negative
+     */
+    public void addValue(double value, long repeat) {
+        Preconditions.checkArgument(value >= 0 && value < Double.POSITIVE_INFINITY, "invalid value");
+        Preconditions.checkArgument(repeat >= 0, "negative repeat");
+        if (repeat == 0)
+            return;
+        if (value < this.lowestDiscernibleValue)
+            this.underflow += repeat;
+        else {
+            final int index = this.indexOf(value);
+            int slot = index - this.offset;
+            if (slot < 0 || slot >= this.counts.length) {
+                this.ensureRange(index, index);
+                slot = index - this.offset;
+            }
+            this.counts[slot] += repeat;
+        }
+        this.count += repeat;
+        if (value < this.min)
+            this.min = value;
+        if (value > this.max)
+            this.max = value;
+    }
+
+    /**
+     * Add this instance to the given instance and return a new combined instance.
+     *
+     * @param that other instance
+     * @return combined sketch
+     * @throws IllegalArgumentException if {@code that} has a different precision or lowest discernible value
+     */
+    public QuantileSketch add(QuantileSketch that) {
+        Preconditions.checkNotNull(that, "null that");
+        Preconditions.checkArgument(that.precisionBits == this.precisionBits, "incompatible precision");
+        Preconditions.checkArgument(Double.compare(that.lowestDiscernibleValue, this.lowestDiscernibleValue) == 0,
+          "incompatible lowest discernible value");
+        final QuantileSketch result = this.clone();
+        if (that.count == 0)
+            return result;
+        if (that.count > that.underflow) {
+            int first = 0;
+            while (that.counts[first] == 0)
+                first++;
+            int last = that.counts.length - 1;
+            while (that.counts[last] == 0)
+                last--;
+            result.ensureRange(that.offset + first, that.offset + last);
+            final int delta = that.offset - result.offset;
+            for (int i = first; i <= last; i++)
+                result.counts[i + delta] += that.counts[i];
+        }
+        result.underflow += that.underflow;
+        result.count += that.count;
+        result.min = Math.min(result.min, that.min);
+        result.max = Math.max(result.max, that.max);
+        return result;
+    }
+
+    /**
+     * Reset this instance.
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.underflow = 0;
+        this.count = 0;
+        this.min = Double.POSITIVE_INFINITY;
+        this.max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Get the number of data points added so far.
+     *
+     * @return the number of data points added to this instance
+     */
+    public long size() {
+        return this.count;
+    }
+
+    /**
+     * Determine whether any data points have been added to this instance yet.
+     *
+     * @return true if no data points have been added yet
+     */
+    public boolean isEmpty() {
+        return this.count == 0;
+    }
+
+    /**
+     * Get the smallest value added so far.
+     *
+     * @return minimum value, or empty if no data points have been added yet
+     */
+    public OptionalDouble getMin() {
+        if (this.count == 0)
+            return OptionalDouble.empty();
+        return OptionalDouble.of(this.min);
+    }
+
+    /**
+     * Get the largest value added so far.
+     *
+     * @return maximum value, or empty if no data points have been added yet
+     */
+    public OptionalDouble getMax() {
+        if (this.count == 0)
+            return OptionalDouble.empty();
+        return OptionalDouble.of(this.max);
+    }
+
+    /**
+     * Estimate the given quantile.
+     *
+     * <p>
+     * The estimate is for the smallest value added such that a fraction of at least {@code quantile} of all
+     * values added are less than or equal to it. Quantiles zero and one return the exact minimum and maximum.
+     *
+     * @param quantile quantile, e.g., 0.99 for the 99th percentile
+     * @return quantile estimate, or empty if no data points have been added yet
+     * @throws IllegalArgumentException if {@code quantile} is not between zero and one (inclusive)
+     */
+    public OptionalDouble getQuantile(double quantile) {
+        Preconditions.checkArgument(quantile >= 0 && quantile <= 1, "invalid quantile");
+        if (this.count == 0)
+            return OptionalDouble.empty();
+        final long rank = Math.max(1, (long)Math.ceil(quantile * this.count));
+        if (rank >= this.count)
+            return OptionalDouble.of(this.max);
+        if (quantile == 0)
+            return OptionalDouble.of(this.min);
+        long total = this.underflow;
+        if (total >= rank)
+            return OptionalDouble.of(this.min);
+        int slot = 0;
+        while ((total += this.counts[slot]) < rank)
+            slot++;
+        final long index = this.offset + slot;
+        final double lower = Double.longBitsToDouble(index << this.shift);
+        final double upper = Double.longBitsToDouble((index + 1) << this.shift);
+        return OptionalDouble.of(Math.max(this.min, Math.min(this.max, lower + (upper - lower) / 2)));
+    }
+
+    /**
+     * Get the number of buckets currently allocated, for testing.
+     */
+    int getAllocatedBuckets() {
+        return this.counts.length;
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        if (this.count == 0)
+            return "no data";
+        return String.format(Locale.US, "num=%d, min=%f, p50=%f, p99=%f, p999=%f, max=%f",
+          this.count, this.min, this.getQuantile(0.50).getAsDouble(), this.getQuantile(0.99).getAsDouble(),
+          this.getQuantile(0.999).getAsDouble(), this.max);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj == null || obj.getClass() != this.getClass())
+            return false;
+        final QuantileSketch that = (QuantileSketch)obj;
+        if (this.precisionBits != that.precisionBits || this.count != that.count || this.underflow != that.underflow)
+            return false;
+        if (Double.compare(this.lowestDiscernibleValue, that.lowestDiscernibleValue) != 0)
+            return false;
+        if (this.count == 0)
+            return true;
+        if (Double.compare(this.min, that.min) != 0 || Double.compare(this.max, that.max) != 0)
+            return false;
+        final int minIndex = Math.min(this.offset, that.offset);
+        final int maxIndex = Math.max(this.offset + this.counts.length, that.offset + that.counts.length);
+        for (int index = minIndex; index < maxIndex; index++) {
+            if (this.getCount(index) != that.getCount(index))
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = this.precisionBits ^ Double.hashCode(this.lowestDiscernibleValue) ^ Long.hashCode(this.count);
+        if (this.count == 0)
+            return hash;
+        hash ^= Double.hashCode(this.min) ^ Double.hashCode(this.max) ^ Long.hashCode(this.underflow);
+        for (int i = 0; i < this.counts.length; i++) {
+            if (this.counts[i] != 0)
+                hash = hash * 31 + (this.offset + i) * 17 + Long.hashCode(this.counts[i]);
+        }
+        return hash;
+    }
+
+// Cloneable
+
+    @Override
+    public QuantileSketch clone() {
+        final QuantileSketch clone;
+        try {
+            clone = (QuantileSketch)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException();
+        }
+        clone.counts = clone.counts.clone();
+        return clone;
+    }
+
+// Internal methods
+
+    private int indexOf(double value) {
+        return (int)(Double.doubleToRawLongBits(value) >>> this.shift);
+    }
+
+    private long getCount(int index) {
+        final int slot = index - this.offset;
+        return slot >= 0 && slot < this.counts.length ? this.counts[slot] : 0;
+    }
+
+    // Grow the counts array if necessary so that it covers bucket indexes minIndex through maxIndex
+    private void ensureRange(int minIndex, int maxIndex) {
+        if (this.counts.length == 0) {
+            final int length = Math.max(MIN_ARRAY_LENGTH, maxIndex - minIndex + 1);
+            this.counts = new long[length];
+            this.offset = Math.max(this.minIndex, minIndex - (length - (maxIndex - minIndex + 1)) / 2);
+            return;
+        }
+        final int low = Math.min(this.offset, minIndex);
+        final int high = Math.max(this.offset + this.counts.length - 1, maxIndex);
+        if (low == this.offset && high == this.offset + this.counts.length - 1)
+            return;
+        final int span = high - low + 1;
+        final int length = Math.max(span, this.counts.length * 2);
+        final int newOffset = low < this.offset ? Math.max(this.minIndex, low - (length - span)) : low;
+        final long[] newCounts = new long[length];
+        System.arraycopy(this.counts, 0, newCounts, this.offset - newOffset, this.counts.length);
+        this.counts = newCounts;
+        this.offset = newOffset;
+    }
+}
@@ -0,0 +1,1476 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A compressed set of {@code long} values, optimized for values that are clustered into dense ranges.
+ *
+ * <p>
+ * This implementation follows the "Roaring bitmap" design: each value is split into a high part (upper 48 bits)
+ * and a low part (lower 16 bits). Values sharing the same high part are stored together in a container, and
+ * each container uses whichever of three encodings suits its contents:
+ * <ul>
+ *  <li>A sorted {@code char[]} array of low parts, for sparse containers (up to 4096 values)</li>
+ *  <li>A 65536 bit bitmap, for dense containers</li>
+ *  <li>A sorted array of runs of consecutive values, for containers consisting of a few long ranges</li>
+ * </ul>
+ * Array and bitmap encodings are chosen automatically as values are added and removed; run encodings are
+ * created by {@link #addRange addRange()} and {@link #runOptimize}. A fully populated container therefore
+ * requires as little as four bytes, and a container with more than a few thousand values never requires
+ * more than 8K.
+ *
+ * <p>
+ * Unlike {@link LongSet}, iteration is always in ascending (signed) order, and {@link #rank rank()} and
+ * {@link #select select()} are supported. The set operations {@link #union union()}, {@link #intersect intersect()},
+ * and {@link #andNot andNot()} operate on whole containers at a time instead of individual values;
+ * {@link #addAll addAll()}, {@link #retainAll retainAll()}, and {@link #removeAll removeAll()} use them
+ * automatically when given another {@link RoaringLongSet}.
+ *
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see LongSet
+ * @see <a href="https://roaringbitmap.org/">Roaring Bitmaps</a>
+ */
+@NotThreadSafe
+public class RoaringLongSet extends AbstractSet<Long> implements Cloneable, Serializable {
+
+    private static final int ARRAY_MAX = 4096;              // maximum cardinality of an array container
+    private static final int BITMAP_WORDS = 1024;           // number of longs in a bitmap container
+    private static final int MAX_RUNS = 2048;               // beyond this many runs, a bitmap is smaller
+
+    private static final long serialVersionUID = 3386017404620553129L;
+
+    private long[] highs;                                   // high parts of containers, sorted
+    private Container[] containers;                         // corresponding containers, never empty
+    private int count;                                      // number of containers
+    private long cardinality;                               // total number of values
+    private transient int modcount;
+
+// Constructors
+
+    /**
+     * Constructs an empty instance.
+     */
+    public RoaringLongSet() {
+        this.highs = new long[4];
+        this.containers = new Container[4];
+    }
+
+    /**
+     * Constructs an instance initialized with the given values.
+     *
+     * @param values initial contents for this instance
+     * @throws IllegalArgumentException if {@code values} is null
+     * @throws IllegalArgumentException if any value in {@code values} is null
+     */
+    @SuppressWarnings("this-escape")
+    public RoaringLongSet(Iterable<? extends Number> values) {
+        this();
+        if (values == null)
+            throw new IllegalArgumentException("null values");
+        for (Number value : values) {
+            if (value == null)
+                throw new IllegalArgumentException("null value");
+            this.add(value.longValue());
+        }
+    }
+
+    /**
+     * Constructs an instance initialized with the values in the given array.
+     *
+     * @param values initial contents for this instance
+     * @throws IllegalArgumentException if {@code values} is null
+     */
+    @SuppressWarnings("this-escape")
+    public RoaringLongSet(long[] values) {
+        this();
+        if (values == null)
+            throw new IllegalArgumentException("null values");
+        for (long value : values)
+            this.add(value);
+    }
+
+// Methods
+
+    /**
+     * Get the number of values in this instance.
+     *
+     * <p>
+     * Unlike {@link #size}, this method does not saturate at {@link Integer#MAX_VALUE}.
+     *
+     * @return number of values
+     */
+    public long cardinality() {
+        return this.cardinality;
+    }
+
+    /**
+     * Add all values in the given range.
+     *
+     * <p>
+     * Containers covered entirely by the range are stored as a single run.
+     *
+     * @param first first value in the range (inclusive)
+     * @param last last value in the range (inclusive)
+     * @return true if any values were added
+     * @throws IllegalArgumentException if {@code first > last}
+     */
+    public boolean addRange(long first, long last) {
+        if (first > last)
+            throw new IllegalArgumentException("first > last");
+        final long before = this.cardinality;
+        final long firstHigh = first >> 16;
+        final long lastHigh = last >> 16;
+        for (long high = firstHigh; ; high++) {
+            final int start = high == firstHigh ? (int)first & 0xffff : 0;
+            final int end = high == lastHigh ? (int)last & 0xffff : 0xffff;
+            final RunContainer range = new RunContainer(start, end);
+            int index = this.find(high);
+            if (index < 0) {
+                this.insertContainer(~index, high, range);
+                this.cardinality += range.cardinality;
+            } else {
+                final Container container = this.containers[index];
+                final Container result = container.or(range);
+                this.containers[index] = result;
+                this.cardinality += result.cardinality - container.cardinality;
+            }
+            if (high == lastHigh)
+                break;
+        }
+        if (this.cardinality == before)
+            return false;
+        this.modcount++;
+        return true;
+    }
+
+    /**
+     * Get the number of values in this instance that are less than or equal to the given value.
+     *
+     * <p>
+     * This method takes time linear in the number of containers.
+     *
+     * @param value value
+     * @return number of values {@code <= value}
+     */
+    public long rank(long value) {
+        final long high = value >> 16;
+        long rank = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (this.highs[i] < high)
+                rank += this.containers[i].cardinality;
+            else {
+                if (this.highs[i] == high)
+                    rank += this.containers[i].rank((int)value & 0xffff);
+                break;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Get the value in this instance at the given position in ascending order.
+     *
+     * <p>
+     * This is the inverse of {@link #rank rank()}: for any value {@code v} in this instance,
+     * {@code select(rank(v) - 1) == v}. This method takes time linear in the number of containers.
+     *
+     * @param index zero-based index
+     * @return the value at {@code index}
+     * @throws IndexOutOfBoundsException if {@code index} is negative or not less than {@link #cardinality}
+     */
+    public long select(long index) {
+        if (index < 0 || index >= this.cardinality)
+            throw new IndexOutOfBoundsException("index " + index + " out of bounds for cardinality " + this.cardinality);
+        for (int i = 0; ; i++) {
+            final Container container = this.containers[i];
+            if (index < container.cardinality)
+                return (this.highs[i] << 16) | container.select((int)index);
+            index -= container.cardinality;
+        }
+    }
+
+    /**
+     * Add all of the values in the given instance to this instance.
+     *
+     * @param that values to add
+     * @return true if this instance changed
+     * @throws IllegalArgumentException if {@code that} is null
+     */
+    public boolean union(RoaringLongSet that) {
+        if (that == null)
+            throw new IllegalArgumentException("null that");
+        if (that == this)
+            return false;
+        final long[] newHighs = new long[Math.max(4, this.count + that.count)];
+        final Container[] newContainers = new Container[newHighs.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < this.count || j < that.count) {
+            final int diff = i == this.count ? 1 : j == that.count ? -1 : Long.compare(this.highs[i], that.highs[j]);
+            if (diff < 0) {
+                newHighs[n] = this.highs[i];
+                newContainers[n++] = this.containers[i++];
+            } else if (diff > 0) {
+                newHighs[n] = that.highs[j];
+                newContainers[n++] = that.containers[j++].copy();
+            } else {
+                newHighs[n] = this.highs[i];
+                newContainers[n++] = this.containers[i++].or(that.containers[j++]);
+            }
+        }
+        return this.replaceContainers(newHighs, newContainers, n);
+    }
+
+    /**
+     * Remove all values from this instance that are not also in the given instance.
+     *
+     * @param that values to retain
+     * @return true if this instance changed
+     * @throws IllegalArgumentException if {@code that} is null
+     */
+    public boolean intersect(RoaringLongSet that) {
+        if (that == null)
+            throw new IllegalArgumentException("null that");
+        if (that == this)
+            return false;
+        final long[] newHighs = new long[Math.max(4, Math.min(this.count, that.count))];
+        final Container[] newContainers = new Container[newHighs.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < this.count && j < that.count) {
+            final int diff = Long.compare(this.highs[i], that.highs[j]);
+            if (diff < 0)
+                i++;
+            else if (diff > 0)
+                j++;
+            else {
+                final Container result = this.containers[i].and(that.containers[j]);
+                if (result.cardinality > 0) {
+                    newHighs[n] = this.highs[i];
+                    newContainers[n++] = result;
+                }
+                i++;
+                j++;
+            }
+        }
+        return this.replaceContainers(newHighs, newContainers, n);
+    }
+
+    /**
+     * Remove all of the values in the given instance from this instance.
+     *
+     * @param that values to remove
+     * @return true if this instance changed
+     * @throws IllegalArgumentException if {@code that} is null
+     */
+    public boolean andNot(RoaringLongSet that) {
+        if (that == null)
+            throw new IllegalArgumentException("null that");
+        if (that == this) {
+            final boolean changed = !this.isEmpty();
+            this.clear();
+            return changed;
+        }
+        final long[] newHighs = new long[Math.max(4, this.count)];
+        final Container[] newContainers = new Container[newHighs.length];
+        int j = 0;
+        int n = 0;
+        for (int i = 0; i < this.count; i++) {
+            final long high = this.highs[i];
+            while (j < that.count && that.highs[j] < high)
+                j++;
+            Container result = this.containers[i];
+            if (j < that.count && that.highs[j] == high)
+                result = result.andNot(that.containers[j]);
+            if (result.cardinality > 0) {
+                newHighs[n] = high;
+                newContainers[n++] = result;
+            }
+        }
+        return this.replaceContainers(newHighs, newContainers, n);
+    }
+
+    /**
+     * Convert each container to whichever of the array, bitmap, or run encodings requires the least memory.
+     *
+     * <p>
+     * This is worth doing after building a set of mostly consecutive values one at a time.
+     */
+    public void runOptimize() {
+        for (int i = 0; i < this.count; i++)
+            this.containers[i] = this.containers[i].optimize();
+    }
+
+    /**
+     * Remove a single, arbitrary {@code long} value from this instance and return it.
+     *
+     * <p>
+     * Because zero is a legal value, callers that need to distinguish an empty instance should check
+     * {@link #isEmpty} first.
+     *
+     * @return the removed value, or zero if this instance is empty
+     */
+    public long removeOne() {
+        if (this.count == 0)
+            return 0;
+        final Container container = this.containers[this.count - 1];
+        final long value = (this.highs[this.count - 1] << 16) | container.select(container.cardinality - 1);
+        this.remove(value);
+        return value;
+    }
+
+    /**
+     * Returns a sequential {@link LongStream} with this instance as its source.
+     *
+     * @return stream of contents
+     */
+    public LongStream longStream() {
+        return StreamSupport.longStream(this.spliterator(), false);
+    }
+
+    /**
+     * Visit each value in this instance, in ascending order, without boxing.
+     *
+     * <p>
+     * The {@code action} must not modify this instance.
+     *
+     * @param action invoked with each value
+     * @throws IllegalArgumentException if {@code action} is null
+     * @throws ConcurrentModificationException if {@code action} modifies this instance
+     */
+    public void forEachLong(LongConsumer action) {
+        if (action == null)
+            throw new IllegalArgumentException("null action");
+        final int modcount0 = this.modcount;
+        for (int i = 0; i < this.count; i++) {
+            this.containers[i].forEach(this.highs[i] << 16, action);
+            if (this.modcount != modcount0)
+                throw new ConcurrentModificationException();
+        }
+    }
+
+    /**
+     * Remove all values matching the given predicate without boxing.
+     *
+     * <p>
+     * This is the primitive equivalent of {@link #removeIf removeIf()}, under a different name to avoid
+     * ambiguity with lambda arguments. The {@code filter} must not modify this instance.
+     *
+     * @param filter returns true for values to remove
+     * @return true if any values were removed
+     * @throws IllegalArgumentException if {@code filter} is null
+     */
+    public boolean removeIfLong(LongPredicate filter) {
+        if (filter == null)
+            throw new IllegalArgumentException("null filter");
+        boolean removed = false;
+        for (PrimitiveIterator.OfLong i = this.iterator(); i.hasNext(); ) {
+            if (filter.test(i.nextLong())) {
+                i.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Get the values in this instance, in ascending order.
+     *
+     * @return array of values
+     * @throws IllegalStateException if this instance contains more than {@link Integer#MAX_VALUE} values
+     */
+    public long[] toLongArray() {
+        if (this.cardinality > Integer.MAX_VALUE)
+            throw new IllegalStateException("too many values");
+        final long[] array = new long[(int)this.cardinality];
+        final int[] index = new int[1];
+        this.forEachLong(value -> array[index[0]++] = value);
+        return array;
+    }
+
+// Set
+
+    /**
+     * Iterates the values in this instance in ascending order.
+     *
+     * @return iterator over contents
+     */
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new LongIterator();
+    }
+
+    /**
+     * Creates a {@link Spliterator.OfLong} over the values in this instance in ascending order.
+     *
+     * @return spliterator over contents
+     */
+    @Override
+    public Spliterator.OfLong spliterator() {
+        return Spliterators.spliterator(this.iterator(), this.cardinality,
+          Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    @Override
+    public int size() {
+        return (int)Math.min(this.cardinality, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.cardinality == 0;
+    }
+
+    @Override
+    public boolean contains(Object obj) {
+        return obj instanceof Long && this.contains(((Long)obj).longValue());
+    }
+
+    public boolean contains(long value) {
+        final int index = this.find(value >> 16);
+        return index >= 0 && this.containers[index].contains((int)value & 0xffff);
+    }
+
+    @Override
+    public boolean add(Long value) {
+        if (value == null)
+            throw new IllegalArgumentException("null value");
+        return this.add(value.longValue());
+    }
+
+    public boolean add(long value) {
+        final long high = value >> 16;
+        int index = this.find(high);
+        if (index < 0) {
+            index = ~index;
+            this.insertContainer(index, high, new ArrayContainer());
+        }
+        final Container container = this.containers[index];
+        final int before = container.cardinality;
+        final Container result = container.add((int)value & 0xffff);
+        this.containers[index] = result;
+        if (result.cardinality == before)
+            return false;
+        this.cardinality++;
+        this.modcount++;
+        return true;
+    }
+
+    @Override
+    public boolean remove(Object obj) {
+        return obj instanceof Long && this.remove(((Long)obj).longValue());
+    }
+
+    public boolean remove(long value) {
+        final int index = this.find(value >> 16);
+        if (index < 0)
+            return false;
+        final Container container = this.containers[index];
+        final int before = container.cardinality;
+        final Container result = container.remove((int)value & 0xffff);
+        if (result.cardinality == before)
+            return false;
+        if (result.cardinality == 0)
+            this.removeContainer(index);
+        else
+            this.containers[index] = result;
+        this.cardinality--;
+        this.modcount++;
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Long> values) {
+        return values instanceof RoaringLongSet ? this.union((RoaringLongSet)values) : super.addAll(values);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> values) {
+        return values instanceof RoaringLongSet ? this.intersect((RoaringLongSet)values) : super.retainAll(values);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> values) {
+        return values instanceof RoaringLongSet ? this.andNot((RoaringLongSet)values) : super.removeAll(values);
+    }
+
+    @Override
+    public void clear() {
+        this.highs = new long[4];
+        this.containers = new Container[4];
+        this.count = 0;
+        this.cardinality = 0;
+        this.modcount++;
+    }
+
+    /**
+     * Produce a debug dump of this instance.
+     */
+    String debugDump() {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(this.getClass().getSimpleName())
+          .append(": cardinality=" + this.cardinality + " containers=" + this.count);
+        for (int i = 0; i < this.count; i++) {
+            buf.append('\n').append(String.format(" [%016x] %s cardinality=%d",
+              this.highs[i], this.containers[i].getClass().getSimpleName(), this.containers[i].cardinality));
+        }
+        return buf.toString();
+    }
+
+// Object
+
+    @Override
+    public int hashCode() {
+        final int[] hash = new int[1];
+        this.forEachLong(value -> hash[0] += Long.hashCode(value));
+        return hash[0];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof RoaringLongSet))
+            return super.equals(obj);
+        final RoaringLongSet that = (RoaringLongSet)obj;
+        if (this.cardinality != that.cardinality || this.count != that.count)
+            return false;
+        for (int i = 0; i < this.count; i++) {
+            if (this.highs[i] != that.highs[i])
+                return false;
+            final Container container = this.containers[i];
+            if (container.cardinality != that.containers[i].cardinality
+              || container.andNot(that.containers[i]).cardinality != 0)
+                return false;
+        }
+        return true;
+    }
+
+// Cloneable
+
+    @Override
+    public RoaringLongSet clone() {
+        final RoaringLongSet clone;
+        try {
+            clone = (RoaringLongSet)super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        clone.highs = clone.highs.clone();
+        clone.containers = clone.containers.clone();
+        for (int i = 0; i < clone.count; i++)
+            clone.containers[i] = clone.containers[i].copy();
+        return clone;
+    }
+
+// Internal methods
+
+    private int find(long high) {
+        return Arrays.binarySearch(this.highs, 0, this.count, high);
+    }
+
+    private void insertContainer(int index, long high, Container container) {
+        if (this.count == this.highs.length) {
+            final int newLength = Math.max(4, this.count * 2);
+            this.highs = Arrays.copyOf(this.highs, newLength);
+            this.containers = Arrays.copyOf(this.containers, newLength);
+        }
+        System.arraycopy(this.highs, index, this.highs, index + 1, this.count - index);
+        System.arraycopy(this.containers, index, this.containers, index + 1, this.count - index);
+        this.highs[index] = high;
+        this.containers[index] = container;
+        this.count++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(this.highs, index + 1, this.highs, index, this.count - index - 1);
+        System.arraycopy(this.containers, index + 1, this.containers, index, this.count - index - 1);
+        this.containers[--this.count] = null;
+    }
+
+    private boolean replaceContainers(long[] newHighs, Container[] newContainers, int newCount) {
+        final long before = this.cardinality;
+        this.highs = newHighs;
+        this.containers = newContainers;
+        this.count = newCount;
+        this.cardinality = 0;
+        for (int i = 0; i < newCount; i++)
+            this.cardinality += newContainers[i].cardinality;
+        if (this.cardinality == before)
+            return false;
+        this.modcount++;
+        return true;
+    }
+
+// LongIterator
+
+    private class LongIterator implements PrimitiveIterator.OfLong {
+
+        private int index;                                  // index of the container holding the next value
+        private int nextLow;                                // low part of the next value, or -1 if none
+        private long lastValue;
+        private boolean removable;
+        private int modcount = RoaringLongSet.this.modcount;
+
+        LongIterator() {
+            this.nextLow = RoaringLongSet.this.count > 0 ? RoaringLongSet.this.containers[0].next(0) : -1;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.index < RoaringLongSet.this.count;
+        }
+
+        @Override
+        public long nextLong() {
+            if (this.modcount != RoaringLongSet.this.modcount)
+                throw new ConcurrentModificationException();
+            if (!this.hasNext())
+                throw new NoSuchElementException();
+            final long value = (RoaringLongSet.this.highs[this.index] << 16) | this.nextLow;
+            this.nextLow = this.nextLow < 0xffff ? RoaringLongSet.this.containers[this.index].next(this.nextLow + 1) : -1;
+            if (this.nextLow == -1 && ++this.index < RoaringLongSet.this.count)
+                this.nextLow = RoaringLongSet.this.containers[this.index].next(0);
+            this.lastValue = value;
+            this.removable = true;
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            if (!this.removable)
+                throw new IllegalStateException();
+            if (this.modcount != RoaringLongSet.this.modcount)
+                throw new ConcurrentModificationException();
+            final boolean more = this.hasNext();
+            final long nextHigh = more ? RoaringLongSet.this.highs[this.index] : 0;
+            RoaringLongSet.this.remove(this.lastValue);
+            this.index = more ? RoaringLongSet.this.find(nextHigh) : RoaringLongSet.this.count;
+            assert this.index >= 0;
+            this.modcount = RoaringLongSet.this.modcount;
+            this.removable = false;
+        }
+    }
+
+// Container
+
+    /**
+     * A set of up to 65536 low parts sharing a common high part.
+     *
+     * <p>
+     * Mutating methods return the container that should replace this one, which may be a different encoding.
+     * The set algebra methods never modify either operand.
+     */
+    private abstract static class Container implements Serializable {
+
+        private static final long serialVersionUID = -6207349162318390418L;
+
+        int cardinality;
+
+        abstract boolean contains(int low);
+
+        abstract Container add(int low);
+
+        abstract Container remove(int low);
+
+        /**
+         * Get the number of values less than or equal to {@code low}.
+         */
+        abstract int rank(int low);
+
+        /**
+         * Get the value at {@code index} in ascending order, which must be less than {@link #cardinality}.
+         */
+        abstract int select(int index);
+
+        /**
+         * Get the smallest value greater than or equal to {@code low}, or -1 if none.
+         */
+        abstract int next(int low);
+
+        abstract void forEach(long base, LongConsumer action);
+
+        abstract void setBits(long[] words);
+
+        abstract void clearBits(long[] words);
+
+        abstract int countRuns();
+
+        abstract Container copy();
+
+        long[] toWords() {
+            final long[] words = new long[BITMAP_WORDS];
+            this.setBits(words);
+            return words;
+        }
+
+        // The set algebra methods below go through a temporary bitmap; subclasses override them
+        // to handle operands that are not bitmap-sized more efficiently.
+
+        Container or(Container that) {
+            final long[] words = this.toWords();
+            that.setBits(words);
+            return Container.optimizeIfRuns(Container.fromWords(words, Container.bitCount(words)), this, that);
+        }
+
+        Container and(Container that) {
+            if (that instanceof ArrayContainer)
+                return that.and(this);
+            final long[] words = this.toWords();
+            final long[] thatWords = that instanceof BitmapContainer ? ((BitmapContainer)that).words : that.toWords();
+            for (int i = 0; i < BITMAP_WORDS; i++)
+                words[i] &= thatWords[i];
+            return Container.optimizeIfRuns(Container.fromWords(words, Container.bitCount(words)), this, that);
+        }
+
+        Container andNot(Container that) {
+            final long[] words = this.toWords();
+            that.clearBits(words);
+            return Container.optimizeIfRuns(Container.fromWords(words, Container.bitCount(words)), this, that);
+        }
+
+        /**
+         * Convert to the encoding requiring the least memory.
+         */
+        Container optimize() {
+            final int runBytes = 4 * this.countRuns();
+            final int fixedBytes = this.cardinality <= ARRAY_MAX ? 2 * this.cardinality : 8 * BITMAP_WORDS;
+            if (runBytes < fixedBytes) {
+                if (this instanceof RunContainer)
+                    return this;
+                if (this instanceof ArrayContainer)
+                    return RunContainer.fromArray((ArrayContainer)this);
+                return RunContainer.fromWords(((BitmapContainer)this).words, this.cardinality);
+            }
+            if (!(this instanceof RunContainer))
+                return this;
+            if (this.cardinality <= ARRAY_MAX)
+                return ((RunContainer)this).toArrayContainer();
+            return new BitmapContainer(this.toWords(), this.cardinality);
+        }
+
+        static Container fromWords(long[] words, int cardinality) {
+            if (cardinality > ARRAY_MAX)
+                return new BitmapContainer(words, cardinality);
+            final char[] values = new char[cardinality];
+            int n = 0;
+            for (int low = Container.nextSetBit(words, 0); low != -1; low = Container.nextSetBit(words, low + 1)) {
+                values[n++] = (char)low;
+                if (low == 0xffff)
+                    break;
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        static Container optimizeIfRuns(Container result, Container a, Container b) {
+            return a instanceof RunContainer || b instanceof RunContainer ? result.optimize() : result;
+        }
+
+        static int bitCount(long[] words) {
+            int count = 0;
+            for (long word : words)
+                count += Long.bitCount(word);
+            return count;
+        }
+
+        static int nextSetBit(long[] words, int from) {
+            int index = from >>> 6;
+            long word = words[index] & (-1L << from);
+            while (word == 0) {
+                if (++index == BITMAP_WORDS)
+                    return -1;
+                word = words[index];
+            }
+            return (index << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        static int nextClearBit(long[] words, int from) {
+            int index = from >>> 6;
+            long word = ~words[index] & (-1L << from);
+            while (word == 0) {
+                if (++index == BITMAP_WORDS)
+                    return BITMAP_WORDS << 6;
+                word = ~words[index];
+            }
+            return (index << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        static void setRange(long[] words, int start, int end) {
+            final int firstWord = start >>> 6;
+            final int lastWord = end >>> 6;
+            final long firstMask = -1L << start;
+            final long lastMask = -1L >>> (63 - (end & 63));
+            if (firstWord == lastWord) {
+                words[firstWord] |= firstMask & lastMask;
+                return;
+            }
+            words[firstWord] |= firstMask;
+            Arrays.fill(words, firstWord + 1, lastWord, -1L);
+            words[lastWord] |= lastMask;
+        }
+
+        static void clearRange(long[] words, int start, int end) {
+            final int firstWord = start >>> 6;
+            final int lastWord = end >>> 6;
+            final long firstMask = -1L << start;
+            final long lastMask = -1L >>> (63 - (end & 63));
+            if (firstWord == lastWord) {
+                words[firstWord] &= ~(firstMask & lastMask);
+                return;
+            }
+            words[firstWord] &= ~firstMask;
+            Arrays.fill(words, firstWord + 1, lastWord, 0L);
+            words[lastWord] &= ~lastMask;
+        }
+    }
+
+// ArrayContainer
+
+    private static final class ArrayContainer extends Container {
+
+        private static final long serialVersionUID = 2164738513469823052L;
+
+        char[] values;                                      // sorted, only the first cardinality are valid
+
+        ArrayContainer() {
+            this.values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return Arrays.binarySearch(this.values, 0, this.cardinality, (char)low) >= 0;
+        }
+
+        @Override
+        Container add(int low) {
+            int index = Arrays.binarySearch(this.values, 0, this.cardinality, (char)low);
+            if (index >= 0)
+                return this;
+            if (this.cardinality == ARRAY_MAX)
+                return new BitmapContainer(this.toWords(), this.cardinality).add(low);
+            index = ~index;
+            if (this.cardinality == this.values.length)
+                this.values = Arrays.copyOf(this.values, Math.min(ARRAY_MAX, this.values.length * 2));
+            System.arraycopy(this.values, index, this.values, index + 1, this.cardinality - index);
+            this.values[index] = (char)low;
+            this.cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            final int index = Arrays.binarySearch(this.values, 0, this.cardinality, (char)low);
+            if (index < 0)
+                return this;
+            System.arraycopy(this.values, index + 1, this.values, index, this.cardinality - index - 1);
+            this.cardinality--;
+            return this;
+        }
+
+        @Override
+        int rank(int low) {
+            final int index = Arrays.binarySearch(this.values, 0, this.cardinality, (char)low);
+            return index >= 0 ? index + 1 : ~index;
+        }
+
+        @Override
+        int select(int index) {
+            return this.values[index];
+        }
+
+        @Override
+        int next(int low) {
+            int index = Arrays.binarySearch(this.values, 0, this.cardinality, (char)low);
+            if (index < 0)
+                index = ~index;
+            return index < this.cardinality ? this.values[index] : -1;
+        }
+
+        @Override
+        void forEach(long base, LongConsumer action) {
+            for (int i = 0; i < this.cardinality; i++)
+                action.accept(base | this.values[i]);
+        }
+
+        @Override
+        void setBits(long[] words) {
+            for (int i = 0; i < this.cardinality; i++) {
+                final int low = this.values[i];
+                words[low >>> 6] |= 1L << low;
+            }
+        }
+
+        @Override
+        void clearBits(long[] words) {
+            for (int i = 0; i < this.cardinality; i++) {
+                final int low = this.values[i];
+                words[low >>> 6] &= ~(1L << low);
+            }
+        }
+
+        @Override
+        int countRuns() {
+            int runs = 0;
+            for (int i = 0; i < this.cardinality; i++) {
+                if (i == 0 || this.values[i] != this.values[i - 1] + 1)
+                    runs++;
+            }
+            return runs;
+        }
+
+        @Override
+        ArrayContainer copy() {
+            return new ArrayContainer(Arrays.copyOf(this.values, Math.max(4, this.cardinality)), this.cardinality);
+        }
+
+        @Override
+        Container or(Container that) {
+            if (!(that instanceof ArrayContainer))
+                return that.or(this);
+            final ArrayContainer other = (ArrayContainer)that;
+            if (this.cardinality + other.cardinality > ARRAY_MAX)
+                return super.or(that);
+            final char[] result = new char[Math.max(4, this.cardinality + other.cardinality)];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < this.cardinality && j < other.cardinality) {
+                final char x = this.values[i];
+                final char y = other.values[j];
+                if (x <= y) {
+                    result[n++] = x;
+                    i++;
+                    if (x == y)
+                        j++;
+                } else {
+                    result[n++] = y;
+                    j++;
+                }
+            }
+            while (i < this.cardinality)
+                result[n++] = this.values[i++];
+            while (j < other.cardinality)
+                result[n++] = other.values[j++];
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container and(Container that) {
+            if (that instanceof ArrayContainer)
+                return this.merge((ArrayContainer)that, true);
+            final char[] result = new char[Math.max(4, this.cardinality)];
+            int n = 0;
+            for (int i = 0; i < this.cardinality; i++) {
+                if (that.contains(this.values[i]))
+                    result[n++] = this.values[i];
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container andNot(Container that) {
+            if (that instanceof ArrayContainer)
+                return this.merge((ArrayContainer)that, false);
+            final char[] result = new char[Math.max(4, this.cardinality)];
+            int n = 0;
+            for (int i = 0; i < this.cardinality; i++) {
+                if (!that.contains(this.values[i]))
+                    result[n++] = this.values[i];
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        // Compute the intersection (if "and" is true) or difference (if false) of two arrays in a single pass
+        private ArrayContainer merge(ArrayContainer that, boolean and) {
+            final char[] result = new char[Math.max(4, and ? Math.min(this.cardinality, that.cardinality) : this.cardinality)];
+            int j = 0;
+            int n = 0;
+            for (int i = 0; i < this.cardinality; i++) {
+                final char x = this.values[i];
+                while (j < that.cardinality && that.values[j] < x)
+                    j++;
+                final boolean found = j < that.cardinality && that.values[j] == x;
+                if (found == and)
+                    result[n++] = x;
+            }
+            return new ArrayContainer(result, n);
+        }
+    }
+
+// BitmapContainer
+
+    private static final class BitmapContainer extends Container {
+
+        private static final long serialVersionUID = -2683512094306725367L;
+
+        final long[] words;
+
+        BitmapContainer(long[] words, int cardinality) {
+            assert words.length == BITMAP_WORDS;
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (this.words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(int low) {
+            final long bit = 1L << low;
+            if ((this.words[low >>> 6] & bit) == 0) {
+                this.words[low >>> 6] |= bit;
+                this.cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            final long bit = 1L << low;
+            if ((this.words[low >>> 6] & bit) == 0)
+                return this;
+            this.words[low >>> 6] &= ~bit;
+            if (--this.cardinality <= ARRAY_MAX)
+                return Container.fromWords(this.words, this.cardinality);
+            return this;
+        }
+
+        @Override
+        int rank(int low) {
+            final int index = low >>> 6;
+            int rank = 0;
+            for (int i = 0; i < index; i++)
+                rank += Long.bitCount(this.words[i]);
+            return rank + Long.bitCount(this.words[index] & (-1L >>> (63 - (low & 63))));
+        }
+
+        @Override
+        int select(int index) {
+            for (int i = 0; ; i++) {
+                long word = this.words[i];
+                final int bits = Long.bitCount(word);
+                if (index < bits) {
+                    while (index-- > 0)
+                        word &= word - 1;
+                    return (i << 6) + Long.numberOfTrailingZeros(word);
+                }
+                index -= bits;
+            }
+        }
+
+        @Override
+        int next(int low) {
+            return Container.nextSetBit(this.words, low);
+        }
+
+        @Override
+        void forEach(long base, LongConsumer action) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                for (long word = this.words[i]; word != 0; word &= word - 1)
+                    action.accept(base | ((i << 6) + Long.numberOfTrailingZeros(word)));
+            }
+        }
+
+        @Override
+        void setBits(long[] words) {
+            for (int i = 0; i < BITMAP_WORDS; i++)
+                words[i] |= this.words[i];
+        }
+
+        @Override
+        void clearBits(long[] words) {
+            for (int i = 0; i < BITMAP_WORDS; i++)
+                words[i] &= ~this.words[i];
+        }
+
+        @Override
+        int countRuns() {
+            int runs = 0;
+            long carry = 0;
+            for (long word : this.words) {
+                runs += Long.bitCount(word & ~((word << 1) | carry));
+                carry = word >>> 63;
+            }
+            return runs;
+        }
+
+        @Override
+        long[] toWords() {
+            return this.words.clone();
+        }
+
+        @Override
+        BitmapContainer copy() {
+            return new BitmapContainer(this.words.clone(), this.cardinality);
+        }
+    }
+
+// RunContainer
+
+    private static final class RunContainer extends Container {
+
+        private static final long serialVersionUID = 8016254071623347815L;
+
+        char[] runs;                                        // (start, length - 1) pairs, sorted and non-adjacent
+        int numRuns;
+
+        RunContainer(int start, int end) {
+            this.runs = new char[] { (char)start, (char)(end - start) };
+            this.numRuns = 1;
+            this.cardinality = end - start + 1;
+        }
+
+        RunContainer(char[] runs, int numRuns, int cardinality) {
+            this.runs = runs;
+            this.numRuns = numRuns;
+            this.cardinality = cardinality;
+        }
+
+        static RunContainer fromWords(long[] words, int cardinality) {
+            final RunBuilder builder = new RunBuilder();
+            for (int start = Container.nextSetBit(words, 0); start != -1; ) {
+                final int end = Container.nextClearBit(words, start) - 1;
+                builder.append(start, end);
+                start = end < 0xffff ? Container.nextSetBit(words, end + 1) : -1;
+            }
+            assert builder.cardinality == cardinality;
+            return builder.build();
+        }
+
+        static RunContainer fromArray(ArrayContainer array) {
+            final RunBuilder builder = new RunBuilder();
+            for (int i = 0; i < array.cardinality; i++)
+                builder.append(array.values[i], array.values[i]);
+            return builder.build();
+        }
+
+        ArrayContainer toArrayContainer() {
+            assert this.cardinality <= ARRAY_MAX;
+            final char[] values = new char[Math.max(4, this.cardinality)];
+            int n = 0;
+            for (int run = 0; run < this.numRuns; run++) {
+                final int end = this.end(run);
+                for (int low = this.start(run); low <= end; low++)
+                    values[n++] = (char)low;
+            }
+            return new ArrayContainer(values, n);
+        }
+
+        int start(int run) {
+            return this.runs[run << 1];
+        }
+
+        int end(int run) {
+            return this.runs[run << 1] + this.runs[(run << 1) + 1];
+        }
+
+        /**
+         * Find the last run starting at or before {@code low}, or -1 if none.
+         */
+        int findRun(int low) {
+            int lo = 0;
+            int hi = this.numRuns - 1;
+            while (lo <= hi) {
+                final int mid = (lo + hi) >>> 1;
+                if (this.start(mid) <= low)
+                    lo = mid + 1;
+                else
+                    hi = mid - 1;
+            }
+            return hi;
+        }
+
+        @Override
+        boolean contains(int low) {
+            final int run = this.findRun(low);
+            return run >= 0 && low <= this.end(run);
+        }
+
+        @Override
+        Container add(int low) {
+            final int run = this.findRun(low);
+            if (run >= 0 && low <= this.end(run))
+                return this;
+            final boolean joinsPrev = run >= 0 && this.end(run) + 1 == low;
+            final boolean joinsNext = run + 1 < this.numRuns && this.start(run + 1) == low + 1;
+            this.cardinality++;
+            if (joinsPrev && joinsNext) {
+                this.runs[(run << 1) + 1] = (char)(this.end(run + 1) - this.start(run));
+                this.deleteRun(run + 1);
+            } else if (joinsPrev)
+                this.runs[(run << 1) + 1]++;
+            else if (joinsNext) {
+                this.runs[(run + 1) << 1] = (char)low;
+                this.runs[((run + 1) << 1) + 1]++;
+            } else {
+                this.insertRun(run + 1, low, low);
+                if (this.numRuns > MAX_RUNS)
+                    return Container.fromWords(this.toWords(), this.cardinality);
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(int low) {
+            final int run = this.findRun(low);
+            if (run < 0 || low > this.end(run))
+                return this;
+            final int start = this.start(run);
+            final int end = this.end(run);
+            this.cardinality--;
+            if (start == end)
+                this.deleteRun(run);
+            else if (low == start) {
+                this.runs[run << 1] = (char)(start + 1);
+                this.runs[(run << 1) + 1]--;
+            } else if (low == end)
+                this.runs[(run << 1) + 1]--;
+            else {
+                this.runs[(run << 1) + 1] = (char)(low - 1 - start);
+                this.insertRun(run + 1, low + 1, end);
+                if (this.numRuns > MAX_RUNS)
+                    return Container.fromWords(this.toWords(), this.cardinality);
+            }
+            return this;
+        }
+
+        @Override
+        int rank(int low) {
+            int rank = 0;
+            for (int run = 0; run < this.numRuns; run++) {
+                final int start = this.start(run);
+                if (start > low)
+                    break;
+                rank += Math.min(low, this.end(run)) - start + 1;
+            }
+            return rank;
+        }
+
+        @Override
+        int select(int index) {
+            for (int run = 0; ; run++) {
+                final int length = this.runs[(run << 1) + 1] + 1;
+                if (index < length)
+                    return this.start(run) + index;
+                index -= length;
+            }
+        }
+
+        @Override
+        int next(int low) {
+            int run = this.findRun(low);
+            if (run >= 0 && low <= this.end(run))
+                return low;
+            return ++run < this.numRuns ? this.start(run) : -1;
+        }
+
+        @Override
+        void forEach(long base, LongConsumer action) {
+            for (int run = 0; run < this.numRuns; run++) {
+                final int end = this.end(run);
+                for (int low = this.start(run); low <= end; low++)
+                    action.accept(base | low);
+            }
+        }
+
+        @Override
+        void setBits(long[] words) {
+            for (int run = 0; run < this.numRuns; run++)
+                Container.setRange(words, this.start(run), this.end(run));
+        }
+
+        @Override
+        void clearBits(long[] words) {
+            for (int run = 0; run < this.numRuns; run++)
+                Container.clearRange(words, this.start(run), this.end(run));
+        }
+
+        @Override
+        int countRuns() {
+            return this.numRuns;
+        }
+
+        @Override
+        RunContainer copy() {
+            return new RunContainer(Arrays.copyOf(this.runs, Math.max(2, this.numRuns << 1)), this.numRuns, this.cardinality);
+        }
+
+        @Override
+        Container or(Container that) {
+            if (that instanceof ArrayContainer) {
+                final ArrayContainer other = (ArrayContainer)that;
+                final RunBuilder builder = new RunBuilder();
+                int i = 0;
+                int j = 0;
+                while (i < this.numRuns || j < other.cardinality) {
+                    if (j == other.cardinality || (i < this.numRuns && this.start(i) <= other.values[j])) {
+                        builder.append(this.start(i), this.end(i));
+                        i++;
+                    } else {
+                        builder.append(other.values[j], other.values[j]);
+                        j++;
+                    }
+                }
+                return builder.build().optimize();
+            }
+            if (!(that instanceof RunContainer))
+                return super.or(that);
+            final RunContainer other = (RunContainer)that;
+            final RunBuilder builder = new RunBuilder();
+            int i = 0;
+            int j = 0;
+            while (i < this.numRuns || j < other.numRuns) {
+                if (j == other.numRuns || (i < this.numRuns && this.start(i) <= other.start(j))) {
+                    builder.append(this.start(i), this.end(i));
+                    i++;
+                } else {
+                    builder.append(other.start(j), other.end(j));
+                    j++;
+                }
+            }
+            return builder.build().optimize();
+        }
+
+        @Override
+        Container and(Container that) {
+            if (!(that instanceof RunContainer))
+                return super.and(that);
+            final RunContainer other = (RunContainer)that;
+            final RunBuilder builder = new RunBuilder();
+            int i = 0;
+            int j = 0;
+            while (i < this.numRuns && j < other.numRuns) {
+                final int start = Math.max(this.start(i), other.start(j));
+                final int end = Math.min(this.end(i), other.end(j));
+                if (start <= end)
+                    builder.append(start, end);
+                if (this.end(i) < other.end(j))
+                    i++;
+                else
+                    j++;
+            }
+            return builder.build().optimize();
+        }
+
+        @Override
+        Container andNot(Container that) {
+            if (that instanceof ArrayContainer) {
+                final ArrayContainer other = (ArrayContainer)that;
+                final RunBuilder builder = new RunBuilder();
+                int j = 0;
+                for (int i = 0; i < this.numRuns; i++) {
+                    final int end = this.end(i);
+                    int next = this.start(i);
+                    while (j < other.cardinality && other.values[j] < next)
+                        j++;
+                    while (j < other.cardinality && other.values[j] <= end) {
+                        if (other.values[j] > next)
+                            builder.append(next, other.values[j] - 1);
+                        next = other.values[j++] + 1;
+                    }
+                    if (next <= end)
+                        builder.append(next, end);
+                }
+                return builder.build().optimize();
+            }
+            if (!(that instanceof RunContainer))
+                return super.andNot(that);
+            final RunContainer other = (RunContainer)that;
+            final RunBuilder builder = new RunBuilder();
+            int j = 0;
+            for (int i = 0; i < this.numRuns; i++) {
+                final int end = this.end(i);
+                int next = this.start(i);
+                while (j < other.numRuns && other.end(j) < next)
+                    j++;
+                for (int k = j; k < other.numRuns && other.start(k) <= end && next <= end; k++) {
+                    if (other.start(k) > next)
+                        builder.append(next, other.start(k) - 1);
+                    next = Math.max(next, other.end(k) + 1);
+                }
+                if (next <= end)
+                    builder.append(next, end);
+            }
+            return builder.build().optimize();
+        }
+
+        private void insertRun(int run, int start, int end) {
+            if (this.numRuns << 1 == this.runs.length)
+                this.runs = Arrays.copyOf(this.runs, Math.max(4, this.runs.length * 2));
+            System.arraycopy(this.runs, run << 1, this.runs, (run + 1) << 1, (this.numRuns - run) << 1);
+            this.runs[run << 1] = (char)start;
+            this.runs[(run << 1) + 1] = (char)(end - start);
+            this.numRuns++;
+        }
+
+        private void deleteRun(int run) {
+            System.arraycopy(this.runs, (run + 1) << 1, this.runs, run << 1, (this.numRuns - run - 1) << 1);
+            this.numRuns--;
+        }
+    }
+
+// RunBuilder
+
+    /**
+     * Accumulates runs in ascending order of start, merging overlapping and adjacent runs.
+     */
+    private static final class RunBuilder {
+
+        private char[] runs = new char[8];
+        private int numRuns;
+        private int cardinality;
+        private int lastEnd = -2;
+
+        void append(int start, int end) {
+            if (start <= this.lastEnd + 1) {
+                if (end <= this.lastEnd)
+                    return;
+                final int index = ((this.numRuns - 1) << 1) + 1;
+                this.cardinality += end - this.lastEnd;
+                this.runs[index] = (char)(end - this.runs[index - 1]);
+                this.lastEnd = end;
+                return;
+            }
+            if (this.numRuns << 1 == this.runs.length)
+                this.runs = Arrays.copyOf(this.runs, this.runs.length * 2);
+            this.runs[this.numRuns << 1] = (char)start;
+            this.runs[(this.numRuns << 1) + 1] = (char)(end - start);
+            this.numRuns++;
+            this.cardinality += end - start + 1;
+            this.lastEnd = end;
+        }
+
+        RunContainer build() {
+            return new RunContainer(this.runs, this.numRuns, this.cardinality);
+        }
+    }
+}
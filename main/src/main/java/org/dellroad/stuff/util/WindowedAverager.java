@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import com.google.common.base.Preconditions;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.function.LongSupplier;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Calculates averages and variance over a sliding time window.
+ *
+ * <p>
+ * The window is divided into a fixed number of equal time slices, each of which accumulates its data points in
+ * its own {@link Averager}. As time advances, the oldest slice is discarded and reused, so old data points
+ * stop affecting the statistics after at most one window's duration. The slices are combined using
+ * {@link Averager#add Averager.add()} when the statistics are read.
+ *
+ * <p>
+ * Because whole slices expire at once, the data points included at any time span between {@code numSlices - 1}
+ * and {@code numSlices} slices' worth of time; more slices give a smoother window at the cost of slower reads.
+ * Adding a data point takes constant time and does not allocate.
+ *
+ * <p>
+ * Instances are not thread safe.
+ *
+ * @see Averager
+ * @see ExponentialAverager
+ */
+@NotThreadSafe
+public class WindowedAverager {
+
+    private final Averager[] slices;
+    private final long sliceNanos;
+    private final LongSupplier clock;
+
+    private long currentSlice;                              // absolute number of the most recent slice
+
+// Constructors
+
+    /**
+     * Constructor.
+     *
+     * @param window duration of the sliding window
+     * @param numSlices number of slices into which to divide {@code window}
+     * @throws IllegalArgumentException if {@code window} is null, not positive, or shorter than {@code numSlices} nanoseconds
+     * @throws IllegalArgumentException if {@code numSlices} is not positive
+     */
+    public WindowedAverager(Duration window, int numSlices) {
+        this(window, numSlices, System::nanoTime);
+    }
+
+    // Internal constructor allowing a different clock for testing
+    WindowedAverager(Duration window, int numSlices, LongSupplier clock) {
+        Preconditions.checkArgument(window != null, "null window");
+        Preconditions.checkArgument(numSlices > 0, "numSlices <= 0");
+        Preconditions.checkArgument(!window.isNegative() && window.toNanos() >= numSlices, "window is too short");
+        this.slices = new Averager[numSlices];
+        for (int i = 0; i < numSlices; i++)
+            this.slices[i] = new Averager();
+        this.sliceNanos = window.toNanos() / numSlices;
+        this.clock = clock;
+        this.currentSlice = Math.floorDiv(this.clock.getAsLong(), this.sliceNanos);
+    }
+
+// Methods
+
+    /**
+     * Add a value.
+     *
+     * @param value value to add to the running average
+     * @throws IllegalArgumentException if {@code value} is {@code NaN} or infinity
+     */
+    public void addValue(double value) {
+        this.advance();
+        this.slices[(int)Math.floorMod(this.currentSlice, (long)this.slices.length)].addValue(value);
+    }
+
+    /**
+     * Get the statistics for the data points within the current window.
+     *
+     * @return combined average of all slices in the window
+     */
+    public Averager snapshot() {
+        this.advance();
+        Averager result = new Averager();
+        for (Averager slice : this.slices)
+            result = result.add(slice);
+        return result;
+    }
+
+    /**
+     * Reset this instance.
+     */
+    public void reset() {
+        for (Averager slice : this.slices)
+            slice.reset();
+    }
+
+// Object
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s[%s]", this.getClass().getSimpleName(), this.snapshot());
+    }
+
+// Internal methods
+
+    // Discard any slices that have fallen out of the window
+    private void advance() {
+        final long slice = Math.floorDiv(this.clock.getAsLong(), this.sliceNanos);
+        final long elapsed = slice - this.currentSlice;
+        if (elapsed <= 0)
+            return;
+        final int expired = (int)Math.min(elapsed, this.slices.length);
+        for (int i = 1; i <= expired; i++)
+            this.slices[(int)Math.floorMod(this.currentSlice + i, (long)this.slices.length)].reset();
+        this.currentSlice = slice;
+    }
+}
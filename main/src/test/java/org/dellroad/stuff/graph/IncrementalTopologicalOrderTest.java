@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.graph;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class IncrementalTopologicalOrderTest extends TestSupport {
+
+    @Test
+    public void testInitialOrder() {
+        for (String setup : new String[] { "f,q,z>a,a>b,a>c", "a>e,e>c,c>f,f>b,b>d", "a,b,c,d,e" }) {
+            final Set<String> nodes = TopologicalSorterTest.getNodes(setup);
+            final TopologicalSorter.EdgeLister<String> edgeLister = TopologicalSorterTest.getEdgeLister(setup);
+            final Comparator<String> tieBreaker = TopologicalSorterTest.FORWARD_COMPARATOR;
+            final IncrementalTopologicalOrder<String> order = new IncrementalTopologicalOrder<>(nodes, edgeLister, tieBreaker);
+            final TopologicalSorter<String> sorter = new TopologicalSorter<>(nodes, edgeLister, tieBreaker);
+            Assert.assertEquals(order.getOrder(), sorter.sort());
+            Assert.assertEquals(new TopologicalSorter<>(order.getOrder(), order).sort(), order.getOrder());
+        }
+        try {
+            new IncrementalTopologicalOrder<>(TopologicalSorterTest.getNodes("a>b,b>a"),
+              TopologicalSorterTest.getEdgeLister("a>b,b>a"), null);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRandomUpdates() {
+        final IncrementalTopologicalOrder<Integer> order = new IncrementalTopologicalOrder<>();
+        final int numNodes = 50;
+        for (int i = 0; i < 5000; i++) {
+            final Integer from = this.random.nextInt(numNodes);
+            final Integer to = this.random.nextInt(numNodes);
+            final int action = this.random.nextInt(100);
+            if (action < 5)
+                order.removeNode(from);
+            else if (action < 35) {
+                final boolean existed = order.getOutEdges(from).contains(to);
+                Assert.assertEquals(order.removeEdge(from, to), existed);
+            } else {
+                final boolean cycle = from.equals(to) || this.reachable(order, to, from);
+                final boolean existed = order.getOutEdges(from).contains(to);
+                final List<Integer> before = order.getOrder();
+                try {
+                    Assert.assertEquals(order.addEdge(from, to), !existed);
+                    Assert.assertFalse(cycle);
+                } catch (IllegalArgumentException e) {
+                    Assert.assertTrue(cycle);
+                    if (order.containsNode(from) && order.containsNode(to))
+                        Assert.assertFalse(order.getOutEdges(from).contains(to));
+                    before.removeIf(node -> !order.containsNode(node));
+                    Assert.assertEquals(order.getOrder().subList(0, before.size()), before);
+                }
+            }
+            this.verify(order);
+        }
+    }
+
+    private boolean reachable(IncrementalTopologicalOrder<Integer> order, Integer from, Integer to) {
+        final HashSet<Integer> visited = new HashSet<>();
+        final ArrayDeque<Integer> stack = new ArrayDeque<>();
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            final Integer node = stack.pop();
+            if (node.equals(to))
+                return true;
+            if (visited.add(node))
+                order.getOutEdges(node).forEach(stack::push);
+        }
+        return false;
+    }
+
+    private void verify(IncrementalTopologicalOrder<Integer> order) {
+        final List<Integer> list = order.getOrder();
+        Assert.assertEquals(list.size(), order.size());
+        Assert.assertEquals(new HashSet<>(list).size(), list.size());
+        for (int i = 0; i < list.size(); i++) {
+            final Integer node = list.get(i);
+            for (Integer target : order.getOutEdges(node)) {
+                Assert.assertTrue(list.indexOf(target) > i, "edge " + node + " -> " + target + " violated in " + list);
+                Assert.assertTrue(order.precedes(node, target));
+                Assert.assertTrue(order.getInEdges(target).contains(node));
+            }
+        }
+    }
+}
@@ -5,13 +5,21 @@
 
 package org.dellroad.stuff.graph;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.dellroad.stuff.test.TestSupport;
 import org.testng.annotations.DataProvider;
@@ -19,6 +27,7 @@ import org.testng.annotations.Test;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
 
 public class TopologicalSorterTest extends TestSupport {
 
@@ -56,6 +65,108 @@ public class TopologicalSorterTest extends TestSupport {
         }
     }
 
+    @Test
+    public void testLongChain() {
+        final int numNodes = 200000;
+        final ArrayList<Integer> nodes = new ArrayList<>(numNodes);
+        for (int i = 0; i < numNodes; i++)
+            nodes.add(i);
+        Collections.shuffle(nodes, this.random);
+        final TopologicalSorter<Integer> sorter = new TopologicalSorter<>(nodes,
+          node -> node + 1 < numNodes ? Collections.singleton(node + 1) : Collections.emptySet(), Integer::compare);
+        final List<Integer> list = sorter.sort();
+        final List<Integer> reversedList = sorter.sortEdgesReversed();
+        for (int i = 0; i < numNodes; i++) {
+            assertEquals(list.get(i), (Integer)i);
+            assertEquals(reversedList.get(i), (Integer)(numNodes - 1 - i));
+        }
+
+        // Execute with a direct executor, which runs each action in the thread that submits it
+        final ArrayList<Integer> executed = new ArrayList<>(numNodes);
+        sorter.execute(Runnable::run, executed::add).join();
+        assertEquals(executed, list);
+    }
+
+    @Test
+    public void testLayers() {
+        assertEquals(this.layers("a>d,a>e,a>f,b>d,b>e,b>f,c>d,c>e,c>f", Boolean.TRUE), "abc|def");
+        assertEquals(this.layers("a>d,a>e,a>f,b>d,b>e,b>f,c>d,c>e,c>f", Boolean.FALSE), "cba|fed");
+        assertEquals(this.layers("f,q,z>a,a>b,a>c", Boolean.TRUE), "fqz|a|bc");
+        assertEquals(this.layers("a>b,b>c,a>c,d", null), "ad|b|c");
+        assertEquals(this.layers("a,b,c", null), "abc");
+        assertNull(this.layers("a>b,b>c,c>a", null));
+        assertNull(this.layers("a>a,b", null));
+    }
+
+    private String layers(String setup, Boolean forward) {
+        final TopologicalSorter<String> sorter = new TopologicalSorter<>(getNodes(setup), getEdgeLister(setup),
+          forward == null ? null : forward.booleanValue() ? FORWARD_COMPARATOR : BACKWARD_COMPARATOR);
+        final List<List<String>> layers;
+        try {
+            layers = sorter.sortLayers();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return layers.stream().map(TopologicalSorterTest::concat).collect(Collectors.joining("|"));
+    }
+
+    @Test
+    public void testExecute() throws Exception {
+
+        // Build a random DAG
+        final int numNodes = 1000;
+        final ArrayList<Integer> nodes = new ArrayList<>(numNodes);
+        final HashMap<Integer, Set<Integer>> edges = new HashMap<>();
+        for (int i = 0; i < numNodes; i++) {
+            nodes.add(i);
+            final HashSet<Integer> targets = new HashSet<>();
+            for (int j = 0; j < 3 && i + 1 < numNodes; j++)
+                targets.add(i + 1 + this.random.nextInt(Math.min(50, numNodes - i - 1)));
+            edges.put(i, targets);
+        }
+        final TopologicalSorter<Integer> sorter = new TopologicalSorter<>(nodes, edges::get);
+
+        // Every node must start after all of its predecessors have finished
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Set<Integer> finished = ConcurrentHashMap.newKeySet();
+            final Set<String> errors = ConcurrentHashMap.newKeySet();
+            sorter.execute(executor, node -> {
+                for (Map.Entry<Integer, Set<Integer>> entry : edges.entrySet()) {
+                    if (entry.getValue().contains(node) && !finished.contains(entry.getKey()))
+                        errors.add(entry.getKey() + " not finished before " + node);
+                }
+                finished.add(node);
+            }).get(30, TimeUnit.SECONDS);
+            assertEquals(errors, Collections.emptySet());
+            assertEquals(finished.size(), numNodes);
+
+            // Failures stop execution
+            final RuntimeException failure = new RuntimeException();
+            try {
+                sorter.execute(executor, node -> {
+                    if (node == 10)
+                        throw failure;
+                }).get(30, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertEquals(e.getCause(), failure);
+            }
+
+            // Empty graph and cycles
+            sorter.execute(executor, node -> { }).get(30, TimeUnit.SECONDS);
+            new TopologicalSorter<Integer>(Collections.emptySet(), node -> null).execute(executor, node -> { }).get();
+            try {
+                new TopologicalSorter<>(getNodes("a>b,b>a"), getEdgeLister("a>b,b>a")).execute(executor, node -> { });
+                fail();
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     @DataProvider(name = "data")
     public Object[][] genTestCases() {
         return new Object[][] {
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class AsyncChannelWriterTest extends TestSupport {
+
+    @Test
+    public void testAsyncChannelWriter() throws Exception {
+        final File file = File.createTempFile("AsyncChannelWriterTest", null);
+        try {
+            final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+            final long limit = 200000;
+            final AsyncChannelWriter writer = new AsyncChannelWriter(channel, limit, "testAsyncChannelWriter");
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int i = 0; i < 1000; i++) {
+                final byte[] data = new byte[this.random.nextInt(10) == 0 ? this.random.nextInt(100000) : this.random.nextInt(100)];
+                this.random.nextBytes(data);
+                Assert.assertTrue(writer.waitForSpace(data.length, 0));
+                switch (this.random.nextInt(3)) {
+                case 0:
+                    writer.write(data, 0, data.length);
+                    break;
+                case 1:
+                    final ByteBuffer buf = ByteBuffer.allocate(data.length + 10);
+                    buf.position(5);
+                    buf.put(data);
+                    buf.flip().position(5);
+                    writer.write(buf);
+                    Assert.assertFalse(buf.hasRemaining());
+                    break;
+                default:
+                    writer.transfer(ByteBuffer.wrap(data.clone()));
+                    break;
+                }
+                expected.write(data);
+                if (this.random.nextInt(50) == 0)
+                    writer.flush();
+                Assert.assertTrue(writer.getQueuedBytes() <= limit);
+            }
+            writer.flush();
+            Assert.assertTrue(writer.waitForIdle(0));
+            Assert.assertEquals(writer.getQueuedBytes(), 0);
+            Assert.assertEquals(Files.readAllBytes(file.toPath()), expected.toByteArray());
+            try {
+                writer.transfer(ByteBuffer.allocate((int)limit + 1));
+                Assert.fail();
+            } catch (BufferOverflowException e) {
+                // expected
+            }
+            writer.close();
+            try {
+                writer.flush();
+                Assert.fail();
+            } catch (IOException e) {
+                // expected
+            }
+            for (int i = 0; i < 100 && channel.isOpen(); i++)
+                Thread.sleep(10);
+            Assert.assertFalse(channel.isOpen());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class AsyncOutputStreamTest extends TestSupport {
+
+    @Test
+    public void testFixedBuffer() throws Exception {
+        final int bufsize = 100 + this.random.nextInt(1000);
+        final SlowOutputStream output = new SlowOutputStream();
+        final AsyncOutputStream async = new AsyncOutputStream(output, bufsize, "testFixedBuffer");
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 2000; i++) {
+            final byte[] data = new byte[this.random.nextInt(bufsize / 2)];
+            this.random.nextBytes(data);
+            if (this.random.nextInt(10) == 0) {
+                Assert.assertTrue(async.waitForSpace(1, 0));
+                async.write(data.length);
+                expected.write(data.length);
+            }
+            Assert.assertTrue(async.waitForSpace(data.length, 0));
+            async.write(data);
+            expected.write(data);
+            if (this.random.nextInt(20) == 0)
+                async.flush();
+            Assert.assertEquals(async.getBufferSize(), bufsize);
+        }
+        async.flush();
+        Assert.assertTrue(async.waitForIdle(0));
+        Assert.assertEquals(output.toByteArray(), expected.toByteArray());
+        Assert.assertTrue(output.flushed);
+        try {
+            async.write(new byte[bufsize + 1]);
+            Assert.fail();
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+        async.close();
+        try {
+            async.write(0);
+            Assert.fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testExpandingBuffer() throws Exception {
+        final SlowOutputStream output = new SlowOutputStream();
+        final AsyncOutputStream async = new AsyncOutputStream(output, "testExpandingBuffer");
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 500; i++) {
+            final byte[] data = new byte[this.random.nextInt(5000)];
+            this.random.nextBytes(data);
+            async.write(data);
+            expected.write(data);
+        }
+        async.flush();
+        Assert.assertTrue(async.waitForIdle(0));
+        Assert.assertEquals(output.toByteArray(), expected.toByteArray());
+    }
+
+    // Occasionally pauses so the buffer fills up and wraps around
+    private class SlowOutputStream extends ByteArrayOutputStream {
+
+        volatile boolean flushed;
+
+        @Override
+        public synchronized void write(byte[] data, int off, int len) {
+            if (AsyncOutputStreamTest.this.random.nextInt(50) == 0) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.write(data, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.flushed = true;
+        }
+    }
+}
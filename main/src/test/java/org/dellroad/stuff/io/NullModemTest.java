@@ -5,11 +5,16 @@
 
 package org.dellroad.stuff.io;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -80,6 +85,48 @@ public class NullModemTest extends TestSupport implements ReadCallback, WriteCal
         dataOutput.flush();
     }
 
+    @Test
+    public void testLockFree() throws Exception {
+        final byte[] data = new byte[this.random.nextInt(100000)];
+        this.random.nextBytes(data);
+        final NullModemInputStream input = new NullModemInputStream(output -> output.write(data),
+          NullUtil.newThreadExecutor("Null Input 3"), new LockFreePipedStreams(100));
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        input.transferTo(buf);
+        input.close();
+        assert Arrays.equals(buf.toByteArray(), data);
+        final NullModemOutputStream output = new NullModemOutputStream(this,
+          NullUtil.newThreadExecutor("Null Output 4"), new LockFreePipedStreams(100));
+        output.setSynchronousClose(true);
+        output.write(data);
+        output.close();
+        assert Arrays.equals(this.outputData, data);
+    }
+
+    @Test
+    public void testChannels() throws Exception {
+        final byte[] data = new byte[this.random.nextInt(100000)];
+        this.random.nextBytes(data);
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final NullModemOutputStream output = new NullModemOutputStream(input -> {
+            final ReadableByteChannel channel = PipedStreams.newChannel(input);
+            final ByteBuffer chunk = ByteBuffer.allocate(123);
+            while (channel.read(chunk) != -1) {
+                buf.write(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+        }, "Null Output 5");
+        output.setSynchronousClose(true);
+        try (WritableByteChannel channel = output.getChannel()) {
+            channel.write(ByteBuffer.wrap(data));
+        }
+        assert Arrays.equals(buf.toByteArray(), data);
+        final NullModemInputStream input = new NullModemInputStream(
+          out -> PipedStreams.newChannel(out).write(ByteBuffer.wrap(data)), "Null Input 4");
+        assert Arrays.equals(StreamsTest.readAll(Channels.newInputStream(input.getChannel())), data);
+        input.close();
+    }
+
 // Exception Tests
 
     @Test
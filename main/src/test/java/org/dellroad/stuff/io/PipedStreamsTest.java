@@ -8,6 +8,10 @@ package org.dellroad.stuff.io;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -22,8 +26,85 @@ public class PipedStreamsTest extends TestSupport {
 
     @Test
     public void testPipedStreams() throws Exception {
+        this.testPipe(new PipedStreams(13));
+    }
+
+    @Test
+    public void testLockFreePipedStreams() throws Exception {
+        this.testPipe(new LockFreePipedStreams(13));
+    }
+
+    @Test
+    public void testTransferTo() throws Exception {
+        for (PipedStreams ps : new PipedStreams[] { new PipedStreams(17), new LockFreePipedStreams(17) }) {
+            final byte[] data = new byte[this.random.nextInt(100000)];
+            this.random.nextBytes(data);
+            final Thread writer = new Thread(() -> {
+                try (OutputStream out = ps.getOutputStream()) {
+                    for (int off = 0; off < data.length; ) {
+                        final int len = Math.min(data.length - off, this.random.nextInt(40));
+                        out.write(data, off, len);
+                        off += len;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, this.getClass().getSimpleName() + " writer");
+            writer.start();
+            final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            Assert.assertEquals(ps.getInputStream().transferTo(buf), data.length);
+            writer.join();
+            Assert.assertEquals(buf.toByteArray(), data);
+        }
+    }
+
+    @Test
+    public void testChannels() throws Exception {
+        for (PipedStreams ps : new PipedStreams[] { new PipedStreams(17), new LockFreePipedStreams(17) }) {
+            final byte[] data = new byte[this.random.nextInt(100000)];
+            this.random.nextBytes(data);
+            final Thread writer = new Thread(() -> {
+                try (WritableByteChannel sink = PipedStreams.newChannel(ps.getOutputStream())) {
+                    for (int off = 0; off < data.length; ) {
+                        final int len = Math.min(data.length - off, this.random.nextInt(40));
+                        final ByteBuffer buf = this.random.nextBoolean() ?
+                          ByteBuffer.allocateDirect(len) : ByteBuffer.allocate(len);
+                        buf.put(data, off, len).flip();
+                        Assert.assertEquals(sink.write(buf), len);
+                        Assert.assertFalse(buf.hasRemaining());
+                        off += len;
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }, this.getClass().getSimpleName() + " writer");
+            writer.start();
+            final ReadableByteChannel source = ps.getSourceChannel();
+            Assert.assertSame(PipedStreams.newChannel(ps.getInputStream()), source);
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final ByteBuffer buf = ByteBuffer.allocateDirect(29);
+            while (source.read(buf) != -1) {
+                buf.flip();
+                while (buf.hasRemaining())
+                    output.write(buf.get());
+                buf.clear();
+            }
+            writer.join();
+            Assert.assertEquals(output.toByteArray(), data);
+            Assert.assertFalse(ps.getSinkChannel().isOpen());
+            Assert.assertTrue(source.isOpen());
+            source.close();
+            Assert.assertFalse(source.isOpen());
+            try {
+                source.read(buf);
+                Assert.fail();
+            } catch (ClosedChannelException e) {
+                // expected
+            }
+        }
+    }
 
-        final PipedStreams ps = new PipedStreams(13);
+    private void testPipe(PipedStreams ps) throws Exception {
 
         final MessageDigest readerDigest = this.newSHA1();
         final MessageDigest writerDigest = this.newSHA1();
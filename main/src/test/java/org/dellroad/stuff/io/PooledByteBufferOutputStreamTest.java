@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PooledByteBufferOutputStreamTest extends TestSupport {
+
+    @Test
+    public void testPooledByteBufferOutputStream() throws Exception {
+        for (boolean direct : new boolean[] { false, true }) {
+            final ByteBufferPool pool = new ByteBufferPool(100, direct, 5);
+            final PooledByteBufferOutputStream output = new PooledByteBufferOutputStream(pool);
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int i = 0; i < 100; i++) {
+                final byte[] data = new byte[this.random.nextInt(250)];
+                this.random.nextBytes(data);
+                switch (this.random.nextInt(3)) {
+                case 0:
+                    for (byte b : data)
+                        output.write(b);
+                    break;
+                case 1:
+                    output.write(data);
+                    break;
+                default:
+                    final ByteBuffer buf = ByteBuffer.allocateDirect(data.length + 10);
+                    buf.position(3);
+                    buf.put(data).flip().position(3);
+                    output.write(buf);
+                    Assert.assertFalse(buf.hasRemaining());
+                    break;
+                }
+                expected.write(data);
+            }
+            output.close();
+            Assert.assertEquals(output.size(), expected.size());
+
+            // Check buffers
+            final ByteBuffer[] bufs = output.getBuffers();
+            Assert.assertEquals(bufs.length, (expected.size() + 99) / 100);
+            final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            for (ByteBuffer buf : bufs) {
+                Assert.assertTrue(buf.isReadOnly());
+                final byte[] data = new byte[buf.remaining()];
+                buf.get(data);
+                actual.write(data);
+            }
+            Assert.assertEquals(actual.toByteArray(), expected.toByteArray());
+
+            // Check gathering write
+            final File file = File.createTempFile("PooledByteBufferOutputStreamTest", null);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                Assert.assertEquals(output.writeTo(channel), expected.size());
+                Assert.assertEquals(Files.readAllBytes(file.toPath()), expected.toByteArray());
+            } finally {
+                file.delete();
+            }
+
+            // Check release
+            Assert.assertEquals(pool.getPooled(), 0);
+            output.release();
+            Assert.assertEquals(pool.getPooled(), 5);
+            Assert.assertEquals(output.size(), 0);
+            Assert.assertEquals(output.getBuffers().length, 0);
+            try {
+                output.write(0);
+                Assert.fail();
+            } catch (IOException e) {
+                // expected
+            }
+
+            // Check pooled buffers are reused
+            final PooledByteBufferOutputStream output2 = new PooledByteBufferOutputStream(pool);
+            output2.write(new byte[150]);
+            Assert.assertEquals(pool.getPooled(), 3);
+            output2.reset();
+            Assert.assertEquals(pool.getPooled(), 5);
+            output2.write(7);
+            Assert.assertEquals(output2.getBuffers()[0].get(), 7);
+        }
+    }
+
+    @Test
+    public void testByteBufferPool() {
+        final ByteBufferPool pool = new ByteBufferPool(64, true, 1);
+        final ByteBuffer buf1 = pool.acquire();
+        final ByteBuffer buf2 = pool.acquire();
+        Assert.assertTrue(buf1.isDirect());
+        Assert.assertEquals(buf1.capacity(), 64);
+        buf1.put((byte)1);
+        pool.release(buf1);
+        pool.release(buf2);
+        Assert.assertEquals(pool.getPooled(), 1);
+        final ByteBuffer buf3 = pool.acquire();
+        Assert.assertSame(buf3, buf1);
+        Assert.assertEquals(buf3.position(), 0);
+        Assert.assertEquals(buf3.limit(), 64);
+        try {
+            pool.release(ByteBuffer.allocate(64));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -10,7 +10,10 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.dellroad.stuff.test.TestSupport;
 import org.testng.annotations.Test;
@@ -65,6 +68,200 @@ public class StreamsTest extends TestSupport implements ReadCallback {
             assert Arrays.equals(dataIn[i], dataOut[i]);
     }
 
+    @Test
+    public void testBulkReadWrite() throws Exception {
+        this.testBulkReadWrite(NestedStreamFraming.ESCAPED);
+        this.testBulkReadWrite(NestedStreamFraming.CHUNKED);
+    }
+
+    private void testBulkReadWrite(NestedStreamFraming framing) throws Exception {
+
+        // Write streams using a mix of single byte and bulk writes
+        final byte[][] dataIn = new byte[20][];
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final OutputStreamWriter streamWriter = new OutputStreamWriter(buf, framing);
+        for (int i = 0; i < dataIn.length; i++) {
+            dataIn[i] = new byte[this.random.nextInt(20000)];
+            this.random.nextBytes(dataIn[i]);
+            streamWriter.start();
+            for (int off = 0; off < dataIn[i].length; ) {
+                if (this.random.nextInt(5) == 0) {
+                    streamWriter.write(dataIn[i][off++]);
+                    continue;
+                }
+                final int len = Math.min(dataIn[i].length - off, this.random.nextInt(3000));
+                streamWriter.write(dataIn[i], off, len);
+                off += len;
+            }
+            streamWriter.stop();
+        }
+        streamWriter.close();
+
+        // Read them back using a mix of single byte reads, bulk reads, skips, and abandoning streams early
+        final InputStreamReader streamReader = new InputStreamReader(new ByteArrayInputStream(buf.toByteArray()), framing);
+        for (int i = 0; i < dataIn.length; i++) {
+            final InputStream is = streamReader.read();
+            assert is != null;
+            final int abandon = this.random.nextInt(4) == 0 ? this.random.nextInt(dataIn[i].length + 1) : -1;
+            int off = 0;
+            while (off != abandon) {
+                final int choice = this.random.nextInt(10);
+                if (choice == 0) {
+                    final long skipped = is.skip(this.random.nextInt(100));
+                    assert off + skipped <= dataIn[i].length;
+                    off += (int)skipped;
+                    continue;
+                }
+                if (choice < 3) {
+                    final int b = is.read();
+                    if (b == -1)
+                        break;
+                    assert b == (dataIn[i][off++] & 0xff);
+                    continue;
+                }
+                final byte[] temp = new byte[this.random.nextInt(5000)];
+                final int r = is.read(temp);
+                if (r == -1)
+                    break;
+                assert r <= temp.length;
+                assert Arrays.equals(Arrays.copyOfRange(temp, 0, r), Arrays.copyOfRange(dataIn[i], off, off + r));
+                off += r;
+            }
+            assert abandon != -1 || off == dataIn[i].length;
+        }
+        assert streamReader.read() == null;
+        streamReader.close();
+    }
+
+    @Test
+    public void testChunkedFraming() throws Exception {
+
+        // Check encoding
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final OutputStreamWriter streamWriter = new OutputStreamWriter(buf, NestedStreamFraming.CHUNKED);
+        streamWriter.start();
+        streamWriter.write(new byte[300]);
+        streamWriter.write(7);
+        streamWriter.flush();
+        streamWriter.stop();
+        streamWriter.start();
+        streamWriter.stop();
+        streamWriter.write(new byte[] { 1, 2, 3 });
+        streamWriter.close();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(new byte[] { (byte)0xad, 0x02 });
+        expected.write(new byte[300]);
+        expected.write(new byte[] { 7, 0, 0, 3, 1, 2, 3, 0 });
+        assert Arrays.equals(buf.toByteArray(), expected.toByteArray());
+
+        // Check decoding, including skipping and abandoning streams
+        final InputStreamReader streamReader = new InputStreamReader(
+          new ByteArrayInputStream(buf.toByteArray()), NestedStreamFraming.CHUNKED);
+        InputStream is = streamReader.read();
+        assert is.skip(299) == 299;
+        assert is.read() == 0;
+        assert is.read() == 7;
+        assert is.read() == -1;
+        is = streamReader.read();
+        assert is.read() == -1;
+        is = streamReader.read();
+        assert is.read() == 1;
+        is = streamReader.read();
+        assert is == null;
+        streamReader.close();
+
+        // Check truncation is detected
+        final byte[] truncated = Arrays.copyOf(buf.toByteArray(), 100);
+        is = new InputStreamReader(new ByteArrayInputStream(truncated), NestedStreamFraming.CHUNKED).read();
+        try {
+            StreamsTest.readAll(is);
+            assert false : "No exception";
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testMultiplexed() throws Exception {
+
+        // Write channels concurrently, with some channel IDs reused
+        final int numChannels = 10;
+        final byte[][] dataIn = new byte[numChannels * 2][];
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final OutputStreamWriter streamWriter = new OutputStreamWriter(buf, NestedStreamFraming.MULTIPLEXED);
+        final Thread[] writers = new Thread[numChannels];
+        for (int i = 0; i < numChannels; i++) {
+            final int channelId = i;
+            writers[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 2; j++) {
+                        final byte[] data = new byte[this.random.nextInt(50000)];
+                        this.random.nextBytes(data);
+                        dataIn[j * numChannels + channelId] = data;
+                        try (OutputStream output = streamWriter.openChannel(channelId)) {
+                            for (int off = 0; off < data.length; ) {
+                                final int len = Math.min(data.length - off, this.random.nextInt(20000));
+                                output.write(data, off, len);
+                                off += len;
+                                Thread.yield();
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        streamWriter.close();
+
+        // Read channels concurrently, with a small buffer limit, abandoning some channels early
+        final InputStreamReader streamReader = new InputStreamReader(
+          new ByteArrayInputStream(buf.toByteArray()), NestedStreamFraming.MULTIPLEXED, 1000);
+        final int[] count = new int[numChannels];
+        final ArrayList<Thread> readers = new ArrayList<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        InputStream is;
+        while ((is = streamReader.read()) != null) {
+            final InputStream input = is;
+            final int channelId = ((InputStreamReader.HasChannelId)input).getChannelId();
+            final byte[] expected = dataIn[count[channelId]++ * numChannels + channelId];
+            final boolean abandon = this.random.nextInt(5) == 0;
+            final boolean byteAtATime = this.random.nextBoolean();
+            final Thread reader = new Thread(() -> {
+                try (InputStream in = input) {
+                    if (abandon) {
+                        in.read(new byte[this.random.nextInt(1000)]);
+                        return;
+                    }
+                    final byte[] actual;
+                    if (byteAtATime) {
+                        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        for (int b; (b = in.read()) != -1; )
+                            bytes.write(b);
+                        actual = bytes.toByteArray();
+                    } else
+                        actual = StreamsTest.readAll(in);
+                    if (!Arrays.equals(actual, expected))
+                        throw new AssertionError("wrong data in channel " + channelId);
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (Thread reader : readers)
+            reader.join();
+        streamReader.close();
+        if (error.get() != null)
+            throw new AssertionError("reader failed", error.get());
+        for (int i = 0; i < numChannels; i++)
+            assert count[i] == 2;
+    }
+
     @Override
     public void readFrom(InputStream input) throws IOException {
         this.data = StreamsTest.readAll(input);
@@ -5,6 +5,7 @@
 
 package org.dellroad.stuff.util;
 
+import java.time.Duration;
 import java.util.ArrayList;
 
 import org.dellroad.stuff.test.TestSupport;
@@ -84,6 +85,76 @@ public class AveragerTest extends TestSupport {
         }
     }
 
+    @Test
+    public void testConcurrent() throws Exception {
+        final ConcurrentAverager actual = new ConcurrentAverager();
+        final double[][] values = new double[8][10000];
+        final Averager expected = new Averager();
+        for (double[] array : values) {
+            for (int i = 0; i < array.length; i++) {
+                array[i] = (float)(this.random.nextGaussian() * 100);
+                expected.addValue(array[i]);
+            }
+        }
+        final Thread[] threads = new Thread[values.length];
+        for (int i = 0; i < threads.length; i++) {
+            final double[] array = values[i];
+            threads[i] = new Thread(() -> {
+                for (double value : array)
+                    actual.addValue(value);
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        this.verify(actual.snapshot(), expected);
+        this.verify(actual.snapshotAndReset(), expected);
+        Assert.assertEquals(actual.size(), 0);
+        actual.add(expected);
+        this.verify(actual.snapshot(), expected);
+    }
+
+    @Test
+    public void testWindowed() throws Exception {
+        final long[] now = new long[] { -12345 };
+        final WindowedAverager actual = new WindowedAverager(Duration.ofNanos(1000), 10, () -> now[0]);
+        final ArrayList<long[]> history = new ArrayList<>();          // (time, value) pairs
+        for (int i = 0; i < 5000; i++) {
+            now[0] += this.random.nextInt(this.random.nextInt(20) == 0 ? 2000 : 20);
+            final long value = this.random.nextInt(1000);
+            actual.addValue(value);
+            history.add(new long[] { now[0], value });
+
+            // Data points within the most recent 9 slices must be included; those older than 10 slices must not
+            final long currentSlice = Math.floorDiv(now[0], 100);
+            final Averager expected = new Averager();
+            for (long[] pair : history) {
+                if (Math.floorDiv(pair[0], 100) > currentSlice - 10)
+                    expected.addValue(pair[1]);
+            }
+            this.verify(actual.snapshot(), expected);
+        }
+        actual.reset();
+        Assert.assertTrue(actual.snapshot().isEmpty());
+    }
+
+    @Test
+    public void testExponential() throws Exception {
+        final ExponentialAverager averager = ExponentialAverager.withHalfLife(10);
+        Assert.assertEquals(averager.getAlpha(), 1 - Math.pow(0.5, 0.1), 1e-12);
+        Assert.assertFalse(averager.getAverage().isPresent());
+        averager.addValue(100);
+        Assert.assertEquals(averager.getAverage().getAsDouble(), 100.0, 0.0);
+        Assert.assertEquals(averager.getVariance().getAsDouble(), 0.0, 0.0);
+
+        // After a level shift, the average should converge to the new level and the variance should decay
+        for (int i = 0; i < 200; i++)
+            averager.addValue(i % 2 == 0 ? 9 : 11);
+        Assert.assertEquals(averager.getAverage().getAsDouble(), 10.0, 0.1);
+        Assert.assertEquals(averager.getStandardDeviation().getAsDouble(), 1.0, 0.1);
+        Assert.assertEquals(averager.size(), 201);
+    }
+
     private void verify(Averager actual, Averager expect) {
         Assert.assertEquals(!actual.isEmpty(), !expect.isEmpty());
         Assert.assertEquals(actual.size(), expect.size());
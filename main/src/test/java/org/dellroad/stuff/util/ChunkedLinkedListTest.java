@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.ListIterator;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ChunkedLinkedListTest extends TestSupport {
+
+    @Test
+    public void testChunkedLinkedList() throws Exception {
+
+        final ChunkedLinkedList<Integer> actual = new ChunkedLinkedList<>();
+        final ArrayList<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            final Integer value = this.random.nextInt(100) == 0 ? null : this.random.nextInt(1000);
+            final int size = expected.size();
+            final int action = this.random.nextInt(100);
+            Object actualResult = null;
+            Object expectedResult = null;
+            if (action < 1) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 15) {
+                actual.addFirst(value);
+                expected.add(0, value);
+            } else if (action < 30) {
+                actual.addLast(value);
+                expected.add(value);
+            } else if (action < 40) {
+                actualResult = actual.poll();
+                expectedResult = size > 0 ? expected.remove(0) : null;
+            } else if (action < 45) {
+                if (size > 0) {
+                    actualResult = actual.removeLast();
+                    expectedResult = expected.remove(size - 1);
+                }
+            } else if (action < 60) {
+                final int index = this.random.nextInt(size + 1);
+                actual.add(index, value);
+                expected.add(index, value);
+            } else if (action < 70) {
+                if (size > 0) {
+                    final int index = this.random.nextInt(size);
+                    actualResult = actual.remove(index);
+                    expectedResult = expected.remove(index);
+                }
+            } else if (action < 80) {
+                if (size > 0) {
+                    final int index = this.random.nextInt(size);
+                    actualResult = actual.get(index);
+                    expectedResult = expected.get(index);
+                    Assert.assertEquals(actual.set(index, value), expected.set(index, value));
+                }
+            } else if (action < 85) {
+                actualResult = actual.indexOf(value);
+                expectedResult = expected.indexOf(value);
+                Assert.assertEquals(actual.lastIndexOf(value), expected.lastIndexOf(value));
+            } else {
+                this.iterate(actual.listIterator(this.random.nextInt(size + 1)), expected);
+            }
+            Assert.assertEquals(actualResult, expectedResult);
+            Assert.assertEquals(actual.size(), expected.size());
+            Assert.assertEquals(actual, expected);
+            Assert.assertEquals(new ArrayList<>(actual), expected);
+        }
+
+        // Clone and serialize
+        final ChunkedLinkedList<Integer> clone = actual.clone();
+        Assert.assertEquals(clone, expected);
+        clone.addFirst(123);
+        Assert.assertEquals(actual, expected);
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(buf)) {
+            output.writeObject(actual);
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+            Assert.assertEquals(input.readObject(), expected);
+        }
+    }
+
+    // Apply random list iterator operations to both lists in parallel
+    private void iterate(ListIterator<Integer> actual, ArrayList<Integer> list) {
+        final ListIterator<Integer> expected = list.listIterator(actual.nextIndex());
+        boolean moved = false;
+        for (int i = this.random.nextInt(200); i > 0; i--) {
+            final int action = this.random.nextInt(10);
+            Assert.assertEquals(actual.nextIndex(), expected.nextIndex());
+            if (action < 3) {
+                if (expected.hasNext()) {
+                    Assert.assertTrue(actual.hasNext());
+                    Assert.assertEquals(actual.next(), expected.next());
+                    moved = true;
+                } else
+                    Assert.assertFalse(actual.hasNext());
+            } else if (action < 5) {
+                if (expected.hasPrevious()) {
+                    Assert.assertTrue(actual.hasPrevious());
+                    Assert.assertEquals(actual.previous(), expected.previous());
+                    moved = true;
+                } else
+                    Assert.assertFalse(actual.hasPrevious());
+            } else if (action < 7) {
+                if (moved) {
+                    actual.remove();
+                    expected.remove();
+                    moved = false;
+                }
+            } else if (action < 8) {
+                if (moved) {
+                    final Integer value = this.random.nextInt(1000);
+                    actual.set(value);
+                    expected.set(value);
+                }
+            } else {
+                final Integer value = this.random.nextInt(1000);
+                actual.add(value);
+                expected.add(value);
+                moved = false;
+            }
+        }
+    }
+}
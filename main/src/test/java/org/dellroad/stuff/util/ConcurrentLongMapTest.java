@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ConcurrentLongMapTest extends TestSupport {
+
+    @Test
+    public void testConcurrentLongMap() throws Exception {
+
+        final ConcurrentLongMap<Integer> actual = new ConcurrentLongMap<>(0, 4);
+        final HashMap<Long, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 20000; i++) {
+            final long id = this.random.nextInt(500) - 250;
+            final int action = this.random.nextInt(100);
+            final Integer value = this.random.nextInt(4);
+            Object actualResult = null;
+            Object expectedResult = null;
+            if (action < 2) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 5) {
+                final Iterator<Map.Entry<Long, Integer>> iter = actual.entrySet().iterator();
+                while (iter.hasNext()) {
+                    final Map.Entry<Long, Integer> entry = iter.next();
+                    if (this.random.nextInt(10) == 0) {
+                        iter.remove();
+                        expected.remove(entry.getKey());
+                    }
+                }
+            } else if (action < 35) {
+                actualResult = actual.put(id, value);
+                expectedResult = expected.put(id, value);
+            } else if (action < 45) {
+                actualResult = actual.putIfAbsent(id, value);
+                expectedResult = expected.putIfAbsent(id, value);
+            } else if (action < 55) {
+                actualResult = actual.merge(id, value, Integer::sum);
+                expectedResult = expected.merge(id, value, Integer::sum);
+            } else if (action < 60) {
+                actualResult = actual.computeIfAbsent(id, key -> value);
+                expectedResult = expected.computeIfAbsent(id, key -> value);
+            } else if (action < 65) {
+                final Integer newValue = value + 1;
+                actualResult = actual.replace(id, value, newValue);
+                expectedResult = expected.replace(id, value, newValue);
+            } else if (action < 85) {
+                actualResult = actual.remove(id);
+                expectedResult = expected.remove(id);
+            } else {
+                actualResult = actual.get(id);
+                expectedResult = expected.get(id);
+            }
+            Assert.assertEquals(actualResult, expectedResult);
+            Assert.assertEquals(actual.size(), expected.size());
+        }
+        Assert.assertEquals(actual, expected);
+        Assert.assertEquals(actual.hashCode(), expected.hashCode());
+    }
+
+    @Test
+    public void testConcurrentMerge() throws Exception {
+        final ConcurrentLongMap<Integer> map = new ConcurrentLongMap<>();
+        final ConcurrentHashMap<Long, AtomicInteger> created = new ConcurrentHashMap<>();
+        final int numThreads = 8;
+        final int numKeys = 1000;
+        final int rounds = 20;
+        final Integer one = 1;
+
+        // Worker threads check their own results; Future.get() rethrows any failure here on the main thread
+        final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            final ArrayList<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(() -> {
+                    for (int round = 0; round < rounds; round++) {
+                        for (long key = 1; key <= numKeys; key++) {
+                            map.merge(key * 1024, one, Integer::sum);
+                            map.computeIfAbsent(-key, k -> {
+                                created.computeIfAbsent(k, k2 -> new AtomicInteger()).incrementAndGet();
+                                return (int)k;
+                            });
+                            Assert.assertNotNull(map.get(key * 1024));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        for (long key = 1; key <= numKeys; key++) {
+            Assert.assertEquals(map.get(key * 1024), (Integer)(numThreads * rounds));
+            Assert.assertEquals(created.get(-key).get(), 1);
+        }
+        Assert.assertEquals(map.size(), numKeys * 2);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LongCacheTest extends TestSupport {
+
+    @Test
+    public void testLongCache() throws Exception {
+        final int maxSize = 1 + this.random.nextInt(100);
+        final LongCache<String> cache = new LongCache<>(maxSize);
+        final HashMap<Long, String> backing = new HashMap<>();
+        long hits = 0;
+        long misses = 0;
+        for (int i = 0; i < 10000; i++) {
+            final long key = this.random.nextInt(200) - 10;
+            final String value = String.valueOf(this.random.nextInt());
+            if (this.random.nextInt(3) == 0) {
+                cache.put(key, value);
+                backing.put(key, value);
+            } else if (this.random.nextInt(20) == 0) {
+                cache.remove(key);
+                backing.remove(key);
+            } else {
+                final String actual = cache.get(key);
+                if (actual != null) {
+                    Assert.assertEquals(actual, backing.get(key));
+                    hits++;
+                } else
+                    misses++;
+            }
+            Assert.assertTrue(cache.size() <= maxSize);
+            cache.forEachEntry((k, v) -> Assert.assertEquals(v, backing.get(k)));
+        }
+        Assert.assertEquals(cache.getHitCount(), hits);
+        Assert.assertEquals(cache.getMissCount(), misses);
+        cache.resetCounters();
+        Assert.assertEquals(cache.getHitCount(), 0);
+        cache.clear();
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertNull(cache.get(0));
+    }
+
+    @Test
+    public void testClock() throws Exception {
+        final LongCache<String> cache = new LongCache<>(10);
+        for (long key = 0; key < 10; key++)
+            cache.put(key, "v" + key);
+        Assert.assertEquals(cache.size(), 10);
+
+        // Touch some entries; the untouched ones should get evicted first
+        for (long key = 0; key < 10; key += 2)
+            Assert.assertEquals(cache.get(key), "v" + key);
+        for (long key = 10; key < 15; key++)
+            cache.put(key, "v" + key);
+        Assert.assertEquals(cache.getEvictionCount(), 5);
+        for (long key = 0; key < 10; key++)
+            Assert.assertEquals(cache.containsKey(key), key % 2 == 0, "key " + key);
+    }
+
+    @Test
+    public void testWeightAndExpiry() throws Exception {
+        final AtomicLong now = new AtomicLong(this.random.nextLong());
+        final LongCache<String> cache = new LongCache<>(100, 10, String::length, Duration.ofNanos(1000), now::get);
+
+        cache.put(1, "aaaa");
+        cache.put(2, "bbbb");
+        Assert.assertEquals(cache.getTotalWeight(), 8);
+        cache.put(3, "cccc");
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertEquals(cache.getTotalWeight(), 8);
+        Assert.assertEquals(cache.getEvictionCount(), 1);
+        cache.put(4, "this value is too heavy");
+        Assert.assertFalse(cache.containsKey(4));
+
+        // Expire
+        now.addAndGet(999);
+        Assert.assertEquals(cache.get(3), "cccc");
+        cache.put(2, "bb");
+        now.addAndGet(1);
+        Assert.assertNull(cache.get(3));
+        Assert.assertEquals(cache.get(2), "bb");
+        Assert.assertEquals(cache.computeIfAbsent(5, key -> "loaded"), "loaded");
+        Assert.assertEquals(cache.get(5), "loaded");
+        now.addAndGet(1000);
+        Assert.assertFalse(cache.containsKey(2));
+        Assert.assertFalse(cache.containsKey(5));
+        Assert.assertEquals(cache.size(), 0);
+        Assert.assertEquals(cache.getTotalWeight(), 0);
+    }
+}
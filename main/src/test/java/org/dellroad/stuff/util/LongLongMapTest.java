@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class LongLongMapTest extends TestSupport {
+
+    @Test
+    public void testLongLongMap() throws Exception {
+
+        final LongLongMap actual = new LongLongMap();
+        final HashMap<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            final long id = this.random.nextInt(200) - 100;
+            final int action = this.random.nextInt(100);
+            final long value = this.random.nextInt(4);
+            long expectedResult = 0;
+            long actualResult = 0;
+            if (action < 3) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 40) {
+                actualResult = actual.put(id, value);
+                expectedResult = this.unbox(expected.put(id, value));
+            } else if (action < 60) {
+                actualResult = actual.addTo(id, value);
+                expectedResult = this.unbox(expected.merge(id, value, Long::sum) - value);
+            } else if (action < 85) {
+                actualResult = actual.remove(id);
+                expectedResult = this.unbox(expected.remove(id));
+            } else if (action < 90) {
+                actualResult = actual.getOrDefault(id, -1);
+                expectedResult = expected.getOrDefault(id, -1L);
+            } else {
+                actualResult = actual.containsKey(id) ? 1 : 0;
+                expectedResult = expected.containsKey(id) ? 1 : 0;
+            }
+            Assert.assertEquals(actual.size(), expected.size());
+            for (Map.Entry<Long, Long> entry : expected.entrySet())
+                Assert.assertEquals(actual.get(entry.getKey()), (long)entry.getValue());
+            Assert.assertEquals(actualResult, expectedResult,
+              "wrong result: actual=" + actual.debugDump() + " expected=" + expected);
+        }
+
+        // Check clone() and equals()
+        final LongLongMap clone = actual.clone();
+        Assert.assertEquals(clone, actual);
+        Assert.assertEquals(clone.hashCode(), actual.hashCode());
+        clone.addTo(12345, 1);
+        Assert.assertNotEquals(clone, actual);
+    }
+
+    @Test
+    public void testLongIntMap() throws Exception {
+        final LongIntMap map = new LongIntMap();
+        for (int i = 1; i <= 1000; i++)
+            map.addTo(i * 1024L, i);
+        for (int i = 1; i <= 1000; i += 2)
+            Assert.assertEquals(map.remove(i * 1024L), i);
+        Assert.assertEquals(map.size(), 500);
+        for (int i = 1; i <= 1000; i++)
+            Assert.assertEquals(map.getOrDefault(i * 1024L, -1), (i & 1) != 0 ? -1 : i);
+    }
+
+    @Test
+    public void testLongDoubleMap() throws Exception {
+        final LongDoubleMap map = new LongDoubleMap();
+        map.put(1, Double.NaN);
+        map.addTo(2, 0.5);
+        map.addTo(2, 0.25);
+        Assert.assertTrue(map.containsValue(Double.NaN));
+        Assert.assertEquals(map.get(2), 0.75, 0.0);
+        Assert.assertEquals(map.clone(), map);
+    }
+
+    private long unbox(Long value) {
+        return value != null ? value : 0;
+    }
+}
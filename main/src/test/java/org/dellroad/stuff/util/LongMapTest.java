@@ -7,10 +7,17 @@ package org.dellroad.stuff.util;
 
 import com.google.common.collect.Iterators;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Spliterator;
 
 import org.dellroad.stuff.test.TestSupport;
 import org.testng.Assert;
@@ -84,6 +91,223 @@ public class LongMapTest extends TestSupport {
         }
     }
 
+    @Test
+    public void testZeroKey() throws Exception {
+        final LongMap<String> actual = new LongMap<>();
+        final HashMap<Long, String> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            final long id = this.random.nextInt(8) - 4;
+            switch (this.random.nextInt(5)) {
+            case 0:
+                Assert.assertEquals(actual.put(id, "v" + i), expected.put(id, "v" + i));
+                break;
+            case 1:
+                Assert.assertEquals(actual.remove(id), expected.remove(id));
+                break;
+            case 2:
+                final Map.Entry<Long, String> entry = actual.removeOne();
+                if (entry != null)
+                    Assert.assertEquals(entry.getValue(), expected.remove(entry.getKey()));
+                else
+                    Assert.assertTrue(expected.isEmpty());
+                break;
+            case 3:
+                for (Iterator<Map.Entry<Long, String>> iter = actual.entrySet().iterator(); iter.hasNext(); ) {
+                    final Map.Entry<Long, String> next = iter.next();
+                    if (this.random.nextBoolean()) {
+                        iter.remove();
+                        expected.remove(next.getKey());
+                    }
+                }
+                break;
+            default:
+                Assert.assertEquals(actual.containsKey(id), expected.containsKey(id));
+                break;
+            }
+            Assert.assertEquals(actual, expected);
+            Assert.assertEquals(actual.size(), expected.size());
+            Assert.assertEquals(actual.hashCode(), expected.hashCode());
+            Assert.assertEquals(actual.keySet().longStream().count(), (long)expected.size());
+        }
+    }
+
+    @Test
+    public void testStridedKeys() throws Exception {
+        final LongMap<Void> map = new LongMap<>();
+        for (long i = 0; i < 10000; i++)
+            map.put(i << 20, null);
+        final String dump = map.debugDump();
+        final String histogram = dump.substring(dump.indexOf('\n') + 1, dump.indexOf('\n', dump.indexOf('\n') + 1));
+        final int max = Integer.parseInt(histogram.replaceAll("^PROBES: max=([0-9]+) .*$", "$1"));
+        Assert.assertTrue(max < 64, "excessive clustering: " + histogram);
+    }
+
+    @Test
+    public void testCursorAndCallbacks() throws Exception {
+        final LongMap<Integer> actual = new LongMap<>();
+        final HashMap<Long, Integer> expected = new HashMap<>();
+        final LongMap<Integer>.Cursor cursor = actual.cursor();
+        for (int i = 0; i < 200; i++) {
+
+            // Add some entries
+            for (int j = this.random.nextInt(50); j > 0; j--) {
+                final long key = this.random.nextInt(1000) - 500;
+                final Integer value = this.random.nextInt(100);
+                actual.put(key, value);
+                expected.put(key, value);
+            }
+
+            // Scan with the cursor, updating and removing some entries
+            cursor.reset();
+            final int size = actual.size();
+            final LongSet seen = new LongSet();
+            while (cursor.advance()) {
+                final long key = cursor.key();
+                Assert.assertTrue(seen.add(key), "key " + key + " visited twice");
+                Assert.assertEquals(cursor.value(), expected.get(key));
+                switch (this.random.nextInt(4)) {
+                case 0:
+                    cursor.remove();
+                    expected.remove(key);
+                    break;
+                case 1:
+                    cursor.setValue(i);
+                    expected.put(key, i);
+                    break;
+                default:
+                    break;
+                }
+            }
+            Assert.assertEquals(seen.size(), size);
+            Assert.assertEquals(actual, expected);
+
+            // Remove some entries by predicate
+            final int modulus = this.random.nextInt(5) + 2;
+            final int size2 = actual.size();
+            final LongSet tested = new LongSet();
+            Assert.assertEquals(actual.removeIf(key -> {
+                Assert.assertTrue(tested.add(key), "key " + key + " tested twice");
+                return key % modulus == 0;
+            }), expected.keySet().removeIf(key -> key % modulus == 0));
+            Assert.assertEquals(tested.size(), size2);
+            Assert.assertEquals(actual, expected);
+
+            // Visit entries and keys
+            final HashMap<Long, Integer> visited = new HashMap<>();
+            actual.forEachEntry(visited::put);
+            Assert.assertEquals(visited, expected);
+            final LongSet keys = new LongSet();
+            actual.forEachKey(keys::add);
+            Assert.assertEquals(keys, expected.keySet());
+        }
+    }
+
+    @Test
+    public void testSpliteratorAfterShrink() throws Exception {
+        final LongMap<Integer> map = new LongMap<>();
+        for (int i = 0; i < 1000; i++)
+            map.put(i, i);
+
+        // Split off the lower halves, keeping spliterators that cover the upper end of the arrays
+        final Spliterator.OfLong keys = map.keySet().spliterator();
+        final Spliterator<Map.Entry<Long, Integer>> entries = map.entrySet().spliterator();
+        final Spliterator<Integer> values = map.values().spliterator();
+        Assert.assertNotNull(keys.trySplit());
+        Assert.assertNotNull(entries.trySplit());
+        Assert.assertNotNull(values.trySplit());
+
+        // Shrink the arrays
+        for (long key = 10; key < 1000; key++)
+            map.remove(key);
+        Assert.assertTrue(map.getKeys().length < 1024);
+
+        // Traversal must fail with ConcurrentModificationException, not ArrayIndexOutOfBoundsException
+        try {
+            keys.tryAdvance((long key) -> { });
+            Assert.fail();
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+        try {
+            keys.forEachRemaining((long key) -> { });
+            Assert.fail();
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+        try {
+            entries.tryAdvance(entry -> { });
+            Assert.fail();
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+        try {
+            values.tryAdvance(value -> { });
+            Assert.fail();
+        } catch (ConcurrentModificationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFreeze() throws Exception {
+        final LongMap<String> map = new LongMap<>();
+        for (int i = 0; i < 1000; i++) {
+            final long key = this.random.nextInt(5000) - 2500;
+            map.put(key, this.random.nextBoolean() ? "v" + key : null);
+        }
+        final FrozenLongMap<String> frozen = map.freeze();
+        Assert.assertEquals(frozen, map);
+        Assert.assertEquals(map, frozen);
+        Assert.assertEquals(frozen.hashCode(), map.hashCode());
+        Assert.assertEquals(frozen.keySet(), map.keySet());
+        for (long key = -2600; key < 2600; key++) {
+            Assert.assertEquals(frozen.containsKey(key), map.containsKey(key));
+            Assert.assertEquals(frozen.get(key), map.get(key));
+        }
+        final long[] sortedKeys = map.keySet().toLongArray();
+        Arrays.sort(sortedKeys);
+        Assert.assertEquals(frozen.keySet().toLongArray(), sortedKeys);
+        map.put(9999, "new");
+        Assert.assertFalse(frozen.containsKey(9999));
+        try {
+            frozen.put(1L, "foo");
+            assert false;
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(new FrozenLongMap<>(frozen), frozen);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final LongMap<String> map = new LongMap<>(100000);
+        for (int i = 0; i < 1000; i++) {
+            final long key = this.random.nextInt(5000) - 2500 + (this.random.nextBoolean() ? Long.MIN_VALUE : 0);
+            map.put(key, this.random.nextBoolean() ? "v" + key : null);
+        }
+        map.put(0, "zero");
+        map.put(Long.MAX_VALUE, "max");
+        final byte[] bytes = this.serialize(map);
+        Assert.assertTrue(bytes.length < 20000, "serialized length " + bytes.length);
+        final LongMap<?> copy = (LongMap<?>)this.deserialize(bytes);
+        Assert.assertEquals(copy, map);
+        Assert.assertEquals(this.deserialize(this.serialize(new LongMap<Void>())), new LongMap<Void>());
+    }
+
+    private byte[] serialize(Object obj) throws Exception {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(buf)) {
+            output.writeObject(obj);
+        }
+        return buf.toByteArray();
+    }
+
+    private Object deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        }
+    }
+
     @Test
     public void testLongMapIterator() throws Exception {
         final LongMap<String> x = new LongMap<>();
@@ -7,8 +7,15 @@ package org.dellroad.stuff.util;
 
 import com.google.common.collect.Iterators;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.dellroad.stuff.test.TestSupport;
 import org.testng.Assert;
@@ -67,4 +74,68 @@ public class LongSetTest extends TestSupport {
               "wrong result: actual=" + actual.debugDump() + " expected=" + expected);
         }
     }
+
+    @Test
+    public void testParallelStream() throws Exception {
+        final LongSet set = new LongSet();
+        final HashSet<Long> expected = new HashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            final long value = this.random.nextInt(100000) - 50000;
+            set.add(value);
+            expected.add(value);
+        }
+        final long expectedSum = expected.stream().mapToLong(Long::longValue).sum();
+        Assert.assertEquals(set.longStream().parallel().sum(), expectedSum);
+        Assert.assertEquals(set.longStream().count(), (long)expected.size());
+        Assert.assertEquals(set.parallelStream().collect(Collectors.toSet()), expected);
+        Assert.assertTrue(set.spliterator().trySplit() != null);
+
+        final LongMap<Long> map = new LongMap<>();
+        set.forEachLong(value -> map.put(value, Long.valueOf(-value)));
+        Assert.assertEquals(map.values().parallelStream().mapToLong(Long::longValue).sum(), -expectedSum);
+        Assert.assertEquals(map.entrySet().parallelStream().mapToLong(Map.Entry::getKey).sum(), expectedSum);
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        final LongSet set = new LongSet(1000000);
+        for (long value = 1000; value < 2000; value++)
+            set.add(value);
+        set.add(-1);
+        set.add(Long.MIN_VALUE);
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(buf)) {
+            output.writeObject(set);
+        }
+        Assert.assertTrue(buf.size() < 2000, "serialized length " + buf.size());
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+            final LongSet copy = (LongSet)input.readObject();
+            Assert.assertEquals(copy, set);
+            Assert.assertTrue(copy.add(5000));
+        }
+    }
+
+    @Test
+    public void testFreeze() throws Exception {
+        final LongSet set = new LongSet();
+        for (int i = 0; i < 1000; i++)
+            set.add(this.random.nextInt(5000) - 2500);
+        final FrozenLongSet frozen = set.freeze();
+        Assert.assertEquals(frozen, set);
+        Assert.assertEquals(set, frozen);
+        Assert.assertEquals(frozen.hashCode(), set.hashCode());
+        for (long value = -2600; value < 2600; value++)
+            Assert.assertEquals(frozen.contains(value), set.contains(value));
+        final long[] sorted = set.toLongArray();
+        Arrays.sort(sorted);
+        Assert.assertEquals(frozen.toLongArray(), sorted);
+        Assert.assertEquals(frozen.longStream().parallel().sum(), set.longStream().sum());
+        Assert.assertEquals(new FrozenLongSet(new long[] { 3, 1, 3, 2, 1 }).toLongArray(), new long[] { 1, 2, 3 });
+        try {
+            frozen.add(12345L);
+            assert false;
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class OffHeapLongSetTest extends TestSupport {
+
+    @Test
+    public void testOffHeapLongSet() throws Exception {
+
+        final OffHeapLongSet actual = new OffHeapLongSet();
+        final HashSet<Long> expected = new HashSet<>();
+
+        for (int i = 0; i < 5000; i++) {
+            final long id = this.random.nextInt(2000) - 1000;
+            final int action = this.random.nextInt(100);
+            boolean expectedResult = false;
+            boolean actualResult = false;
+            if (action < 2) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 60) {
+                actualResult = actual.add(id);
+                expectedResult = expected.add(id);
+            } else if (action < 85) {
+                actualResult = actual.remove(id);
+                expectedResult = expected.remove(id);
+            } else {
+                actualResult = actual.contains(id);
+                expectedResult = expected.contains(id);
+            }
+            Assert.assertEquals(actual.size(), expected.size());
+            Assert.assertEquals(actualResult, expectedResult,
+              "wrong result: actual=" + actual.debugDump() + " expected=" + expected);
+        }
+        this.check(actual, expected);
+
+        // Save and reopen
+        final File file = File.createTempFile(this.getClass().getSimpleName(), null);
+        try {
+            actual.save(file);
+            final OffHeapLongSet readOnly = OffHeapLongSet.open(file, true);
+            Assert.assertTrue(readOnly.isReadOnly());
+            this.check(readOnly, expected);
+            try {
+                readOnly.add(12345);
+                assert false;
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+            readOnly.close();
+            Assert.assertTrue(readOnly.isClosed());
+            try {
+                readOnly.contains(12345);
+                assert false;
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            readOnly.close();
+            try (OffHeapLongSet copy = OffHeapLongSet.open(file, false)) {
+                for (int i = 1; i <= 10000; i++)
+                    copy.add(i * 1024L);
+                Assert.assertTrue(copy.contains(1024L * 10000));
+            }
+            try (OffHeapLongSet copy = OffHeapLongSet.open(file, true)) {
+                this.check(copy, expected);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testOffHeapLongLongMap() throws Exception {
+
+        final OffHeapLongLongMap actual = new OffHeapLongLongMap();
+        final HashMap<Long, Long> expected = new HashMap<>();
+
+        for (int i = 0; i < 5000; i++) {
+            final long id = this.random.nextInt(200) - 100;
+            final long value = this.random.nextInt(4);
+            final int action = this.random.nextInt(100);
+            if (action < 2) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 40)
+                Assert.assertEquals(actual.put(id, value), this.unbox(expected.put(id, value)));
+            else if (action < 60)
+                Assert.assertEquals(actual.addTo(id, value), this.unbox(expected.merge(id, value, Long::sum) - value));
+            else if (action < 85)
+                Assert.assertEquals(actual.remove(id), this.unbox(expected.remove(id)));
+            else
+                Assert.assertEquals(actual.getOrDefault(id, -1), (long)expected.getOrDefault(id, -1L));
+            Assert.assertEquals(actual.size(), expected.size());
+        }
+
+        // Save and reopen
+        final File file = File.createTempFile(this.getClass().getSimpleName(), null);
+        try {
+            actual.save(file);
+            try (OffHeapLongLongMap copy = OffHeapLongLongMap.open(file, true)) {
+                Assert.assertEquals(copy.size(), expected.size());
+                for (Map.Entry<Long, Long> entry : expected.entrySet())
+                    Assert.assertEquals(copy.get(entry.getKey()), (long)entry.getValue());
+            }
+            actual.close();
+            try {
+                actual.put(1, 2);
+                assert false;
+            } catch (IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        final File file = File.createTempFile(this.getClass().getSimpleName(), null);
+        try {
+            final int length;
+            try (OffHeapLongSet set = new OffHeapLongSet()) {
+                set.add(1);
+                set.add(2);
+                set.add(3);
+                set.save(file);
+                length = (int)((file.length() - OffHeapLongTable.HEADER_SIZE) / 8);
+            }
+
+            // Fill every slot with a key, leaving the header size unchanged
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                for (int slot = 0; slot < length; slot++) {
+                    raf.seek(OffHeapLongTable.HEADER_SIZE + slot * 8L);
+                    raf.writeLong(Long.reverseBytes(slot + 1));
+                }
+            }
+            try {
+                OffHeapLongSet.open(file, true).close();
+                Assert.fail();
+            } catch (IOException e) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void check(OffHeapLongSet actual, HashSet<Long> expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        final long[] values = actual.toLongArray();
+        Arrays.sort(values);
+        Assert.assertEquals(values, expected.stream().mapToLong(Long::longValue).sorted().toArray());
+    }
+
+    private long unbox(Long value) {
+        return value != null ? value : 0;
+    }
+}
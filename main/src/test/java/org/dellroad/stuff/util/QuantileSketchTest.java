@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.util.Arrays;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class QuantileSketchTest extends TestSupport {
+
+    private static final double[] QUANTILES = new double[] { 0.0, 0.001, 0.1, 0.5, 0.9, 0.99, 0.999, 1.0 };
+
+    @Test
+    public void testQuantiles() throws Exception {
+        for (int precisionBits : new int[] { 3, 7, 12 }) {
+            final QuantileSketch sketch = new QuantileSketch(precisionBits);
+            final double[] values = new double[1 + this.random.nextInt(20000)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = this.random.nextInt(10) == 0 ? 0.0 : Math.exp(this.random.nextGaussian() * 5);
+                sketch.addValue(values[i]);
+            }
+            Arrays.sort(values);
+            Assert.assertEquals(sketch.size(), values.length);
+            final double tolerance = Math.scalb(1.0, -precisionBits);
+            for (double quantile : QUANTILES) {
+                final double expected = values[(int)Math.max(0, Math.ceil(quantile * values.length) - 1)];
+                final double actual = sketch.getQuantile(quantile).getAsDouble();
+                Assert.assertTrue(Math.abs(actual - expected) <= expected * tolerance,
+                  "quantile " + quantile + ": expected " + expected + " but got " + actual);
+            }
+            Assert.assertEquals(sketch.getMin().getAsDouble(), values[0]);
+            Assert.assertEquals(sketch.getMax().getAsDouble(), values[values.length - 1]);
+        }
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        final QuantileSketch expected = new QuantileSketch();
+        final QuantileSketch[] parts = new QuantileSketch[] { new QuantileSketch(), new QuantileSketch(), new QuantileSketch() };
+        for (int i = 0; i < 10000; i++) {
+            final double value = Math.exp(this.random.nextGaussian() * 10);
+            expected.addValue(value);
+            parts[this.random.nextInt(parts.length)].addValue(value);
+        }
+        final QuantileSketch actual = parts[0].add(parts[1]).add(parts[2]);
+        Assert.assertEquals(actual, expected);
+        Assert.assertEquals(actual.hashCode(), expected.hashCode());
+        Assert.assertEquals(actual.toString(), expected.toString());
+        Assert.assertEquals(parts[0].add(new QuantileSketch()), parts[0]);
+        Assert.assertEquals(new QuantileSketch().add(parts[0]), parts[0]);
+        actual.reset();
+        Assert.assertTrue(actual.isEmpty());
+        Assert.assertFalse(actual.getQuantile(0.5).isPresent());
+    }
+
+    @Test
+    public void testUnderflow() throws Exception {
+        for (int precisionBits : new int[] { 7, 14, 20 }) {
+            final QuantileSketch sketch = new QuantileSketch(precisionBits);
+            sketch.addValue(1.0);
+            sketch.addValue(0.0);
+            sketch.addValue(1e-300);
+            sketch.addValue(Double.MIN_VALUE);
+            sketch.addValue(2.0);
+            Assert.assertTrue(sketch.getAllocatedBuckets() <= 2 << precisionBits,
+              "counts array too large: " + sketch.getAllocatedBuckets());
+            Assert.assertEquals(sketch.size(), 5);
+            Assert.assertEquals(sketch.getQuantile(0.5).getAsDouble(), 0.0);
+            Assert.assertEquals(sketch.getQuantile(0.8).getAsDouble(), 1.0, Math.scalb(1.0, -precisionBits));
+            Assert.assertEquals(sketch.getMin().getAsDouble(), 0.0);
+
+            // Only underflow
+            final QuantileSketch zeros = new QuantileSketch(precisionBits);
+            zeros.addValue(0.0, 3);
+            Assert.assertEquals(zeros.getQuantile(0.5).getAsDouble(), 0.0);
+            final QuantileSketch sum = zeros.add(sketch);
+            Assert.assertEquals(sum.size(), 8);
+            Assert.assertEquals(sum.getQuantile(0.75).getAsDouble(), 0.0);
+            Assert.assertEquals(sum, sketch.add(zeros));
+        }
+        final QuantileSketch sketch = new QuantileSketch(7, 1e-3);
+        sketch.addValue(1e-4);
+        sketch.addValue(1e-2);
+        Assert.assertEquals(sketch.getQuantile(0.5).getAsDouble(), 1e-4);
+        try {
+            sketch.add(new QuantileSketch(7));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2022 Archie L. Cobbs. All rights reserved.
+ */
+
+package org.dellroad.stuff.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import org.dellroad.stuff.test.TestSupport;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RoaringLongSetTest extends TestSupport {
+
+    private static final long[] HIGHS = new long[] { Long.MIN_VALUE >> 16, -1, 0, 1, 7 };
+
+    @Test
+    public void testRoaringLongSet() throws Exception {
+
+        final RoaringLongSet actual = new RoaringLongSet();
+        final TreeSet<Long> expected = new TreeSet<>();
+
+        for (int i = 0; i < 30000; i++) {
+            final long value = this.randomValue(this.random.nextInt(3) == 0 ? 0xffff : 0x1fff);
+            final int action = this.random.nextInt(1000);
+            boolean expectedResult = false;
+            boolean actualResult = false;
+            if (action < 2) {
+                actual.clear();
+                expected.clear();
+            } else if (action < 5) {
+                final long last = value + this.random.nextInt(100000);
+                actualResult = actual.addRange(value, last);
+                for (long v = value; v <= last; v++)
+                    expectedResult |= expected.add(v);
+            } else if (action < 8) {
+                actual.runOptimize();
+            } else if (action < 10) {
+                final Long last = expected.pollLast();
+                Assert.assertEquals(actual.removeOne(), last != null ? (long)last : 0L);
+            } else if (action < 550) {
+                actualResult = actual.add(value);
+                expectedResult = expected.add(value);
+            } else if (action < 850) {
+                actualResult = actual.remove(value);
+                expectedResult = expected.remove(value);
+            } else {
+                actualResult = actual.contains(value);
+                expectedResult = expected.contains(value);
+            }
+            Assert.assertEquals(actualResult, expectedResult, "wrong result: actual=" + actual.debugDump());
+            Assert.assertEquals(actual.size(), expected.size());
+            if (i % 1000 == 0)
+                this.check(actual, expected);
+        }
+        this.check(actual, expected);
+
+        // Check iterator removal
+        final Iterator<Long> i1 = actual.iterator();
+        final Iterator<Long> i2 = expected.iterator();
+        while (i2.hasNext()) {
+            Assert.assertEquals(i1.next(), i2.next());
+            if (this.random.nextBoolean()) {
+                i1.remove();
+                i2.remove();
+            }
+        }
+        Assert.assertFalse(i1.hasNext());
+        this.check(actual, expected);
+
+        // Check clone()
+        final RoaringLongSet clone = actual.clone();
+        Assert.assertEquals(clone, actual);
+        clone.add(12345678);
+        this.check(actual, expected);
+    }
+
+    @Test
+    public void testSetAlgebra() throws Exception {
+        for (int repeat = 0; repeat < 20; repeat++) {
+            final RoaringLongSet set1 = new RoaringLongSet();
+            final RoaringLongSet set2 = new RoaringLongSet();
+            final TreeSet<Long> expected1 = new TreeSet<>();
+            final TreeSet<Long> expected2 = new TreeSet<>();
+            this.populate(set1, expected1);
+            this.populate(set2, expected2);
+
+            final RoaringLongSet union = set1.clone();
+            final TreeSet<Long> expectedUnion = new TreeSet<>(expected1);
+            Assert.assertEquals(union.union(set2), expectedUnion.addAll(expected2));
+            this.check(union, expectedUnion);
+
+            final RoaringLongSet intersect = set1.clone();
+            final TreeSet<Long> expectedIntersect = new TreeSet<>(expected1);
+            Assert.assertEquals(intersect.intersect(set2), expectedIntersect.retainAll(expected2));
+            this.check(intersect, expectedIntersect);
+
+            final RoaringLongSet andNot = set1.clone();
+            final TreeSet<Long> expectedAndNot = new TreeSet<>(expected1);
+            Assert.assertEquals(andNot.removeAll(set2), expectedAndNot.removeAll(expected2));
+            this.check(andNot, expectedAndNot);
+
+            // Operands must not have changed
+            this.check(set1, expected1);
+            this.check(set2, expected2);
+        }
+    }
+
+    @Test
+    public void testSmallContainerAlgebra() throws Exception {
+        for (int repeat = 0; repeat < 500; repeat++) {
+            final RoaringLongSet set1 = new RoaringLongSet();
+            final RoaringLongSet set2 = new RoaringLongSet();
+            final TreeSet<Long> expected1 = new TreeSet<>();
+            final TreeSet<Long> expected2 = new TreeSet<>();
+            this.populateSmall(set1, expected1);
+            this.populateSmall(set2, expected2);
+
+            final RoaringLongSet union = set1.clone();
+            final TreeSet<Long> expectedUnion = new TreeSet<>(expected1);
+            Assert.assertEquals(union.union(set2), expectedUnion.addAll(expected2));
+            this.check(union, expectedUnion);
+
+            final RoaringLongSet intersect = set1.clone();
+            final TreeSet<Long> expectedIntersect = new TreeSet<>(expected1);
+            Assert.assertEquals(intersect.intersect(set2), expectedIntersect.retainAll(expected2));
+            this.check(intersect, expectedIntersect);
+
+            final RoaringLongSet andNot = set1.clone();
+            final TreeSet<Long> expectedAndNot = new TreeSet<>(expected1);
+            Assert.assertEquals(andNot.removeAll(set2), expectedAndNot.removeAll(expected2));
+            this.check(andNot, expectedAndNot);
+
+            // Operands must not have changed
+            this.check(set1, expected1);
+            this.check(set2, expected2);
+        }
+    }
+
+    // Populate a few values and short ranges within a single container, so it ends up an array or run container
+    private void populateSmall(RoaringLongSet set, TreeSet<Long> expected) {
+        final int numRanges = this.random.nextInt(3);
+        for (int i = 0; i < numRanges; i++) {
+            final long first = this.random.nextInt(200);
+            final long last = first + this.random.nextInt(20);
+            set.addRange(first, last);
+            for (long value = first; value <= last; value++)
+                expected.add(value);
+        }
+        final int numValues = this.random.nextInt(10);
+        for (int i = 0; i < numValues; i++) {
+            final long value = this.random.nextInt(200);
+            set.add(value);
+            expected.add(value);
+        }
+        if (this.random.nextBoolean())
+            set.runOptimize();
+    }
+
+    private void populate(RoaringLongSet set, TreeSet<Long> expected) {
+        final int numRanges = this.random.nextInt(6);
+        for (int i = 0; i < numRanges; i++) {
+            final long first = this.randomValue(0xffff);
+            final long last = first + this.random.nextInt(this.random.nextBoolean() ? 100 : 200000);
+            set.addRange(first, last);
+            for (long value = first; value <= last; value++)
+                expected.add(value);
+        }
+        final int numValues = this.random.nextInt(this.random.nextBoolean() ? 100 : 20000);
+        for (int i = 0; i < numValues; i++) {
+            final long value = this.randomValue(0xffff);
+            set.add(value);
+            expected.add(value);
+        }
+        if (this.random.nextBoolean())
+            set.runOptimize();
+    }
+
+    private void check(RoaringLongSet actual, TreeSet<Long> expected) {
+        Assert.assertEquals(actual.cardinality(), expected.size());
+        Assert.assertEquals(actual.toLongArray(), expected.stream().mapToLong(Long::longValue).toArray());
+        Assert.assertEquals(actual, expected);
+        Assert.assertEquals(actual.hashCode(), expected.hashCode());
+        final ArrayList<Long> list = new ArrayList<>(expected);
+        for (int i = 0; i < 50 && !list.isEmpty(); i++) {
+            final int index = this.random.nextInt(list.size());
+            final long value = list.get(index);
+            Assert.assertEquals(actual.select(index), value);
+            Assert.assertEquals(actual.rank(value), index + 1);
+            Assert.assertEquals(actual.rank(value - 1), expected.headSet(value, false).size());
+        }
+    }
+
+    private long randomValue(int lowMask) {
+        return (HIGHS[this.random.nextInt(HIGHS.length)] << 16) | (this.random.nextInt() & lowMask);
+    }
+}